@@ -0,0 +1,294 @@
+/*
+ * Ascii.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Static helpers for reading ASCII text directly out of byte arrays.
+ * None of these functions create objects on the normal path, which lets
+ * the sockets decode messages without building intermediate Strings.
+ */
+public class Ascii {
+
+    /** Largest fixed point value parsed without risk of overflow. */
+    private static final long MaxExactFixed = Long.MAX_VALUE / 10 - 10;
+
+    /** Largest value that can be scaled up by each power of ten. */
+    private static final long[] MaxFixed = new long[19];
+
+    static {
+        for ( int i = 0; i < MaxFixed.length; i++ )
+            MaxFixed[i] = ( Long.MAX_VALUE - 1 ) / FixedPoint.Pow10(i);
+    }
+
+    /**
+     * Static class, never instantiated.
+     */
+    private Ascii () {
+    }
+
+    /**
+     * Converts a String constant to the bytes compared by Matches.
+     *
+     * @param s The literal
+     * @return The ASCII bytes of the literal
+     */
+    public static byte[] Bytes ( String s ) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Converts a range of a buffer to a String.  Only used on first
+     * sight of a value that has to be kept, such as a new symbol.
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the text
+     * @param len Length of the text
+     * @return The text as a String
+     */
+    public static String ToString ( byte[] buf, int off, int len ) {
+        return new String(buf, off, len, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compares a range of a buffer to a literal.
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the text
+     * @param len Length of the text
+     * @param literal Bytes to compare against
+     * @return True if the range holds exactly the literal
+     */
+    public static boolean Matches ( byte[] buf, int off, int len, byte[] literal ) {
+        if ( len != literal.length )
+            return false;
+
+        for ( int i = 0; i < len; i++ ) {
+            if ( buf[off + i] != literal[i] )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares a range of a buffer to an upper case literal, ignoring
+     * the case of ASCII letters in the buffer.
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the text
+     * @param len Length of the text
+     * @param upper Upper case bytes to compare against
+     * @return True if the range holds the literal in any case
+     */
+    public static boolean MatchesIgnoreCase ( byte[] buf, int off, int len, byte[] upper ) {
+        if ( len != upper.length )
+            return false;
+
+        for ( int i = 0; i < len; i++ ) {
+            if ( ToUpper(buf[off + i]) != upper[i] )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes a range of a buffer as if its ASCII letters were upper
+     * case, so the same text in any case has the same hash.
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the text
+     * @param len Length of the text
+     * @return The hash value
+     */
+    public static int HashIgnoreCase ( byte[] buf, int off, int len ) {
+        int h = 0;
+        for ( int i = 0; i < len; i++ )
+            h = 31 * h + ( ToUpper(buf[off + i]) & 0xFF );
+        return h;
+    }
+
+    /**
+     * @param b A byte of text
+     * @return The byte, upper cased if it is an ASCII letter
+     */
+    private static byte ToUpper ( byte b ) {
+        return ( b >= 'a' && b <= 'z' ) ? (byte)( b - 32 ) : b;
+    }
+
+    /**
+     * Hashes a range of a buffer.  Gives the same value as
+     * String.hashCode() would for the String made by ToString.
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the text
+     * @param len Length of the text
+     * @return The hash value
+     */
+    public static int Hash ( byte[] buf, int off, int len ) {
+        int h = 0;
+        for ( int i = 0; i < len; i++ )
+            h = 31 * h + ( buf[off + i] & 0xFF );
+        return h;
+    }
+
+    /**
+     * Finds the next occurrence of a byte.
+     *
+     * @param buf Buffer to search
+     * @param from First position to check
+     * @param to Position after the last one to check
+     * @param b The byte to find
+     * @return Position of the byte, or to if it was not found
+     */
+    public static int IndexOf ( byte[] buf, int from, int to, byte b ) {
+        while ( from < to && buf[from] != b )
+            from++;
+        return from;
+    }
+
+    /**
+     * Parses a decimal number such as "-123.45" into a whole number of
+     * units of some number of decimal places, so "1.5" is 150 units of
+     * two places.  Digits past the last place round the result half
+     * away from zero.  Anything else, such as exponents, falls back to
+     * BigDecimal.
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the number
+     * @param len Length of the number
+     * @param decimals Decimal places of the units, at most eighteen
+     * @return The parsed value in units
+     * @throws NumberFormatException If the text is not a number
+     */
+    public static long ParseFixed ( byte[] buf, int off, int len, int decimals )
+        throws NumberFormatException
+    {
+        int end = off + len;
+        int i = off;
+        boolean negative = false;
+        boolean digits = false;
+        long value = 0L;
+        int scale = -1;
+        boolean roundUp = false;
+
+        if ( i < end && ( buf[i] == '-' || buf[i] == '+' ) ) {
+            negative = buf[i] == '-';
+            i++;
+        }
+
+        for ( ; i < end; i++ ) {
+            byte b = buf[i];
+            if ( b >= '0' && b <= '9' ) {
+                digits = true;
+                if ( scale < decimals ) {
+                    value = value * 10 + ( b - '0' );
+                    if ( scale >= 0 )
+                        scale++;
+                    if ( value >= MaxExactFixed )
+                        return SlowParseFixed(buf, off, len, decimals);
+                } else if ( scale == decimals ) {
+                    // first digit past the last place decides the rounding
+                    roundUp = b >= '5';
+                    scale++;
+                }
+            } else if ( b == '.' && scale < 0 ) {
+                scale = 0;
+            } else {
+                return SlowParseFixed(buf, off, len, decimals);
+            }
+        }
+
+        if ( !digits )
+            throw new NumberFormatException("Invalid number");
+
+        int missing = decimals - Math.max(scale, 0);
+        if ( missing > 0 ) {
+            if ( value > MaxFixed[missing] )
+                return SlowParseFixed(buf, off, len, decimals);
+            value *= FixedPoint.Pow10(missing);
+        }
+        if ( roundUp )
+            value++;
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a whole number such as "12345".
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the number
+     * @param len Length of the number
+     * @return The parsed value
+     * @throws NumberFormatException If the text is not a whole number
+     */
+    public static long ParseLong ( byte[] buf, int off, int len )
+        throws NumberFormatException
+    {
+        int end = off + len;
+        int i = off;
+        boolean negative = false;
+        long value = 0L;
+
+        if ( i < end && buf[i] == '-' ) {
+            negative = true;
+            i++;
+        }
+
+        if ( i == end || end - i > 18 )
+            throw new NumberFormatException("Invalid whole number");
+
+        for ( ; i < end; i++ ) {
+            byte b = buf[i];
+            if ( b < '0' || b > '9' )
+                throw new NumberFormatException("Invalid whole number");
+            value = value * 10 + ( b - '0' );
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Fallback for fixed point numbers the fast path does not handle.
+     *
+     * @param buf Buffer holding the text
+     * @param off Start of the number
+     * @param len Length of the number
+     * @param decimals Decimal places of the units
+     * @return The parsed value in units
+     * @throws NumberFormatException If the text is not a number
+     */
+    private static long SlowParseFixed ( byte[] buf, int off, int len, int decimals )
+        throws NumberFormatException
+    {
+        try {
+            return new BigDecimal(ToString(buf, off, len))
+                .movePointRight(decimals)
+                .setScale(0, RoundingMode.HALF_UP)
+                .longValueExact();
+        } catch ( ArithmeticException e ) {
+            throw new NumberFormatException("Number out of range");
+        }
+    }
+}
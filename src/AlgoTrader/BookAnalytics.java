@@ -0,0 +1,265 @@
+/*
+ * BookAnalytics.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Values derived from a symbol's book that strategies keep asking for:
+ * mid, spread, microprice, cumulative depth, and the average price of
+ * sweeping a quantity off one side.  The Trader recomputes them once
+ * each time the book changes, on the trading thread, so every order on
+ * the symbol reads the same cached values instead of walking the book
+ * itself.  Only the top ANALYTICSDEPTH levels of each side are covered.
+ *
+ * Strategies only read; Update is left to the Trader.
+ */
+public class BookAnalytics {
+
+    /** The symbol these analytics belong to. */
+    private int SymbolID;
+
+    /** Sequence number of the book they were computed from. */
+    private long Sequence;
+
+    /** Whether both sides of the book have a price. */
+    private boolean TwoSided;
+
+    /** Average of best bid and best offer. */
+    private double Mid;
+
+    /** Best offer less best bid. */
+    private double Spread;
+
+    /** Mid weighted towards the side with less quantity. */
+    private double MicroPrice;
+
+    /** Total bid quantity at and above each level. */
+    private double[] BidCumQuantity;
+
+    /** Total bid notional at and above each level. */
+    private double[] BidCumNotional;
+
+    /** Number of valid entries in the bid arrays. */
+    private int BidLevels;
+
+    /** Total offer quantity at and below each level. */
+    private double[] OfferCumQuantity;
+
+    /** Total offer notional at and below each level. */
+    private double[] OfferCumNotional;
+
+    /** Number of valid entries in the offer arrays. */
+    private int OfferLevels;
+
+    /**
+     * @param id Identifier of the symbol
+     * @param depth Number of levels per side to cover
+     */
+    public BookAnalytics ( int id, int depth ) {
+        SymbolID = id;
+        Sequence = -1L;
+        BidCumQuantity = new double[depth];
+        BidCumNotional = new double[depth];
+        OfferCumQuantity = new double[depth];
+        OfferCumNotional = new double[depth];
+        Clear();
+    }
+
+    /**
+     * Resets every value to empty.
+     */
+    private void Clear () {
+        TwoSided = false;
+        Mid = Spread = MicroPrice = Double.NaN;
+        BidLevels = OfferLevels = 0;
+    }
+
+    /**
+     * Recomputes every value from a book.  A stale book leaves the
+     * analytics empty.  Called by the Trader only.
+     *
+     * @param book The trading thread's copy of the book
+     */
+    void Update ( OrderBook book ) {
+        Clear();
+        Sequence = book.getSequence();
+
+        if ( book.isStale() )
+            return;
+
+        double qty = 0D, notional = 0D;
+        int levels = Math.min(book.getBidDepth(), BidCumQuantity.length);
+        for ( int i = 0; i < levels; i++ ) {
+            qty += book.getBidQuantity(i);
+            notional += book.getBidQuantity(i) * book.getBidPrice(i);
+            BidCumQuantity[i] = qty;
+            BidCumNotional[i] = notional;
+        }
+        BidLevels = levels;
+
+        qty = notional = 0D;
+        levels = Math.min(book.getOfferDepth(), OfferCumQuantity.length);
+        for ( int i = 0; i < levels; i++ ) {
+            qty += book.getOfferQuantity(i);
+            notional += book.getOfferQuantity(i) * book.getOfferPrice(i);
+            OfferCumQuantity[i] = qty;
+            OfferCumNotional[i] = notional;
+        }
+        OfferLevels = levels;
+
+        if ( BidLevels > 0 && OfferLevels > 0 ) {
+            double bid = book.getBidPrice(0), offer = book.getOfferPrice(0);
+            double bidQty = book.getBidQuantity(0), offerQty = book.getOfferQuantity(0);
+
+            TwoSided = true;
+            Mid = ( bid + offer ) / 2D;
+            Spread = offer - bid;
+            MicroPrice = ( bidQty + offerQty ) > 0D ?
+                ( bid * offerQty + offer * bidQty ) / ( bidQty + offerQty ) : Mid;
+        }
+    }
+
+    /**
+     * Average price of filling a quantity from the top of one side,
+     * found by binary search of the cumulative quantities.
+     *
+     * @param cumQty Cumulative quantities of the side
+     * @param cumNotional Cumulative notionals of the side
+     * @param levels Number of valid levels
+     * @param qty Quantity to fill
+     * @return The average price, or NaN if the covered levels do not
+     * hold enough quantity
+     */
+    private static double SweepPrice ( double[] cumQty, double[] cumNotional,
+                                       int levels, double qty ) {
+        if ( !( qty > 0D ) || levels == 0 || cumQty[levels - 1] < qty )
+            return Double.NaN;
+
+        // first level whose cumulative quantity reaches qty
+        int lo = 0, hi = levels - 1;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( cumQty[mid] < qty )
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        double filledQty = lo > 0 ? cumQty[lo - 1] : 0D;
+        double filledNotional = lo > 0 ? cumNotional[lo - 1] : 0D;
+        double levelQty = cumQty[lo] - filledQty;
+        double levelPx = ( cumNotional[lo] - filledNotional ) / levelQty;
+
+        return ( filledNotional + ( qty - filledQty ) * levelPx ) / qty;
+    }
+
+    /**
+     * @return Identifier of the symbol
+     */
+    public int getSymbolID () {
+        return SymbolID;
+    }
+
+    /**
+     * @return Sequence number of the book the values were computed from
+     */
+    public long getSequence () {
+        return Sequence;
+    }
+
+    /**
+     * @return True if both sides of the book have a price
+     */
+    public boolean isTwoSided () {
+        return TwoSided;
+    }
+
+    /**
+     * @return Average of best bid and best offer, NaN if not two sided
+     */
+    public double getMid () {
+        return Mid;
+    }
+
+    /**
+     * @return Best offer less best bid, NaN if not two sided
+     */
+    public double getSpread () {
+        return Spread;
+    }
+
+    /**
+     * @return Best bid and offer weighted by the opposite side's
+     * quantity, NaN if not two sided
+     */
+    public double getMicroPrice () {
+        return MicroPrice;
+    }
+
+    /**
+     * @return Number of bid levels covered
+     */
+    public int getBidLevels () {
+        return BidLevels;
+    }
+
+    /**
+     * @return Number of offer levels covered
+     */
+    public int getOfferLevels () {
+        return OfferLevels;
+    }
+
+    /**
+     * @param levels Number of levels from the best bid
+     * @return Total bid quantity in those levels, as far as covered
+     */
+    public double getBidDepth ( int levels ) {
+        levels = Math.min(levels, BidLevels);
+        return levels > 0 ? BidCumQuantity[levels - 1] : 0D;
+    }
+
+    /**
+     * @param levels Number of levels from the best offer
+     * @return Total offer quantity in those levels, as far as covered
+     */
+    public double getOfferDepth ( int levels ) {
+        levels = Math.min(levels, OfferLevels);
+        return levels > 0 ? OfferCumQuantity[levels - 1] : 0D;
+    }
+
+    /**
+     * @param qty Quantity to sell into the bids
+     * @return Average price of selling qty, or NaN if the covered bids
+     * are not deep enough
+     */
+    public double getBidVWAP ( double qty ) {
+        return SweepPrice(BidCumQuantity, BidCumNotional, BidLevels, qty);
+    }
+
+    /**
+     * @param qty Quantity to buy from the offers
+     * @return Average price of buying qty, or NaN if the covered offers
+     * are not deep enough
+     */
+    public double getOfferVWAP ( double qty ) {
+        return SweepPrice(OfferCumQuantity, OfferCumNotional, OfferLevels, qty);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Clock.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Wall clock time with nanosecond resolution.  The epoch offset is
+ * taken once at startup and added to System.nanoTime(), which is much
+ * cheaper than building an Instant for every timestamp.
+ */
+public class Clock {
+
+    /** Nanoseconds since the epoch at System.nanoTime() zero. */
+    private static final long EpochOffset =
+        System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    /**
+     * Static class, never instantiated.
+     */
+    private Clock () {
+    }
+
+    /**
+     * @return Nanoseconds since the epoch
+     */
+    public static long EpochNanos () {
+        return EpochOffset + System.nanoTime();
+    }
+
+    /**
+     * @param nanoTime A System.nanoTime() value
+     * @return Nanoseconds since the epoch at that time
+     */
+    public static long EpochNanos ( long nanoTime ) {
+        return EpochOffset + nanoTime;
+    }
+}
@@ -135,6 +135,129 @@ public class Configuration {
          
          if ( !ConfigValues.containsKey( "STRATEGIES" ) )
             ConfigValues.put( "STRATEGIES" , "" );
+
+         if ( !ConfigValues.containsKey( "ORDERPOOL" ) )
+            ConfigValues.put( "ORDERPOOL" , "1024" );
+
+         if ( !ConfigValues.containsKey( "ORDERJOURNAL" ) )
+            ConfigValues.put( "ORDERJOURNAL" , "" );
+
+         if ( !ConfigValues.containsKey( "ORDERJOURNALMB" ) )
+            ConfigValues.put( "ORDERJOURNALMB" , "64" );
+
+         if ( !ConfigValues.containsKey( "ORDERJOURNALSYNC" ) )
+            ConfigValues.put( "ORDERJOURNALSYNC" , "INTERVAL" );
+
+         if ( !ConfigValues.containsKey( "ORDERJOURNALSYNCMS" ) )
+            ConfigValues.put( "ORDERJOURNALSYNCMS" , "100" );
+
+         if ( !ConfigValues.containsKey( "ORDERSNAPSHOTSECS" ) )
+            ConfigValues.put( "ORDERSNAPSHOTSECS" , "300" );
+
+         if ( !ConfigValues.containsKey( "RISKMAXORDERQTY" ) )
+            ConfigValues.put( "RISKMAXORDERQTY" , "0" );
+
+         if ( !ConfigValues.containsKey( "RISKMAXOPENQTY" ) )
+            ConfigValues.put( "RISKMAXOPENQTY" , "0" );
+
+         if ( !ConfigValues.containsKey( "RISKMAXORDERNOTIONAL" ) )
+            ConfigValues.put( "RISKMAXORDERNOTIONAL" , "0" );
+
+         if ( !ConfigValues.containsKey( "RISKMAXOPENNOTIONAL" ) )
+            ConfigValues.put( "RISKMAXOPENNOTIONAL" , "0" );
+
+         if ( !ConfigValues.containsKey( "RISKMAXMSGRATE" ) )
+            ConfigValues.put( "RISKMAXMSGRATE" , "0" );
+
+         if ( !ConfigValues.containsKey( "RISKPRICECOLLAR" ) )
+            ConfigValues.put( "RISKPRICECOLLAR" , "0" );
+
+         if ( !ConfigValues.containsKey( "MAXSYMBOLS" ) )
+            ConfigValues.put( "MAXSYMBOLS" , "4096" );
+
+         if ( !ConfigValues.containsKey( "PRICEDECIMALS" ) )
+            ConfigValues.put( "PRICEDECIMALS" , "4" );
+
+         if ( !ConfigValues.containsKey( "QUANTITYDECIMALS" ) )
+            ConfigValues.put( "QUANTITYDECIMALS" , "2" );
+
+         if ( !ConfigValues.containsKey( "PRICESHARDS" ) )
+            ConfigValues.put( "PRICESHARDS" , "1" );
+
+         if ( !ConfigValues.containsKey( "ANALYTICSDEPTH" ) )
+            ConfigValues.put( "ANALYTICSDEPTH" , "10" );
+
+         if ( !ConfigValues.containsKey( "OUTBOUNDQUEUE" ) )
+            ConfigValues.put( "OUTBOUNDQUEUE" , "4096" );
+
+         if ( !ConfigValues.containsKey( "WRITEBATCHBYTES" ) )
+            ConfigValues.put( "WRITEBATCHBYTES" , "65536" );
+
+         if ( !ConfigValues.containsKey( "WRITEBATCHMICROS" ) )
+            ConfigValues.put( "WRITEBATCHMICROS" , "0" );
+
+         if ( !ConfigValues.containsKey( "PRICEBINARY" ) )
+            ConfigValues.put( "PRICEBINARY" , "false" );
+
+         if ( !ConfigValues.containsKey( "PRICERECORD" ) )
+            ConfigValues.put( "PRICERECORD" , "" );
+
+         if ( !ConfigValues.containsKey( "PRICERECORDMB" ) )
+            ConfigValues.put( "PRICERECORDMB" , "256" );
+
+         if ( !ConfigValues.containsKey( "PRICEREPLAY" ) )
+            ConfigValues.put( "PRICEREPLAY" , "" );
+
+         if ( !ConfigValues.containsKey( "PRICEREPLAYSPEED" ) )
+            ConfigValues.put( "PRICEREPLAYSPEED" , "1" );
+
+         if ( !ConfigValues.containsKey( "TIMERTICKMS" ) )
+            ConfigValues.put( "TIMERTICKMS" , "10" );
+
+         if ( !ConfigValues.containsKey( "TIMERWHEELSLOTS" ) )
+            ConfigValues.put( "TIMERWHEELSLOTS" , "4096" );
+
+         if ( !ConfigValues.containsKey( "TWAPSECS" ) )
+            ConfigValues.put( "TWAPSECS" , "3600" );
+
+         if ( !ConfigValues.containsKey( "TWAPSLICES" ) )
+            ConfigValues.put( "TWAPSLICES" , "60" );
+
+         if ( !ConfigValues.containsKey( "VWAPSLICESECS" ) )
+            ConfigValues.put( "VWAPSLICESECS" , "60" );
+
+         if ( !ConfigValues.containsKey( "VOLUMEPROFILES" ) )
+            ConfigValues.put( "VOLUMEPROFILES" , "" );
+
+         if ( !ConfigValues.containsKey( "STRATEGYCLASS.TWAP" ) )
+            ConfigValues.put( "STRATEGYCLASS.TWAP" , "AlgoTrader.TwapStrategy" );
+
+         if ( !ConfigValues.containsKey( "STRATEGYCLASS.VWAP" ) )
+            ConfigValues.put( "STRATEGYCLASS.VWAP" , "AlgoTrader.VwapStrategy" );
+
+         if ( !ConfigValues.containsKey( "STRATEGYCLASS.POV" ) )
+            ConfigValues.put( "STRATEGYCLASS.POV" , "AlgoTrader.PovStrategy" );
+
+         if ( !ConfigValues.containsKey( "POVPERCENT" ) )
+            ConfigValues.put( "POVPERCENT" , "10" );
+
+         if ( !ConfigValues.containsKey( "EVENTLOOPS" ) )
+            ConfigValues.put( "EVENTLOOPS" , "1" );
+
+         if ( !ConfigValues.containsKey( "EVENTQUEUE" ) )
+            ConfigValues.put( "EVENTQUEUE" , "4096" );
+
+         if ( !ConfigValues.containsKey( "SLICERETRYMS" ) )
+            ConfigValues.put( "SLICERETRYMS" , "100" );
+
+         if ( !ConfigValues.containsKey( "TRADEDVOLUME" ) )
+            ConfigValues.put( "TRADEDVOLUME" , "REMOVED" );
+
+         if ( !ConfigValues.containsKey( "RISKMAXSYMBOLNOTIONAL" ) )
+            ConfigValues.put( "RISKMAXSYMBOLNOTIONAL" , "0" );
+
+         if ( !ConfigValues.containsKey( "RISKMAXCUSTOMERQTY" ) )
+            ConfigValues.put( "RISKMAXCUSTOMERQTY" , "0" );
      }
     
     /**
@@ -0,0 +1,213 @@
+/*
+ * ConflationQueue.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the latest book of each symbol from the price feed to the
+ * trading thread.  The feed publishes a copy of a book and marks the
+ * symbol dirty; a symbol that is already dirty is not queued again, so
+ * a burst of updates collapses into one and the consumer always reads
+ * the newest book.  Each symbol is in the queue at most once, which
+ * bounds the queue at MAXSYMBOLS entries.
+ * Neither side ever locks or waits for the other.  Each symbol has
+ * three books: the feed writes the one it owns, then swaps it with the
+ * shared one through an atomic index, and the consumer swaps its own
+ * with the shared one before reading it.  The book being written is
+ * never the one being read.
+ */
+public class ConflationQueue {
+
+    /** Three copies of each book, indexed by SymbolID, created when
+     *  the symbol is first published. */
+    private OrderBook[][] Buffers;
+
+    /** Copy the feed writes next, by SymbolID.  Feed thread only. */
+    private int[] Back;
+
+    /** Copy swapped between the feed and the consumer, by SymbolID,
+     *  with Fresh set if the consumer has not taken it. */
+    private AtomicIntegerArray Middle;
+
+    /** Copy the consumer last took, by SymbolID.  Consumer thread
+     *  only. */
+    private int[] Front;
+
+    /** Set in Middle while it holds a book the consumer has not taken. */
+    private static final int Fresh = 4;
+
+    /** One per symbol, set while the symbol is waiting in the queue. */
+    private AtomicIntegerArray Dirty;
+
+    /** Ring of dirty SymbolIDs, -1 marking an empty slot. */
+    private AtomicIntegerArray Ring;
+
+    /** Ring index mask. */
+    private int Mask;
+
+    /** Next slot for a producer to claim. */
+    private AtomicLong Tail;
+
+    /** Next slot for the consumer to read.  Consumer thread only. */
+    private long Head;
+
+    /** The consumer thread while it is parked, otherwise null. */
+    private volatile Thread Waiter;
+
+    /** Number of books published. */
+    private AtomicLong PublishCount;
+
+    /** Number of published books that replaced one the consumer had
+     *  not yet read. */
+    private AtomicLong ConflatedCount;
+
+    /**
+     * @param capacity Maximum number of symbols, normally MAXSYMBOLS
+     */
+    public ConflationQueue ( int capacity ) {
+        int size = 1;
+        while ( size < capacity )
+            size <<= 1;
+
+        Buffers = new OrderBook[capacity][];
+        Back = new int[capacity];
+        Middle = new AtomicIntegerArray(capacity);
+        Front = new int[capacity];
+        for ( int i = 0; i < capacity; i++ ) {
+            Back[i] = 0;
+            Middle.set(i, 1);
+            Front[i] = 2;
+        }
+        Dirty = new AtomicIntegerArray(capacity);
+        Ring = new AtomicIntegerArray(size);
+        Mask = size - 1;
+        for ( int i = 0; i < size; i++ )
+            Ring.set(i, -1);
+
+        Tail = new AtomicLong(0L);
+        Head = 0L;
+        Waiter = null;
+        PublishCount = new AtomicLong(0L);
+        ConflatedCount = new AtomicLong(0L);
+    }
+
+    /**
+     * Publishes the current state of a book.  Called by the thread
+     * that owns the book after every change.
+     *
+     * @param book The book that changed
+     */
+    public void Publish ( OrderBook book ) {
+        int id = book.getSymbolID();
+        OrderBook[] copies = Buffers[id];
+
+        if ( copies == null ) {
+            copies = new OrderBook[3];
+            for ( int i = 0; i < copies.length; i++ )
+                copies[i] = new OrderBook(id, book.getSymbol());
+            Buffers[id] = copies;
+        }
+
+        copies[Back[id]].CopyFrom(book);
+        Back[id] = Middle.getAndSet(id, Back[id] | Fresh) & ~Fresh;
+        PublishCount.incrementAndGet();
+
+        if ( !Dirty.compareAndSet(id, 0, 1) ) {
+            // consumer has not read the previous copy yet
+            ConflatedCount.incrementAndGet();
+            return;
+        }
+
+        long slot = Tail.getAndIncrement();
+        Ring.set((int)( slot & Mask ), id);
+
+        Thread w = Waiter;
+        if ( w != null )
+            LockSupport.unpark(w);
+    }
+
+    /**
+     * Takes the next dirty symbol.  Consumer thread only.
+     *
+     * @return SymbolID, or -1 if no symbol is dirty
+     */
+    public int Poll () {
+        int i = (int)( Head & Mask );
+        int id = Ring.get(i);
+
+        if ( id < 0 )
+            return -1;
+
+        Ring.set(i, -1);
+        Head++;
+        return id;
+    }
+
+    /**
+     * Copies the latest published book of a symbol returned by Poll.
+     * The symbol is marked clean first, so an update published during
+     * the copy queues the symbol again rather than being lost.  If that
+     * update was already taken by an earlier Read, view is left as it
+     * is, since it already holds it.
+     *
+     * @param id SymbolID returned by Poll
+     * @param view The consumer's book to copy into
+     */
+    public void Read ( int id, OrderBook view ) {
+        Dirty.set(id, 0);
+        if ( ( Middle.get(id) & Fresh ) == 0 )
+            return;
+
+        Front[id] = Middle.getAndSet(id, Front[id]) & ~Fresh;
+        view.CopyFrom(Buffers[id][Front[id]]);
+    }
+
+    /**
+     * Parks the consumer until a symbol is published or the timeout
+     * passes.  Consumer thread only.
+     *
+     * @param nanos Longest time to wait
+     */
+    public void Await ( long nanos ) {
+        Waiter = Thread.currentThread();
+        if ( Ring.get((int)( Head & Mask )) < 0 )
+            LockSupport.parkNanos(this, nanos);
+        Waiter = null;
+    }
+
+    /**
+     * @return Number of books published
+     */
+    public long getPublishCount () {
+        return PublishCount.get();
+    }
+
+    /**
+     * @return Number of published books the consumer skipped because a
+     * newer one replaced them first
+     */
+    public long getConflatedCount () {
+        return ConflatedCount.get();
+    }
+}
@@ -0,0 +1,543 @@
+/*
+ * EventLoop.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * One of the EVENTLOOPS trading threads.  Every symbol is pinned to one
+ * loop by its SymbolID, and everything strategies know about a symbol,
+ * its book, its analytics, its orders and their timers, is kept and
+ * touched by that loop's thread alone, so strategies need no locks and
+ * the loops run in parallel.  Work reaches a loop three ways:
+ * <pre>
+ *   order events   from the order entry thread, copied through an
+ *                  OrderEventQueue
+ *   books          from the price connections, through a ConflationQueue
+ *   timers         set by strategies on the loop's TimingWheel
+ * </pre>
+ * The loop keeps its own copy of each open order of its symbols,
+ * updated from the events, and calls the TradingStrategy named by the
+ * order's Strategy.  Order events are applied before books, so a
+ * strategy always sees its orders as current as the book.  A changed
+ * book is only shown to the orders its strategies subscribed to it in
+ * OrderSubscriptions, so its cost follows the orders on the symbol
+ * rather than all the loop's orders.
+ *
+ * A child order is not sent by the loop.  It is reported back to the
+ * order entry thread, which journals how far the order's strategy has
+ * got and only then sends the child, so an order recovered after a
+ * restart carries on from there without sending any child twice.
+ *
+ * @see TradingStrategy
+ */
+public class EventLoop implements Runnable {
+
+    /** Longest time the loop parks while idle. */
+    private static final long IdleParkNanos = 1000000L;
+
+    /** Thread object for this class. */
+    private Thread T;
+
+    /** Label of the Thread. */
+    private String ThreadName;
+
+    /** The Trader the loop belongs to. */
+    private Trader trader;
+
+    /** Order events from the order entry thread. */
+    private OrderEventQueue Events;
+
+    /** Strategy progress for the order entry thread to journal. */
+    private OrderEventQueue Progress;
+
+    /** Reports waiting for room in Progress, oldest first, as copies
+     *  of their orders taken from Pool. */
+    private ArrayDeque<Order> Unreported;
+
+    /** Changed books of this loop's symbols. */
+    private ConflationQueue Conflator;
+
+    /** The loop's copy of each book, indexed by SymbolID. */
+    private OrderBook[] BookViews;
+
+    /** Derived values of each book in BookViews, indexed by SymbolID. */
+    private BookAnalytics[] Analytics;
+
+    /** Number of levels per side covered by the analytics. */
+    private int AnalyticsDepth;
+
+    /** The loop's copies of the open orders of its symbols. */
+    private OrderBlotter Working;
+
+    /** Reusable copies. */
+    private OrderPool Pool;
+
+    /** Timers of the loop's orders. */
+    private TimingWheel Timers;
+
+    /** Orders to wake when their symbol's book changes. */
+    private OrderSubscriptions Subscriptions;
+
+    /** Strategy instances by the Strategy name they work. */
+    private Map<String, TradingStrategy> Strategies;
+
+    /** The same instances, for telling them of books. */
+    private TradingStrategy[] StrategyList;
+
+    /** Symbol identifiers. */
+    private SymbolRegistry Symbols;
+
+    /** Wait before a child that could not be sent is tried again. */
+    private long SliceRetryNanos;
+
+    /**
+     * @param Name A string identifier for the future Thread
+     * @param tdr The Trader the loop belongs to
+     */
+    public EventLoop ( String Name, Trader tdr ) {
+        Configuration cfg = Configuration.getInstance();
+
+        ThreadName = Name;
+        trader = tdr;
+        Symbols = SymbolRegistry.getInstance();
+        Events = new OrderEventQueue(Math.max(1, cfg.getInt("EVENTQUEUE")));
+        Progress = new OrderEventQueue(Math.max(1, cfg.getInt("EVENTQUEUE")));
+        Unreported = new ArrayDeque<>();
+        Conflator = new ConflationQueue(Symbols.getCapacity());
+        BookViews = new OrderBook[Symbols.getCapacity()];
+        Analytics = new BookAnalytics[Symbols.getCapacity()];
+        AnalyticsDepth = Math.max(1, cfg.getInt("ANALYTICSDEPTH"));
+        Working = new OrderBlotter(cfg.getInt("ORDERPOOL"));
+        Pool = new OrderPool();
+        Timers = new TimingWheel(cfg.getInt("TIMERWHEELSLOTS"), cfg.getInt("TIMERTICKMS"));
+        Subscriptions = new OrderSubscriptions(Symbols.getCapacity());
+        Strategies = new HashMap<>();
+        StrategyList = new TradingStrategy[0];
+        SliceRetryNanos = Math.max(1, cfg.getInt("SLICERETRYMS")) * 1000000L;
+        T = null;
+    }
+
+    /**
+     * Returns the loop a symbol is pinned to.
+     *
+     * @param loops Every loop
+     * @param symbolID Identifier of the symbol
+     * @return The loop that owns the symbol
+     */
+    public static EventLoop Owner ( EventLoop[] loops, int symbolID ) {
+        return loops[symbolID % loops.length];
+    }
+
+    /**
+     * Adds a strategy instance.  Must be called before the loop starts.
+     *
+     * @param name The Strategy of the orders it works
+     * @param s A new instance for this loop
+     */
+    public void AddStrategy ( String name, TradingStrategy s ) {
+        Strategies.put(name, s);
+        StrategyList = Arrays.copyOf(StrategyList, StrategyList.length + 1);
+        StrategyList[StrategyList.length - 1] = s;
+        s.Attach(this);
+    }
+
+    /**
+     * Hands an order event to the loop.  Called by the order entry
+     * thread.
+     *
+     * @param type An OrderEventQueue event type
+     * @param o The order as it is after the event
+     * @param lots Lots of a FILL
+     * @param ticks Price of a FILL in ticks
+     */
+    public void Submit ( int type, Order o, long lots, long ticks ) {
+        Events.Offer(type, o, lots, ticks);
+    }
+
+    /**
+     * The loop.  Parks briefly when a pass finds nothing to do; an
+     * order event or a book wakes it.  This function never exits, which
+     * requires killing AlgoTrader to stop.
+     */
+    public void run () {
+        while ( true ) {
+            if ( !RunOnce(System.nanoTime()) ) {
+                Events.setWaiter(T);
+                if ( Events.isEmpty() )
+                    Conflator.Await(IdleParkNanos);
+                Events.setWaiter(null);
+            }
+        }
+    }
+
+    /**
+     * One pass of the loop.  Hands on progress reports that were
+     * waiting for room, then applies waiting order events, the newest
+     * book of a changed symbol, and any timers that came due.
+     *
+     * @param now System.nanoTime()
+     * @return False if there were no order events or books
+     */
+    boolean RunOnce ( long now ) {
+        boolean busy = false;
+
+        FlushProgress();
+
+        int n;
+        while ( ( n = Events.Poll() ) >= 0 ) {
+            Apply(n, now);
+            Events.Done();
+            busy = true;
+        }
+
+        int id = Conflator.Poll();
+        if ( id >= 0 ) {
+            BookChanged(id, now);
+            busy = true;
+        }
+
+        Order o;
+        while ( ( o = Timers.Expire(now) ) != null ) {
+            if ( o.Worker != null )
+                o.Worker.OnTimer(o, now);
+        }
+
+        return busy;
+    }
+
+    /**
+     * Applies an order event to the loop's copy of the order and tells
+     * its strategy.
+     *
+     * @param n Slot of the event
+     * @param now System.nanoTime()
+     */
+    private void Apply ( int n, long now ) {
+        Order e = Events.getOrder(n);
+        int type = Events.getType(n);
+
+        if ( type == OrderEventQueue.NEW || type == OrderEventQueue.RECOVER ) {
+            Order c = Pool.Acquire();
+            c.CopyFrom(e);
+            if ( !Working.Add(c) ) {
+                Pool.Release(c);
+                return;
+            }
+            c.Worker = Strategies.get(c.getStrategy());
+            if ( c.Worker == null )
+                return;
+            if ( type == OrderEventQueue.NEW )
+                c.Worker.OnNewOrder(c, now);
+            else
+                c.Worker.OnRecover(c, now);
+            return;
+        }
+
+        Order c = Working.Get(e.getOrderID());
+        if ( c == null )
+            return;
+        c.CopyFrom(e);
+
+        switch ( type ) {
+            case OrderEventQueue.AMEND:
+                if ( c.Worker != null )
+                    c.Worker.OnAmend(c, now);
+                break;
+            case OrderEventQueue.CANCEL:
+                if ( c.Worker != null )
+                    c.Worker.OnCancel(c, now);
+                Drop(c);
+                break;
+            case OrderEventQueue.FILL:
+                if ( c.Worker != null )
+                    c.Worker.OnFill(c, Events.getFillLots(n), Events.getFillTicks(n), now);
+                if ( c.getAvailableLots() <= 0L )
+                    Drop(c);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Forgets a closed order.
+     *
+     * @param c The loop's copy of the order
+     */
+    private void Drop ( Order c ) {
+        Timers.Cancel(c);
+        Subscriptions.Unsubscribe(c);
+        Working.Remove(c.getOrderID());
+        Pool.Release(c);
+    }
+
+    /**
+     * Takes the newest book of a symbol, updates its analytics and the
+     * risk reference price, tells the strategies, then wakes the
+     * symbol's subscribed orders.
+     *
+     * @param id SymbolID returned by the ConflationQueue
+     * @param now System.nanoTime()
+     */
+    private void BookChanged ( int id, long now ) {
+        OrderBook view = BookViews[id];
+        BookAnalytics analytics = Analytics[id];
+        if ( view == null ) {
+            view = new OrderBook(id, Symbols.getSymbol(id));
+            analytics = new BookAnalytics(id, AnalyticsDepth);
+            BookViews[id] = view;
+            Analytics[id] = analytics;
+        }
+
+        Conflator.Read(id, view);
+        analytics.Update(view);
+        trader.getRisk().setReferencePrice(id, analytics.getMid());
+
+        for ( TradingStrategy s : StrategyList )
+            s.OnBook(view, analytics, now);
+
+        Order o;
+        Subscriptions.Begin(view);
+        while ( ( o = Subscriptions.Next() ) != null ) {
+            if ( o.Worker != null )
+                o.Worker.OnTick(o, view, analytics, now);
+        }
+    }
+
+    /**
+     * Sends a child order for whatever the children sent so far fall
+     * short of a target.  Executions beyond the children sent count
+     * as sent.  The child is counted as sent once it is reported; the
+     * order entry thread sends it after journaling the report, and
+     * numbers it with the strategy's Children.  A child is not sent
+     * while the order's session is not logged on, and the strategy
+     * should try again after getSliceRetryNanos.
+     *
+     * @param o The loop's copy of the parent order
+     * @param s The strategy's state for the order
+     * @param target Lots the children should add up to
+     * @return False if a child was due but could not be sent
+     */
+    public boolean SliceTo ( Order o, SliceState s, long target ) {
+        if ( s.SlicedLots < o.getCumulativeLots() )
+            s.SlicedLots = o.getCumulativeLots();
+
+        target = Math.min(target, o.getQuantityLots());
+        long lots = target - s.SlicedLots;
+        if ( lots <= 0L )
+            return true;
+
+        OrderSocket os = trader.getOrderSocket();
+        if ( os == null || !os.isLoggedOn(o.getSource()) )
+            return false;
+
+        s.SlicedLots = target;
+        s.Children++;
+        ReportProgress(o, s, lots);
+        return true;
+    }
+
+    /**
+     * Hands the order's progress, and the child it releases, to the
+     * order entry thread.  A report is never dropped: while Progress is
+     * full, or reports are already waiting for it, a copy of the order
+     * waits in Unreported, so reports of an order stay in order.
+     *
+     * @param o The loop's copy of the order
+     * @param s The strategy's state for the order
+     * @param lots Quantity of the child in lots
+     */
+    private void ReportProgress ( Order o, SliceState s, long lots ) {
+        SliceProgress p = o.Progress;
+        p.Start = Clock.EpochNanos(s.Start);
+        p.Slice = s.Slice;
+        p.SliceBase = s.SliceBase;
+        p.SlicedLots = s.SlicedLots;
+        p.Children = s.Children;
+        p.ChildLots = lots;
+
+        if ( Unreported.isEmpty() && Progress.TryOffer(OrderEventQueue.PROGRESS, o, 0L, 0L) ) {
+            Wakeup();
+            return;
+        }
+
+        Order c = Pool.Acquire();
+        c.CopyFrom(o);
+        Unreported.addLast(c);
+    }
+
+    /**
+     * Hands on as many waiting reports as Progress has room for.
+     */
+    private void FlushProgress () {
+        if ( Unreported.isEmpty() )
+            return;
+
+        Order c;
+        while ( ( c = Unreported.peekFirst() ) != null &&
+                Progress.TryOffer(OrderEventQueue.PROGRESS, c, 0L, 0L) ) {
+            Unreported.pollFirst();
+            Pool.Release(c);
+        }
+        Wakeup();
+    }
+
+    /**
+     * Wakes the order entry thread to take the reports.
+     */
+    private void Wakeup () {
+        OrderSocket os = trader.getOrderSocket();
+        if ( os != null )
+            os.Wakeup();
+    }
+
+    /**
+     * Puts the progress journaled for a recovered order back into the
+     * strategy's state for it.  Its Start is moved onto this run's
+     * clock, so a schedule carries on from where it would have been.
+     *
+     * @param o The loop's copy of a recovered order
+     * @param s The strategy's state for the order
+     * @param now Current time
+     * @return False if no progress was journaled for the order
+     */
+    public boolean RestoreProgress ( Order o, SliceState s, long now ) {
+        SliceProgress p = o.Progress;
+        if ( !p.isReported() )
+            return false;
+
+        s.Start = now - ( Clock.EpochNanos(now) - p.Start );
+        s.Slice = p.Slice;
+        s.SliceBase = p.SliceBase;
+        s.SlicedLots = p.SlicedLots;
+        s.Children = p.Children;
+        return true;
+    }
+
+    /**
+     * @return Wait before a child that could not be sent is tried again
+     */
+    public long getSliceRetryNanos () {
+        return SliceRetryNanos;
+    }
+
+    /**
+     * Returns the loop's copy of a book.  Loop thread only.
+     *
+     * @param symbolID Identifier of a symbol the loop owns
+     * @return The book, or null if no market data has been received
+     */
+    public OrderBook getBook ( int symbolID ) {
+        return BookViews[symbolID];
+    }
+
+    /**
+     * Returns the values derived from a book.  Loop thread only.
+     *
+     * @param symbolID Identifier of a symbol the loop owns
+     * @return The analytics, or null if no market data has been received
+     */
+    public BookAnalytics getAnalytics ( int symbolID ) {
+        return Analytics[symbolID];
+    }
+
+    /**
+     * @return The loop's copies of the open orders of its symbols,
+     * loop thread only
+     */
+    public OrderBlotter getOrders () {
+        return Working;
+    }
+
+    /**
+     * @return Timers of the loop's orders, loop thread only
+     */
+    public TimingWheel getTimers () {
+        return Timers;
+    }
+
+    /**
+     * @return Orders to wake when their symbol's book changes, loop
+     * thread only
+     */
+    public OrderSubscriptions getSubscriptions () {
+        return Subscriptions;
+    }
+
+    /**
+     * @return Historical volume curves, each symbol looked up only by
+     * its own loop
+     */
+    public VolumeProfiles getProfiles () {
+        return trader.getProfiles();
+    }
+
+    /**
+     * @return Hand-off of changed books to the loop, for the price
+     * connections to publish to
+     */
+    public ConflationQueue getConflator () {
+        return Conflator;
+    }
+
+    /**
+     * @return Hand-off of order events to the loop
+     */
+    public OrderEventQueue getEvents () {
+        return Events;
+    }
+
+    /**
+     * @return Strategy progress reported by the loop, for the order
+     * entry thread to take
+     */
+    public OrderEventQueue getProgress () {
+        return Progress;
+    }
+
+    /**
+     * @return Number of progress reports waiting for room in Progress,
+     * loop thread only
+     */
+    public int getUnreportedCount () {
+        return Unreported.size();
+    }
+
+    /**
+     * Starts the loop's thread.
+     *
+     * @throws IOException Passthrough from Logger
+     */
+    public void start () throws IOException {
+        if ( T == null ) {
+            try {
+                Logger.getInstance().write("Starting trading thread " + ThreadName);
+            } catch (IOException e) {
+                throw e;
+            }
+
+            T = new Thread( this, ThreadName );
+            T.start();
+        }
+    }
+}
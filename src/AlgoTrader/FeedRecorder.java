@@ -0,0 +1,267 @@
+/*
+ * FeedRecorder.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records every raw message received by a PriceSocket, with its receive
+ * timestamp, to a MappedJournal.  The socket thread only copies the
+ * message into a single-producer/single-consumer ring; the recorder's
+ * own thread moves it into the journal.  If the ring is full the message
+ * is dropped and counted rather than making the socket wait.
+ *
+ * @see FeedReplay
+ */
+public class FeedRecorder implements Runnable {
+
+    /** Journal record type of a text protocol line. */
+    public static final int TextRecord = 1;
+
+    /** Journal record type of a binary protocol frame, without its
+     *  length prefix. */
+    public static final int FrameRecord = 2;
+
+    /** Size of a ring entry header: type, length and timestamp. */
+    private static final int EntryHeader = 16;
+
+    /** Thread object for this class. */
+    private Thread T;
+
+    /** Label of the Thread. */
+    private String ThreadName;
+
+    /** Where messages are written. */
+    private MappedJournal Journal;
+
+    /** Ring of entries waiting to be written. */
+    private byte[] Ring;
+
+    /** Ring index mask. */
+    private int Mask;
+
+    /** Total bytes ever added to the ring.  Written by the socket
+     *  thread only. */
+    private volatile long Tail;
+
+    /** Total bytes ever removed from the ring.  Written by the recorder
+     *  thread only. */
+    private volatile long Head;
+
+    /** Number of messages dropped because the ring was full. */
+    private volatile long DroppedCount;
+
+    /** Number of messages written to the journal.  Messages that were
+     *  queued but failed to write are in neither count. */
+    private volatile long RecordedCount;
+
+    /** Entry header scratch for the socket thread. */
+    private byte[] ProducerHeader;
+
+    /** Entry scratch for the recorder thread. */
+    private byte[] ConsumerEntry;
+
+    /**
+     * Opens the journal.  The recorder does not run until started.
+     *
+     * @param Name A string identifier for the future Thread
+     * @param base Path and file name prefix of the journal segments
+     * @param segmentBytes Size of each journal segment
+     * @param ringBytes Size of the ring, rounded up to a power of two
+     * @throws IOException If the journal cannot be opened
+     */
+    public FeedRecorder ( String Name, String base, int segmentBytes, int ringBytes )
+        throws IOException
+    {
+        int size = 1;
+        while ( size < ringBytes )
+            size <<= 1;
+
+        ThreadName = Name;
+        Journal = new MappedJournal(base, segmentBytes);
+        Ring = new byte[size];
+        Mask = size - 1;
+        Tail = Head = 0L;
+        DroppedCount = RecordedCount = 0L;
+        ProducerHeader = new byte[EntryHeader];
+        ConsumerEntry = new byte[4096];
+        T = null;
+    }
+
+    /**
+     * Queues a message for recording.  Called by the socket thread;
+     * never blocks.
+     *
+     * @param type Journal record type
+     * @param timestamp Receive time in nanoseconds since the epoch
+     * @param buf Buffer holding the message
+     * @param off Start of the message
+     * @param len Length of the message
+     */
+    public void Record ( int type, long timestamp, byte[] buf, int off, int len ) {
+        if ( len <= 0 )
+            return;
+
+        long tail = Tail;
+        int need = EntryHeader + len;
+
+        if ( Ring.length - ( tail - Head ) < need ) {
+            DroppedCount++;
+            return;
+        }
+
+        PutInt(ProducerHeader, 0, type);
+        PutInt(ProducerHeader, 4, len);
+        PutInt(ProducerHeader, 8, (int)( timestamp >>> 32 ));
+        PutInt(ProducerHeader, 12, (int)timestamp);
+
+        Copy(ProducerHeader, 0, tail, EntryHeader);
+        Copy(buf, off, tail + EntryHeader, len);
+
+        // publishing the tail makes the entry visible to the recorder
+        Tail = tail + need;
+    }
+
+    /**
+     * Copies bytes into the ring, wrapping at the end.
+     *
+     * @param src Source buffer
+     * @param off Start in the source
+     * @param at Ring position, before masking
+     * @param len Number of bytes
+     */
+    private void Copy ( byte[] src, int off, long at, int len ) {
+        int pos = (int)( at & Mask );
+        int first = Math.min(len, Ring.length - pos);
+        System.arraycopy(src, off, Ring, pos, first);
+        System.arraycopy(src, off + first, Ring, 0, len - first);
+    }
+
+    /**
+     * Copies bytes out of the ring, wrapping at the end.
+     *
+     * @param at Ring position, before masking
+     * @param dst Destination buffer
+     * @param len Number of bytes
+     */
+    private void CopyOut ( long at, byte[] dst, int len ) {
+        int pos = (int)( at & Mask );
+        int first = Math.min(len, Ring.length - pos);
+        System.arraycopy(Ring, pos, dst, 0, first);
+        System.arraycopy(Ring, 0, dst, first, len - first);
+    }
+
+    /**
+     * Writes a big-endian int into a buffer.
+     */
+    private static void PutInt ( byte[] b, int off, int v ) {
+        b[off]     = (byte)( v >>> 24 );
+        b[off + 1] = (byte)( v >>> 16 );
+        b[off + 2] = (byte)( v >>> 8 );
+        b[off + 3] = (byte)v;
+    }
+
+    /**
+     * Reads a big-endian int from a buffer.
+     */
+    private static int GetInt ( byte[] b, int off ) {
+        return ( ( b[off] & 0xFF ) << 24 ) | ( ( b[off + 1] & 0xFF ) << 16 ) |
+               ( ( b[off + 2] & 0xFF ) << 8 ) | ( b[off + 3] & 0xFF );
+    }
+
+    /**
+     * Moves queued messages into the journal.  Sleeps for a millisecond
+     * when the ring is empty; recording is not latency sensitive.  This
+     * function never exits, which requires killing AlgoTrader to stop.
+     */
+    public void run () {
+        while ( true ) {
+            long head = Head;
+
+            if ( head == Tail ) {
+                LockSupport.parkNanos(1000000L);
+                continue;
+            }
+
+            CopyOut(head, ConsumerEntry, EntryHeader);
+            int type = GetInt(ConsumerEntry, 0);
+            int len = GetInt(ConsumerEntry, 4);
+            long timestamp = ( (long)GetInt(ConsumerEntry, 8) << 32 ) |
+                             ( GetInt(ConsumerEntry, 12) & 0xFFFFFFFFL );
+
+            if ( ConsumerEntry.length < len )
+                ConsumerEntry = new byte[Math.max(len, ConsumerEntry.length * 2)];
+            CopyOut(head + EntryHeader, ConsumerEntry, len);
+
+            // free the ring space before the slower journal write
+            Head = head + EntryHeader + len;
+
+            try {
+                Journal.Append(type, timestamp, ConsumerEntry, 0, len);
+                RecordedCount++;
+            } catch ( IOException e ) {
+                System.err.println("Unable to record market data to " +
+                    Journal.getBaseName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes recorded messages to disk.
+     */
+    public void Force () {
+        Journal.Force();
+    }
+
+    /**
+     * @return Number of messages dropped because the ring was full
+     */
+    public long getDroppedCount () {
+        return DroppedCount;
+    }
+
+    /**
+     * @return Number of messages written to the journal
+     */
+    public long getRecordedCount () {
+        return RecordedCount;
+    }
+
+    /**
+     * Starts the Thread.  Sends a message to Logger to indicate
+     * where the feed is recorded.
+     *
+     * @throws IOException Passthrough from Logger
+     */
+    public void start () throws IOException {
+        if ( T == null ) {
+            try {
+                Logger.getInstance().write("Recording market data to " + Journal.getBaseName());
+            } catch (IOException e) {
+                throw e;
+            }
+
+            T = new Thread( this, ThreadName );
+            T.start();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * FeedReplay.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays market data recorded by a FeedRecorder through the same
+ * PriceParser and MarketDataShard path a live PriceSocket uses, in
+ * place of the price connections.  Messages are paced by their recorded
+ * receive times divided by a speed factor: 1 replays at real speed, 10
+ * at ten times real speed, and 0 as fast as possible.  When the replay
+ * finishes, its throughput is written to the log.
+ *
+ * @see FeedRecorder
+ */
+public class FeedReplay implements Runnable, MappedJournal.Visitor {
+
+    /** Gaps shorter than this are waited out by spinning rather than
+     *  parking, which is too coarse for them. */
+    private static final long SpinNanos = 50000L;
+
+    /** Thread object for this class. */
+    private Thread T;
+
+    /** Label of the Thread. */
+    private String ThreadName;
+
+    /** Path and file name prefix of the recorded journal. */
+    private String BaseName;
+
+    /** Replay speed factor, 0 for as fast as possible. */
+    private double Speed;
+
+    /** Decodes the recorded messages. */
+    private PriceParser Parser;
+
+    /** Receive time of the first recorded message. */
+    private long FirstRecorded;
+
+    /** Local time the first message was replayed. */
+    private long FirstReplayed;
+
+    /** Number of messages replayed. */
+    private long MessageCount;
+
+    /**
+     * @param Name A string identifier for the future Thread
+     * @param tdr A reference to the Trader to feed
+     * @param base Path and file name prefix of the recorded journal
+     * @param speed Replay speed factor, 0 for as fast as possible
+     */
+    public FeedReplay ( String Name, Trader tdr, String base, double speed ) {
+        ThreadName = Name;
+        BaseName = base;
+        Speed = speed;
+        Parser = new PriceParser(new MarketDataShard(MarketDataShard.AllShards,
+                                 tdr.getShards(), tdr.getLoops(), null));
+        MessageCount = 0L;
+        T = null;
+    }
+
+    /**
+     * Paces and replays one recorded message.
+     *
+     * @see MappedJournal.Visitor
+     */
+    public boolean Record ( long segment, int type, long timestamp,
+                            byte[] buf, int off, int len ) {
+        if ( type != FeedRecorder.TextRecord && type != FeedRecorder.FrameRecord )
+            return true;
+
+        if ( MessageCount == 0 ) {
+            FirstRecorded = timestamp;
+            FirstReplayed = System.nanoTime();
+        } else if ( Speed > 0D ) {
+            long due = FirstReplayed + (long)( ( timestamp - FirstRecorded ) / Speed );
+            long wait;
+            while ( ( wait = due - System.nanoTime() ) > 0 ) {
+                if ( wait > SpinNanos )
+                    LockSupport.parkNanos(wait - SpinNanos);
+            }
+        }
+
+        if ( type == FeedRecorder.FrameRecord )
+            Parser.ParseFrame(buf, off, len);
+        else
+            Parser.Parse(buf, off, len);
+        MessageCount++;
+        return true;
+    }
+
+    /**
+     * Replays the whole journal once and logs the throughput.
+     */
+    public void run () {
+        try {
+            long start = System.nanoTime();
+            MappedJournal.Read(BaseName, 0L, this);
+            long elapsed = Math.max(1L, System.nanoTime() - start);
+
+            Logger.getInstance().write("Replayed " + MessageCount +
+                " market data messages from " + BaseName + " in " +
+                ( elapsed / 1000000L ) + "ms, " +
+                (long)( MessageCount * 1e9 / elapsed ) + " messages per second");
+        } catch ( IOException e ) {
+            System.err.println("Unable to replay market data from " + BaseName);
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the Thread.  Sends a message to Logger to indicate
+     * what is being replayed.
+     *
+     * @throws IOException Passthrough from Logger
+     */
+    public void start () throws IOException {
+        if ( T == null ) {
+            try {
+                Logger.getInstance().write("Replaying market data from " + BaseName +
+                    ( Speed > 0D ? " at " + Speed + "x speed" : " as fast as possible" ));
+            } catch (IOException e) {
+                throw e;
+            }
+
+            T = new Thread( this, ThreadName );
+            T.start();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * FixedPoint.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.math.BigDecimal;
+
+/**
+ * Static helpers for fixed point prices and quantities.  Numbers are
+ * read off the wire, passed between threads and journaled as FixedPoint
+ * values: longs with eight decimal places.  Orders and books keep them
+ * in units of their symbol: prices as ticks of PRICEDECIMALS places and
+ * quantities as lots of QUANTITYDECIMALS places, so comparisons, sums
+ * and fill averaging are exact integer arithmetic.  Doubles are only
+ * made when a value is reported or fed into analytics.
+ *
+ * @see SymbolRegistry
+ */
+public class FixedPoint {
+
+    /** Decimal places of a FixedPoint value. */
+    public static final int Decimals = 8;
+
+    /** FixedPoint value of 1. */
+    public static final long One = 100000000L;
+
+    /** Powers of ten that fit in a long. */
+    private static final long[] PowersOfTen = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+        100000000L, 1000000000L, 10000000000L, 100000000000L,
+        1000000000000L, 10000000000000L, 100000000000000L,
+        1000000000000000L, 10000000000000000L, 100000000000000000L,
+        1000000000000000000L
+    };
+
+    /**
+     * Static class, never instantiated.
+     */
+    private FixedPoint () {
+    }
+
+    /**
+     * @param n Zero to eighteen
+     * @return Ten to the power n
+     */
+    public static long Pow10 ( int n ) {
+        return PowersOfTen[n];
+    }
+
+    /**
+     * @param v A number
+     * @return Its FixedPoint value, rounded to the nearest
+     */
+    public static long FromDouble ( double v ) {
+        return Math.round(v * One);
+    }
+
+    /**
+     * @param v A value in units of some number of decimal places
+     * @param decimals Decimal places of the units
+     * @return The value as a double
+     */
+    public static double ToDouble ( long v, int decimals ) {
+        return v / (double)PowersOfTen[decimals];
+    }
+
+    /**
+     * @param v A value in units of some number of decimal places
+     * @param decimals Decimal places of the units, at most Decimals
+     * @return Its FixedPoint value
+     */
+    public static long ToFixed ( long v, int decimals ) {
+        return v * PowersOfTen[Decimals - decimals];
+    }
+
+    /**
+     * Converts a FixedPoint value to units of fewer decimal places,
+     * rounding half away from zero.
+     *
+     * @param fixed A FixedPoint value
+     * @param decimals Decimal places of the units, at most Decimals
+     * @return The value in those units
+     */
+    public static long ToUnits ( long fixed, int decimals ) {
+        long unit = PowersOfTen[Decimals - decimals];
+        long half = unit / 2;
+        return fixed >= 0 ? ( fixed + half ) / unit : -( ( -fixed + half ) / unit );
+    }
+
+    /**
+     * Converts a value between units of two numbers of decimal places,
+     * rounding half away from zero if there are fewer.
+     *
+     * @param v A value in units of some number of decimal places
+     * @param from Decimal places of v
+     * @param to Decimal places of the result
+     * @return The value in the new units
+     */
+    public static long Rescale ( long v, int from, int to ) {
+        if ( to >= from )
+            return v * PowersOfTen[to - from];
+
+        long unit = PowersOfTen[from - to];
+        long half = unit / 2;
+        return v >= 0 ? ( v + half ) / unit : -( ( -v + half ) / unit );
+    }
+
+    /**
+     * @param fixed A FixedPoint value
+     * @param decimals Decimal places of the units, at most Decimals
+     * @return True if the value is a whole number of those units
+     */
+    public static boolean IsExact ( long fixed, int decimals ) {
+        return fixed % PowersOfTen[Decimals - decimals] == 0;
+    }
+
+    /**
+     * Formats a value without trailing zeros, such as "10.25" or "100".
+     *
+     * @param v A value in units of some number of decimal places
+     * @param decimals Decimal places of the units
+     * @return The value as text
+     */
+    public static String ToString ( long v, int decimals ) {
+        return Append(new StringBuilder(24), v, decimals).toString();
+    }
+
+    /**
+     * Appends a value without trailing zeros.
+     *
+     * @param sb Where to append
+     * @param v A value in units of some number of decimal places
+     * @param decimals Decimal places of the units
+     * @return sb
+     */
+    public static StringBuilder Append ( StringBuilder sb, long v, int decimals ) {
+        if ( v == Long.MIN_VALUE )
+            return sb.append(BigDecimal.valueOf(v, decimals)
+                             .stripTrailingZeros().toPlainString());
+
+        if ( v < 0 ) {
+            sb.append('-');
+            v = -v;
+        }
+
+        long unit = PowersOfTen[decimals];
+        sb.append(v / unit);
+
+        long frac = v % unit;
+        if ( frac != 0 ) {
+            sb.append('.');
+            for ( long digit = unit / 10; frac != 0; digit /= 10 ) {
+                sb.append((char)( '0' + frac / digit ));
+                frac %= digit;
+            }
+        }
+        return sb;
+    }
+}
@@ -48,14 +48,35 @@ public class Main
 
             Configuration.initialize();
             Logger.initialize();
+            SymbolRegistry.initialize();
             Order.initialize();
 
             Trader algoTrader = new Trader();
+            algoTrader.LoadVolumeProfiles();
+            algoTrader.LoadStrategies();
+            algoTrader.start();
+            algoTrader.Recover();
 
-            PriceSocket ps = new PriceSocket( "PS-MAIN", algoTrader );
+            // replay recorded market data in place of the price sockets?
+            String replay = Configuration.getInstance().getString("PRICEREPLAY");
+            FeedReplay fr = null;
+            PriceSocket[] ps = new PriceSocket[0];
+
+            if ( replay != null && replay.length() > 0 ) {
+                fr = new FeedReplay( "PS-REPLAY", algoTrader, replay,
+                    Configuration.getInstance().getDouble("PRICEREPLAYSPEED") );
+            } else {
+                int shards = algoTrader.getShards().getShardCount();
+                ps = new PriceSocket[shards];
+                for ( int n = 0; n < shards; n++ )
+                    ps[n] = new PriceSocket( "PS-" + n, algoTrader, n );
+            }
             OrderSocket os = new OrderSocket( "OS-MAIN", algoTrader );
 
-            ps.start();
+            for ( PriceSocket p : ps )
+                p.start();
+            if ( fr != null )
+                fr.start();
             os.start();
 
             // initialization steps go above
@@ -66,8 +87,54 @@ public class Main
 			}
             Logger.getInstance().write("Received termination signal.");
             // orderly shutdown steps go below
-            
-            /*_*/
+
+            long published = 0L, conflated = 0L, eventsFull = 0L;
+            for ( EventLoop loop : algoTrader.getLoops() ) {
+                published += loop.getConflator().getPublishCount();
+                conflated += loop.getConflator().getConflatedCount();
+                eventsFull += loop.getEvents().getFullCount();
+            }
+            Logger.getInstance().write("Market data books published: " +
+                published + ", conflated: " + conflated);
+            Logger.getInstance().write("Order event queue full events: " + eventsFull +
+                ", child orders lost to sessions logged off: " + algoTrader.getSliceLostCount());
+
+            OrderJournal journal = algoTrader.getJournal();
+            if ( journal != null ) {
+                journal.Force();
+                Logger.getInstance().write("Order journal events written: " +
+                    journal.getRecordCount());
+            }
+
+            Logger.getInstance().write("Orders rejected by risk checks: " +
+                algoTrader.getRisk().getRejectCount());
+
+            Logger.getInstance().write("Orders allocated beyond the pool: " +
+                algoTrader.getOrderPool().getCreatedCount());
+
+            long priceFull = 0L;
+            for ( PriceSocket p : ps )
+                priceFull += p.getOutboundFullCount();
+            Logger.getInstance().write("Outbound queue full events: replies dropped " +
+                os.getOutboundFullCount() + ", price resyncs " + priceFull);
+
+            long priceMessages = 0L, priceWrites = 0L;
+            for ( PriceSocket p : ps ) {
+                priceMessages += p.getOutput().getMessageCount();
+                priceWrites += p.getOutput().getWriteCount();
+            }
+            Logger.getInstance().write("Order messages sent: " + os.getMessageCount() +
+                " in " + os.getWriteCount() + " writes, price messages sent: " +
+                priceMessages + " in " + priceWrites + " writes");
+
+            for ( PriceSocket p : ps ) {
+                FeedRecorder rec = p.getRecorder();
+                if ( rec != null ) {
+                    rec.Force();
+                    Logger.getInstance().write("Market data messages recorded: " +
+                        rec.getRecordedCount() + ", dropped: " + rec.getDroppedCount());
+                }
+            }
 
             // orderly shutdown steps go above
             Logger.getInstance().write("AlgoTrader shutdown complete.");
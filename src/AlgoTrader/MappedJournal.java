@@ -0,0 +1,296 @@
+/*
+ * MappedJournal.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Append-only journal of records kept in memory-mapped segment files
+ * named base.000000, base.000001, and so on.  Appending is a copy into
+ * the mapping; the operating system writes the pages out, and Force
+ * makes them durable.  Segments are created at full size, so a zero
+ * length marks the end of the data in a segment.
+ *
+ * Each record is a 16 byte header followed by the payload:
+ * <pre>
+ *   int  length of the payload
+ *   int  record type, chosen by the user of the journal
+ *   long timestamp in nanoseconds since the epoch
+ * </pre>
+ * Opening an existing journal continues after its last record.  The
+ * journal is not thread safe; each one has a single writer.
+ */
+public class MappedJournal {
+
+    /** Size of a record header. */
+    public static final int HeaderBytes = 16;
+
+    /** Receives records read back from a journal. */
+    public interface Visitor {
+
+        /**
+         * @param segment Number of the segment holding the record
+         * @param type Record type
+         * @param timestamp Timestamp of the record
+         * @param buf Buffer holding the payload
+         * @param off Start of the payload
+         * @param len Length of the payload
+         * @return False to stop reading
+         */
+        public boolean Record ( long segment, int type, long timestamp,
+                                byte[] buf, int off, int len );
+    }
+
+    /** Path and file name prefix of the segments. */
+    private String BaseName;
+
+    /** Size of each segment file. */
+    private int SegmentBytes;
+
+    /** Number of the segment being written. */
+    private long Segment;
+
+    /** Mapping of the segment being written. */
+    private MappedByteBuffer Mapping;
+
+    /**
+     * Opens a journal for appending, creating the first segment if
+     * there is none.
+     *
+     * @param base Path and file name prefix of the segments
+     * @param segmentBytes Size of each segment file
+     * @throws IOException If a segment cannot be opened or mapped
+     */
+    public MappedJournal ( String base, int segmentBytes ) throws IOException {
+        BaseName = base;
+        SegmentBytes = segmentBytes;
+
+        File parent = new File(base).getAbsoluteFile().getParentFile();
+        if ( parent != null )
+            parent.mkdirs();
+
+        long[] existing = Segments(base);
+        Segment = existing.length > 0 ? existing[existing.length - 1] : 0L;
+        Map(Segment);
+
+        // continue after the last record of the segment
+        int pos = 0;
+        while ( pos + HeaderBytes <= SegmentBytes ) {
+            int len = Mapping.getInt(pos);
+            if ( len <= 0 || pos + HeaderBytes + len > SegmentBytes )
+                break;
+            pos += HeaderBytes + len;
+        }
+        Mapping.position(pos);
+    }
+
+    /**
+     * Maps a segment file, creating it at full size if needed.
+     *
+     * @param n Segment number
+     * @throws IOException If the segment cannot be opened or mapped
+     */
+    private void Map ( long n ) throws IOException {
+        try ( RandomAccessFile f = new RandomAccessFile(SegmentName(BaseName, n), "rw") ) {
+            if ( f.length() < SegmentBytes )
+                f.setLength(SegmentBytes);
+            Mapping = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SegmentBytes);
+        }
+        Segment = n;
+    }
+
+    /**
+     * Appends a record, moving to a new segment when the current one
+     * is full.
+     *
+     * @param type Record type
+     * @param timestamp Timestamp of the record
+     * @param buf Buffer holding the payload
+     * @param off Start of the payload
+     * @param len Length of the payload
+     * @throws IOException If a new segment cannot be created, or the
+     * payload is empty or larger than a segment
+     */
+    public void Append ( int type, long timestamp, byte[] buf, int off, int len )
+        throws IOException
+    {
+        if ( len <= 0 )
+            throw new IOException("Journal record cannot be empty");
+
+        if ( HeaderBytes + len > SegmentBytes )
+            throw new IOException("Journal record of " + len +
+                " bytes is larger than a segment");
+
+        if ( Mapping.remaining() < HeaderBytes + len )
+            Roll();
+
+        int pos = Mapping.position();
+
+        // write the length last so a reader never sees half a record
+        Mapping.position(pos + 4);
+        Mapping.putInt(type);
+        Mapping.putLong(timestamp);
+        Mapping.put(buf, off, len);
+        Mapping.putInt(pos, len);
+    }
+
+    /**
+     * Starts the next segment.  The finished segment is forced to disk
+     * first.
+     *
+     * @throws IOException If the new segment cannot be created
+     */
+    public void Roll () throws IOException {
+        Mapping.force();
+        Map(Segment + 1);
+    }
+
+    /**
+     * Writes appended records to disk.
+     */
+    public void Force () {
+        Mapping.force();
+    }
+
+    /**
+     * @return Number of the segment being written
+     */
+    public long getSegment () {
+        return Segment;
+    }
+
+    /**
+     * @return Path and file name prefix of the segments
+     */
+    public String getBaseName () {
+        return BaseName;
+    }
+
+    /**
+     * Builds the file name of a segment.
+     *
+     * @param base Path and file name prefix of the segments
+     * @param n Segment number
+     * @return The segment's file name
+     */
+    public static String SegmentName ( String base, long n ) {
+        String num = Long.toString(n);
+        return base + "." + "000000".substring(Math.min(6, num.length())) + num;
+    }
+
+    /**
+     * Lists the segment numbers of a journal in ascending order.
+     *
+     * @param base Path and file name prefix of the segments
+     * @return Segment numbers, empty if there are none
+     */
+    public static long[] Segments ( String base ) {
+        File f = new File(base).getAbsoluteFile();
+        File dir = f.getParentFile();
+        String prefix = f.getName() + ".";
+        List<Long> found = new ArrayList<>();
+
+        String[] names = dir == null ? null : dir.list();
+        if ( names != null ) {
+            for ( String name : names ) {
+                if ( !name.startsWith(prefix) )
+                    continue;
+                try {
+                    found.add(Long.parseLong(name.substring(prefix.length())));
+                } catch ( NumberFormatException e ) {
+                    // not a segment
+                }
+            }
+        }
+
+        Collections.sort(found);
+        long[] result = new long[found.size()];
+        for ( int i = 0; i < result.length; i++ )
+            result[i] = found.get(i);
+        return result;
+    }
+
+    /**
+     * Deletes every segment numbered below a given segment.
+     *
+     * @param base Path and file name prefix of the segments
+     * @param below First segment to keep
+     */
+    public static void DeleteBefore ( String base, long below ) {
+        for ( long n : Segments(base) ) {
+            if ( n < below )
+                new File(SegmentName(base, n)).delete();
+        }
+    }
+
+    /**
+     * Reads every record of a journal in order, starting at a segment.
+     * Segments are mapped read only, so nothing is copied onto the
+     * heap apart from one payload buffer that is reused.
+     *
+     * @param base Path and file name prefix of the segments
+     * @param fromSegment First segment to read
+     * @param v Receives the records
+     * @return Number of records read
+     * @throws IOException If a segment cannot be read
+     */
+    public static long Read ( String base, long fromSegment, Visitor v ) throws IOException {
+        byte[] payload = new byte[4096];
+        long count = 0L;
+
+        for ( long n : Segments(base) ) {
+            if ( n < fromSegment )
+                continue;
+
+            MappedByteBuffer m;
+            try ( FileChannel ch = FileChannel.open(Paths.get(SegmentName(base, n)),
+                                                    StandardOpenOption.READ) ) {
+                m = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+
+            int pos = 0;
+            while ( pos + HeaderBytes <= m.limit() ) {
+                int len = m.getInt(pos);
+                if ( len <= 0 || pos + HeaderBytes + len > m.limit() )
+                    break;
+
+                int type = m.getInt(pos + 4);
+                long timestamp = m.getLong(pos + 8);
+
+                if ( payload.length < len )
+                    payload = new byte[Math.max(len, payload.length * 2)];
+                m.position(pos + HeaderBytes);
+                m.get(payload, 0, len);
+                pos += HeaderBytes + len;
+                count++;
+
+                if ( !v.Record(n, type, timestamp, payload, 0, len) )
+                    return count;
+            }
+        }
+
+        return count;
+    }
+}
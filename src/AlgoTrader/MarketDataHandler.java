@@ -0,0 +1,65 @@
+/*
+ * MarketDataHandler.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Callbacks made by PriceParser while it decodes a market data message.
+ * A message is delivered as one Begin call, one Level call per price
+ * level, and one End call.  Nothing passed to these callbacks may be
+ * kept after the call returns; the buffer is reused for the next read.
+ *
+ * @see PriceParser
+ */
+public interface MarketDataHandler {
+
+    /**
+     * Starts a market data message for a symbol.
+     *
+     * @param buf Buffer holding the symbol
+     * @param off Start of the symbol
+     * @param len Length of the symbol
+     * @param snapshot True for a full SNAPSHOT that replaces the book,
+     * false for an incremental UPDATE of single levels
+     * @param sequence Sequence number of the message, -1 if the
+     * message was not sequenced
+     */
+    public void MarketDataBegin ( byte[] buf, int off, int len,
+                                  boolean snapshot, long sequence );
+
+    /**
+     * Adds a price level to the message in progress.  In an UPDATE a
+     * quantity of zero deletes the level.
+     *
+     * @param isBid True for a bid level, false for an offer level
+     * @param px Price of the level as a FixedPoint value
+     * @param qty Quantity at the level as a FixedPoint value
+     */
+    public void MarketDataLevel ( boolean isBid, long px, long qty );
+
+    /**
+     * Finishes the message in progress.
+     *
+     * @param complete False if the message was malformed part way
+     * through, in which case the levels received so far are not a
+     * valid book
+     */
+    public void MarketDataEnd ( boolean complete );
+}
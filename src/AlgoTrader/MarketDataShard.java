@@ -0,0 +1,271 @@
+/*
+ * MarketDataShard.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * The books of one price connection.  Every symbol belongs to exactly
+ * one shard, and a shard's books are only ever touched by the thread of
+ * its PriceSocket, so applying market data needs no locking.  Changed
+ * books are published to the ConflationQueue of the EventLoop that owns
+ * their symbol.
+ *
+ * @see ShardMap
+ */
+public class MarketDataShard implements MarketDataHandler {
+
+    /** Shard number that accepts every symbol, used by FeedReplay. */
+    public static final int AllShards = -1;
+
+    /** How traded volume is inferred from updates, set by TRADEDVOLUME. */
+    private static final int TradedNone     = 0;
+    private static final int TradedRemoved  = 1;
+    private static final int TradedDepleted = 2;
+
+    /** This shard's number. */
+    private int Shard;
+
+    /** Which shard each symbol belongs to. */
+    private ShardMap Shards;
+
+    /** Symbol identifiers. */
+    private SymbolRegistry Symbols;
+
+    /** Books of this shard's symbols, indexed by SymbolID. */
+    private OrderBook[] MarketData;
+
+    /** The trading threads changed books are published to. */
+    private EventLoop[] Loops;
+
+    /** Connection used to ask for snapshots, null if there is none. */
+    private PriceSocket PS;
+
+    /** Book of the market data message currently being decoded, null
+     *  while a message is being skipped. */
+    private OrderBook CurrentBook;
+
+    /** Whether the message being decoded is a full snapshot. */
+    private boolean CurrentIsSnapshot;
+
+    /** Book changed by the message being decoded, to be published
+     *  when the message ends. */
+    private OrderBook ChangedBook;
+
+    /** Number of messages skipped because their symbol belongs to
+     *  another shard. */
+    private long ForeignCount;
+
+    /** TradedNone, TradedRemoved or TradedDepleted. */
+    private int TradedVolume;
+
+    /**
+     * @param shard This shard's number, or AllShards
+     * @param map Which shard each symbol belongs to
+     * @param loops The trading threads changed books are published to
+     * @param ps Connection used to ask for snapshots, may be null
+     */
+    public MarketDataShard ( int shard, ShardMap map,
+                             EventLoop[] loops, PriceSocket ps ) {
+        Shard = shard;
+        Shards = map;
+        Symbols = SymbolRegistry.getInstance();
+        MarketData = new OrderBook[Symbols.getCapacity()];
+        Loops = loops;
+        PS = ps;
+        CurrentBook = ChangedBook = null;
+        ForeignCount = 0L;
+
+        String traded = Configuration.getInstance().getString("TRADEDVOLUME");
+        if ( "NONE".equalsIgnoreCase(traded) )
+            TradedVolume = TradedNone;
+        else if ( "DEPLETED".equalsIgnoreCase(traded) )
+            TradedVolume = TradedDepleted;
+        else
+            TradedVolume = TradedRemoved;
+    }
+
+    /**
+     * Starts a market data message.  A snapshot clears the symbol's
+     * book so it can be rebuilt in place from the levels that follow.
+     * An update is only applied if it is the next message in sequence;
+     * otherwise the book is marked stale and a new snapshot requested.
+     *
+     * @see MarketDataHandler
+     */
+    public void MarketDataBegin ( byte[] buf, int off, int len,
+                                  boolean snapshot, long sequence ) {
+        OrderBook book = FindBook(buf, off, len);
+
+        CurrentIsSnapshot = snapshot;
+
+        if ( book == null ) {
+            // symbol table is full, or the symbol is not ours
+            CurrentBook = ChangedBook = null;
+            return;
+        }
+
+        if ( snapshot ) {
+            book.Clear();
+            book.setSequence(sequence);
+            book.setStale(false);
+            CurrentBook = ChangedBook = book;
+        } else if ( book.isStale() ) {
+            // still waiting on the snapshot
+            CurrentBook = ChangedBook = null;
+        } else if ( book.getSequence() >= 0 && sequence != book.getSequence() + 1 ) {
+            MarkStale(book);
+            CurrentBook = null;
+            ChangedBook = book;
+        } else {
+            book.setSequence(sequence);
+            CurrentBook = ChangedBook = book;
+        }
+    }
+
+    /**
+     * Applies a level of the message in progress, rounded to the
+     * book's ticks and lots.  The feed carries no trade prints, so
+     * traded volume is inferred from updates at the best bid or offer
+     * as TRADEDVOLUME says: by default only a level removed outright
+     * counts, in full, since a smaller size is as likely a cancel.
+     * Levels swept by a snapshot are never counted.
+     *
+     * @see MarketDataHandler
+     */
+    public void MarketDataLevel ( boolean isBid, long fixedPx, long fixedQty ) {
+        if ( CurrentBook == null )
+            return;
+
+        long px = FixedPoint.ToUnits(fixedPx, CurrentBook.getPriceDecimals());
+        long qty = FixedPoint.ToUnits(fixedQty, CurrentBook.getQuantityDecimals());
+
+        if ( CurrentIsSnapshot ) {
+            if ( isBid )
+                CurrentBook.AddBid(px, qty);
+            else
+                CurrentBook.AddOffer(px, qty);
+        } else {
+            OrderBook b = CurrentBook;
+            if ( isBid ) {
+                if ( b.getBidDepth() > 0 && b.getBidTicks(0) == px )
+                    b.AddTraded(Traded(b.getBidLots(0), qty));
+                b.SetBid(px, qty);
+            } else {
+                if ( b.getOfferDepth() > 0 && b.getOfferTicks(0) == px )
+                    b.AddTraded(Traded(b.getOfferLots(0), qty));
+                b.SetOffer(px, qty);
+            }
+        }
+    }
+
+    /**
+     * Volume taken to have traded when the best bid or offer changes
+     * size.
+     *
+     * @param touch Lots at the touch before the update
+     * @param qty Lots at the touch after it, zero or less if removed
+     * @return Lots traded, zero if none
+     */
+    private long Traded ( long touch, long qty ) {
+        switch ( TradedVolume ) {
+            case TradedRemoved:
+                return qty <= 0L ? touch : 0L;
+            case TradedDepleted:
+                return qty < touch ? touch - Math.max(qty, 0L) : 0L;
+            default:
+                return 0L;
+        }
+    }
+
+    /**
+     * Finishes the message in progress and publishes the changed book
+     * to the trading thread that owns its symbol.  A malformed message
+     * leaves the book stale rather than half built.
+     *
+     * @see MarketDataHandler
+     */
+    public void MarketDataEnd ( boolean complete ) {
+        if ( !complete && CurrentBook != null )
+            MarkStale(CurrentBook);
+
+        if ( ChangedBook != null )
+            EventLoop.Owner(Loops, ChangedBook.getSymbolID()).getConflator().Publish(ChangedBook);
+
+        CurrentBook = ChangedBook = null;
+    }
+
+    /**
+     * Empties a book that can no longer be trusted and asks the price
+     * source for a new snapshot.
+     *
+     * @param book The book that missed an update
+     */
+    private void MarkStale ( OrderBook book ) {
+        book.Clear();
+        book.setStale(true);
+
+        if ( PS != null )
+            PS.RequestSnapshot(book.getSymbolID());
+    }
+
+    /**
+     * Looks up a book by the raw bytes of its symbol, creating it the
+     * first time the symbol is seen.
+     *
+     * @param buf Buffer holding the symbol
+     * @param off Start of the symbol
+     * @param len Length of the symbol
+     * @return The symbol's book, or null if the symbol table is full or
+     * the symbol belongs to another shard
+     */
+    private OrderBook FindBook ( byte[] buf, int off, int len ) {
+        int id = Symbols.Register(buf, off, len);
+        if ( id < 0 )
+            return null;
+
+        OrderBook book = MarketData[id];
+        if ( book == null ) {
+            if ( Shard != AllShards && Shards.ShardOf(id) != Shard ) {
+                ForeignCount++;
+                return null;
+            }
+
+            book = new OrderBook(id, Symbols.getSymbol(id));
+            MarketData[id] = book;
+        }
+
+        return book;
+    }
+
+    /**
+     * @return This shard's number
+     */
+    public int getShard () {
+        return Shard;
+    }
+
+    /**
+     * @return Number of messages skipped because their symbol belongs
+     * to another shard
+     */
+    public long getForeignCount () {
+        return ForeignCount;
+    }
+}
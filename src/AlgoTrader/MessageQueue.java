@@ -0,0 +1,140 @@
+/*
+ * MessageQueue.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded queue of outbound messages from any number of threads to the
+ * socket thread that writes them.  Producers claim a slot by moving
+ * the tail with compare-and-set and then fill it; the socket thread
+ * takes filled slots in order without locking.  A producer never waits
+ * on the socket thread, which may be stuck on a slow client or not
+ * connected at all: when the queue is full the message is refused and
+ * counted, and the producer decides what to do about it.
+ */
+public class MessageQueue {
+
+    /** Encoded messages, without line terminators. */
+    private AtomicReferenceArray<byte[]> Slots;
+
+    /** Slot index mask. */
+    private int Mask;
+
+    /** Next position to be claimed by a producer. */
+    private AtomicLong Tail;
+
+    /** Next position to be taken by the socket thread. */
+    private volatile long Head;
+
+    /** Number of times a producer found the queue full. */
+    private AtomicLong FullCount;
+
+    /**
+     * @param capacity Number of messages held, rounded up to a power
+     * of two
+     */
+    public MessageQueue ( int capacity ) {
+        int size = 1;
+        while ( size < capacity )
+            size <<= 1;
+
+        Slots = new AtomicReferenceArray<>(size);
+        Mask = size - 1;
+        Tail = new AtomicLong(0L);
+        Head = 0L;
+        FullCount = new AtomicLong(0L);
+    }
+
+    /**
+     * Adds a message if there is room.
+     *
+     * @param msg The encoded message
+     * @return False if the queue is full
+     */
+    public boolean Offer ( byte[] msg ) {
+        while ( true ) {
+            long tail = Tail.get();
+            if ( tail - Head >= Slots.length() )
+                return false;
+
+            if ( Tail.compareAndSet(tail, tail + 1) ) {
+                Slots.set((int)( tail & Mask ), msg);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds a message if there is room, and counts it if there is not.
+     * A full queue wakes the socket thread so it drains, but the
+     * message is not waited for.
+     *
+     * @param msg The encoded message
+     * @param consumer Selector of the socket thread, null if it is not
+     * running
+     * @return False if the queue was full and the message refused
+     */
+    public boolean Put ( byte[] msg, Selector consumer ) {
+        if ( Offer(msg) )
+            return true;
+
+        FullCount.incrementAndGet();
+        if ( consumer != null )
+            consumer.wakeup();
+        return false;
+    }
+
+    /**
+     * Takes the oldest message.  Called by the socket thread only.
+     *
+     * @return The message, or null if there is none ready
+     */
+    public byte[] Poll () {
+        long head = Head;
+        int slot = (int)( head & Mask );
+
+        // a claimed slot stays empty until its producer fills it
+        byte[] msg = Slots.get(slot);
+        if ( msg == null )
+            return null;
+
+        Slots.lazySet(slot, null);
+        Head = head + 1;
+        return msg;
+    }
+
+    /**
+     * @return True if no message is waiting
+     */
+    public boolean isEmpty () {
+        return Tail.get() == Head;
+    }
+
+    /**
+     * @return Number of messages refused because the queue was full
+     */
+    public long getFullCount () {
+        return FullCount.get();
+    }
+}
@@ -21,6 +21,7 @@
 package AlgoTrader;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.*;
 import java.text.*;
 
@@ -29,6 +30,13 @@ import java.text.*;
  * to buy or sell (Side) some amount (Quantity) of a real or virtual
  * object (Symbol) for a specific dollar amount (Price).  Other fields
  * serve as identifiers or special instructions for the order.
+ *
+ * Prices are kept as whole ticks and quantities as whole lots of the
+ * symbol's PRICEDECIMALS and QUANTITYDECIMALS, so order arithmetic is
+ * exact.  Values are passed in as FixedPoint values and reported as
+ * doubles.
+ *
+ * @see FixedPoint
  */
 public class Order {
 
@@ -39,11 +47,17 @@ public class Order {
     private String InternalID;
 
     /** The next internal identifier to use for a new Order. */
-    private static int nextInternalID = 1;
+    private static final AtomicLong NextInternalID = new AtomicLong(1L);
+
+    /** Number of digits in an internal identifier. */
+    private static final int InternalIDDigits = 10;
 
     /** The label/code for the real or virtual good of this Order. */
     private String Symbol;
 
+    /** Identifier of Symbol in the SymbolRegistry. */
+    private int SymbolID;
+
     /** The customer's identifier. */
     private String Customer;
 
@@ -56,20 +70,23 @@ public class Order {
     /** The trading strategy used by the AlgoTrader */
     private String Strategy;
 
-    /** The price the Order would like to buy or sell.  Actual match
-     * prices may be better depending on market conditions, meaning
+    /** Decimal places of the Symbol's prices and quantities. */
+    private int PriceDecimals, QuantityDecimals;
+
+    /** The price the Order would like to buy or sell, in ticks.  Actual
+     * match prices may be better depending on market conditions, meaning
      * lower than a buy Order's price or higher than a sell Order's price.
      */
-    private double Price;
+    private long Price;
 
-    /** The maximum amount of goods to buy or sell. */
-    private double Quantity;
+    /** The maximum amount of goods to buy or sell, in lots. */
+    private long Quantity;
 
-    /** The remaining quantity on the order.  Would be less than Quantity
-     * if the order was partially filled, or zero if the order was fully
-     * filled.
+    /** The remaining quantity on the order, in lots.  Would be less than
+     * Quantity if the order was partially filled, or zero if the order
+     * was fully filled.
      */
-    private double AvailableQuantity;
+    private long AvailableQuantity;
 
     /** Whether this is a buy or sell Order. */
     private char Side;
@@ -77,14 +94,51 @@ public class Order {
     /** The currency of the order. */
     private String Currency;
 
-    /** Minimum fill quantity for a partial execution. */
-    private double MinFillQuantity;
+    /** Minimum fill quantity for a partial execution, in lots. */
+    private long MinFillQuantity;
+
+    /** Sum of ticks times lots of the executions, which gives the
+     *  average price without rounding. */
+    private long ExecutedNotional;
+
+	/** Total amount executed, in lots */
+	private long CumulativeQuantity;
+
+    /** Seconds a TWAP or VWAP order is worked over, 0 for the default. */
+    private long Duration;
+
+    /** Links of the OrderBlotter's secondary index lists, indexed by
+     *  OrderBlotter.BYSYMBOL, BYCUSTOMER and BYSTRATEGY. */
+    final Order[] Next = new Order[OrderBlotter.INDEXES];
+    final Order[] Prev = new Order[OrderBlotter.INDEXES];
+
+    /** Strategy working an EventLoop's copy of the order, null if its
+     *  Strategy has no TradingStrategy or this is not such a copy. */
+    TradingStrategy Worker;
+
+    /** Links of the TimingWheel slot list the order's timer is in. */
+    Order TimerNext, TimerPrev;
+
+    /** Tick the order's timer is due, -1 if it has none. */
+    long TimerDue = -1L;
+
+    /** Links of the OrderSubscriptions list the order is in. */
+    Order WatchNext, WatchPrev;
+
+    /** SymbolID of the OrderSubscriptions list the order is in, -1 if
+     *  it is not subscribed. */
+    int WatchSymbol = -1;
 
-    /** Minimum fill quantity for a partial execution. */
-    private double AveragePrice;
+    /** Price window of the subscription, in ticks. */
+    long WatchLow, WatchHigh;
 
-	/** Total amount executed */
-	private double CumulativeQuantity;
+    /** Whatever the Worker keeps for an EventLoop's copy of the order,
+     *  null until it sets it. */
+    private Object StrategyState;
+
+    /** Progress of the order's strategy as last reported by its
+     *  EventLoop and journaled, for a restart to resume from. */
+    final SliceProgress Progress = new SliceProgress();
 
     /** Allowed strategies **/
     private static Set<String> allowedStrategies;
@@ -105,6 +159,15 @@ public class Order {
         }
     }
 
+    /**
+     * Creates a blank order for the OrderPool, to be filled in with
+     * Reset.
+     */
+    Order ()
+    {
+        Clear();
+    }
+
     /**
      * Full constructor; all private variables passed.
      *
@@ -113,20 +176,51 @@ public class Order {
      * @param c Customer
      * @param sID Source
      * @param a ArriveDate
-     * @param p Price
-     * @param q Quantity
-     * @param aq AvailableQuantity
+     * @param p Price as a FixedPoint value
+     * @param q Quantity as a FixedPoint value
+     * @param aq AvailableQuantity as a FixedPoint value
      * @param buySell Side
      * @param strat Strategy
      * @param ccy Currency
-     * @param mfq MinFillQuantity
+     * @param mfq MinFillQuantity as a FixedPoint value
      * @throws DataFormatException Passed up from error checking functions
      */
     public Order (String oID, String s, String c, String sID, String a,
-                  double p, double q, double aq, char buySell, String strat,
-                  String ccy, Double mfq )
+                  long p, long q, long aq, char buySell, String strat,
+                  String ccy, long mfq )
                   throws DataFormatException
     {
+        Reset(oID, s, c, sID, a, p, q, aq, buySell, strat, ccy, mfq);
+        AssignInternalID();
+    }
+
+    /**
+     * Fills in a pooled order, or an amend request; all private
+     * variables passed except the InternalID, which only a new order is
+     * given, by AssignInternalID.  The Duration is cleared until
+     * setDuration is called.
+     *
+     * @param oID OrderID
+     * @param s Symbol
+     * @param c Customer
+     * @param sID Source
+     * @param a ArriveDate
+     * @param p Price as a FixedPoint value
+     * @param q Quantity as a FixedPoint value
+     * @param aq AvailableQuantity as a FixedPoint value
+     * @param buySell Side
+     * @param strat Strategy
+     * @param ccy Currency
+     * @param mfq MinFillQuantity as a FixedPoint value
+     * @throws DataFormatException Passed up from error checking functions
+     */
+    public void Reset (String oID, String s, String c, String sID, String a,
+                       long p, long q, long aq, char buySell, String strat,
+                       String ccy, long mfq )
+                       throws DataFormatException
+    {
+        Quantity = AvailableQuantity = Duration = 0L;
+
         try
         {
             setOrderID(oID);
@@ -141,15 +235,134 @@ public class Order {
             setStrategy(strat);
             setCurrency(ccy);
             setMinFillQuantity(mfq);
-            AveragePrice = CumulativeQuantity = 0D;
+            ExecutedNotional = CumulativeQuantity = 0L;
         }
         catch ( DataFormatException e )
         {
             // pass it up so the order manager can handle the reject
             throw e;
         }
+    }
 
-        InternalID = String.format("%010d", nextInternalID++) + "MC";
+    /**
+     * Drops everything the order refers to before it goes back to the
+     * OrderPool.
+     */
+    void Clear ()
+    {
+        OrderID = InternalID = Symbol = Customer = Source = ArriveDate = "";
+        Strategy = Currency = "";
+        SymbolID = -1;
+        PriceDecimals = QuantityDecimals = 0;
+        Price = Quantity = AvailableQuantity = MinFillQuantity = 0L;
+        ExecutedNotional = CumulativeQuantity = 0L;
+        Duration = 0L;
+        Progress.Clear();
+        StrategyState = null;
+        Worker = null;
+        Side = ' ';
+    }
+
+    /**
+     * Gives a new order the next InternalID.
+     */
+    void AssignInternalID ()
+    {
+        InternalID = NewInternalID();
+    }
+
+    /**
+     * Gives an order replayed from the OrderJournal the InternalID it
+     * was first given, and makes sure no new order is given it again.
+     *
+     * @param id The original InternalID
+     */
+    void RestoreInternalID ( String id )
+    {
+        InternalID = id;
+
+        long n = 0L;
+        for ( int i = 0; i < id.length() && id.charAt(i) >= '0' && id.charAt(i) <= '9'; i++ )
+            n = n * 10 + ( id.charAt(i) - '0' );
+
+        ReserveInternalIDs(n + 1);
+    }
+
+    /**
+     * Restores the executions of an order loaded from an OrderSnapshot,
+     * which records the AvailableQuantity from before them.  The
+     * notional is exact unless the configured decimal places have
+     * shrunk since it was written.
+     *
+     * @param notional Sum of price times quantity of the executions
+     * @param decimals Decimal places of notional
+     * @param cum CumulativeQuantity as a FixedPoint value
+     */
+    void RestoreExecutions ( long notional, int decimals, long cum )
+    {
+        CumulativeQuantity = FixedPoint.ToUnits(cum, QuantityDecimals);
+        ExecutedNotional = FixedPoint.Rescale(notional, decimals, getNotionalDecimals());
+        AvailableQuantity -= CumulativeQuantity;
+    }
+
+    /**
+     * @return Sum of price times quantity of the executions, in units
+     * of getNotionalDecimals decimal places
+     */
+    long getExecutedNotional ()
+    {
+        return ExecutedNotional;
+    }
+
+    /**
+     * @return Decimal places of getExecutedNotional
+     */
+    int getNotionalDecimals ()
+    {
+        return PriceDecimals + QuantityDecimals;
+    }
+
+    /**
+     * Makes sure no internal identifier below a given one is generated.
+     *
+     * @param next Lowest sequence number new orders may be given
+     */
+    static void ReserveInternalIDs ( long next )
+    {
+        long current;
+        while ( ( current = NextInternalID.get() ) < next &&
+                !NextInternalID.compareAndSet(current, next) )
+            ;
+    }
+
+    /**
+     * @return Sequence number the next new order will be given
+     */
+    static long PeekInternalID ()
+    {
+        return NextInternalID.get();
+    }
+
+    /**
+     * Generates the next internal identifier: a fixed width, zero
+     * padded sequence number followed by "MC".  Safe to call from any
+     * thread.
+     *
+     * @return The identifier
+     */
+    static String NewInternalID ()
+    {
+        long id = NextInternalID.getAndIncrement();
+        char[] c = new char[InternalIDDigits + 2];
+
+        for ( int i = InternalIDDigits - 1; i >= 0; i-- ) {
+            c[i] = (char)( '0' + id % 10 );
+            id /= 10;
+        }
+        c[InternalIDDigits] = 'M';
+        c[InternalIDDigits + 1] = 'C';
+
+        return new String(c);
     }
 
     /**
@@ -161,6 +374,9 @@ public class Order {
     {
         OrderID             = o.OrderID;
         Symbol              = o.Symbol;
+        SymbolID            = o.SymbolID;
+        PriceDecimals       = o.PriceDecimals;
+        QuantityDecimals    = o.QuantityDecimals;
         Customer            = o.Customer;
         Source              = o.Source;
         ArriveDate          = o.ArriveDate;
@@ -171,9 +387,41 @@ public class Order {
         Strategy            = o.Strategy;
         Currency            = o.Currency;
         MinFillQuantity     = o.MinFillQuantity;
-        AveragePrice = CumulativeQuantity = 0D;
+        Duration            = o.Duration;
+        ExecutedNotional = CumulativeQuantity = 0L;
+
+        InternalID = NewInternalID();
+    }
 
-        InternalID = String.format("%010d", nextInternalID++) + "MC";
+    /**
+     * Copies the values of another order over this one, keeping this
+     * order's blotter links, timer, subscription and strategy state.  Used to hand
+     * orders to an EventLoop, and progress back from one.
+     *
+     * @param o Order object from where to copy values
+     */
+    void CopyFrom ( Order o )
+    {
+        OrderID             = o.OrderID;
+        InternalID          = o.InternalID;
+        Symbol              = o.Symbol;
+        SymbolID            = o.SymbolID;
+        PriceDecimals       = o.PriceDecimals;
+        QuantityDecimals    = o.QuantityDecimals;
+        Customer            = o.Customer;
+        Source              = o.Source;
+        ArriveDate          = o.ArriveDate;
+        Price               = o.Price;
+        Quantity            = o.Quantity;
+        AvailableQuantity   = o.AvailableQuantity;
+        Side                = o.Side;
+        Strategy            = o.Strategy;
+        Currency            = o.Currency;
+        MinFillQuantity     = o.MinFillQuantity;
+        Duration            = o.Duration;
+        ExecutedNotional    = o.ExecutedNotional;
+        CumulativeQuantity  = o.CumulativeQuantity;
+        Progress.CopyFrom(o.Progress);
     }
 
     /**
@@ -184,6 +432,17 @@ public class Order {
         return OrderID;
     }
 
+    /**
+     * Walks one of the OrderBlotter's secondary indexes.
+     *
+     * @param index OrderBlotter.BYSYMBOL, BYCUSTOMER or BYSTRATEGY
+     * @return The next open order with the same key, or null
+     */
+    public Order getNext ( int index )
+    {
+        return Next[index];
+    }
+
     /**
      * @return InternalID
      */
@@ -200,6 +459,14 @@ public class Order {
         return Symbol;
     }
 
+    /**
+     * @return SymbolID
+     */
+    public int getSymbolID ()
+    {
+        return SymbolID;
+    }
+
     /**
      * @return Customer
      */
@@ -224,10 +491,34 @@ public class Order {
         return ArriveDate;
     }
 
+    /**
+     * @return Decimal places of the Symbol's prices
+     */
+    public int getPriceDecimals ()
+    {
+        return PriceDecimals;
+    }
+
+    /**
+     * @return Decimal places of the Symbol's quantities
+     */
+    public int getQuantityDecimals ()
+    {
+        return QuantityDecimals;
+    }
+
     /**
      * @return Price
      */
     public double getPrice ()
+    {
+        return FixedPoint.ToDouble(Price, PriceDecimals);
+    }
+
+    /**
+     * @return Price in ticks
+     */
+    public long getPriceTicks ()
     {
         return Price;
     }
@@ -236,6 +527,14 @@ public class Order {
      * @return Quantity
      */
     public double getQuantity ()
+    {
+        return FixedPoint.ToDouble(Quantity, QuantityDecimals);
+    }
+
+    /**
+     * @return Quantity in lots
+     */
+    public long getQuantityLots ()
     {
         return Quantity;
     }
@@ -244,6 +543,14 @@ public class Order {
      * @return AvailableQuantity
      */
     public double getAvailableQuantity ()
+    {
+        return FixedPoint.ToDouble(AvailableQuantity, QuantityDecimals);
+    }
+
+    /**
+     * @return AvailableQuantity in lots
+     */
+    public long getAvailableLots ()
     {
         return AvailableQuantity;
     }
@@ -276,26 +583,73 @@ public class Order {
      * @return MinFillQuantity
      */
     public double getMinFillQuantity ()
+    {
+        return FixedPoint.ToDouble(MinFillQuantity, QuantityDecimals);
+    }
+
+    /**
+     * @return MinFillQuantity in lots
+     */
+    public long getMinFillLots ()
     {
         return MinFillQuantity;
     }
     
     /**
-     * @return AveragePrice
+     * @return Average price of the executions, zero if there are none
      */
     public double getAveragePrice ()
     {
-        return AveragePrice;
+        if ( CumulativeQuantity == 0L )
+            return 0D;
+        return (double)ExecutedNotional / CumulativeQuantity /
+               FixedPoint.Pow10(PriceDecimals);
     }
 
     /**
      * @return CumulativeQuantity
      */
     public double getCumulativeQuantity ()
+    {
+        return FixedPoint.ToDouble(CumulativeQuantity, QuantityDecimals);
+    }
+
+    /**
+     * @return CumulativeQuantity in lots
+     */
+    public long getCumulativeLots ()
     {
         return CumulativeQuantity;
     }
 
+    /**
+     * @return Seconds a TWAP or VWAP order is worked over, 0 for the default
+     */
+    public long getDuration ()
+    {
+        return Duration;
+    }
+
+    /**
+     * @return What the strategy working an EventLoop's copy of the
+     * order keeps for it, null if it has set nothing
+     */
+    public Object getStrategyState ()
+    {
+        return StrategyState;
+    }
+
+    /**
+     * Lets the strategy working an EventLoop's copy of the order keep
+     * its own state for it, dropped with the copy.
+     *
+     * @param state The strategy's state for the order
+     */
+    public void setStrategyState ( Object state )
+    {
+        StrategyState = state;
+    }
+
     /**
      * @param oID OrderID
      * @throws DataFormatException If oID is a blank string
@@ -309,15 +663,62 @@ public class Order {
     }
 
     /**
+     * Also registers the symbol to look up its SymbolID.
+     *
      * @param s Symbol
-     * @throws DataFormatException If s is a blank string
+     * @throws DataFormatException If s is a blank string, or if the
+     * symbol table is full
      */
     public void setSymbol ( String s ) throws DataFormatException
     {
         if ( s.equals("") )
             throw new DataFormatException("Symbol cannot be blank");
 
-        Symbol = s;
+        int id = SymbolRegistry.getInstance().Register(s);
+        if ( id < 0 )
+            throw new DataFormatException("Symbol " + s +
+                " exceeds MAXSYMBOLS");
+
+        Symbol = SymbolRegistry.getInstance().getSymbol(id);
+        SymbolID = id;
+        PriceDecimals = SymbolRegistry.getInstance().getPriceDecimals(id);
+        QuantityDecimals = SymbolRegistry.getInstance().getQuantityDecimals(id);
+    }
+
+    /**
+     * Converts a FixedPoint price to ticks of the Symbol.
+     *
+     * @param p Price as a FixedPoint value
+     * @return Price in ticks
+     * @throws DataFormatException If p is not a whole number of ticks
+     */
+    public long ToTicks ( long p ) throws DataFormatException
+    {
+        if ( !FixedPoint.IsExact( p, PriceDecimals ) )
+            throw new DataFormatException("Price " +
+                FixedPoint.ToString( p, FixedPoint.Decimals ) +
+                " is not a multiple of the tick " +
+                FixedPoint.ToString( 1L, PriceDecimals ));
+
+        return FixedPoint.ToUnits( p, PriceDecimals );
+    }
+
+    /**
+     * Converts a FixedPoint quantity to lots of the Symbol.
+     *
+     * @param q Quantity as a FixedPoint value
+     * @return Quantity in lots
+     * @throws DataFormatException If q is not a whole number of lots
+     */
+    public long ToLots ( long q ) throws DataFormatException
+    {
+        if ( !FixedPoint.IsExact( q, QuantityDecimals ) )
+            throw new DataFormatException("Quantity " +
+                FixedPoint.ToString( q, FixedPoint.Decimals ) +
+                " is not a multiple of the lot " +
+                FixedPoint.ToString( 1L, QuantityDecimals ));
+
+        return FixedPoint.ToUnits( q, QuantityDecimals );
     }
 
     /**
@@ -359,59 +760,79 @@ public class Order {
     }
 
     /**
-     * @param p Price
-     * @throws DataFormatException If p is less than or equal to zero
+     * @param p Price as a FixedPoint value
+     * @throws DataFormatException If p is less than or equal to zero,
+     * or is not a whole number of ticks
      */
-    public void setPrice ( double p ) throws DataFormatException
+    public void setPrice ( long p ) throws DataFormatException
     {
-        if ( Double.compare( p, 0D ) <= 0 )
-            throw new DataFormatException("Price " + p +
+        if ( p <= 0L )
+            throw new DataFormatException("Price " +
+                FixedPoint.ToString( p, FixedPoint.Decimals ) +
                 " is zero or negative");
 
-        Price = p;
+        Price = ToTicks(p);
     }
 
     /**
      * Also updates AvailableQuantity by the amount Quantity changes.
      *
-     * @param q Quantity
+     * @param q Quantity as a FixedPoint value
      * @throws DataFormatException If q is less than or equal to zero,
-     * or if the updated AvailableQuantity would be less than or
-     * equal to zero
+     * is not a whole number of lots, or if the updated
+     * AvailableQuantity would be less than or equal to zero
      */
-    public void setQuantity ( double q ) throws DataFormatException
+    public void setQuantity ( long q ) throws DataFormatException
     {
-        double aq = AvailableQuantity + (q - Quantity);
-
-        if ( Double.compare( q, 0D ) <= 0 )
-            throw new DataFormatException("Quantity " + q +
+        if ( q <= 0L )
+            throw new DataFormatException("Quantity " +
+                FixedPoint.ToString( q, FixedPoint.Decimals ) +
                 " is zero or negative");
 
-        if ( Double.compare( aq, 0D ) < 0 )
+        setQuantityLots( ToLots(q) );
+    }
+
+    /**
+     * Also updates AvailableQuantity by the amount Quantity changes.
+     *
+     * @param q Quantity in lots, greater than zero
+     * @throws DataFormatException If the updated AvailableQuantity would
+     * be less than zero
+     */
+    private void setQuantityLots ( long q ) throws DataFormatException
+    {
+        long aq = AvailableQuantity + (q - Quantity);
+
+        if ( aq < 0L )
             throw new DataFormatException("New " +
-                "AvailableQuantity " + aq + " would be negative");
+                "AvailableQuantity " +
+                FixedPoint.ToString( aq, QuantityDecimals ) +
+                " would be negative");
 
         AvailableQuantity = aq;
         Quantity = q;
     }
 
     /**
-     * @param aq AvailableQuantity
-     * @throws DataFormatException If aq is less than or equal to zero,
-     * or if aq is greater than Quantity
+     * @param aq AvailableQuantity as a FixedPoint value
+     * @throws DataFormatException If aq is less than zero, is not a
+     * whole number of lots, or is greater than Quantity
      */
-    public void setAvailableQuantity ( double aq ) throws DataFormatException
+    public void setAvailableQuantity ( long aq ) throws DataFormatException
     {
-        if ( Double.compare( aq, 0D ) < 0 )
+        if ( aq < 0L )
             throw new DataFormatException("New available " +
-                "Quantity " + aq + " is negative");
+                "Quantity " + FixedPoint.ToString( aq, FixedPoint.Decimals ) +
+                " is negative");
 
-        if ( Double.compare( aq, Quantity ) > 0 )
+        long lots = ToLots(aq);
+        if ( lots > Quantity )
             throw new DataFormatException("New " +
-                "AvailableQuantity " + aq + " is greater than " +
-                "total Quantity " + Quantity);
+                "AvailableQuantity " + FixedPoint.ToString( aq, FixedPoint.Decimals ) +
+                " is greater than total Quantity " +
+                FixedPoint.ToString( Quantity, QuantityDecimals ));
 
-        AvailableQuantity = aq;
+        AvailableQuantity = lots;
     }
 
     /**
@@ -456,37 +877,85 @@ public class Order {
     }
 
     /**
-     * @param mfq MinFillQuantity
-     * @throws DataFormatException If mfq is greater than available
-     * quantity
+     * @param mfq MinFillQuantity as a FixedPoint value
+     * @throws DataFormatException If mfq is not a whole number of lots,
+     * or is greater than available quantity
+     */
+    public void setMinFillQuantity ( long mfq ) throws DataFormatException
+    {
+        long lots = ToLots(mfq);
+
+        if ( lots <= AvailableQuantity )
+            MinFillQuantity = lots;
+        else
+            throw new DataFormatException("MinFillQuantity " +
+            FixedPoint.ToString( lots, QuantityDecimals ) + 
+            " is greater than AvailableQuantity " +
+            FixedPoint.ToString( AvailableQuantity, QuantityDecimals ));
+    }
+
+    /**
+     * @param secs Seconds a TWAP or VWAP order is worked over, 0 for the default
+     * @throws DataFormatException If secs is negative
      */
-    public void setMinFillQuantity ( double mfq ) throws DataFormatException
+    public void setDuration ( long secs ) throws DataFormatException
     {
-        if ( Double.compare( mfq, AvailableQuantity ) <= 0 )
-            MinFillQuantity = mfq;
+        if ( secs >= 0L )
+            Duration = secs;
         else
-            throw new DataFormatException("MinFillQuantity " + mfq + 
-            " is greater than AvailableQuantity " + AvailableQuantity);
+            throw new DataFormatException("Duration " + secs +
+            " is negative");
     }
 
     /**
-     * This function's purpose is to calculate the average price
-     * of its executions for FIX reporting. It also updates the
+     * Applies an amend request to this order in place.  The new Price,
+     * Quantity, MinFillQuantity and Duration are taken from the request; the
+     * AvailableQuantity moves by the change in Quantity, and the order
+     * keeps its InternalID and executions.
+     *
+     * @param o The validated amend request
+     * @throws DataFormatException If the request changes the Symbol or
+     * Side, or its quantities do not fit what has been executed; the
+     * order is left unchanged
+     */
+    public void Amend ( Order o ) throws DataFormatException
+    {
+        if ( o.SymbolID != SymbolID )
+            throw new DataFormatException("Symbol cannot be amended");
+
+        if ( o.Side != Side )
+            throw new DataFormatException("Side cannot be amended");
+
+        long aq = AvailableQuantity + (o.Quantity - Quantity);
+        if ( aq < 0L )
+            throw new DataFormatException("Quantity " +
+            FixedPoint.ToString( o.Quantity, QuantityDecimals ) +
+            " is less than CumulativeQuantity " +
+            FixedPoint.ToString( CumulativeQuantity, QuantityDecimals ));
+
+        if ( o.MinFillQuantity > aq )
+            throw new DataFormatException("MinFillQuantity " +
+            FixedPoint.ToString( o.MinFillQuantity, QuantityDecimals ) +
+            " is greater than AvailableQuantity " +
+            FixedPoint.ToString( aq, QuantityDecimals ));
+
+        setQuantityLots(o.Quantity);
+        Price = o.Price;
+        MinFillQuantity = o.MinFillQuantity;
+        Duration = o.Duration;
+    }
+
+    /**
+     * This function's purpose is to accumulate its executions so the
+     * average price for FIX reporting is exact. It also updates the
      * available quantity.
      * 
-     * @param qty Quantity of execution
-     * @param px Price of Execution
+     * @param qty Quantity of execution in lots
+     * @param px Price of Execution in ticks
      */
-    public void Execute ( double qty, double px )
+    public void Execute ( long qty, long px )
     {
-		if ( Double.compare( AveragePrice, 0D ) == 0 ) {
-			AveragePrice = px;
-		} else {
-			Double TotalQuantity = qty + CumulativeQuantity;
-			AveragePrice = ( ( AveragePrice * CumulativeQuantity )  +
-			                 ( px * qty ) )  / TotalQuantity ;
-		}
-		
+		ExecutedNotional += px * qty;
 		AvailableQuantity -= qty;
 		CumulativeQuantity += qty;
     }
@@ -505,13 +974,14 @@ public class Order {
                            "Source=" + Source + "," +
                            "Symbol=" + Symbol + "," +
                            "Side=" + Side + "," +
-                           "Price=" + Price + "," +
-                           "Quantity=" + Quantity + "," +
-                           "AvailableQuantity=" + AvailableQuantity + "," +
+                           "Price=" + FixedPoint.ToString(Price, PriceDecimals) + "," +
+                           "Quantity=" + FixedPoint.ToString(Quantity, QuantityDecimals) + "," +
+                           "AvailableQuantity=" + FixedPoint.ToString(AvailableQuantity, QuantityDecimals) + "," +
                            "Strategy=" + Strategy + "," +
                            "ArriveDate=" + ArriveDate + "," +
                            "Currency=" + Currency + "," +
-                           "MinFillQuantity=" + MinFillQuantity;
+                           "MinFillQuantity=" + FixedPoint.ToString(MinFillQuantity, QuantityDecimals) + "," +
+                           "Duration=" + Duration;
         return returnVal;
     }
 
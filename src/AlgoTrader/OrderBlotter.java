@@ -0,0 +1,362 @@
+/*
+ * OrderBlotter.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * The open orders, indexed by OrderID, Symbol, Customer and Strategy.
+ * OrderIDs are kept in an open-addressed table.  The other indexes are
+ * lists threaded through the orders themselves, so an order is added or
+ * removed in constant time without allocating, and the orders of one
+ * symbol, customer or strategy are walked without looking at any
+ * others:
+ * <pre>
+ *   for ( Order o = blotter.FirstBySymbol(id); o != null;
+ *         o = o.getNext(OrderBlotter.BYSYMBOL) )
+ * </pre>
+ * The tables only allocate when they grow.  Not thread-safe; the
+ * blotter belongs to the thread that enters orders.
+ */
+public class OrderBlotter {
+
+    /** Secondary indexes, used to walk their lists. */
+    public static final int BYSYMBOL   = 0;
+    public static final int BYCUSTOMER = 1;
+    public static final int BYSTRATEGY = 2;
+    public static final int INDEXES    = 3;
+
+    /** Open orders by hash of OrderID, null for an empty slot. */
+    private Order[] ByID;
+
+    /** Number of open orders. */
+    private int Count;
+
+    /** First order of each symbol's list, indexed by SymbolID. */
+    private Order[] SymbolHeads;
+
+    /** Length of each symbol's list, indexed by SymbolID. */
+    private int[] SymbolCounts;
+
+    /** Lists by Customer. */
+    private KeyIndex Customers;
+
+    /** Lists by Strategy. */
+    private KeyIndex Strategies;
+
+    /**
+     * Open-addressed table of named lists.  Names are kept once seen,
+     * so a customer's list is only created the first time it trades.
+     */
+    private static class KeyIndex {
+
+        /** Name of each slot, null for an empty slot. */
+        String[] Keys;
+
+        /** First order of each slot's list. */
+        Order[] Heads;
+
+        /** Length of each slot's list. */
+        int[] Counts;
+
+        /** Number of slots in use. */
+        int Used;
+
+        KeyIndex ( int size ) {
+            Keys = new String[size];
+            Heads = new Order[size];
+            Counts = new int[size];
+            Used = 0;
+        }
+
+        /**
+         * @param key Name of the list
+         * @param create True to add the name if it is not yet known
+         * @return Slot of the list, or -1 if it is unknown and not created
+         */
+        int Slot ( String key, boolean create ) {
+            int mask = Keys.length - 1;
+            int slot = Mix(key.hashCode()) & mask;
+
+            while ( Keys[slot] != null ) {
+                if ( Keys[slot].equals(key) )
+                    return slot;
+                slot = ( slot + 1 ) & mask;
+            }
+
+            if ( !create )
+                return -1;
+
+            if ( ( Used + 1 ) * 2 > Keys.length ) {
+                Grow();
+                return Slot(key, true);
+            }
+
+            Keys[slot] = key;
+            Used++;
+            return slot;
+        }
+
+        /**
+         * Doubles the table, keeping every list.
+         */
+        private void Grow () {
+            String[] keys = Keys;
+            Order[] heads = Heads;
+            int[] counts = Counts;
+
+            Keys = new String[keys.length * 2];
+            Heads = new Order[keys.length * 2];
+            Counts = new int[keys.length * 2];
+            Used = 0;
+
+            for ( int i = 0; i < keys.length; i++ ) {
+                if ( keys[i] == null )
+                    continue;
+                int slot = Slot(keys[i], true);
+                Heads[slot] = heads[i];
+                Counts[slot] = counts[i];
+            }
+        }
+    }
+
+    /**
+     * @param capacity Number of open orders expected, the table grows
+     * past it if needed
+     */
+    public OrderBlotter ( int capacity ) {
+        int size = 16;
+        while ( size < capacity * 2 )
+            size <<= 1;
+
+        ByID = new Order[size];
+        Count = 0;
+
+        int symbols = SymbolRegistry.getInstance().getCapacity();
+        SymbolHeads = new Order[symbols];
+        SymbolCounts = new int[symbols];
+
+        Customers = new KeyIndex(64);
+        Strategies = new KeyIndex(16);
+    }
+
+    /**
+     * Spreads the bits of a String hash code over the table index.
+     */
+    private static int Mix ( int h ) {
+        return h ^ ( h >>> 16 );
+    }
+
+    /**
+     * @param orderID OrderID of an open order
+     * @return Slot of the order in ByID, or of the empty slot that ends
+     * its probe if it is not open
+     */
+    private int FindSlot ( String orderID ) {
+        int mask = ByID.length - 1;
+        int slot = Mix(orderID.hashCode()) & mask;
+
+        while ( ByID[slot] != null && !ByID[slot].getOrderID().equals(orderID) )
+            slot = ( slot + 1 ) & mask;
+        return slot;
+    }
+
+    /**
+     * @param orderID OrderID of the order
+     * @return The open order, or null if there is none
+     */
+    public Order Get ( String orderID ) {
+        return ByID[FindSlot(orderID)];
+    }
+
+    /**
+     * Adds an order to every index.
+     *
+     * @param o The order
+     * @return False if an order with the same OrderID is already open
+     */
+    public boolean Add ( Order o ) {
+        int slot = FindSlot(o.getOrderID());
+        if ( ByID[slot] != null )
+            return false;
+
+        if ( ( Count + 1 ) * 2 > ByID.length ) {
+            Grow();
+            slot = FindSlot(o.getOrderID());
+        }
+
+        ByID[slot] = o;
+        Count++;
+
+        int symbolID = o.getSymbolID();
+        Link(o, BYSYMBOL, SymbolHeads, SymbolCounts, symbolID);
+
+        int c = Customers.Slot(o.getCustomer(), true);
+        Link(o, BYCUSTOMER, Customers.Heads, Customers.Counts, c);
+
+        int s = Strategies.Slot(o.getStrategy(), true);
+        Link(o, BYSTRATEGY, Strategies.Heads, Strategies.Counts, s);
+
+        return true;
+    }
+
+    /**
+     * Removes an order from every index.
+     *
+     * @param orderID OrderID of the order
+     * @return The removed order, or null if there was none
+     */
+    public Order Remove ( String orderID ) {
+        int slot = FindSlot(orderID);
+        Order o = ByID[slot];
+        if ( o == null )
+            return null;
+
+        // shift later orders of the probe back so none is cut off
+        int mask = ByID.length - 1;
+        int hole = slot;
+        int next = ( slot + 1 ) & mask;
+        while ( ByID[next] != null ) {
+            int home = Mix(ByID[next].getOrderID().hashCode()) & mask;
+            if ( ( ( next - home ) & mask ) >= ( ( next - hole ) & mask ) ) {
+                ByID[hole] = ByID[next];
+                hole = next;
+            }
+            next = ( next + 1 ) & mask;
+        }
+        ByID[hole] = null;
+        Count--;
+
+        Unlink(o, BYSYMBOL, SymbolHeads, SymbolCounts, o.getSymbolID());
+
+        int c = Customers.Slot(o.getCustomer(), false);
+        Unlink(o, BYCUSTOMER, Customers.Heads, Customers.Counts, c);
+
+        int s = Strategies.Slot(o.getStrategy(), false);
+        Unlink(o, BYSTRATEGY, Strategies.Heads, Strategies.Counts, s);
+
+        return o;
+    }
+
+    /**
+     * Doubles the OrderID table.
+     */
+    private void Grow () {
+        Order[] old = ByID;
+        ByID = new Order[old.length * 2];
+
+        for ( Order o : old ) {
+            if ( o != null )
+                ByID[FindSlot(o.getOrderID())] = o;
+        }
+    }
+
+    /**
+     * Puts an order at the front of one of its lists.
+     */
+    private static void Link ( Order o, int index, Order[] heads, int[] counts, int slot ) {
+        Order head = heads[slot];
+
+        o.Next[index] = head;
+        o.Prev[index] = null;
+        if ( head != null )
+            head.Prev[index] = o;
+
+        heads[slot] = o;
+        counts[slot]++;
+    }
+
+    /**
+     * Takes an order out of one of its lists.
+     */
+    private static void Unlink ( Order o, int index, Order[] heads, int[] counts, int slot ) {
+        Order prev = o.Prev[index];
+        Order next = o.Next[index];
+
+        if ( prev == null )
+            heads[slot] = next;
+        else
+            prev.Next[index] = next;
+
+        if ( next != null )
+            next.Prev[index] = prev;
+
+        o.Next[index] = o.Prev[index] = null;
+        counts[slot]--;
+    }
+
+    /**
+     * @return Number of open orders
+     */
+    public int getCount () {
+        return Count;
+    }
+
+    /**
+     * @param symbolID Identifier of the symbol
+     * @return First open order of the symbol, or null if there is none
+     */
+    public Order FirstBySymbol ( int symbolID ) {
+        return SymbolHeads[symbolID];
+    }
+
+    /**
+     * @param symbolID Identifier of the symbol
+     * @return Number of open orders of the symbol
+     */
+    public int CountBySymbol ( int symbolID ) {
+        return SymbolCounts[symbolID];
+    }
+
+    /**
+     * @param customer The customer
+     * @return First open order of the customer, or null if there is none
+     */
+    public Order FirstByCustomer ( String customer ) {
+        int slot = Customers.Slot(customer, false);
+        return slot < 0 ? null : Customers.Heads[slot];
+    }
+
+    /**
+     * @param customer The customer
+     * @return Number of open orders of the customer
+     */
+    public int CountByCustomer ( String customer ) {
+        int slot = Customers.Slot(customer, false);
+        return slot < 0 ? 0 : Customers.Counts[slot];
+    }
+
+    /**
+     * @param strategy The strategy
+     * @return First open order of the strategy, or null if there is none
+     */
+    public Order FirstByStrategy ( String strategy ) {
+        int slot = Strategies.Slot(strategy, false);
+        return slot < 0 ? null : Strategies.Heads[slot];
+    }
+
+    /**
+     * @param strategy The strategy
+     * @return Number of open orders of the strategy
+     */
+    public int CountByStrategy ( String strategy ) {
+        int slot = Strategies.Slot(strategy, false);
+        return slot < 0 ? 0 : Strategies.Counts[slot];
+    }
+}
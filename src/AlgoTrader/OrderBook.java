@@ -0,0 +1,486 @@
+/*
+ * OrderBook.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Depth of book for a single symbol.  Each side is kept as a pair of
+ * parallel price/quantity arrays sorted best price first, so the book
+ * can be rebuilt in place on every snapshot and read without creating
+ * any objects.  Arrays only grow when a book is deeper than it has
+ * ever been before.  Between snapshots, single levels can be changed
+ * in place from incremental updates, which carry a sequence number so
+ * a gap in the feed marks the book as stale.  Prices are kept in ticks
+ * and quantities in lots of the symbol, so levels are matched exactly.
+ */
+public class OrderBook {
+
+    /** Number of levels allocated per side for a new book. */
+    private static final int InitialDepth = 16;
+
+    /** The symbol this book belongs to. */
+    private String Symbol;
+
+    /** Identifier of Symbol in the SymbolRegistry. */
+    private int SymbolID;
+
+    /** Decimal places of prices and quantities. */
+    private int PriceDecimals, QuantityDecimals;
+
+    /** Bid prices in ticks, highest first. */
+    private long[] BidPrices;
+
+    /** Bid quantities in lots, parallel to BidPrices. */
+    private long[] BidQuantities;
+
+    /** Number of valid bid levels. */
+    private int BidDepth;
+
+    /** Offer prices in ticks, lowest first. */
+    private long[] OfferPrices;
+
+    /** Offer quantities in lots, parallel to OfferPrices. */
+    private long[] OfferQuantities;
+
+    /** Number of valid offer levels. */
+    private int OfferDepth;
+
+    /** Sequence number of the last message applied, -1 if the feed
+     *  does not sequence this symbol. */
+    private long Sequence;
+
+    /** True when the book has missed an update and is waiting for a
+     *  new snapshot. */
+    private boolean Stale;
+
+    /** Lots traded in the symbol since the book was created.  Kept
+     *  through Clear, and copied with the levels, so the count survives
+     *  snapshots and conflation. */
+    private long TradedLots;
+
+    /**
+     * Creates an empty book of a registered symbol.
+     *
+     * @param id SymbolID
+     * @param s Symbol
+     */
+    public OrderBook ( int id, String s ) {
+        this(id, s, SymbolRegistry.getInstance().getPriceDecimals(id),
+             SymbolRegistry.getInstance().getQuantityDecimals(id));
+    }
+
+    /**
+     * Creates an empty book.
+     *
+     * @param id SymbolID, -1 if the symbol is not registered
+     * @param s Symbol
+     * @param priceDecimals Decimal places of prices
+     * @param qtyDecimals Decimal places of quantities
+     */
+    public OrderBook ( int id, String s, int priceDecimals, int qtyDecimals ) {
+        SymbolID = id;
+        Symbol = s;
+        PriceDecimals = priceDecimals;
+        QuantityDecimals = qtyDecimals;
+        BidPrices = new long[InitialDepth];
+        BidQuantities = new long[InitialDepth];
+        OfferPrices = new long[InitialDepth];
+        OfferQuantities = new long[InitialDepth];
+        BidDepth = OfferDepth = 0;
+        Sequence = -1L;
+        Stale = true;
+        TradedLots = 0L;
+    }
+
+    /**
+     * Removes all levels from both sides.  Storage is kept for reuse.
+     */
+    public void Clear () {
+        BidDepth = OfferDepth = 0;
+    }
+
+    /**
+     * Makes this book an exact copy of another book of the same
+     * symbol.  Arrays are reused, and only grow if the other book is
+     * deeper.
+     *
+     * @param other The book to copy
+     */
+    public void CopyFrom ( OrderBook other ) {
+        if ( BidPrices.length < other.BidDepth ) {
+            BidPrices = new long[other.BidPrices.length];
+            BidQuantities = new long[other.BidPrices.length];
+        }
+        if ( OfferPrices.length < other.OfferDepth ) {
+            OfferPrices = new long[other.OfferPrices.length];
+            OfferQuantities = new long[other.OfferPrices.length];
+        }
+
+        System.arraycopy(other.BidPrices, 0, BidPrices, 0, other.BidDepth);
+        System.arraycopy(other.BidQuantities, 0, BidQuantities, 0, other.BidDepth);
+        System.arraycopy(other.OfferPrices, 0, OfferPrices, 0, other.OfferDepth);
+        System.arraycopy(other.OfferQuantities, 0, OfferQuantities, 0, other.OfferDepth);
+
+        BidDepth = other.BidDepth;
+        OfferDepth = other.OfferDepth;
+        Sequence = other.Sequence;
+        Stale = other.Stale;
+        TradedLots = other.TradedLots;
+    }
+
+    /**
+     * Inserts a bid level, keeping the bids sorted highest first.  A
+     * price that is already in the book has the quantity added to it.
+     *
+     * @param px Price of the level in ticks
+     * @param qty Quantity at the level in lots
+     */
+    public void AddBid ( long px, long qty ) {
+        int i = BidDepth;
+
+        // levels normally arrive best first, so scan from the back
+        while ( i > 0 && BidPrices[i-1] < px )
+            i--;
+
+        if ( i > 0 && BidPrices[i-1] == px ) {
+            BidQuantities[i-1] += qty;
+            return;
+        }
+
+        if ( BidDepth == BidPrices.length ) {
+            BidPrices = Grow(BidPrices);
+            BidQuantities = Grow(BidQuantities);
+        }
+
+        System.arraycopy(BidPrices, i, BidPrices, i + 1, BidDepth - i);
+        System.arraycopy(BidQuantities, i, BidQuantities, i + 1, BidDepth - i);
+        BidPrices[i] = px;
+        BidQuantities[i] = qty;
+        BidDepth++;
+    }
+
+    /**
+     * Inserts an offer level, keeping the offers sorted lowest first.
+     * A price that is already in the book has the quantity added to it.
+     *
+     * @param px Price of the level in ticks
+     * @param qty Quantity at the level in lots
+     */
+    public void AddOffer ( long px, long qty ) {
+        int i = OfferDepth;
+
+        // levels normally arrive best first, so scan from the back
+        while ( i > 0 && OfferPrices[i-1] > px )
+            i--;
+
+        if ( i > 0 && OfferPrices[i-1] == px ) {
+            OfferQuantities[i-1] += qty;
+            return;
+        }
+
+        if ( OfferDepth == OfferPrices.length ) {
+            OfferPrices = Grow(OfferPrices);
+            OfferQuantities = Grow(OfferQuantities);
+        }
+
+        System.arraycopy(OfferPrices, i, OfferPrices, i + 1, OfferDepth - i);
+        System.arraycopy(OfferQuantities, i, OfferQuantities, i + 1, OfferDepth - i);
+        OfferPrices[i] = px;
+        OfferQuantities[i] = qty;
+        OfferDepth++;
+    }
+
+    /**
+     * Sets the quantity of a bid level.  A new price is inserted in
+     * order, an existing price is changed, and a zero quantity deletes
+     * the level.
+     *
+     * @param px Price of the level in ticks
+     * @param qty New quantity at the level in lots
+     */
+    public void SetBid ( long px, long qty ) {
+        int i = Find(BidPrices, BidDepth, px, true);
+
+        if ( i >= 0 ) {
+            if ( qty > 0L ) {
+                BidQuantities[i] = qty;
+            } else {
+                BidDepth--;
+                System.arraycopy(BidPrices, i + 1, BidPrices, i, BidDepth - i);
+                System.arraycopy(BidQuantities, i + 1, BidQuantities, i, BidDepth - i);
+            }
+        } else if ( qty > 0L ) {
+            AddBid(px, qty);
+        }
+    }
+
+    /**
+     * Sets the quantity of an offer level.  A new price is inserted in
+     * order, an existing price is changed, and a zero quantity deletes
+     * the level.
+     *
+     * @param px Price of the level in ticks
+     * @param qty New quantity at the level in lots
+     */
+    public void SetOffer ( long px, long qty ) {
+        int i = Find(OfferPrices, OfferDepth, px, false);
+
+        if ( i >= 0 ) {
+            if ( qty > 0L ) {
+                OfferQuantities[i] = qty;
+            } else {
+                OfferDepth--;
+                System.arraycopy(OfferPrices, i + 1, OfferPrices, i, OfferDepth - i);
+                System.arraycopy(OfferQuantities, i + 1, OfferQuantities, i, OfferDepth - i);
+            }
+        } else if ( qty > 0L ) {
+            AddOffer(px, qty);
+        }
+    }
+
+    /**
+     * Binary search for a price on one side of the book.
+     *
+     * @param prices Price array of the side
+     * @param depth Number of valid levels
+     * @param px Price to find in ticks
+     * @param descending True for bids, which are sorted highest first
+     * @return Index of the level, or -1 if the price is not in the book
+     */
+    private static int Find ( long[] prices, int depth, long px, boolean descending ) {
+        int lo = 0;
+        int hi = depth - 1;
+
+        while ( lo <= hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            int cmp = Long.compare( prices[mid], px );
+            if ( descending )
+                cmp = -cmp;
+
+            if ( cmp < 0 )
+                lo = mid + 1;
+            else if ( cmp > 0 )
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Doubles the length of a level array, keeping its contents.
+     *
+     * @param a The array to grow
+     * @return The larger copy
+     */
+    private static long[] Grow ( long[] a ) {
+        long[] b = new long[a.length * 2];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    /**
+     * Counts volume traded in the symbol.
+     *
+     * @param lots Lots traded
+     */
+    public void AddTraded ( long lots ) {
+        TradedLots += lots;
+    }
+
+    /**
+     * @return Lots traded in the symbol since the book was created
+     */
+    public long getTradedLots () {
+        return TradedLots;
+    }
+
+    /**
+     * @return Symbol
+     */
+    public String getSymbol () {
+        return Symbol;
+    }
+
+    /**
+     * @return SymbolID
+     */
+    public int getSymbolID () {
+        return SymbolID;
+    }
+
+    /**
+     * @return Decimal places of prices
+     */
+    public int getPriceDecimals () {
+        return PriceDecimals;
+    }
+
+    /**
+     * @return Decimal places of quantities
+     */
+    public int getQuantityDecimals () {
+        return QuantityDecimals;
+    }
+
+    /**
+     * @return Sequence number of the last message applied, -1 if the
+     * feed does not sequence this symbol
+     */
+    public long getSequence () {
+        return Sequence;
+    }
+
+    /**
+     * @param seq Sequence number of the message just applied
+     */
+    public void setSequence ( long seq ) {
+        Sequence = seq;
+    }
+
+    /**
+     * @return True if the book is waiting for a snapshot after a gap
+     */
+    public boolean isStale () {
+        return Stale;
+    }
+
+    /**
+     * @param s Whether the book is waiting for a snapshot
+     */
+    public void setStale ( boolean s ) {
+        Stale = s;
+    }
+
+    /**
+     * @return Number of bid levels
+     */
+    public int getBidDepth () {
+        return BidDepth;
+    }
+
+    /**
+     * @return Number of offer levels
+     */
+    public int getOfferDepth () {
+        return OfferDepth;
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best bid
+     * @return Price at the level, NaN if the level does not exist
+     */
+    public double getBidPrice ( int level ) {
+        return level < BidDepth ? FixedPoint.ToDouble(BidPrices[level], PriceDecimals) : Double.NaN;
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best bid
+     * @return Price at the level in ticks, zero if the level does not exist
+     */
+    public long getBidTicks ( int level ) {
+        return level < BidDepth ? BidPrices[level] : 0L;
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best bid
+     * @return Quantity at the level, zero if the level does not exist
+     */
+    public double getBidQuantity ( int level ) {
+        return FixedPoint.ToDouble(getBidLots(level), QuantityDecimals);
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best bid
+     * @return Quantity at the level in lots, zero if the level does not exist
+     */
+    public long getBidLots ( int level ) {
+        return level < BidDepth ? BidQuantities[level] : 0L;
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best offer
+     * @return Price at the level, NaN if the level does not exist
+     */
+    public double getOfferPrice ( int level ) {
+        return level < OfferDepth ? FixedPoint.ToDouble(OfferPrices[level], PriceDecimals) : Double.NaN;
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best offer
+     * @return Price at the level in ticks, zero if the level does not exist
+     */
+    public long getOfferTicks ( int level ) {
+        return level < OfferDepth ? OfferPrices[level] : 0L;
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best offer
+     * @return Quantity at the level, zero if the level does not exist
+     */
+    public double getOfferQuantity ( int level ) {
+        return FixedPoint.ToDouble(getOfferLots(level), QuantityDecimals);
+    }
+
+    /**
+     * @param level Zero-based level, zero being the best offer
+     * @return Quantity at the level in lots, zero if the level does not exist
+     */
+    public long getOfferLots ( int level ) {
+        return level < OfferDepth ? OfferQuantities[level] : 0L;
+    }
+
+    /**
+     * @return Best bid price, NaN if there are no bids
+     */
+    public double getBestBid () {
+        return getBidPrice(0);
+    }
+
+    /**
+     * @return Best offer price, NaN if there are no offers
+     */
+    public double getBestOffer () {
+        return getOfferPrice(0);
+    }
+
+    /**
+     * Used for logging.
+     *
+     * @return Both sides of the book as a String
+     */
+    public String toString () {
+        StringBuilder sb = new StringBuilder(Symbol);
+
+        sb.append(",BID");
+        for ( int i = 0; i < BidDepth; i++ ) {
+            FixedPoint.Append(sb.append(','), BidPrices[i], PriceDecimals);
+            FixedPoint.Append(sb.append(','), BidQuantities[i], QuantityDecimals);
+        }
+
+        sb.append(",OFFER");
+        for ( int i = 0; i < OfferDepth; i++ ) {
+            FixedPoint.Append(sb.append(','), OfferPrices[i], PriceDecimals);
+            FixedPoint.Append(sb.append(','), OfferQuantities[i], QuantityDecimals);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * OrderDecoder.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Decodes order messages straight from the bytes read off a session:
+ * <pre>
+ *   LOGON|NEW|AMEND|CANCEL|EXEC,Tag=value,Tag=value,...
+ * </pre>
+ * The message is scanned once.  Each tag is found by its case-blind
+ * hash in a table built when the class loads, numbers are parsed in
+ * place as FixedPoint values, and text values are recorded as ranges of
+ * the buffer in a reused OrderRequest.  Fields that are not "Tag=value"
+ * pairs, and unknown tags, are ignored.
+ *
+ * @see OrderRequest
+ */
+public class OrderDecoder {
+
+    /** Result codes returned by Decode. */
+    public static final int UNKNOWN   = 0;
+    public static final int NEW       = 1;
+    public static final int AMEND     = 2;
+    public static final int CANCEL    = 3;
+    public static final int PING      = 4;
+    public static final int END       = 5;
+    public static final int MALFORMED = 6;
+    public static final int EXEC      = 7;
+    public static final int LOGON     = 8;
+
+    /** Message literals. */
+    private static final byte[] NewCmd    = Ascii.Bytes("NEW");
+    private static final byte[] AmendCmd  = Ascii.Bytes("AMEND");
+    private static final byte[] CancelCmd = Ascii.Bytes("CANCEL");
+    private static final byte[] ExecCmd   = Ascii.Bytes("EXEC");
+    private static final byte[] LogonCmd  = Ascii.Bytes("LOGON");
+    private static final byte[] PingCmd   = Ascii.Bytes("PING");
+    private static final byte[] EndCmd    = Ascii.Bytes("END");
+
+    /** Numeric and side tags, after the OrderRequest text fields. */
+    private static final int PRICE             = OrderRequest.TEXTFIELDS;
+    private static final int QUANTITY          = PRICE + 1;
+    private static final int AVAILABLEQUANTITY = PRICE + 2;
+    private static final int MINFILLQUANTITY   = PRICE + 3;
+    private static final int SIDE              = PRICE + 4;
+    private static final int DURATION          = PRICE + 5;
+
+    /** Tag names, indexed by tag. */
+    private static final String[] TagNames = {
+        "OrderID", "Symbol", "Customer", "ArriveDate", "Strategy", "Currency",
+        "Session", "Price", "Quantity", "AvailableQuantity", "MinFillQuantity", "Side",
+        "Duration"
+    };
+
+    /** Size of the tag table, a power of two well above the tag count. */
+    private static final int TableSize = 64;
+
+    /** Upper case tag names, by hash slot, null for an empty slot. */
+    private static final byte[][] TableNames = new byte[TableSize][];
+
+    /** Tag of each hash slot. */
+    private static final int[] TableTags = new int[TableSize];
+
+    static {
+        for ( int tag = 0; tag < TagNames.length; tag++ ) {
+            byte[] upper = Ascii.Bytes(TagNames[tag].toUpperCase());
+            int slot = Ascii.HashIgnoreCase(upper, 0, upper.length) & ( TableSize - 1 );
+            while ( TableNames[slot] != null )
+                slot = ( slot + 1 ) & ( TableSize - 1 );
+            TableNames[slot] = upper;
+            TableTags[slot] = tag;
+        }
+    }
+
+    /** Decimal places numbers are parsed to. */
+    private static final int Decimals = FixedPoint.Decimals;
+
+    /** Description of the last MALFORMED message. */
+    private String ErrorText;
+
+    /**
+     * Creates a decoder.  Each session has its own.
+     */
+    public OrderDecoder () {
+        ErrorText = "";
+    }
+
+    /**
+     * Finds a tag by name, ignoring case.
+     *
+     * @param buf Buffer holding the name
+     * @param off Start of the name
+     * @param len Length of the name
+     * @return The tag, or -1 if the name is not a known tag
+     */
+    private static int FindTag ( byte[] buf, int off, int len ) {
+        int slot = Ascii.HashIgnoreCase(buf, off, len) & ( TableSize - 1 );
+
+        while ( TableNames[slot] != null ) {
+            if ( Ascii.MatchesIgnoreCase(buf, off, len, TableNames[slot]) )
+                return TableTags[slot];
+            slot = ( slot + 1 ) & ( TableSize - 1 );
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes one message.  The line terminator must not be included.
+     *
+     * @param buf Buffer holding the message
+     * @param off Start of the message
+     * @param len Length of the message
+     * @param req Receives the fields of a LOGON, NEW, AMEND, CANCEL or
+     * EXEC
+     * @return One of the result codes above
+     */
+    public int Decode ( byte[] buf, int off, int len, OrderRequest req ) {
+        int end = off + len;
+        int comma = Ascii.IndexOf(buf, off, end, (byte)',');
+        int cmdLen = comma - off;
+        int cmd;
+
+        if ( Ascii.Matches(buf, off, cmdLen, NewCmd) )
+            cmd = NEW;
+        else if ( Ascii.Matches(buf, off, cmdLen, AmendCmd) )
+            cmd = AMEND;
+        else if ( Ascii.Matches(buf, off, cmdLen, CancelCmd) )
+            cmd = CANCEL;
+        else if ( Ascii.Matches(buf, off, cmdLen, ExecCmd) )
+            cmd = EXEC;
+        else if ( Ascii.Matches(buf, off, cmdLen, LogonCmd) )
+            cmd = LOGON;
+        else if ( Ascii.Matches(buf, off, len, PingCmd) )
+            return PING;
+        else if ( Ascii.Matches(buf, off, len, EndCmd) )
+            return END;
+        else
+            return UNKNOWN;
+
+        req.Reset(buf);
+
+        int pos = comma + 1;
+        while ( pos < end ) {
+            int next = Ascii.IndexOf(buf, pos, end, (byte)',');
+            int equals = Ascii.IndexOf(buf, pos, next, (byte)'=');
+
+            // only fields of exactly one name and one value count
+            if ( equals > pos && equals + 1 < next &&
+                 Ascii.IndexOf(buf, equals + 1, next, (byte)'=') == next )
+            {
+                int tag = FindTag(buf, pos, equals - pos);
+                int vOff = equals + 1;
+                int vLen = next - vOff;
+
+                try {
+                    switch ( tag ) {
+                        case PRICE:
+                            req.Price = Ascii.ParseFixed(buf, vOff, vLen, Decimals);
+                            break;
+                        case QUANTITY:
+                            req.Quantity = Ascii.ParseFixed(buf, vOff, vLen, Decimals);
+                            break;
+                        case AVAILABLEQUANTITY:
+                            req.AvailableQuantity = Ascii.ParseFixed(buf, vOff, vLen, Decimals);
+                            break;
+                        case MINFILLQUANTITY:
+                            req.MinFillQuantity = Ascii.ParseFixed(buf, vOff, vLen, Decimals);
+                            break;
+                        case SIDE:
+                            req.Side = (char)( buf[vOff] & 0xFF );
+                            break;
+                        case DURATION:
+                            req.Duration = Ascii.ParseLong(buf, vOff, vLen);
+                            break;
+                        case -1:
+                            break;
+                        default:
+                            req.setText(tag, vOff, vLen);
+                            break;
+                    }
+                } catch ( NumberFormatException e ) {
+                    ErrorText = TagNames[tag] + " is not a number";
+                    return MALFORMED;
+                }
+            }
+
+            pos = next + 1;
+        }
+
+        return cmd;
+    }
+
+    /**
+     * @return Description of the last MALFORMED message
+     */
+    public String getErrorText () {
+        return ErrorText;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * OrderEventQueue.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free ring that hands order events from the thread that enters
+ * orders to an EventLoop.  Each slot holds an Order that the event's
+ * order is copied into, so the loop works from values rather than
+ * sharing the producer's objects, and nothing is allocated once the
+ * ring is built.  There is one producer and one consumer; a producer
+ * that finds the ring full waits for the consumer, and is counted,
+ * unless it uses TryOffer.  Each EventLoop also reports strategy
+ * progress back to the order entry thread on a ring of its own.
+ * <pre>
+ *   int n = queue.Poll();
+ *   if ( n >= 0 ) {
+ *       ... queue.getType(n), queue.getOrder(n) ...
+ *       queue.Done();
+ *   }
+ * </pre>
+ */
+public class OrderEventQueue {
+
+    /** Event types. */
+    public static final int NEW    = 1;
+    public static final int AMEND  = 2;
+    public static final int CANCEL = 3;
+    public static final int FILL   = 4;
+
+    /** An order recovered at startup, with its journaled progress. */
+    public static final int RECOVER  = 5;
+
+    /** Progress of a strategy, from an EventLoop. */
+    public static final int PROGRESS = 6;
+
+    /** Copy of the order of each slot's event. */
+    private Order[] Orders;
+
+    /** Type of each slot's event. */
+    private int[] Types;
+
+    /** Lots and ticks of each slot's FILL. */
+    private long[] FillLots, FillTicks;
+
+    /** Ring index mask. */
+    private int Mask;
+
+    /** Number of events published.  Written by the producer. */
+    private AtomicLong Tail;
+
+    /** Number of events consumed.  Written by the consumer. */
+    private AtomicLong Head;
+
+    /** The consumer thread while it may park, otherwise null. */
+    private volatile Thread Waiter;
+
+    /** Number of times the producer found the ring full. */
+    private AtomicLong FullCount;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    public OrderEventQueue ( int capacity ) {
+        int size = 1;
+        while ( size < capacity )
+            size <<= 1;
+
+        Orders = new Order[size];
+        for ( int i = 0; i < size; i++ )
+            Orders[i] = new Order();
+        Types = new int[size];
+        FillLots = new long[size];
+        FillTicks = new long[size];
+        Mask = size - 1;
+
+        Tail = new AtomicLong(0L);
+        Head = new AtomicLong(0L);
+        Waiter = null;
+        FullCount = new AtomicLong(0L);
+    }
+
+    /**
+     * Publishes an event, waiting for room.  Producer thread only.
+     *
+     * @param type One of the event types
+     * @param o The order as it is after the event
+     * @param lots Lots of a FILL
+     * @param ticks Price of a FILL in ticks
+     */
+    public void Offer ( int type, Order o, long lots, long ticks ) {
+        if ( TryOffer(type, o, lots, ticks) )
+            return;
+
+        FullCount.incrementAndGet();
+        while ( !TryOffer(type, o, lots, ticks) )
+            LockSupport.parkNanos(1000L);
+    }
+
+    /**
+     * Publishes an event if there is room.  Producer thread only.
+     *
+     * @param type One of the event types
+     * @param o The order as it is after the event
+     * @param lots Lots of a FILL
+     * @param ticks Price of a FILL in ticks
+     * @return False if the ring is full
+     */
+    public boolean TryOffer ( int type, Order o, long lots, long ticks ) {
+        long tail = Tail.get();
+        if ( tail - Head.get() > Mask )
+            return false;
+
+        int i = (int)( tail & Mask );
+        Orders[i].CopyFrom(o);
+        Types[i] = type;
+        FillLots[i] = lots;
+        FillTicks[i] = ticks;
+        Tail.set(tail + 1);
+
+        Thread w = Waiter;
+        if ( w != null )
+            LockSupport.unpark(w);
+        return true;
+    }
+
+    /**
+     * Looks at the next event.  Consumer thread only.
+     *
+     * @return Slot of the event, or -1 if there is none
+     */
+    public int Poll () {
+        long head = Head.get();
+        if ( head == Tail.get() )
+            return -1;
+        return (int)( head & Mask );
+    }
+
+    /**
+     * Frees the slot of the event returned by Poll.  Consumer thread
+     * only.
+     */
+    public void Done () {
+        Head.lazySet(Head.get() + 1);
+    }
+
+    /**
+     * @param slot Slot returned by Poll
+     * @return The event type
+     */
+    public int getType ( int slot ) {
+        return Types[slot];
+    }
+
+    /**
+     * @param slot Slot returned by Poll
+     * @return Copy of the order, valid until Done
+     */
+    public Order getOrder ( int slot ) {
+        return Orders[slot];
+    }
+
+    /**
+     * @param slot Slot of a FILL returned by Poll
+     * @return Lots filled
+     */
+    public long getFillLots ( int slot ) {
+        return FillLots[slot];
+    }
+
+    /**
+     * @param slot Slot of a FILL returned by Poll
+     * @return Price of the fill in ticks
+     */
+    public long getFillTicks ( int slot ) {
+        return FillTicks[slot];
+    }
+
+    /**
+     * @return True if no event is waiting.  Consumer thread only.
+     */
+    public boolean isEmpty () {
+        return Head.get() == Tail.get();
+    }
+
+    /**
+     * Marks the calling consumer as about to park, or no longer about
+     * to, so an event published meanwhile wakes it.  The consumer must
+     * check isEmpty after setting it and before parking.
+     *
+     * @param t The consumer thread, or null
+     */
+    public void setWaiter ( Thread t ) {
+        Waiter = t;
+    }
+
+    /**
+     * @return Number of times the producer found the ring full
+     */
+    public long getFullCount () {
+        return FullCount.get();
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * OrderJournal.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.util.zip.DataFormatException;
+
+/**
+ * Write-ahead journal of the order events accepted by the Trader, kept
+ * in a MappedJournal.  Each event is encoded into a reused buffer and
+ * copied into the mapping, so journaling costs a few microseconds and
+ * does not allocate.  When the mapped pages reach the disk depends on
+ * ORDERJOURNALSYNC:
+ * <pre>
+ *   ALWAYS    force after every event
+ *   INTERVAL  force after an event once ORDERJOURNALSYNCMS have passed
+ *             since the last force
+ *   NEVER     leave it to the operating system
+ * </pre>
+ * The pages survive the process dying under any policy; the policy
+ * only matters if the machine goes down.  At startup the journal is
+ * replayed through the Trader to rebuild the blotter, including the
+ * executions of each order.  Used by the order entry thread only.
+ *
+ * Every payload starts with the OrderID.  Text is written as an
+ * unsigned short length and ISO-8859-1 bytes, prices and quantities as
+ * big-endian long FixedPoint values, so they replay exactly whatever
+ * PRICEDECIMALS and QUANTITYDECIMALS are set to:
+ * <pre>
+ *   NEW, AMEND  OrderID InternalID Symbol Customer Source ArriveDate
+ *               Strategy Currency, byte Side, Price Quantity
+ *               AvailableQuantity MinFillQuantity, long Duration
+ *   CANCEL      OrderID
+ *   EXEC        OrderID, Quantity Price
+ *   PROGRESS    OrderID, long epoch nanoseconds the strategy started,
+ *               int Slice, SliceBase SlicedLots, int Children
+ * </pre>
+ * The record type in the MappedJournal carries FormatVersion above the
+ * event type, so a journal written in another format is refused at
+ * startup rather than misread.
+ */
+public class OrderJournal {
+
+    /** Journal record types. */
+    public static final int NewRecord      = 1;
+    public static final int AmendRecord    = 2;
+    public static final int CancelRecord   = 3;
+    public static final int ExecRecord     = 4;
+    public static final int ProgressRecord = 5;
+
+    /** Version of the payloads above, and of OrderSnapshot files.
+     *  Journals from before it was kept read as version 0. */
+    public static final int FormatVersion = 3;
+
+    /** Sync policies. */
+    private static final int SyncNever    = 0;
+    private static final int SyncInterval = 1;
+    private static final int SyncAlways   = 2;
+
+    /** Where events are written. */
+    private MappedJournal Journal;
+
+    /** One of the sync policies. */
+    private int Sync;
+
+    /** Time between forces under the INTERVAL policy. */
+    private long SyncIntervalNanos;
+
+    /** System.nanoTime() of the last force. */
+    private long LastSync;
+
+    /** Payload being encoded. */
+    private Encoder Out;
+
+    /** Number of events written. */
+    private long RecordCount;
+
+    /**
+     * Opens the journal for appending, after any events already in it.
+     *
+     * @param base Path and file name prefix of the journal segments
+     * @param segmentBytes Size of each segment file
+     * @param sync ALWAYS, INTERVAL or NEVER
+     * @param syncMS Milliseconds between forces under INTERVAL
+     * @throws IOException If the journal cannot be opened
+     */
+    public OrderJournal ( String base, int segmentBytes, String sync, int syncMS )
+        throws IOException
+    {
+        Journal = new MappedJournal(base, segmentBytes);
+
+        if ( "ALWAYS".equalsIgnoreCase(sync) )
+            Sync = SyncAlways;
+        else if ( "NEVER".equalsIgnoreCase(sync) )
+            Sync = SyncNever;
+        else
+            Sync = SyncInterval;
+        SyncIntervalNanos = Math.max(0, syncMS) * 1000000L;
+        LastSync = System.nanoTime();
+
+        Out = new Encoder(1024);
+        RecordCount = 0L;
+    }
+
+    /**
+     * Journals an order added to the blotter.
+     *
+     * @param o The new order
+     * @throws IOException If the journal cannot be written
+     */
+    public void New ( Order o ) throws IOException {
+        Out.Length = 0;
+        Out.PutOrder(o, o.getAvailableLots());
+        Write(NewRecord);
+    }
+
+    /**
+     * Journals an amend applied to an open order.
+     *
+     * @param o The amend request
+     * @throws IOException If the journal cannot be written
+     */
+    public void Amend ( Order o ) throws IOException {
+        Out.Length = 0;
+        Out.PutOrder(o, o.getAvailableLots());
+        Write(AmendRecord);
+    }
+
+    /**
+     * Journals a cancel.
+     *
+     * @param orderID OrderID of the cancelled order
+     * @throws IOException If the journal cannot be written
+     */
+    public void Cancel ( String orderID ) throws IOException {
+        Out.Length = 0;
+        Out.PutString(orderID);
+        Write(CancelRecord);
+    }
+
+    /**
+     * Journals an execution.
+     *
+     * @param orderID OrderID of the executed order
+     * @param qty Quantity of the execution as a FixedPoint value
+     * @param px Price of the execution as a FixedPoint value
+     * @throws IOException If the journal cannot be written
+     */
+    public void Execute ( String orderID, long qty, long px ) throws IOException {
+        Out.Length = 0;
+        Out.PutString(orderID);
+        Out.PutLong(qty);
+        Out.PutLong(px);
+        Write(ExecRecord);
+    }
+
+    /**
+     * Journals the progress of the strategy working an order.
+     *
+     * @param o The open order, with its Progress set
+     * @throws IOException If the journal cannot be written
+     */
+    public void Progress ( Order o ) throws IOException {
+        Out.Length = 0;
+        Out.PutString(o.getOrderID());
+        Out.PutProgress(o);
+        Write(ProgressRecord);
+    }
+
+    /**
+     * Writes appended events to disk.
+     */
+    public void Force () {
+        Journal.Force();
+        LastSync = System.nanoTime();
+    }
+
+    /**
+     * @return Number of events written since the journal was opened
+     */
+    public long getRecordCount () {
+        return RecordCount;
+    }
+
+    /**
+     * @return The underlying journal
+     */
+    public MappedJournal getJournal () {
+        return Journal;
+    }
+
+    /**
+     * Appends the encoded payload and applies the sync policy.
+     */
+    private void Write ( int type ) throws IOException {
+        Journal.Append(( FormatVersion << 16 ) | type, Clock.EpochNanos(),
+                       Out.Buffer, 0, Out.Length);
+        RecordCount++;
+
+        if ( Sync == SyncAlways ||
+             ( Sync == SyncInterval && System.nanoTime() - LastSync >= SyncIntervalNanos ) )
+            Force();
+    }
+
+    /**
+     * Encodes orders into a growing buffer.  Also used by OrderSnapshot.
+     */
+    static class Encoder {
+
+        /** Encoded bytes. */
+        byte[] Buffer;
+
+        /** Number of valid bytes in Buffer. */
+        int Length;
+
+        Encoder ( int size ) {
+            Buffer = new byte[size];
+            Length = 0;
+        }
+
+        /**
+         * Encodes the fields of an order that a NEW or AMEND carries.
+         *
+         * @param o The order
+         * @param availableLots AvailableQuantity to record for it, in lots
+         */
+        void PutOrder ( Order o, long availableLots ) {
+            PutString(o.getOrderID());
+            PutString(o.getInternalID());
+            PutString(o.getSymbol());
+            PutString(o.getCustomer());
+            PutString(o.getSource());
+            PutString(o.getArriveDate());
+            PutString(o.getStrategy());
+            PutString(o.getCurrency());
+            Room(1);
+            Buffer[Length++] = (byte)o.getSide();
+            PutLong(FixedPoint.ToFixed(o.getPriceTicks(), o.getPriceDecimals()));
+            PutLong(FixedPoint.ToFixed(o.getQuantityLots(), o.getQuantityDecimals()));
+            PutLong(FixedPoint.ToFixed(availableLots, o.getQuantityDecimals()));
+            PutLong(FixedPoint.ToFixed(o.getMinFillLots(), o.getQuantityDecimals()));
+            PutLong(o.getDuration());
+        }
+
+        /**
+         * Encodes the Progress of an order.
+         *
+         * @param o The order
+         */
+        void PutProgress ( Order o ) {
+            SliceProgress p = o.Progress;
+            PutLong(p.Start);
+            PutInt(p.Slice);
+            PutLong(FixedPoint.ToFixed(p.SliceBase, o.getQuantityDecimals()));
+            PutLong(FixedPoint.ToFixed(p.SlicedLots, o.getQuantityDecimals()));
+            PutInt(p.Children);
+        }
+
+        /**
+         * Makes room for more bytes in Buffer.
+         */
+        private void Room ( int n ) {
+            if ( Length + n > Buffer.length ) {
+                byte[] larger = new byte[Math.max(Buffer.length * 2, Length + n)];
+                System.arraycopy(Buffer, 0, larger, 0, Length);
+                Buffer = larger;
+            }
+        }
+
+        void PutString ( String s ) {
+            int len = Math.min(s.length(), 0xFFFF);
+            Room(2 + len);
+            Buffer[Length++] = (byte)( len >>> 8 );
+            Buffer[Length++] = (byte)len;
+            for ( int i = 0; i < len; i++ )
+                Buffer[Length++] = (byte)s.charAt(i);
+        }
+
+        void PutInt ( int v ) {
+            Room(4);
+            for ( int shift = 24; shift >= 0; shift -= 8 )
+                Buffer[Length++] = (byte)( v >>> shift );
+        }
+
+        void PutLong ( long v ) {
+            Room(8);
+            for ( int shift = 56; shift >= 0; shift -= 8 )
+                Buffer[Length++] = (byte)( v >>> shift );
+        }
+    }
+
+    /**
+     * Decodes what an Encoder wrote.  Also used by OrderSnapshot.
+     */
+    static class Decoder {
+
+        /** Payload being decoded. */
+        byte[] Buf;
+
+        /** Decode position in Buf. */
+        int Pos;
+
+        /**
+         * Decodes the fields of a NEW or AMEND into o, which keeps the
+         * InternalID it was encoded with.
+         *
+         * @throws DataFormatException If the order is no longer valid
+         */
+        void GetOrder ( Order o ) throws DataFormatException {
+            String oID = GetString();
+            String internalID = GetString();
+            String s = GetString();
+            String c = GetString();
+            String sID = GetString();
+            String a = GetString();
+            String strat = GetString();
+            String ccy = GetString();
+            char side = (char)( Buf[Pos++] & 0xFF );
+            long p = GetLong();
+            long q = GetLong();
+            long aq = GetLong();
+            long mfq = GetLong();
+            long secs = GetLong();
+
+            o.Reset(oID, s, c, sID, a, p, q, aq, side, strat, ccy, mfq);
+            o.setDuration(secs);
+            o.RestoreInternalID(internalID);
+        }
+
+        /**
+         * Decodes what PutProgress wrote into the Progress of o, whose
+         * QuantityDecimals must be set.
+         */
+        void GetProgress ( Order o ) {
+            SliceProgress p = o.Progress;
+            p.Start = GetLong();
+            p.Slice = GetInt();
+            p.SliceBase = FixedPoint.ToUnits(GetLong(), o.getQuantityDecimals());
+            p.SlicedLots = FixedPoint.ToUnits(GetLong(), o.getQuantityDecimals());
+            p.Children = GetInt();
+        }
+
+        String GetString () {
+            int len = ( ( Buf[Pos] & 0xFF ) << 8 ) | ( Buf[Pos + 1] & 0xFF );
+            String s = Ascii.ToString(Buf, Pos + 2, len);
+            Pos += 2 + len;
+            return s;
+        }
+
+        int GetInt () {
+            int v = 0;
+            for ( int i = 0; i < 4; i++ )
+                v = ( v << 8 ) | ( Buf[Pos++] & 0xFF );
+            return v;
+        }
+
+        long GetLong () {
+            long v = 0L;
+            for ( int i = 0; i < 8; i++ )
+                v = ( v << 8 ) | ( Buf[Pos++] & 0xFFL );
+            return v;
+        }
+    }
+
+    /**
+     * Replays a journal through a Trader whose journal is not yet open,
+     * rebuilding the blotter.  Orders keep the InternalID they were
+     * given.  Events the Trader now rejects, for example because the
+     * configuration changed, are skipped and counted.  A record of
+     * another FormatVersion stops the replay and sets Error.
+     */
+    static class Replay implements MappedJournal.Visitor {
+
+        /** Trader the events are applied to. */
+        private Trader trader;
+
+        /** Amend requests are decoded into this order. */
+        private Order AmendRequest;
+
+        /** Decodes the payloads. */
+        private Decoder In;
+
+        /** Number of events applied and skipped. */
+        long Applied, Skipped;
+
+        /** Why the replay stopped early, null if it did not. */
+        String Error;
+
+        Replay ( Trader tdr ) {
+            trader = tdr;
+            AmendRequest = new Order();
+            In = new Decoder();
+            Applied = Skipped = 0L;
+            Error = null;
+        }
+
+        public boolean Record ( long segment, int type, long timestamp,
+                                byte[] buf, int off, int len )
+        {
+            if ( type >>> 16 != FormatVersion ) {
+                Error = "journal segment " + segment + " is format version " +
+                    ( type >>> 16 ) + ", this build reads " + FormatVersion;
+                return false;
+            }
+
+            In.Buf = buf;
+            In.Pos = off;
+
+            String RejectText;
+            try {
+                switch ( type & 0xFFFF ) {
+                    case NewRecord: {
+                        Order o = trader.AcquireOrder();
+                        try {
+                            In.GetOrder(o);
+                        } catch ( DataFormatException e ) {
+                            trader.ReleaseOrder(o);
+                            throw e;
+                        }
+                        RejectText = trader.NewOrder(o);
+                        if ( RejectText.length() > 0 )
+                            trader.ReleaseOrder(o);
+                        break;
+                    }
+                    case AmendRecord:
+                        In.GetOrder(AmendRequest);
+                        RejectText = trader.AmendOrder(AmendRequest);
+                        break;
+                    case CancelRecord:
+                        RejectText = trader.CancelOrder(In.GetString());
+                        break;
+                    case ExecRecord: {
+                        String orderID = In.GetString();
+                        long qty = In.GetLong();
+                        RejectText = trader.ExecuteOrder(orderID, qty, In.GetLong(), null);
+                        break;
+                    }
+                    case ProgressRecord: {
+                        Order o = trader.getBlotter().Get(In.GetString());
+                        if ( o == null ) {
+                            RejectText = "order is not open";
+                            break;
+                        }
+                        In.GetProgress(o);
+                        RejectText = "";
+                        break;
+                    }
+                    default:
+                        RejectText = "unknown record type";
+                        break;
+                }
+            } catch ( DataFormatException e ) {
+                RejectText = e.getMessage();
+            }
+
+            if ( RejectText.length() > 0 )
+                Skipped++;
+            else
+                Applied++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * OrderPool.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Free list of Order objects, filled with ORDERPOOL orders at startup.
+ * New orders are taken from the pool and go back to it when they leave
+ * the blotter, so order entry does not allocate while fewer than
+ * ORDERPOOL orders are open.  If the pool runs dry, orders are created
+ * as needed and counted; released orders beyond the pool's size are
+ * left to the garbage collector.  Not thread-safe; the order entry
+ * thread and each EventLoop have a pool of their own.
+ */
+public class OrderPool {
+
+    /** Orders ready for reuse. */
+    private Order[] Free;
+
+    /** Number of orders in Free. */
+    private int FreeCount;
+
+    /** Number of orders created because the pool was empty. */
+    private long CreatedCount;
+
+    /**
+     * Reads ORDERPOOL and creates the pooled orders.
+     */
+    public OrderPool () {
+        int size = Math.max(1, Configuration.getInstance().getInt("ORDERPOOL"));
+
+        Free = new Order[size];
+        for ( FreeCount = 0; FreeCount < size; FreeCount++ )
+            Free[FreeCount] = new Order();
+        CreatedCount = 0L;
+    }
+
+    /**
+     * @return A blank order, to be filled in with Order.Reset
+     */
+    public Order Acquire () {
+        if ( FreeCount > 0 ) {
+            Order o = Free[--FreeCount];
+            Free[FreeCount] = null;
+            return o;
+        }
+
+        CreatedCount++;
+        return new Order();
+    }
+
+    /**
+     * Returns an order to the pool.  The caller must not use it again.
+     *
+     * @param o An order taken from Acquire
+     */
+    public void Release ( Order o ) {
+        if ( FreeCount < Free.length ) {
+            o.Clear();
+            Free[FreeCount++] = o;
+        }
+    }
+
+    /**
+     * @return Number of orders created because the pool was empty
+     */
+    public long getCreatedCount () {
+        return CreatedCount;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * OrderRequest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * A decoded LOGON, NEW, AMEND, CANCEL or EXEC request, reused for every message of
+ * a session.  Numbers are parsed in place as FixedPoint values and the
+ * side as a character; text fields are
+ * kept as ranges of the buffer they were read from and only turned into
+ * Strings when asked for, so the request is only valid until the
+ * session reads more input.
+ *
+ * @see OrderDecoder
+ */
+public class OrderRequest {
+
+    /** Text fields, indexes into the range arrays. */
+    public static final int ORDERID    = 0;
+    public static final int SYMBOL     = 1;
+    public static final int CUSTOMER   = 2;
+    public static final int ARRIVEDATE = 3;
+    public static final int STRATEGY   = 4;
+    public static final int CURRENCY   = 5;
+    public static final int SESSION    = 6;
+    public static final int TEXTFIELDS = 7;
+
+    /** Buffer the text fields were read from. */
+    private byte[] Buffer;
+
+    /** Start of each text field in Buffer. */
+    private int[] Offsets;
+
+    /** Length of each text field, 0 if it was not sent. */
+    private int[] Lengths;
+
+    /** Limit price. */
+    long Price;
+
+    /** Order quantity. */
+    long Quantity;
+
+    /** Quantity available to trade. */
+    long AvailableQuantity;
+
+    /** Smallest fill accepted. */
+    long MinFillQuantity;
+
+    /** Buy or sell, ' ' if not sent. */
+    char Side;
+
+    /** Seconds a TWAP or VWAP order is worked over, 0 if not sent. */
+    long Duration;
+
+    /**
+     * Creates an empty request.
+     */
+    public OrderRequest () {
+        Offsets = new int[TEXTFIELDS];
+        Lengths = new int[TEXTFIELDS];
+        Reset(null);
+    }
+
+    /**
+     * Clears every field before a new message is decoded.
+     *
+     * @param buf Buffer the message is read from
+     */
+    void Reset ( byte[] buf ) {
+        Buffer = buf;
+        for ( int i = 0; i < TEXTFIELDS; i++ )
+            Lengths[i] = 0;
+        Price = Quantity = AvailableQuantity = MinFillQuantity = Duration = 0L;
+        Side = ' ';
+    }
+
+    /**
+     * Records where a text field is in the buffer.
+     *
+     * @param field One of the text fields above
+     * @param off Start of the value
+     * @param len Length of the value
+     */
+    void setText ( int field, int off, int len ) {
+        Offsets[field] = off;
+        Lengths[field] = len;
+    }
+
+    /**
+     * @param field One of the text fields above
+     * @return The field's value, or a blank string if it was not sent
+     */
+    public String getText ( int field ) {
+        return Lengths[field] == 0 ? "" : Ascii.ToString(Buffer, Offsets[field], Lengths[field]);
+    }
+
+    /**
+     * @return Limit price as a FixedPoint value
+     */
+    public long getPrice () {
+        return Price;
+    }
+
+    /**
+     * @return Order quantity as a FixedPoint value
+     */
+    public long getQuantity () {
+        return Quantity;
+    }
+
+    /**
+     * @return Quantity available to trade as a FixedPoint value, the
+     * order quantity if it was not sent
+     */
+    public long getAvailableQuantity () {
+        if ( Quantity > 0L && AvailableQuantity == 0L )
+            return Quantity;
+        return AvailableQuantity;
+    }
+
+    /**
+     * @return Smallest fill accepted as a FixedPoint value
+     */
+    public long getMinFillQuantity () {
+        return MinFillQuantity;
+    }
+
+    /**
+     * @return Buy or sell, ' ' if not sent
+     */
+    public char getSide () {
+        return Side;
+    }
+
+    /**
+     * @return Seconds a TWAP or VWAP order is worked over, 0 if not sent
+     */
+    public long getDuration () {
+        return Duration;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * OrderSession.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One client connection of the OrderSocket.  Each session has its own
+ * buffers, error counter and ping timer, and is named when the client
+ * logs on so the Trader can send replies back to it: orders received
+ * on a session carry its name as their Source.  Sessions are only read
+ * and written by the OrderSocket thread; the Trader queues replies
+ * through OrderSocket.WriteReply.
+ *
+ * @see OrderSocket
+ */
+public class OrderSession {
+
+    /** Name of the session, used as the Source of its orders, null
+     *  until the client logs on. */
+    private String Name;
+
+    /** The socket that accepted the session. */
+    private OrderSocket Owner;
+
+    /** The client connection. */
+    private SocketChannel Channel;
+
+    /** Reference to Trader object. */
+    private Trader trader;
+
+    /** Replies queued by the Trader for the session's name, not yet
+     *  written, null until the client logs on. */
+    private MessageQueue Outbound;
+
+    /** Number of erroneous messages.  Three in a row results in a
+     *  disconnect. */
+    private int ErrorCount;
+
+    /** Milliseconds between PING messages. */
+    private int PingMS;
+
+    /** Time the next PING is due, once the client has sent a message. */
+    private long NextPing;
+
+    /** Whether the client has sent a message yet. */
+    private boolean Started;
+
+    /** Whether the session is ending once its output is written. */
+    private boolean Closing;
+
+    /** Bytes read off the connection that have not been processed. */
+    private byte[] InputBuffer;
+
+    /** Number of valid bytes in InputBuffer. */
+    private int InputLength;
+
+    /** Encoded lines waiting to be written to the connection. */
+    private OutputBatch Output;
+
+    /** Decodes messages read off the connection. */
+    private OrderDecoder Decoder;
+
+    /** The request being decoded, reused for every message. */
+    private OrderRequest Request;
+
+    /** AMEND requests are validated into this order, reused for every
+     *  message; the Trader applies it to the open order. */
+    private Order AmendRequest;
+
+    /**
+     * @param owner The socket that accepted the session
+     * @param ch The accepted client connection
+     * @param tdr A reference to the Trader orders are sent to
+     * @param pingMS Milliseconds between PING messages
+     */
+    public OrderSession ( OrderSocket owner, SocketChannel ch, Trader tdr, int pingMS ) {
+        Name = null;
+        Owner = owner;
+        Channel = ch;
+        trader = tdr;
+        PingMS = pingMS;
+        Outbound = null;
+        ErrorCount = 0;
+        NextPing = 0L;
+        Started = Closing = false;
+        InputBuffer = new byte[65536];
+        InputLength = 0;
+        Output = new OutputBatch();
+        Decoder = new OrderDecoder();
+        Request = new OrderRequest();
+        AmendRequest = new Order();
+    }
+
+    /**
+     * @return Name of the session, null if the client has not logged on
+     */
+    public String getName () {
+        return Name;
+    }
+
+    /**
+     * Names the session once the OrderSocket has accepted its logon.
+     *
+     * @param name Name of the session
+     * @param outbound Replies queued for the name
+     */
+    void setName ( String name, MessageQueue outbound ) {
+        Name = name;
+        Outbound = outbound;
+    }
+
+    /**
+     * @return The client connection
+     */
+    public SocketChannel getChannel () {
+        return Channel;
+    }
+
+    /**
+     * Adds a line to the session's output.  Called by the OrderSocket
+     * thread only.
+     *
+     * @param s The line to be sent, without a line terminator
+     */
+    public void QueueLine ( String s ) {
+        Output.Add(s);
+    }
+
+    /**
+     * Parses the input received on the connection.  Will disconnect
+     * when receiving a "BYE", otherwise will attempt to parse the
+     * message as a logon or a new/amend/cancel/execution request.  A
+     * request sent before logging on logs the session on as the
+     * OrderSocket's DefaultSession.  If all fails,
+     * returns an error message and increments the ErrorCount.
+     * Disconnects if there are three consecutive errors.
+     *
+     * @param buf Buffer holding the message
+     * @param off Start of the message
+     * @param len Length of the message, without the line terminator
+     * @return An error message, or blank string if there was no error
+     */
+    private String ProcessInput ( byte[] buf, int off, int len ) {
+        int cmd = Decoder.Decode(buf, off, len, Request);
+
+        switch ( cmd ) {
+            case OrderDecoder.END:
+                return "BYE";
+            case OrderDecoder.PING:
+                return "";
+            case OrderDecoder.MALFORMED:
+                ErrorCount = 0;
+                return "REJECT" + Ascii.ToString(buf, off, len) +
+                       ",RejectText=" + Decoder.getErrorText();
+            case OrderDecoder.LOGON:
+            case OrderDecoder.NEW:
+            case OrderDecoder.AMEND:
+            case OrderDecoder.CANCEL:
+            case OrderDecoder.EXEC:
+                break;
+            default:
+                ErrorCount++;
+                if ( ErrorCount >= 3 )
+                    return "BYE";
+                else
+                    return "UNKNOWN COMMAND";
+        }
+
+        // valid command, reset disconnect counter
+        ErrorCount = 0;
+
+        Order o = null;
+
+        try {
+            String RejectText = "";
+
+            if ( cmd == OrderDecoder.LOGON ) {
+                String name = Request.getText(OrderRequest.SESSION);
+                if ( Name != null )
+                    RejectText = "Already logged on as " + Name;
+                else
+                    RejectText = Owner.Logon(this, name);
+
+                if ( RejectText.length() > 0 )
+                    return "REJECT" + Ascii.ToString(buf, off, len) + ",RejectText=" + RejectText;
+                return "LOGON,Session=" + name;
+            }
+
+            if ( Name == null ) {
+                RejectText = Owner.Logon(this, OrderSocket.DefaultSession);
+                if ( RejectText.length() > 0 )
+                    return "REJECT" + Ascii.ToString(buf, off, len) + ",RejectText=" +
+                           "Not logged on, and " + RejectText;
+            }
+
+            // a cancel only needs the OrderID, an execution its quantity
+            // and price as well, and must come from the order's session
+            if ( cmd == OrderDecoder.CANCEL || cmd == OrderDecoder.EXEC ) {
+                String oID = Request.getText(OrderRequest.ORDERID);
+                if ( oID.equals("") )
+                    RejectText = "OrderID cannot be blank";
+                else if ( cmd == OrderDecoder.CANCEL )
+                    RejectText = trader.CancelOrder(oID);
+                else
+                    RejectText = trader.ExecuteOrder(oID, Request.getQuantity(),
+                                                     Request.getPrice(), Name);
+            }
+            else {
+                // fill in an order; replies to it come back to this session
+                o = cmd == OrderDecoder.NEW ? trader.AcquireOrder() : AmendRequest;
+                o.Reset(Request.getText(OrderRequest.ORDERID),
+                        Request.getText(OrderRequest.SYMBOL),
+                        Request.getText(OrderRequest.CUSTOMER),
+                        Name,
+                        Request.getText(OrderRequest.ARRIVEDATE),
+                        Request.getPrice(), Request.getQuantity(),
+                        Request.getAvailableQuantity(), Request.getSide(),
+                        Request.getText(OrderRequest.STRATEGY),
+                        Request.getText(OrderRequest.CURRENCY),
+                        Request.getMinFillQuantity());
+                o.setDuration(Request.getDuration());
+
+                // send to trader
+                if ( cmd == OrderDecoder.NEW ) {
+                    RejectText = trader.NewOrder(o);
+                    if ( RejectText.length() == 0 )
+                        o = null;
+                }
+                else
+                    RejectText = trader.AmendOrder(o);
+            }
+
+            if ( o != null && o != AmendRequest )
+                trader.ReleaseOrder(o);
+
+            if ( RejectText.length() > 0 )
+                return "REJECT" + Ascii.ToString(buf, off, len) + ",RejectText=" + RejectText;
+
+            return "";
+        }
+        catch ( Exception e ) {
+            if ( o != null && o != AmendRequest )
+                trader.ReleaseOrder(o);
+            return "REJECT" + Ascii.ToString(buf, off, len) + ",RejectText=" + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads what is available on the connection and processes every
+     * complete line.
+     *
+     * @param now Current time in milliseconds
+     * @return False if the client closed the connection
+     * @throws IOException If the connection fails
+     */
+    public boolean Read ( long now ) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(InputBuffer, InputLength,
+                                        InputBuffer.length - InputLength);
+
+        int BytesRead = Channel.read(in);
+        if ( BytesRead < 0 )
+            return false;
+        if ( BytesRead == 0 )
+            return true;
+
+        InputLength += BytesRead;
+        Started = true;
+        NextPing = now + PingMS;
+
+        int start = 0;
+        int newline;
+
+        while ( !Closing &&
+                ( newline = Ascii.IndexOf(InputBuffer, start, InputLength, (byte)'\n') ) < InputLength )
+        {
+            int end = newline;
+            if ( end > start && InputBuffer[end - 1] == '\r' )
+                end--;
+
+            String OutputLine = ProcessInput(InputBuffer, start, end - start);
+            start = newline + 1;
+
+            if ( !OutputLine.equals("") ) {
+                QueueLine(OutputLine);
+                if ( OutputLine.equals("BYE") )
+                    Closing = true;
+            }
+        }
+
+        // keep the partial line at the front of the buffer
+        InputLength -= start;
+        System.arraycopy(InputBuffer, start, InputBuffer, 0, InputLength);
+
+        // a single line larger than the buffer
+        if ( InputLength == InputBuffer.length ) {
+            byte[] larger = new byte[InputBuffer.length * 2];
+            System.arraycopy(InputBuffer, 0, larger, 0, InputLength);
+            InputBuffer = larger;
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds queued replies and a PING if one is due to the output, and
+     * writes it if it is due.  A closing session writes at once.
+     *
+     * @param now Current time in milliseconds
+     * @param nanos Current System.nanoTime()
+     * @return False if the session has ended
+     * @throws IOException If the connection fails
+     */
+    public boolean Write ( long now, long nanos ) throws IOException {
+        if ( !Closing ) {
+            if ( Outbound != null )
+                Output.Drain(Outbound);
+
+            if ( Started && now >= NextPing ) {
+                QueueLine("PING");
+                NextPing = now + PingMS;
+            }
+        }
+
+        Output.Flush(Channel, nanos, Closing);
+
+        return !( Closing && !Output.hasOutput() );
+    }
+
+    /**
+     * @return The session's output
+     */
+    public OutputBatch getOutput () {
+        return Output;
+    }
+
+    /**
+     * @return Time the next PING is due, or 0 if none is scheduled
+     */
+    public long getNextPing () {
+        return Started ? NextPing : 0L;
+    }
+}
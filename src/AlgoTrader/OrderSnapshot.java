@@ -0,0 +1,355 @@
+/*
+ * OrderSnapshot.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DataFormatException;
+
+/**
+ * Snapshots of the open orders, so a restart only replays the order
+ * journal written since the last snapshot.  The order entry thread
+ * rolls the journal to a new segment, then encodes the orders open at
+ * that moment into a reused buffer a few at a time between messages,
+ * so order entry never waits for the whole blotter.  An order that is
+ * about to change or close before its turn is encoded first, so the
+ * snapshot holds every order as it was at the roll, and the journal
+ * from the new segment on holds everything since.  The snapshot's own
+ * thread then writes the file, forces it, renames it over the previous
+ * snapshot and deletes the journal segments it covers, while orders
+ * carry on.  The snapshot file is ORDERJOURNAL.snapshot:
+ * <pre>
+ *   int  magic
+ *   int  OrderJournal.FormatVersion
+ *   long first journal segment not covered
+ *   long next InternalID
+ *   long number of orders
+ *   orders, as in a journal NEW, each followed by long FixedPoint
+ *   CumulativeQuantity, int decimal places, long ExecutedNotional,
+ *   and its strategy progress as in a journal PROGRESS
+ * </pre>
+ * The notional is kept exactly as the order holds it, so an order's
+ * AveragePrice is the same after a restart.
+ *
+ * @see OrderJournal
+ */
+public class OrderSnapshot implements Runnable {
+
+    /** First bytes of a snapshot file. */
+    private static final int Magic = 0x41545347;
+
+    /** Orders, or symbols without any, encoded per Step. */
+    private static final int StepSize = 256;
+
+    /** Thread object for this class. */
+    private Thread T;
+
+    /** Label of the Thread. */
+    private String ThreadName;
+
+    /** Path and file name prefix of the journal segments. */
+    private String BaseName;
+
+    /** The snapshot being written. */
+    private OrderJournal.Encoder Out;
+
+    /** First journal segment not covered by the snapshot being written. */
+    private long Segment;
+
+    /** Orders the snapshot being encoded has, or leaves to the journal. */
+    private Set<Order> Taken;
+
+    /** Set while the order entry thread is encoding a snapshot. */
+    private boolean Encoding;
+
+    /** Next SymbolID whose orders Step encodes. */
+    private int NextSymbol;
+
+    /** Set by the order entry thread when a snapshot is ready to write,
+     *  cleared by the snapshot thread once it is written. */
+    private volatile boolean Pending;
+
+    /** Number of snapshots written. */
+    private volatile long WrittenCount;
+
+    /**
+     * @param Name Label of the Thread
+     * @param base Path and file name prefix of the journal segments
+     */
+    public OrderSnapshot ( String Name, String base ) {
+        ThreadName = Name;
+        BaseName = base;
+        Out = new OrderJournal.Encoder(65536);
+        Taken = Collections.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+        Segment = 0L;
+        Encoding = false;
+        NextSymbol = 0;
+        Pending = false;
+        WrittenCount = 0L;
+        T = null;
+    }
+
+    /**
+     * @param base Path and file name prefix of the journal segments
+     * @return Name of the snapshot file
+     */
+    public static String FileName ( String base ) {
+        return base + ".snapshot";
+    }
+
+    /**
+     * @return True while a snapshot is being encoded or waiting to be
+     * written
+     */
+    public boolean isBusy () {
+        return Encoding || Pending;
+    }
+
+    /**
+     * @return True while the order entry thread is encoding a snapshot
+     */
+    public boolean isEncoding () {
+        return Encoding;
+    }
+
+    /**
+     * Starts a snapshot of the orders open now.  Called by the order
+     * entry thread, after it rolls the journal; Step then encodes them.
+     *
+     * @param blotter The open orders
+     * @param segment First journal segment the snapshot does not cover
+     * @return False if the previous snapshot is still in hand
+     */
+    public boolean Begin ( OrderBlotter blotter, long segment ) {
+        if ( isBusy() )
+            return false;
+
+        Taken.clear();
+        Out.Length = 0;
+        Out.PutInt(Magic);
+        Out.PutInt(OrderJournal.FormatVersion);
+        Out.PutLong(segment);
+        Out.PutLong(Order.PeekInternalID());
+        Out.PutLong(blotter.getCount());
+
+        Segment = segment;
+        NextSymbol = 0;
+        Encoding = true;
+        return true;
+    }
+
+    /**
+     * Encodes the next few orders of the snapshot, and hands it to the
+     * snapshot thread once every symbol is done.  Called by the order
+     * entry thread.
+     *
+     * @param blotter The open orders
+     */
+    public void Step ( OrderBlotter blotter ) {
+        if ( !Encoding )
+            return;
+
+        int symbols = SymbolRegistry.getInstance().getCapacity();
+        int budget = StepSize;
+
+        while ( budget > 0 && NextSymbol < symbols ) {
+            Order o = blotter.FirstBySymbol(NextSymbol);
+            for ( ; o != null && budget > 0; o = o.getNext(OrderBlotter.BYSYMBOL) ) {
+                if ( !Taken.contains(o) ) {
+                    Encode(o);
+                    budget--;
+                }
+            }
+
+            // a symbol left part done is walked again, skipping orders
+            // already encoded
+            if ( o == null ) {
+                NextSymbol++;
+                budget--;
+            }
+        }
+
+        if ( NextSymbol < symbols )
+            return;
+
+        Encoding = false;
+        Taken.clear();
+        Pending = true;
+        LockSupport.unpark(T);
+    }
+
+    /**
+     * Encodes an order before the order entry thread changes or closes
+     * it, if the snapshot being encoded should have it and has not got
+     * it yet.
+     *
+     * @param o An open order
+     */
+    public void Preserve ( Order o ) {
+        if ( Encoding && !Taken.contains(o) )
+            Encode(o);
+    }
+
+    /**
+     * Marks an order opened after the snapshot being encoded started,
+     * which the journal covers instead.
+     *
+     * @param o The new order
+     */
+    public void Opened ( Order o ) {
+        if ( Encoding )
+            Taken.add(o);
+    }
+
+    /**
+     * Adds an order to the snapshot being encoded.
+     *
+     * @param o An open order
+     */
+    private void Encode ( Order o ) {
+        // executions are applied again when the order is loaded
+        Out.PutOrder(o, o.getAvailableLots() + o.getCumulativeLots());
+        Out.PutLong(FixedPoint.ToFixed(o.getCumulativeLots(), o.getQuantityDecimals()));
+        Out.PutInt(o.getNotionalDecimals());
+        Out.PutLong(o.getExecutedNotional());
+        Out.PutProgress(o);
+        Taken.add(o);
+    }
+
+    /**
+     * Loads the latest snapshot into a Trader whose journal is not yet
+     * open.  Orders the Trader now rejects, for example because the
+     * configuration changed, are skipped.
+     *
+     * @param base Path and file name prefix of the journal segments
+     * @param tdr The Trader
+     * @return First journal segment to replay, 0 if there is no snapshot
+     * @throws IOException If the snapshot cannot be read or is damaged
+     */
+    public static long Load ( String base, Trader tdr ) throws IOException {
+        Path path = Paths.get(FileName(base));
+        if ( !Files.exists(path) )
+            return 0L;
+
+        OrderJournal.Decoder in = new OrderJournal.Decoder();
+        in.Buf = Files.readAllBytes(path);
+        in.Pos = 0;
+
+        if ( in.Buf.length < 32 || in.GetInt() != Magic )
+            throw new IOException(path + " is not an order snapshot");
+
+        int version = in.GetInt();
+        if ( version != OrderJournal.FormatVersion )
+            throw new IOException(path + " is format version " + version +
+                ", this build reads " + OrderJournal.FormatVersion);
+
+        long segment = in.GetLong();
+        Order.ReserveInternalIDs(in.GetLong());
+        long count = in.GetLong();
+        long skipped = 0L;
+
+        for ( long n = 0; n < count; n++ ) {
+            Order o = tdr.AcquireOrder();
+            try {
+                in.GetOrder(o);
+                long cum = in.GetLong();
+                int decimals = in.GetInt();
+                o.RestoreExecutions(in.GetLong(), decimals, cum);
+                in.GetProgress(o);
+                if ( tdr.NewOrder(o).length() > 0 ) {
+                    tdr.ReleaseOrder(o);
+                    skipped++;
+                }
+            } catch ( DataFormatException e ) {
+                // the executions and progress were not read
+                in.Pos += 52;
+                tdr.ReleaseOrder(o);
+                skipped++;
+            }
+        }
+
+        Logger.getInstance().write("Loaded " + ( count - skipped ) + " orders from " +
+            path + ( skipped > 0 ? ", " + skipped + " skipped" : "" ));
+        return segment;
+    }
+
+    /**
+     * Writes each snapshot handed over by Take to a temporary file,
+     * forces it, moves it into place, and deletes the journal segments
+     * it covers.  Parks while there is nothing to write.  This function
+     * never exits, which requires killing AlgoTrader to stop.
+     */
+    public void run () {
+        Path target = Paths.get(FileName(BaseName));
+        Path temp = Paths.get(FileName(BaseName) + ".tmp");
+
+        while ( true ) {
+            if ( !Pending ) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            try {
+                try ( FileChannel ch = FileChannel.open(temp, StandardOpenOption.CREATE,
+                          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) ) {
+                    ByteBuffer b = ByteBuffer.wrap(Out.Buffer, 0, Out.Length);
+                    while ( b.hasRemaining() )
+                        ch.write(b);
+                    ch.force(true);
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+                MappedJournal.DeleteBefore(BaseName, Segment);
+                WrittenCount++;
+
+                Logger.getInstance().write("Order snapshot written, " + Out.Length +
+                    " bytes, journal continues at segment " + Segment);
+            } catch ( IOException e ) {
+                System.err.println("Unable to write order snapshot " + target +
+                    ": " + e.getMessage());
+            }
+
+            Pending = false;
+        }
+    }
+
+    /**
+     * @return Number of snapshots written
+     */
+    public long getWrittenCount () {
+        return WrittenCount;
+    }
+
+    /**
+     * Starts the Thread.
+     */
+    public void start () {
+        if ( T == null ) {
+            T = new Thread( this, ThreadName );
+            T.setDaemon(true);
+            T.start();
+        }
+    }
+}
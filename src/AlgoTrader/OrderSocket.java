@@ -22,15 +22,32 @@ package AlgoTrader;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class creates a TCP socket interface to allow new orders,
  * amends, and cancel requests to be sent to the Trader.  The
  * Trader replies to these requests, as well as sending match,
  * complete, and expiration notifications.
- * This socket runs on its own thread.
+ * A single listener accepts any number of clients, such as several
+ * OMS or desk connections, and serves them all from one Selector loop
+ * on its own thread.  Each client is an OrderSession with its own
+ * buffers, error counter and ping timer.
+ * A client names its session by sending "LOGON,Session=name" before
+ * its orders.  The name is the Source of those orders, so it must stay
+ * the same across reconnects and restarts of either side: replies to
+ * it, including those for orders recovered at startup, are refused
+ * while no session of that name is logged on, and the trading threads
+ * offer them again until one is.  A client that sends orders without
+ * logging on is given the name DefaultSession, which any number of
+ * sessions may share: replies to its orders go to whichever of them
+ * writes first.
  *
  * @see Trader
+ * @see OrderSession
  */
 public class OrderSocket implements Runnable {
 
@@ -46,213 +63,396 @@ public class OrderSocket implements Runnable {
     /** Reference to MatchingEngine object. */
     private Trader trader;
 
-    /** Buffered output to be written to the connection. */
-    private String OutputBuffer;
-
-    /** Number of erroneous messages.  Three in a row results in a
-     *  disconnect. */
-    private int ErrorCount;
-    
     /** Milliseconds between PING messages.  These messages can be
      *  ignored on the client side. */
     private int PingMS;
 
+    /** Name of every session that sends orders without logging on,
+     *  the Source every order had before sessions were named. */
+    public static final String DefaultSession = "OS";
+
+    /** Logged on sessions, by name, for routing replies.  Of the
+     *  sessions named DefaultSession, only one is here. */
+    private Map<String, OrderSession> Sessions;
+
+    /** Replies waiting to be written, by name of a logged on session.
+     *  The queue is dropped when the last session of the name
+     *  disconnects, with any replies still in it, as is the session's
+     *  unwritten output. */
+    private Map<String, MessageQueue> Mailboxes;
+
+    /** Connected sessions, for the socket thread to service.  Changed
+     *  only as clients come and go, and read by other threads for the
+     *  counts. */
+    private List<OrderSession> Active;
+
+    /** Selector of the listener, null while not listening. */
+    private volatile Selector ActiveSelector;
+
+    /** Number of replies that can wait to be written per session. */
+    private int QueueSize;
+
+    /** Lines, writes and refused replies of sessions that have ended. */
+    private long ClosedMessageCount, ClosedWriteCount, ClosedFullCount;
+
+    /** Wait before listening again after the listener fails. */
+    private static final long RelistenMS = 1000;
+
     /**
      * The constructor stores information for when the Thread is started,
      * but does not start it on its own.
      *
      * @param Name A string identifier for the future Thread
-     * @param me A reference to the MatchingEngine this socket is
-     * supposed to connect
+     * @param tdr A reference to the Trader this socket is supposed to
+     * feed
      */
     public OrderSocket ( String Name, Trader tdr ) {
         ThreadName = Name;
         PortNumber = Configuration.getInstance().getInt("RECVPORT");
         PingMS = Configuration.getInstance().getInt("PINGMS");
+        QueueSize = Configuration.getInstance().getInt("OUTBOUNDQUEUE");
+        ClosedMessageCount = ClosedWriteCount = ClosedFullCount = 0L;
         trader = tdr;
         T = null;
-        ErrorCount = 0;
-        OutputBuffer = "";
+        Sessions = new ConcurrentHashMap<>();
+        Mailboxes = new ConcurrentHashMap<>();
+        Active = new CopyOnWriteArrayList<>();
+        ActiveSelector = null;
     }
 
     /**
-     * Interface for the Trader to queue a reply on the
-     * connection.
+     * Interface for the Trader to queue a reply to the session an
+     * order came from.  A reply made while handling the session's own
+     * input goes straight to its output; otherwise it waits in the
+     * session's queue.  The caller never waits on a slow or absent
+     * client: if no session of that name is logged on, or its queue is
+     * full, the reply is refused.
      *
+     * @param source Source of the order, which is its session's name
      * @param s The message to be sent out
+     * @return False if the reply was refused
      */
-    public void WriteReply ( String s ) {
-        if ( OutputBuffer.length() > 0 )
-            OutputBuffer += "\n" + s;
-        else
-            OutputBuffer = s;
+    public boolean WriteReply ( String source, String s ) {
+        OrderSession session = Sessions.get(source);
+        if ( session == null )
+            return false;
+
+        if ( Thread.currentThread() == T ) {
+            session.QueueLine(s);
+            return true;
+        }
+
+        MessageQueue mailbox = Mailboxes.get(source);
+        if ( mailbox == null )
+            return false;
+
+        Selector sel = ActiveSelector;
+        boolean queued = mailbox.Put(Ascii.Bytes(s), sel);
+
+        // wake the socket thread so the reply goes out now
+        if ( queued && sel != null )
+            sel.wakeup();
+
+        return queued;
     }
 
     /**
-     * Parses the input received on the connection.  Will disconnect
-     * when receiving a "BYE", otherwise will attempt to parse the
-     * message as a new/amend/cancel request.  If all fails, returns
-     * an error message and increments the ErrorCount.  Disconnects
-     * if there are three consecutive errors.
-     *
-     * @param InputLine The message received on the connection
-     * @return An error message, or blank string if there was no error
+     * @param source Source of an order, which is its session's name
+     * @return True if a session of that name is logged on.  Safe to
+     * call from any thread.
      */
-    private String ProcessInput ( String InputLine ) {
-        if ( InputLine.equals("END") )
-            return "BYE";
-
-        if ( InputLine.equals("PING") )
-            return "";
-
-        String[] token = InputLine.split(",");
-        String cmd = token[0];
-
-        if ( cmd.matches("(NEW|AMEND|CANCEL)") ) {
-            String OrderID, Symbol, Customer, Source, ArriveDate, Strategy;
-            String Currency;
-            double Price, Quantity, AvailableQuantity, MinFillQuantity;
-            char Side;
-
-            OrderID = Symbol = Customer = Source = ArriveDate = "";
-            Strategy = Currency = "";
-            Price = Quantity = AvailableQuantity = MinFillQuantity = 0D;
-            Side = ' ';
-
-            // valid command, reset disconnect counter
-            ErrorCount = 0;
-
-            for ( int x=1; x<token.length; x++) {
-                String[] parameter = token[x].split("=");
-                if ( parameter.length == 2 ) {
-                    if ( parameter[0].equalsIgnoreCase("OrderID") )
-                        OrderID = parameter[1];
-                    else if ( parameter[0].equalsIgnoreCase("Symbol") )
-                        Symbol = parameter[1];
-                    else if ( parameter[0].equalsIgnoreCase("Customer") )
-                        Customer = parameter[1];
-                    else if ( parameter[0].equalsIgnoreCase("ArriveDate") )
-                        ArriveDate = parameter[1];
-                    else if ( parameter[0].equalsIgnoreCase("Strategy") )
-                        Strategy = parameter[1];
-                    else if ( parameter[0].equalsIgnoreCase("Price") )
-                        Price = Double.parseDouble(parameter[1]);
-                    else if ( parameter[0].equalsIgnoreCase("Quantity") )
-                        Quantity = Double.parseDouble(parameter[1]);
-                    else if ( parameter[0].equalsIgnoreCase("AvailableQuantity") )
-                        AvailableQuantity = Double.parseDouble(parameter[1]);
-                    else if ( parameter[0].equalsIgnoreCase("Side") )
-                        Side = parameter[1].charAt(0);
-                    else if ( parameter[0].equalsIgnoreCase("Currency") )
-                        Currency = parameter[1];
-                    else if ( parameter[0].equalsIgnoreCase("MinFillQuantity") )
-                        MinFillQuantity = Double.parseDouble(parameter[1]);
-                }
-            }
-            
-            Source = "OS";
-
-            if ( Double.compare(Quantity,0D) > 0 && Double.compare(AvailableQuantity,0D) == 0)
-                AvailableQuantity = Quantity;
+    public boolean isLoggedOn ( String source ) {
+        return Sessions.containsKey(source);
+    }
 
-            try {
-                String RejectText = "";
+    /**
+     * Wakes the socket thread, for the Trader's housekeeping.  Safe to
+     * call from any thread.
+     */
+    public void Wakeup () {
+        Selector sel = ActiveSelector;
+        if ( sel != null )
+            sel.wakeup();
+    }
 
-                // create order
-                Order o = new Order(OrderID,Symbol,Customer,Source,ArriveDate,
-                                    Price,Quantity,AvailableQuantity,Side,Strategy,
-                                    Currency,MinFillQuantity);
+    /**
+     * Gives a session its name and a queue for its replies, after which
+     * its orders carry the name as their Source.  A session named
+     * DefaultSession shares the queue of any already logged on.
+     * Called by the OrderSocket thread only.
+     *
+     * @param session The session logging on
+     * @param name Name asked for by the client
+     * @return An error message, or blank string if the session is now
+     * logged on
+     */
+    public String Logon ( OrderSession session, String name ) {
+        if ( name.equals("") )
+            return "Session cannot be blank";
+        if ( name.equals(DefaultSession) && Sessions.containsKey(name) ) {
+            session.setName(name, Mailboxes.get(name));
+        }
+        else {
+            if ( Sessions.containsKey(name) )
+                return "Session " + name + " is already connected";
+
+            // the queue goes first, so a reply routed to the session has one
+            MessageQueue mailbox = new MessageQueue(QueueSize);
+            Mailboxes.put(name, mailbox);
+            session.setName(name, mailbox);
+            Sessions.put(name, session);
+        }
 
-                // send to trader
-                if ( cmd.equals("NEW") )
-                    RejectText = trader.NewOrder(o);
-                else if ( cmd.equals("AMEND") )
-                    RejectText = trader.AmendOrder(o);
-                else
-                    RejectText = trader.CancelOrder(o);
+        try {
+            Logger.getInstance().write("Order session " + name + " logged on from "
+                + session.getChannel().getRemoteAddress());
+        } catch ( IOException e ) {
+            // do nothing
+        }
+        return "";
+    }
 
-                if ( RejectText.length() > 0 )
-                    return "REJECT" + InputLine + ",RejectText=" + RejectText;
+    /**
+     * @return Number of replies refused because a reply queue was full
+     */
+    public long getOutboundFullCount () {
+        long count = ClosedFullCount;
+        for ( MessageQueue mailbox : Mailboxes.values() )
+            count += mailbox.getFullCount();
+        return count;
+    }
 
-                return "";
-            }
-            catch ( Exception e ) {
-                return "REJECT" + InputLine + ",RejectText=" + e.getMessage();
-            }
+    /**
+     * @return Number of lines sent to order clients, for comparing
+     * against getWriteCount
+     */
+    public long getMessageCount () {
+        long count = ClosedMessageCount;
+        for ( OrderSession session : Active )
+            count += session.getOutput().getMessageCount();
+        return count;
+    }
 
-        }
+    /**
+     * @return Number of writes to order clients
+     */
+    public long getWriteCount () {
+        long count = ClosedWriteCount;
+        for ( OrderSession session : Active )
+            count += session.getOutput().getWriteCount();
+        return count;
+    }
 
-        ErrorCount++;
-        if ( ErrorCount >= 3 )
-            return "BYE";
-        else
-            return "UNKNOWN COMMAND";
+    /**
+     * @return Number of logged on sessions
+     */
+    public int getSessionCount () {
+        int count = 0;
+        for ( OrderSession session : Active )
+            if ( session.getName() != null )
+                count++;
+        return count;
     }
 
     /**
-     * Notifies the MatchingEngine that this socket exists.  Opens the
-     * PortNumber and listens for connections.  Establishes connections
-     * and reads/writes data.  This function never exits, which requires
-     * killing Microssa to stop.
+     * Notifies the Trader that this socket exists.  Opens the
+     * PortNumber once and serves every client from a Selector loop.
+     * If the listener itself fails, all sessions are closed and it is
+     * opened again.  This function never exits, which requires killing
+     * AlgoTrader to stop.
      */
     public void run () {
         trader.SetOrderSocket(this);
 
         while ( true ) {
             try (
-                ServerSocket serverSocket = new ServerSocket(PortNumber);
-                Socket clientSocket = serverSocket.accept();
-                PrintWriter out =
-                    new PrintWriter(clientSocket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(
-                    new InputStreamReader(clientSocket.getInputStream()));
+                Selector selector = Selector.open();
+                ServerSocketChannel listener = ServerSocketChannel.open();
             ) {
+                listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                listener.bind(new InetSocketAddress(PortNumber));
+                listener.configureBlocking(false);
+                listener.register(selector, SelectionKey.OP_ACCEPT);
 
-                String InputLine, OutputLine;
+                ActiveSelector = selector;
+                Serve(selector, listener);
 
-                int PingCheck = 0;
-                boolean AbortSession = false;
+            } catch (Exception e) {
+                System.err.println("Exception caught when trying to listen on port "
+                    + PortNumber + " or listening for a connection");
+                System.err.println(e.getMessage());
+            } finally {
+                ActiveSelector = null;
+                for ( OrderSession session : Active )
+                    Close(session);
+            }
+
+            try {
+                Thread.sleep(RelistenMS);
+            } catch ( InterruptedException e ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Event loop of the listener and its sessions.  Blocks in select
+     * until a client connects, a session is readable or writable with
+     * pending output, a reply is queued by the Trader, or a PING is due.
+     * As the order entry thread, it also does the Trader's housekeeping
+     * each time round.
+     *
+     * @param selector Selector the listener is registered with
+     * @param listener The listening channel
+     * @throws IOException If the listener fails
+     */
+    private void Serve ( Selector selector, ServerSocketChannel listener )
+        throws IOException
+    {
+        while ( true ) {
+            long now = System.currentTimeMillis();
+            long nanos = System.nanoTime();
+            long timeout = 0L;
+            for ( OrderSession session : Active ) {
+                long due = session.getNextPing();
+                if ( due > 0L )
+                    timeout = Math.min(timeout > 0L ? timeout : Long.MAX_VALUE,
+                                       Math.max(1L, due - now));
+            }
+            for ( OrderSession session : Active ) {
+                if ( timeout >= 0L )
+                    timeout = session.getOutput().SelectTimeout(nanos, timeout);
+            }
 
-                out.println("CONNECTED");
+            // output due within a millisecond, or housekeeping in
+            // progress, is not worth sleeping for
+            if ( timeout < 0L || trader.isMaintaining() )
+                selector.selectNow();
+            else
+                selector.select(timeout);
+            now = System.currentTimeMillis();
+            nanos = System.nanoTime();
+
+            Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+            while ( ready.hasNext() ) {
+                SelectionKey key = ready.next();
+                ready.remove();
+
+                if ( !key.isValid() )
+                    continue;
+
+                if ( key.isAcceptable() ) {
+                    Accept(selector, listener);
+                    continue;
+                }
 
-                // messages from a previous, disconnected session?
-                if ( !OutputBuffer.equals("") ) {
-                    out.println(OutputBuffer);
-                    OutputBuffer = "";
+                OrderSession session = (OrderSession)key.attachment();
+                try {
+                    if ( key.isReadable() && !session.Read(now) )
+                        Close(session);
+                } catch ( IOException e ) {
+                    Close(session);
                 }
+            }
+
+            // progress reports and snapshot encoding, between messages
+            trader.Maintain();
 
-                while ((InputLine = in.readLine()) != null && !AbortSession) {
-                    OutputLine = ProcessInput(InputLine);
-                    if ( !OutputLine.equals("") )
-                        out.println(OutputLine);
-                    if ( OutputLine.equals("BYE") )
-                        break;
-
-                    while(!in.ready() && !AbortSession) {
-                        OutputLine = OutputBuffer;
-                        if ( OutputLine.length() > 0 ) {
-                            out.println(OutputLine);
-                            OutputBuffer = "";
-                        }
-
-                        Thread.sleep(50);
-                        PingCheck += 50;
-
-                        if (PingCheck >= PingMS) {
-                            out.println("PING");
-                            PingCheck = 0;
-                            AbortSession = out.checkError();
-                        }
+            // replies, pings and unfinished writes of every session
+            for ( int i = Active.size() - 1; i >= 0; i-- ) {
+                OrderSession session = Active.get(i);
+                try {
+                    if ( !session.Write(now, nanos) ) {
+                        Close(session);
+                        continue;
                     }
-                    PingCheck = 0;
+
+                    // only wait for writability while output is backed up
+                    SelectionKey key = session.getChannel().keyFor(selector);
+                    if ( key != null && key.isValid() )
+                        key.interestOps(SelectionKey.OP_READ |
+                            ( session.getOutput().getDelay(nanos) == 0L ?
+                              SelectionKey.OP_WRITE : 0 ));
+                } catch ( IOException e ) {
+                    Close(session);
                 }
+            }
+        }
+    }
 
-            } catch (Exception e) {
-                System.err.println("Exception caught when trying to listen on port "
-                    + PortNumber + " or listening for a connection");
-                System.err.println(e.getMessage());
+    /**
+     * Accepts a waiting client and starts its session.
+     *
+     * @param selector Selector to register the session with
+     * @param listener The listening channel
+     * @throws IOException If the listener fails
+     */
+    private void Accept ( Selector selector, ServerSocketChannel listener )
+        throws IOException
+    {
+        SocketChannel ch = listener.accept();
+        if ( ch == null )
+            return;
+
+        OrderSession session = new OrderSession(this, ch, trader, PingMS);
+
+        try {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ch.register(selector, SelectionKey.OP_READ, session);
+        } catch ( IOException e ) {
+            ch.close();
+            return;
+        }
+
+        Active.add(session);
+        session.QueueLine("CONNECTED");
+
+        Logger.getInstance().write("Order client connected from "
+            + ch.getRemoteAddress());
+    }
+
+    /**
+     * Ends a session and closes its connection.
+     *
+     * @param session The session
+     */
+    private void Close ( OrderSession session ) {
+        if ( !Active.remove(session) )
+            return;
+        String name = session.getName();
+        if ( name != null && Sessions.get(name) == session ) {
+            // another session sharing the name takes over its replies
+            OrderSession other = null;
+            for ( OrderSession s : Active )
+                if ( name.equals(s.getName()) )
+                    other = s;
+
+            if ( other != null ) {
+                Sessions.put(name, other);
+            }
+            else {
+                Sessions.remove(name);
+                MessageQueue mailbox = Mailboxes.remove(name);
+                if ( mailbox != null )
+                    ClosedFullCount += mailbox.getFullCount();
             }
         }
+        ClosedMessageCount += session.getOutput().getMessageCount();
+        ClosedWriteCount += session.getOutput().getWriteCount();
+
+        try {
+            session.getChannel().close();
+        } catch ( IOException e ) {
+            // do nothing
+        }
+
+        try {
+            Logger.getInstance().write("Order session " +
+                ( name != null ? name : "not logged on" ) + " disconnected");
+        } catch ( IOException e ) {
+            // do nothing
+        }
     }
 
     /**
@@ -274,4 +474,3 @@ public class OrderSocket implements Runnable {
         }
     }
 }
-
@@ -0,0 +1,170 @@
+/*
+ * OrderSubscriptions.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * The orders of an EventLoop that want to hear of book changes, listed
+ * by symbol, so a changed book wakes only the orders on its symbol and
+ * the work per book does not grow with the rest of the blotter.  An
+ * order may also give a price window, in which case it is only woken
+ * while the touch it would trade against, the best offer for a buy and
+ * the best bid for a sell, is inside it; an order far from its limit
+ * is then passed over with one comparison.  The lists are threaded
+ * through the orders themselves, as the TimingWheel's are, so
+ * subscribing and unsubscribing take constant time without allocating.
+ * The orders to wake are taken one at a time:
+ * <pre>
+ *   subs.Begin(book);
+ *   while ( ( o = subs.Next() ) != null )
+ *       ...
+ * </pre>
+ * An order may be unsubscribed while the list is being walked.  Not
+ * thread-safe; each EventLoop has its own.
+ */
+public class OrderSubscriptions {
+
+    /** First subscribed order of each symbol, indexed by SymbolID. */
+    private Order[] Heads;
+
+    /** Number of subscribed orders of each symbol. */
+    private int[] Counts;
+
+    /** Next order to look at in the list being walked. */
+    private Order Cursor;
+
+    /** Best bid and offer of the book being walked, in ticks, or -1 if
+     *  the side is empty. */
+    private long BidTicks, OfferTicks;
+
+    /**
+     * @param capacity Number of symbol identifiers
+     */
+    public OrderSubscriptions ( int capacity ) {
+        Heads = new Order[capacity];
+        Counts = new int[capacity];
+        Cursor = null;
+    }
+
+    /**
+     * Wakes an order on every change of its symbol's book, replacing
+     * any window it had.
+     *
+     * @param o The order
+     */
+    public void Subscribe ( Order o ) {
+        Subscribe(o, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Wakes an order on a change of its symbol's book only while the
+     * touch it would trade against is within a window, replacing any
+     * window it had.  An empty touch is outside every window but the
+     * whole range.
+     *
+     * @param o The order
+     * @param lowTicks Lowest price of the window, in ticks
+     * @param highTicks Highest price of the window, in ticks
+     */
+    public void Subscribe ( Order o, long lowTicks, long highTicks ) {
+        o.WatchLow = lowTicks;
+        o.WatchHigh = highTicks;
+        if ( o.WatchSymbol >= 0 )
+            return;
+
+        int id = o.getSymbolID();
+        Order head = Heads[id];
+
+        o.WatchSymbol = id;
+        o.WatchNext = head;
+        o.WatchPrev = null;
+        if ( head != null )
+            head.WatchPrev = o;
+        Heads[id] = o;
+        Counts[id]++;
+    }
+
+    /**
+     * Stops waking an order, if it was subscribed.
+     *
+     * @param o The order
+     */
+    public void Unsubscribe ( Order o ) {
+        if ( o.WatchSymbol < 0 )
+            return;
+
+        Order prev = o.WatchPrev;
+        Order next = o.WatchNext;
+
+        if ( o == Cursor )
+            Cursor = next;
+
+        if ( prev == null )
+            Heads[o.WatchSymbol] = next;
+        else
+            prev.WatchNext = next;
+
+        if ( next != null )
+            next.WatchPrev = prev;
+
+        Counts[o.WatchSymbol]--;
+        o.WatchNext = o.WatchPrev = null;
+        o.WatchSymbol = -1;
+    }
+
+    /**
+     * Starts walking the orders of a changed book.
+     *
+     * @param book The book
+     */
+    public void Begin ( OrderBook book ) {
+        Cursor = Heads[book.getSymbolID()];
+        BidTicks = book.getBidDepth() > 0 ? book.getBidTicks(0) : -1L;
+        OfferTicks = book.getOfferDepth() > 0 ? book.getOfferTicks(0) : -1L;
+    }
+
+    /**
+     * Takes the next order to wake for the book passed to Begin.
+     *
+     * @return The order, or null if there are no more
+     */
+    public Order Next () {
+        while ( Cursor != null ) {
+            Order o = Cursor;
+            Cursor = o.WatchNext;
+
+            if ( o.WatchLow == Long.MIN_VALUE && o.WatchHigh == Long.MAX_VALUE )
+                return o;
+
+            long px = o.getSide() == 'B' ? OfferTicks : BidTicks;
+            if ( px >= 0L && px >= o.WatchLow && px <= o.WatchHigh )
+                return o;
+        }
+        return null;
+    }
+
+    /**
+     * @param symbolID Identifier of a symbol
+     * @return Number of its subscribed orders
+     */
+    public int getCount ( int symbolID ) {
+        return Counts[symbolID];
+    }
+}
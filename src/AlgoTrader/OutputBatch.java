@@ -0,0 +1,202 @@
+/*
+ * OutputBatch.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Collects the outbound lines of a connection so they are written with
+ * as few system calls as possible.  Everything added during a pass of
+ * the socket's event loop goes out in a single write.  With a latency
+ * cap of WRITEBATCHMICROS, output is also held across passes until the
+ * oldest line has waited that long or WRITEBATCHBYTES have built up,
+ * whichever comes first.  A cap of zero writes at the end of every
+ * pass.  Used by the socket thread only.
+ */
+public class OutputBatch {
+
+    /** Encoded lines waiting to be written, in write mode. */
+    private ByteBuffer Bytes;
+
+    /** Bytes that are written without waiting for the latency cap. */
+    private int MaxBytes;
+
+    /** Longest a line is held back, in nanoseconds. */
+    private long MaxDelayNanos;
+
+    /** Time the oldest waiting line was added, 0 if none is waiting. */
+    private long FirstPending;
+
+    /** Number of lines added. */
+    private long MessageCount;
+
+    /** Number of writes to the connection. */
+    private long WriteCount;
+
+    /**
+     * Reads WRITEBATCHBYTES and WRITEBATCHMICROS.
+     */
+    public OutputBatch () {
+        Configuration cfg = Configuration.getInstance();
+
+        MaxBytes = Math.max(1, cfg.getInt("WRITEBATCHBYTES"));
+        MaxDelayNanos = Math.max(0L, cfg.getInt("WRITEBATCHMICROS") * 1000L);
+        Bytes = ByteBuffer.allocate(Math.max(65536, MaxBytes));
+        FirstPending = 0L;
+        MessageCount = WriteCount = 0L;
+    }
+
+    /**
+     * Adds a line, growing the buffer if needed.
+     *
+     * @param b Buffer holding the line, without a line terminator
+     * @param off Start of the line
+     * @param len Length of the line
+     */
+    public void Add ( byte[] b, int off, int len ) {
+        if ( Bytes.remaining() < len + 1 ) {
+            ByteBuffer larger = ByteBuffer.allocate(
+                Math.max(Bytes.capacity() * 2, Bytes.position() + len + 1));
+            Bytes.flip();
+            larger.put(Bytes);
+            Bytes = larger;
+        }
+
+        if ( FirstPending == 0L )
+            FirstPending = System.nanoTime();
+
+        Bytes.put(b, off, len);
+        Bytes.put((byte)'\n');
+        MessageCount++;
+    }
+
+    /**
+     * Adds a line.
+     *
+     * @param s The line, without a line terminator
+     */
+    public void Add ( String s ) {
+        byte[] b = Ascii.Bytes(s);
+        Add(b, 0, b.length);
+    }
+
+    /**
+     * Adds every message ready in a queue.
+     *
+     * @param q The queue
+     */
+    public void Drain ( MessageQueue q ) {
+        byte[] msg;
+        while ( ( msg = q.Poll() ) != null )
+            Add(msg, 0, msg.length);
+    }
+
+    /**
+     * @return True if bytes are waiting to be written
+     */
+    public boolean hasOutput () {
+        return Bytes.position() > 0;
+    }
+
+    /**
+     * Discards everything waiting, when a connection is replaced.
+     */
+    public void Clear () {
+        Bytes.clear();
+        FirstPending = 0L;
+    }
+
+    /**
+     * Returns how long the waiting output may still be held.
+     *
+     * @param now Current System.nanoTime()
+     * @return Nanoseconds until the output is due, 0 if it is due now,
+     * or -1 if nothing is waiting
+     */
+    public long getDelay ( long now ) {
+        if ( Bytes.position() == 0 )
+            return -1L;
+        if ( Bytes.position() >= MaxBytes )
+            return 0L;
+        return Math.max(0L, FirstPending + MaxDelayNanos - now);
+    }
+
+    /**
+     * Writes the waiting output if it is due, or regardless when forced.
+     * Whatever the connection does not take stays for the next call and
+     * is due immediately.
+     *
+     * @param ch The connection
+     * @param now Current System.nanoTime()
+     * @param force True to write even if the output could be held
+     * @throws IOException If the connection fails
+     */
+    public void Flush ( SocketChannel ch, long now, boolean force ) throws IOException {
+        long delay = getDelay(now);
+        if ( delay < 0L || ( delay > 0L && !force ) )
+            return;
+
+        Bytes.flip();
+        ch.write(Bytes);
+        Bytes.compact();
+        WriteCount++;
+
+        if ( Bytes.position() == 0 )
+            FirstPending = 0L;
+    }
+
+    /**
+     * Converts a wait for the output into a select timeout.
+     *
+     * @param now Current System.nanoTime()
+     * @param timeout Select timeout in milliseconds otherwise needed,
+     * 0 for none
+     * @return The select timeout in milliseconds, 0 for none, or -1 if
+     * the output is due within a millisecond and the selector should
+     * only be polled
+     */
+    public long SelectTimeout ( long now, long timeout ) {
+        long delay = getDelay(now);
+        if ( delay < 0L )
+            return timeout;
+        if ( delay < 1000000L )
+            return -1L;
+
+        long ms = ( delay + 999999L ) / 1000000L;
+        return timeout == 0L ? ms : Math.min(timeout, ms);
+    }
+
+    /**
+     * @return Number of lines added
+     */
+    public long getMessageCount () {
+        return MessageCount;
+    }
+
+    /**
+     * @return Number of writes to the connection
+     */
+    public long getWriteCount () {
+        return WriteCount;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * PovStrategy.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Percent of volume.  An order is worked as POVPERCENT of the volume
+ * traded in its symbol since it arrived: whenever that share is ahead
+ * of the children sent, a child order makes up the difference.  Volume
+ * is counted once per symbol, in its OrderBook, so each order only
+ * compares its own progress with the book's count.  An order is
+ * subscribed to its symbol's book within its limit, so it is not woken
+ * while the market is through its Price; volume traded meanwhile still
+ * counts, and is caught up once the market comes back.  Executions
+ * beyond the children sent count towards the order's share.
+ */
+public class PovStrategy implements TradingStrategy {
+
+    /** What the strategy keeps of an order. */
+    private static class PovState extends SliceState {
+
+        /** Lots the symbol had traded when the order arrived. */
+        long VolumeBase;
+    }
+
+    /** The loop this instance belongs to. */
+    private EventLoop Loop;
+
+    /** Orders woken on book changes. */
+    private OrderSubscriptions Subscriptions;
+
+    /** Retries of children that could not be sent. */
+    private TimingWheel Timers;
+
+    /** Percent of the market's volume an order takes. */
+    private long Percent;
+
+    public void Attach ( EventLoop loop ) {
+        Loop = loop;
+        Subscriptions = loop.getSubscriptions();
+        Timers = loop.getTimers();
+        Percent = Math.max(1, Math.min(100, Configuration.getInstance().getInt("POVPERCENT")));
+    }
+
+    public void OnNewOrder ( Order o, long now ) {
+        OrderBook book = Loop.getBook(o.getSymbolID());
+
+        PovState s = new PovState();
+        s.Begin(o, now);
+        s.VolumeBase = book == null ? 0L : book.getTradedLots();
+        o.setStrategyState(s);
+        Subscribe(o);
+    }
+
+    /**
+     * Carries on from the children sent before the restart.  The volume
+     * traded while AlgoTrader was down is not known, so the order's
+     * share is counted afresh from here on top of them.
+     */
+    public void OnRecover ( Order o, long now ) {
+        OnNewOrder(o, now);
+
+        PovState s = (PovState)o.getStrategyState();
+        if ( Loop.RestoreProgress(o, s, now) )
+            s.SliceBase = Math.max(s.SlicedLots, o.getCumulativeLots());
+    }
+
+    /**
+     * Moves the order's window to its new Price, and sends a child for
+     * any quantity the amend makes due.
+     */
+    public void OnAmend ( Order o, long now ) {
+        Subscribe(o);
+
+        OrderBook book = Loop.getBook(o.getSymbolID());
+        if ( book != null )
+            Participate(o, book, now);
+    }
+
+    public void OnCancel ( Order o, long now ) {
+    }
+
+    public void OnFill ( Order o, long lots, long ticks, long now ) {
+    }
+
+    public void OnBook ( OrderBook book, BookAnalytics analytics, long now ) {
+    }
+
+    public void OnTick ( Order o, OrderBook book, BookAnalytics analytics, long now ) {
+        Participate(o, book, now);
+    }
+
+    /**
+     * Tries again a child that could not be sent, in case the book
+     * does not change before then.
+     */
+    public void OnTimer ( Order o, long now ) {
+        OrderBook book = Loop.getBook(o.getSymbolID());
+        if ( book != null )
+            Participate(o, book, now);
+    }
+
+    /**
+     * Sends a child order if the order's share of the volume traded
+     * since it arrived is ahead of the children sent.
+     *
+     * @param o The loop's copy of the order
+     * @param book The loop's copy of its symbol's book
+     * @param now Current Clock time
+     */
+    private void Participate ( Order o, OrderBook book, long now ) {
+        PovState s = (PovState)o.getStrategyState();
+        long target = s.SliceBase + ( book.getTradedLots() - s.VolumeBase ) * Percent / 100L;
+        target = Math.min(target, o.getQuantityLots());
+
+        if ( target > Math.max(s.SlicedLots, o.getCumulativeLots()) ) {
+            s.Slice++;
+            if ( !Loop.SliceTo(o, s, target) ) {
+                s.Slice--;
+                if ( !Timers.isScheduled(o) )
+                    Timers.Schedule(o, now + Loop.getSliceRetryNanos());
+            }
+        }
+    }
+
+    /**
+     * Subscribes an order to its symbol's book while the touch it
+     * would trade against is within its Price.
+     *
+     * @param o The loop's copy of the order
+     */
+    private void Subscribe ( Order o ) {
+        if ( o.getSide() == 'B' )
+            Subscriptions.Subscribe(o, Long.MIN_VALUE, o.getPriceTicks());
+        else
+            Subscriptions.Subscribe(o, o.getPriceTicks(), Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * PriceFrame.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the binary price feed protocol.  A PriceSocket asks for it
+ * by sending the text line "BINARY"; a price source that supports it
+ * answers "BINARY" and sends every following message as a frame.  Any
+ * other answer leaves the connection on the text protocol.  Messages
+ * to the price source are always text.
+ *
+ * Every frame is a big-endian int giving the length of the rest of the
+ * frame, then a type byte.  A text frame carries one text protocol
+ * line, such as PING or BYE.  A snapshot or update frame carries:
+ * <pre>
+ *   byte   length of the symbol
+ *   bytes  symbol
+ *   long   sequence number, -1 if none
+ *   short  number of bid levels
+ *   short  number of offer levels
+ *   levels bids then offers, each a long price and a long quantity
+ * </pre>
+ * Prices and quantities are FixedPoint values, with eight decimal
+ * places.
+ * As in the text protocol, an update level with zero quantity deletes
+ * the level.
+ */
+public class PriceFrame {
+
+    /** Size of the length prefix. */
+    public static final int LengthBytes = 4;
+
+    /** Frame types. */
+    public static final byte SnapshotFrame = 1;
+    public static final byte UpdateFrame   = 2;
+    public static final byte TextFrame     = 3;
+
+    /** Size of one level. */
+    public static final int LevelBytes = 16;
+
+    /** Size of the fixed part of a snapshot or update after the symbol. */
+    private static final int CountsBytes = 8 + 2 + 2;
+
+    /**
+     * Size of a snapshot or update frame, including the length prefix.
+     *
+     * @param symbolLen Length of the symbol
+     * @param levels Number of bid and offer levels
+     * @return Size in bytes
+     */
+    public static int LevelsFrameBytes ( int symbolLen, int levels ) {
+        return LengthBytes + 1 + 1 + symbolLen + CountsBytes + levels * LevelBytes;
+    }
+
+    /**
+     * Writes the start of a snapshot or update frame.  It must be
+     * followed by exactly bids + offers calls to PutLevel, bids first.
+     *
+     * @param out Destination, with room for the whole frame
+     * @param snapshot True for a snapshot, false for an update
+     * @param symbol The symbol
+     * @param sequence Sequence number, -1 if none
+     * @param bids Number of bid levels
+     * @param offers Number of offer levels
+     */
+    public static void PutLevelsHeader ( ByteBuffer out, boolean snapshot, byte[] symbol,
+                                         long sequence, int bids, int offers ) {
+        out.putInt(LevelsFrameBytes(symbol.length, bids + offers) - LengthBytes);
+        out.put(snapshot ? SnapshotFrame : UpdateFrame);
+        out.put((byte)symbol.length);
+        out.put(symbol);
+        out.putLong(sequence);
+        out.putShort((short)bids);
+        out.putShort((short)offers);
+    }
+
+    /**
+     * Writes one level of a snapshot or update frame.
+     *
+     * @param out Destination
+     * @param px Price as a FixedPoint value
+     * @param qty Quantity as a FixedPoint value
+     */
+    public static void PutLevel ( ByteBuffer out, long px, long qty ) {
+        out.putLong(px);
+        out.putLong(qty);
+    }
+
+    /**
+     * Writes a text frame.
+     *
+     * @param out Destination, with room for the whole frame
+     * @param line The text protocol line, without a line terminator
+     */
+    public static void PutText ( ByteBuffer out, byte[] line ) {
+        out.putInt(1 + line.length);
+        out.put(TextFrame);
+        out.put(line);
+    }
+
+    /**
+     * Reads a big-endian int.
+     *
+     * @param b Buffer
+     * @param off Position of the int
+     * @return The value
+     */
+    public static int GetInt ( byte[] b, int off ) {
+        return ( ( b[off] & 0xFF ) << 24 ) | ( ( b[off + 1] & 0xFF ) << 16 ) |
+               ( ( b[off + 2] & 0xFF ) << 8 ) | ( b[off + 3] & 0xFF );
+    }
+
+    /**
+     * Reads a big-endian short as an unsigned value.
+     *
+     * @param b Buffer
+     * @param off Position of the short
+     * @return The value
+     */
+    public static int GetUnsignedShort ( byte[] b, int off ) {
+        return ( ( b[off] & 0xFF ) << 8 ) | ( b[off + 1] & 0xFF );
+    }
+
+    /**
+     * Reads a big-endian long.
+     *
+     * @param b Buffer
+     * @param off Position of the long
+     * @return The value
+     */
+    public static long GetLong ( byte[] b, int off ) {
+        return ( (long)GetInt(b, off) << 32 ) | ( GetInt(b, off + 4) & 0xFFFFFFFFL );
+    }
+}
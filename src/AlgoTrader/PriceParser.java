@@ -0,0 +1,242 @@
+/*
+ * PriceParser.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Decodes price feed messages straight from the bytes read off the
+ * connection.  Commands, symbols, side markers and levels are recognised
+ * in place and market data is handed to a MarketDataHandler as it is
+ * read, so no Strings or token arrays are created per message.  Frames
+ * of the binary protocol are decoded by ParseFrame into the same calls.
+ *
+ * @see MarketDataHandler
+ * @see PriceFrame
+ */
+public class PriceParser {
+
+    /** Result codes returned by Parse. */
+    public static final int UNKNOWN     = 0;
+    public static final int SNAPSHOT    = 1;
+    public static final int PING        = 2;
+    public static final int CONNECTED   = 3;
+    public static final int END         = 4;
+    public static final int BYE         = 5;
+    public static final int REJECT      = 6;
+    public static final int MALFORMED   = 7;
+    public static final int UPDATE      = 8;
+    public static final int BINARY      = 9;
+
+    /** Message literals. */
+    private static final byte[] SnapshotCmd  = Ascii.Bytes("SNAPSHOT");
+    private static final byte[] UpdateCmd    = Ascii.Bytes("UPDATE");
+    private static final byte[] PingCmd      = Ascii.Bytes("PING");
+    private static final byte[] ConnectedCmd = Ascii.Bytes("CONNECTED");
+    private static final byte[] EndCmd       = Ascii.Bytes("END");
+    private static final byte[] ByeCmd       = Ascii.Bytes("BYE");
+    private static final byte[] RejectCmd    = Ascii.Bytes("REJECT");
+    private static final byte[] BinaryCmd    = Ascii.Bytes("BINARY");
+    private static final byte[] BidMarker    = Ascii.Bytes("BID");
+    private static final byte[] OfferMarker  = Ascii.Bytes("OFFER");
+
+    /** Receives decoded market data. */
+    private MarketDataHandler Handler;
+
+    /**
+     * @param h The handler that receives decoded market data
+     */
+    public PriceParser ( MarketDataHandler h ) {
+        Handler = h;
+    }
+
+    /**
+     * Decodes one message.  The line terminator must not be included.
+     *
+     * @param buf Buffer holding the message
+     * @param off Start of the message
+     * @param len Length of the message
+     * @return One of the result codes above
+     */
+    public int Parse ( byte[] buf, int off, int len ) {
+        int end = off + len;
+        int comma = Ascii.IndexOf(buf, off, end, (byte)',');
+        int cmdLen = comma - off;
+
+        if ( Ascii.Matches(buf, off, cmdLen, UpdateCmd) )
+            return ParseLevels(buf, comma + 1, end, false);
+
+        if ( Ascii.Matches(buf, off, cmdLen, SnapshotCmd) )
+            return ParseLevels(buf, comma + 1, end, true);
+
+        if ( comma == end ) {
+            if ( Ascii.Matches(buf, off, len, PingCmd) )
+                return PING;
+            if ( Ascii.Matches(buf, off, len, ConnectedCmd) )
+                return CONNECTED;
+            if ( Ascii.Matches(buf, off, len, EndCmd) )
+                return END;
+            if ( Ascii.Matches(buf, off, len, ByeCmd) )
+                return BYE;
+            if ( Ascii.Matches(buf, off, len, BinaryCmd) )
+                return BINARY;
+        }
+
+        if ( Ascii.Matches(buf, off, cmdLen, RejectCmd) )
+            return REJECT;
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Decodes one binary frame.  Prices and quantities are read as fixed
+     * width FixedPoint integers, so a level costs two loads.
+     *
+     * @param buf Buffer holding the frame
+     * @param off Start of the frame's type byte, after the length prefix
+     * @param len Length of the frame, from the length prefix
+     * @return One of the result codes above
+     */
+    public int ParseFrame ( byte[] buf, int off, int len ) {
+        if ( len < 1 )
+            return MALFORMED;
+
+        byte type = buf[off];
+        if ( type == PriceFrame.TextFrame )
+            return Parse(buf, off + 1, len - 1);
+
+        if ( type != PriceFrame.SnapshotFrame && type != PriceFrame.UpdateFrame )
+            return UNKNOWN;
+
+        boolean snapshot = type == PriceFrame.SnapshotFrame;
+        int end = off + len;
+        int pos = off + 1;
+
+        if ( pos >= end )
+            return MALFORMED;
+
+        int symbolLen = buf[pos] & 0xFF;
+        int symbolStart = pos + 1;
+        pos = symbolStart + symbolLen;
+
+        if ( symbolLen == 0 || pos + 12 > end )
+            return MALFORMED;
+
+        long sequence = PriceFrame.GetLong(buf, pos);
+        int bids = PriceFrame.GetUnsignedShort(buf, pos + 8);
+        int offers = PriceFrame.GetUnsignedShort(buf, pos + 10);
+        pos += 12;
+
+        if ( pos + ( bids + offers ) * PriceFrame.LevelBytes != end ||
+             ( !snapshot && sequence < 0 ) )
+            return MALFORMED;
+
+        Handler.MarketDataBegin(buf, symbolStart, symbolLen, snapshot, sequence);
+
+        for ( int i = 0; i < bids + offers; i++ ) {
+            Handler.MarketDataLevel(i < bids, PriceFrame.GetLong(buf, pos),
+                                    PriceFrame.GetLong(buf, pos + 8));
+            pos += PriceFrame.LevelBytes;
+        }
+
+        Handler.MarketDataEnd(true);
+        return snapshot ? SNAPSHOT : UPDATE;
+    }
+
+    /**
+     * Decodes the body of a SNAPSHOT or UPDATE: the symbol, a sequence
+     * number, then BID and OFFER markers each followed by price/quantity
+     * pairs, which are parsed as FixedPoint values.  The sequence number
+     * is required on an UPDATE and optional on a SNAPSHOT.
+     *
+     * @param buf Buffer holding the message
+     * @param pos Start of the symbol
+     * @param end End of the message
+     * @param snapshot True for a SNAPSHOT, false for an UPDATE
+     * @return SNAPSHOT or UPDATE, or MALFORMED if the body could not be
+     * decoded
+     */
+    private int ParseLevels ( byte[] buf, int pos, int end, boolean snapshot ) {
+        if ( pos >= end )
+            return MALFORMED;
+
+        int symbolStart = pos;
+        int symbolEnd = Ascii.IndexOf(buf, pos, end, (byte)',');
+        if ( symbolEnd == pos )
+            return MALFORMED;
+
+        long sequence = -1L;
+        pos = symbolEnd + 1;
+
+        if ( pos < end ) {
+            int next = Ascii.IndexOf(buf, pos, end, (byte)',');
+            int tokenLen = next - pos;
+            if ( !Ascii.Matches(buf, pos, tokenLen, BidMarker) &&
+                 !Ascii.Matches(buf, pos, tokenLen, OfferMarker) ) {
+                try {
+                    sequence = Ascii.ParseLong(buf, pos, tokenLen);
+                } catch ( NumberFormatException e ) {
+                    return MALFORMED;
+                }
+                pos = next + 1;
+            }
+        }
+
+        if ( !snapshot && sequence < 0 )
+            return MALFORMED;
+
+        Handler.MarketDataBegin(buf, symbolStart, symbolEnd - symbolStart,
+                                snapshot, sequence);
+
+        boolean isBid = true;
+        boolean havePx = false;
+        long px = 0L;
+
+        try {
+            while ( pos < end ) {
+                int next = Ascii.IndexOf(buf, pos, end, (byte)',');
+                int tokenLen = next - pos;
+
+                if ( Ascii.Matches(buf, pos, tokenLen, BidMarker) ) {
+                    isBid = true;
+                } else if ( Ascii.Matches(buf, pos, tokenLen, OfferMarker) ) {
+                    isBid = false;
+                } else if ( !havePx ) {
+                    px = Ascii.ParseFixed(buf, pos, tokenLen, FixedPoint.Decimals);
+                    havePx = true;
+                } else {
+                    Handler.MarketDataLevel(isBid, px,
+                        Ascii.ParseFixed(buf, pos, tokenLen, FixedPoint.Decimals));
+                    havePx = false;
+                }
+
+                pos = next + 1;
+            }
+        } catch ( NumberFormatException e ) {
+            Handler.MarketDataEnd(false);
+            return MALFORMED;
+        }
+
+        Handler.MarketDataEnd(!havePx);
+        if ( havePx )
+            return MALFORMED;
+
+        return snapshot ? SNAPSHOT : UPDATE;
+    }
+}
@@ -22,14 +22,35 @@ package AlgoTrader;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * This class creates a TCP socket interface to allow market data
  * subscribe/unsubscribe requests to be sent to a market data source.
- * The Trader captures snapshots of the current prices in the books.
- * This socket runs on its own thread.
+ * The source answers a subscription with a full SNAPSHOT of the book and
+ * then sends sequenced UPDATE messages that change single levels:
+ * <pre>
+ *   SNAPSHOT,symbol[,sequence],BID,px,qty,...,OFFER,px,qty,...
+ *   UPDATE,symbol,sequence,BID,px,qty,...,OFFER,px,qty,...
+ * </pre>
+ * An UPDATE level with a quantity of zero deletes the level.  When a
+ * gap in the sequence is seen, SNAPSHOT,symbol asks for the full book
+ * again.
+ * There is one PriceSocket per shard of the symbol universe.  Shard n
+ * connects to PRICEIP.n and PRICEPORT.n when set, otherwise to PRICEIP
+ * and PRICEPORT, and only subscribes and keeps books for its own
+ * symbols.  When PRICERECORD is set, every message received is also
+ * recorded to PRICERECORD.n by a FeedRecorder.
+ * When PRICEBINARY is set, each session asks the source for the binary
+ * protocol described in PriceFrame, and stays on text if it declines.
+ * This socket runs on its own thread, which waits on a Selector so it
+ * wakes as soon as market data arrives or a message is queued.
  *
  * @see Trader
+ * @see MarketDataShard
  */
 
 public class PriceSocket implements Runnable {
@@ -49,8 +70,38 @@ public class PriceSocket implements Runnable {
     /** Reference to Trader object. */
     private Trader trader;
 
-    /** Buffered output to be written to the connection. */
-    private String OutputBuffer;
+    /** Shard of the symbol universe served by this connection. */
+    private int Shard;
+
+    /** Books of this connection's symbols. */
+    private MarketDataShard Books;
+
+    /** Records received messages, null if recording is off. */
+    private FeedRecorder Recorder;
+
+    /** Size of the recorder's hand-off ring. */
+    private static final int RecorderRingBytes = 8 << 20;
+
+    /** Largest binary frame accepted before the session is dropped. */
+    private static final int MaxFrameBytes = 16 << 20;
+
+    /** Whether to ask the source for the binary protocol. */
+    private boolean RequestBinary;
+
+    /** Whether the source is sending binary frames on this session. */
+    private boolean Binary;
+
+    /** Symbols whose wanted subscription the Trader changed, to be
+     *  subscribed or unsubscribed by the socket thread. */
+    private MessageQueue Outbound;
+
+    /** Whether each symbol is subscribed on the current connection,
+     *  indexed by SymbolID.  Socket thread only. */
+    private boolean[] Sent;
+
+    /** Set by the Trader when a subscription notice would not fit in
+     *  Outbound, so every symbol of the shard must be checked. */
+    private volatile boolean Resync;
 
     /** Number of erroneous messages.  Three in a row results in a
      *  disconnect. */
@@ -60,181 +111,507 @@ public class PriceSocket implements Runnable {
      *  ignored on the client side. */
     private int PingMS;
 
+    /** Decodes messages read off the connection. */
+    private PriceParser Parser;
+
+    /** Bytes read off the connection that have not been processed. */
+    private byte[] InputBuffer;
+
+    /** Number of valid bytes in InputBuffer. */
+    private int InputLength;
+
+    /** Encoded lines waiting to be written to the connection. */
+    private OutputBatch Output;
+
+    /** Selector of the current connection, null while disconnected. */
+    private volatile Selector ActiveSelector;
+
+    /** Whether the current connection attempt was established. */
+    private boolean Connected;
+
+    /** Shortest wait before reconnecting after a failed connection. */
+    private static final long MinReconnectMS = 100;
+
     /**
      * The constructor stores information for when the Thread is started,
      * but does not start it on its own.
      *
      * @param Name A string identifier for the future Thread
-     * @param me A reference to the MatchingEngine this socket is
-     * supposed to connect
+     * @param tdr A reference to the Trader this socket is supposed to
+     * feed
+     * @param shard The shard of the symbol universe this socket serves
+     * @throws IOException If the recording journal cannot be opened
      */
-    public PriceSocket ( String Name, Trader tdr )
+    public PriceSocket ( String Name, Trader tdr, int shard ) throws IOException
     {
+        Configuration cfg = Configuration.getInstance();
+
         ThreadName = Name;
-        IPAddress = Configuration.getInstance().getString("PRICEIP");
-        PortNumber = Configuration.getInstance().getInt("PRICEPORT");
-        PingMS = Configuration.getInstance().getInt("PINGMS");
+        IPAddress = cfg.getString("PRICEIP." + shard);
+        if ( IPAddress == null )
+            IPAddress = cfg.getString("PRICEIP");
+        PortNumber = cfg.getInt("PRICEPORT." + shard);
+        if ( PortNumber < 0 )
+            PortNumber = cfg.getInt("PRICEPORT");
+        PingMS = cfg.getInt("PINGMS");
+        RequestBinary = Boolean.parseBoolean(cfg.getString("PRICEBINARY"));
+        Binary = false;
         trader = tdr;
+        Shard = shard;
+        Books = new MarketDataShard(shard, tdr.getShards(), tdr.getLoops(), this);
+
+        String record = cfg.getString("PRICERECORD");
+        if ( record != null && record.length() > 0 )
+            Recorder = new FeedRecorder(Name + "-REC", record + "." + shard,
+                cfg.getInt("PRICERECORDMB") << 20, RecorderRingBytes);
+        else
+            Recorder = null;
         T = null;
         ErrorCount = 0;
-        OutputBuffer = "";
+        Outbound = new MessageQueue(cfg.getInt("OUTBOUNDQUEUE"));
+        Sent = new boolean[SymbolRegistry.getInstance().getCapacity()];
+        Parser = new PriceParser(Books);
+        InputBuffer = new byte[65536];
+        InputLength = 0;
+        Output = new OutputBatch();
+        ActiveSelector = null;
+    }
+
+    /**
+     * @return Shard of the symbol universe served by this connection
+     */
+    public int getShard ()
+    {
+        return Shard;
     }
 
     /**
-     * Interface for the trader to subscribe to a symbol
+     * Interface for the trader to subscribe or unsubscribe a symbol,
+     * after changing whether it is wanted.  The socket thread sends SUB
+     * or UNSUB if the connection does not already have it that way.
+     * The trader never waits for the socket thread: if the notice
+     * queue is full, the socket thread is told to check every symbol
+     * of its shard instead.
      *
-     * @param symbol The symbol to subscribe
+     * @param symbolID Identifier of the symbol
      */
-    public void Subscribe ( String symbol )
+    public void SubscriptionChanged ( int symbolID )
     {
-        WriteMessage("SUB,"+symbol);
+        Selector sel = ActiveSelector;
+        if ( !Outbound.Put(Ascii.Bytes(SymbolRegistry.getInstance().getSymbol(symbolID)), sel) )
+            Resync = true;
+
+        // wake the socket thread so the change goes out now
+        if ( sel != null )
+            sel.wakeup();
     }
 
     /**
-     * Interface for the trader to unsubscribe to a symbol
+     * Asks for a fresh snapshot of a symbol after it missed an
+     * incremental update.  Called by the socket thread only, while its
+     * books are being updated.
      *
-     * @param symbol The symbol to subscribe
+     * @param symbolID Identifier of the symbol to refresh
      */
-    public void Unsubscribe ( String symbol )
+    public void RequestSnapshot ( int symbolID )
     {
-        WriteMessage("UNSUB,"+symbol);
+        QueueLine("SNAPSHOT,"+SymbolRegistry.getInstance().getSymbol(symbolID));
     }
 
     /**
-     * Writes a message to the outbound buffer
+     * @return Number of subscription notices that found the queue full
+     */
+    public long getOutboundFullCount ()
+    {
+        return Outbound.getFullCount();
+    }
+
+    /**
+     * Adds a line to the connection's output.  Called by the socket
+     * thread only.
      *
-     * @param s The message to be sent out
+     * @param s The line to be sent, without a line terminator
      */
-    private void WriteMessage ( String s )
+    private void QueueLine ( String s )
     {
-        if ( OutputBuffer.length() > 0 )
-            OutputBuffer += "\n" + s;
-        else
-            OutputBuffer = s;
+        Output.Add(s);
+    }
+
+    /**
+     * @return The connection's output, for its write counters
+     */
+    public OutputBatch getOutput ()
+    {
+        return Output;
     }
 
 
     /**
      * Parses the input received on the connection.  Will disconnect
      * when receiving a "BYE", otherwise will attempt to parse the
-     * message as a subscribe/unsubscribe request.  If all fails, returns
-     * an error message and increments the ErrorCount.  Disconnects
-     * if there are three consecutive errors.
+     * message as market data.  If all fails, returns an error message
+     * and increments the ErrorCount.  Disconnects if there are three
+     * consecutive errors.
      *
-     * @param InputLine The message received on the connection
+     * @param buf Buffer holding the message
+     * @param off Start of the message
+     * @param len Length of the message, without the line terminator or
+     * frame length
+     * @param frame True if the message is a binary frame
      * @return An error message, or blank string if there was no error
      */
-    private String ProcessInput ( String InputLine )
+    private String ProcessInput ( byte[] buf, int off, int len, boolean frame )
     {
-        if ( InputLine.equals("END") )
-            return "BYE";
+        int code = frame ? Parser.ParseFrame(buf, off, len) : Parser.Parse(buf, off, len);
+
+        switch ( code ) {
+            case PriceParser.SNAPSHOT:
+            case PriceParser.UPDATE:
+            case PriceParser.PING:
+            case PriceParser.CONNECTED:
+                return "";
+            case PriceParser.BINARY:
+                // every message after this one is a frame
+                Binary = true;
+                return "";
+            case PriceParser.END:
+                return "BYE";
+            case PriceParser.BYE:
+                return "ABORT";
+            case PriceParser.REJECT:
+                try {
+                    if ( frame )
+                        Logger.getInstance().write("PS REJECT:" + Ascii.ToString(buf, off + 1, len - 1));
+                    else
+                        Logger.getInstance().write("PS REJECT:" + Ascii.ToString(buf, off, len));
+                } catch ( Exception e) {
+                    //
+                }
+                return "";
+            default:
+                break;
+        }
 
-        if ( InputLine.equals("PING") || InputLine.equals("CONNECTED") )
-            return "";
+        ErrorCount++;
+        if ( ErrorCount >= 3 )
+            return "END";
+        else
+            return "UNKNOWN COMMAND";
+    }
 
-        if ( InputLine.equals("BYE") )
-            return "ABORT";
+    /**
+     * Processes every complete line or frame in InputBuffer and keeps
+     * any partial one for the next read.  The source may switch to
+     * frames part way through a buffer.
+     *
+     * @param ReceiveTime Time the bytes were read, in nanoseconds since
+     * the epoch
+     * @return False if the session should be closed
+     */
+    private boolean ProcessBuffer ( long ReceiveTime )
+    {
+        int start = 0;
+        boolean keepSession = true;
 
-        String[] tokens = InputLine.split(",");
-        String cmd = tokens[0];
+        while ( keepSession )
+        {
+            String OutputLine;
+
+            if ( Binary ) {
+                if ( InputLength - start < PriceFrame.LengthBytes )
+                    break;
+
+                int len = PriceFrame.GetInt(InputBuffer, start);
+                if ( len < 1 || len > MaxFrameBytes ) {
+                    try {
+                        Logger.getInstance().write("PS invalid frame length " + len +
+                            " from " + IPAddress + ":" + PortNumber);
+                    } catch ( Exception e ) {
+                        //
+                    }
+                    keepSession = false;
+                    break;
+                }
 
-        if ( cmd.equals("SNAPSHOT") ) {
-            trader.MarketDataUpdate(tokens);
-            return "";
-        } else if ( cmd.equals("REJECT")) {
-            try {
-                Logger.getInstance().write("PS REJECT:"+InputLine);
-            } catch ( Exception e) {
-                //
+                int body = start + PriceFrame.LengthBytes;
+                if ( InputLength - body < len )
+                    break;
+
+                if ( Recorder != null )
+                    Recorder.Record(FeedRecorder.FrameRecord, ReceiveTime,
+                                    InputBuffer, body, len);
+
+                OutputLine = ProcessInput(InputBuffer, body, len, true);
+                start = body + len;
+            } else {
+                int newline = Ascii.IndexOf(InputBuffer, start, InputLength, (byte)'\n');
+                if ( newline >= InputLength )
+                    break;
+
+                int end = newline;
+                if ( end > start && InputBuffer[end - 1] == '\r' )
+                    end--;
+
+                if ( Recorder != null )
+                    Recorder.Record(FeedRecorder.TextRecord, ReceiveTime,
+                                    InputBuffer, start, end - start);
+
+                OutputLine = ProcessInput(InputBuffer, start, end - start, false);
+                start = newline + 1;
+            }
+
+            if ( OutputLine.equals("ABORT") ) {
+                keepSession = false;
+            } else if ( !OutputLine.equals("") ) {
+                QueueLine(OutputLine);
+                if ( OutputLine.equals("BYE") )
+                    keepSession = false;
             }
-            return "";
         }
 
+        // keep the partial line or frame at the front of the buffer
+        InputLength -= start;
+        System.arraycopy(InputBuffer, start, InputBuffer, 0, InputLength);
 
-        ErrorCount++;
-        if ( ErrorCount >= 3 )
-            return "END";
-        else
-            return "UNKNOWN COMMAND";
+        // a single line or frame larger than the buffer
+        if ( InputLength == InputBuffer.length ) {
+            byte[] larger = new byte[InputBuffer.length * 2];
+            System.arraycopy(InputBuffer, 0, larger, 0, InputLength);
+            InputBuffer = larger;
+        }
+
+        return keepSession;
     }
 
     /**
-     * Notifies the trader that this socket exists.  Opens the
-     * PortNumber and listens for connections.  Establishes connections
-     * and reads/writes data.  This function never exits, which requires
-     * killing AlgoTrader to stop.
+     * Connects to the market data source and runs the session.  When a session ends or
+     * a connection fails, waits before reconnecting, doubling the wait
+     * on each consecutive failure up to PingMS.  This function never
+     * exits, which requires killing AlgoTrader to stop.
      */
     public void run ()
     {
-        trader.SetPriceSocket(this);
+        long ReconnectMS = MinReconnectMS;
 
         while ( true )
         {
             try (
-                Socket clientSocket = new Socket(IPAddress,PortNumber);
-                PrintWriter out =
-                    new PrintWriter(clientSocket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(
-                    new InputStreamReader(clientSocket.getInputStream()));
+                Selector selector = Selector.open();
+                SocketChannel channel = SocketChannel.open();
             ) {
-                String InputLine, OutputLine;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.connect(new InetSocketAddress(IPAddress, PortNumber));
+                channel.register(selector, SelectionKey.OP_CONNECT);
 
-                int PingCheck = 0;
-                boolean AbortSession = false;
-
-                // messages from a previous, disconnected session?
-                if ( !OutputBuffer.equals("") )
-                {
-                    out.println(OutputBuffer);
-                    OutputBuffer = "";
-                }
-
-                while ((InputLine = in.readLine()) != null && !AbortSession)
-                {
-                    OutputLine = ProcessInput(InputLine);
-                    if ( OutputLine.equals("ABORT") )
-                        break;
-                    else if ( !OutputLine.equals("") )
-                        out.println(OutputLine);
-                    
-                    if ( OutputLine.equals("BYE") )
-                        break;
-
-                    while(!in.ready() && !AbortSession)
-                    {
-                        OutputLine = OutputBuffer;
-                        if ( OutputLine.length() > 0 )
-                        {
-                            out.println(OutputLine);
-                            OutputBuffer = "";
-                        }
-
-                        Thread.sleep(50);
-                        PingCheck += 50;
-
-                        if (PingCheck >= PingMS) {
-                            out.println("PING");
-                            PingCheck = 0;
-                            AbortSession = out.checkError();
-                        }
-
-                    }
-
-                    PingCheck = 0;
-                }
+                ActiveSelector = selector;
+                Connected = false;
+                RunSession(selector, channel);
 
             } catch (Exception e) {
                 System.err.println("Exception caught when trying to connect on port "
                     + PortNumber + " at " + IPAddress);
                 System.err.println(e.getMessage());
                 e.printStackTrace();
+            } finally {
+                ActiveSelector = null;
             }
+
+            if ( Connected )
+                ReconnectMS = MinReconnectMS;
+
+            try {
+                Thread.sleep(ReconnectMS);
+            } catch ( InterruptedException e ) {
+                return;
+            }
+            ReconnectMS = Math.min(ReconnectMS * 2, Math.max(PingMS, MinReconnectMS));
+        }
+    }
+
+    /**
+     * Event loop for one connection.  Blocks in select until the
+     * connection is readable, writable with pending output, a message
+     * is queued by the Trader, or the next PING is due.
+     *
+     * @param selector Selector the channel is registered with
+     * @param channel The connection, still connecting
+     * @throws IOException If the connection fails
+     */
+    private void RunSession ( Selector selector, SocketChannel channel )
+        throws IOException
+    {
+        SelectionKey key = channel.keyFor(selector);
+        ByteBuffer in = ByteBuffer.wrap(InputBuffer);
+        boolean started = false;
+        boolean closing = false;
+        long NextPing = 0L;
+
+        // output of a previous connection is dropped: the new one
+        // starts with no subscriptions, SubscribeAll sends every wanted
+        // one again, and each SUB brings a fresh snapshot, so no SUB,
+        // UNSUB or SNAPSHOT request is lost with it
+        InputLength = 0;
+        Output.Clear();
+        Binary = false;
+
+        while ( true )
+        {
+            long timeout = 0L;
+            if ( started )
+                timeout = Math.max(1L, NextPing - System.currentTimeMillis());
+            timeout = Output.SelectTimeout(System.nanoTime(), timeout);
+
+            // output due within a millisecond is not worth sleeping for
+            if ( timeout < 0L )
+                selector.selectNow();
+            else
+                selector.select(timeout);
+            boolean ready = selector.selectedKeys().remove(key);
+
+            if ( !Connected ) {
+                if ( !ready || !key.isConnectable() || !channel.finishConnect() )
+                    continue;
+
+                Connected = true;
+                key.interestOps(SelectionKey.OP_READ);
+                Logger.getInstance().write("Connected to price source on "
+                    + IPAddress + ":" + PortNumber);
+
+                if ( RequestBinary )
+                    QueueLine("BINARY");
+
+                // a new connection starts with no subscriptions
+                SubscribeAll();
+            }
+
+            if ( ready && key.isReadable() ) {
+                if ( in.array() != InputBuffer )
+                    in = ByteBuffer.wrap(InputBuffer);
+                in.limit(InputBuffer.length).position(InputLength);
+
+                int BytesRead = channel.read(in);
+                if ( BytesRead < 0 )
+                    return;
+
+                if ( BytesRead > 0 ) {
+                    long ReceiveTime = Clock.EpochNanos();
+                    InputLength += BytesRead;
+                    started = true;
+                    NextPing = System.currentTimeMillis() + PingMS;
+
+                    if ( !ProcessBuffer(ReceiveTime) ) {
+                        if ( !Output.hasOutput() )
+                            return;
+                        closing = true;
+                        key.interestOps(0);
+                    }
+                }
+            }
+
+            // subscriptions changed by the Trader, including any left
+            // over from a previous, disconnected session
+            if ( !closing )
+                DrainSubscriptions();
+
+            if ( started && !closing && System.currentTimeMillis() >= NextPing ) {
+                QueueLine("PING");
+                NextPing += PingMS;
+            }
+
+            long nanos = System.nanoTime();
+            Output.Flush(channel, nanos, closing);
+
+            if ( closing && !Output.hasOutput() )
+                return;
+
+            // only wait for writability while output is backed up
+            int ops = closing ? 0 : SelectionKey.OP_READ;
+            if ( Output.getDelay(nanos) == 0L )
+                ops |= SelectionKey.OP_WRITE;
+            if ( key.interestOps() != ops )
+                key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Subscribes to every symbol of this shard that an open order
+     * needs, as the Trader's order entry thread last left them.  This
+     * covers orders recovered at startup, and subscriptions whose
+     * messages were lost with a previous connection.
+     */
+    private void SubscribeAll ()
+    {
+        Arrays.fill(Sent, false);
+        ReconcileAll();
+    }
+
+    /**
+     * Brings every symbol of this shard in line with what the Trader
+     * wants, sending only what has changed.
+     */
+    private void ReconcileAll ()
+    {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        ShardMap shards = trader.getShards();
+
+        for ( int id = 0; id < symbols.getCount(); id++ ) {
+            if ( shards.ShardOf(id) == Shard )
+                Reconcile(id);
         }
     }
 
     /**
-     * Starts the Thread.  Sends a message to Logger to indicate
-     * successful start and as to which PortNumber it is listening.
+     * Subscribes or unsubscribes the symbols the Trader has changed,
+     * checking them all if a change could not be queued.
+     */
+    private void DrainSubscriptions ()
+    {
+        SymbolRegistry symbols = SymbolRegistry.getInstance();
+        byte[] msg;
+
+        // cleared before the scan, so a notice refused during it is
+        // caught on the next pass
+        if ( Resync ) {
+            Resync = false;
+            ReconcileAll();
+        }
+
+        while ( ( msg = Outbound.Poll() ) != null ) {
+            int id = symbols.Lookup(msg, 0, msg.length);
+            if ( id >= 0 )
+                Reconcile(id);
+        }
+    }
+
+    /**
+     * Sends SUB or UNSUB for a symbol if the connection does not have
+     * it as the Trader wants it.
+     *
+     * @param symbolID Identifier of the symbol
+     */
+    private void Reconcile ( int symbolID )
+    {
+        boolean wanted = trader.isSubscribed(symbolID);
+        if ( wanted == Sent[symbolID] )
+            return;
+
+        Sent[symbolID] = wanted;
+        QueueLine(( wanted ? "SUB," : "UNSUB," ) + SymbolRegistry.getInstance().getSymbol(symbolID));
+    }
+
+    /**
+     * @return The recorder of this connection, null if recording is off
+     */
+    public FeedRecorder getRecorder ()
+    {
+        return Recorder;
+    }
+
+    /**
+     * Registers the socket with the Trader and starts the Thread.
+     * Sends a message to Logger to indicate successful start and as to
+     * which PortNumber it is listening.
      *
      * @throws IOException Passthrough from Logger
      */
@@ -242,12 +619,17 @@ public class PriceSocket implements Runnable {
     {
         if ( T == null )
         {
+            if ( Recorder != null )
+                Recorder.start();
+
             try {
                 Logger.getInstance().write("Connecting to price subscriptions on "+ IPAddress + ":" + PortNumber);
             } catch (IOException e) {
                 throw e;
             }
 
+            trader.SetPriceSocket(this);
+
             T = new Thread( this, ThreadName );
             T.start();
         }
@@ -0,0 +1,436 @@
+/*
+ * RiskEngine.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pre-trade risk checks on new orders and amends.  Open quantity and
+ * open notional per symbol and per customer are kept as running totals,
+ * updated as orders are added, amended, executed and closed, so every
+ * check is a handful of comparisons with no scan of the blotter.
+ * Totals and limits are longs: quantities of a symbol in its lots, of
+ * a customer as FixedPoint values, and notionals in units of
+ * NotionalDecimals places.  An order counts towards a notional total
+ * as its price times AvailableQuantity, in ticks times lots, rounded
+ * once to those units, and every change moves the total by the
+ * difference of two such amounts, so the totals return exactly to zero.
+ * Limits come from the configuration, with an optional override per
+ * symbol or customer in KEY.SYMBOL or KEY.CUSTOMER, and are converted
+ * to these units when first looked up; a limit of 0 is not checked:
+ * <pre>
+ *   RISKMAXORDERQTY        Quantity of one order, per symbol
+ *   RISKMAXOPENQTY         Open quantity of all orders, per symbol
+ *   RISKMAXSYMBOLNOTIONAL  Open notional of all orders, per symbol
+ *   RISKMAXORDERNOTIONAL   Price times Quantity of one order, per customer
+ *   RISKMAXOPENNOTIONAL    Open notional of all orders, per customer
+ *   RISKMAXCUSTOMERQTY     Open quantity of all orders, per customer
+ *   RISKMAXMSGRATE         NEW and AMEND messages per second, per customer
+ *   RISKPRICECOLLAR        Largest fraction a buy may be above, or a sell
+ *                          below, the mid of the current book
+ * </pre>
+ * Limits are looked up the first time a symbol or customer is seen.
+ * Used by the order entry thread, except setReferencePrice, which the
+ * trading threads call as books change.
+ */
+public class RiskEngine {
+
+    /** Decimal places of notional totals and limits. */
+    public static final int NotionalDecimals = 4;
+
+    /** Limits and running totals of one customer. */
+    private static class CustomerRisk {
+
+        long MaxOrderNotional;
+        long MaxOpenNotional;
+        long MaxOpenQty;
+        int MaxMessageRate;
+
+        /** Price times AvailableQuantity of the customer's open orders. */
+        long OpenNotional;
+
+        /** AvailableQuantity of the customer's open orders, as a
+         *  FixedPoint value. */
+        long OpenQty;
+
+        /** Start of the current one second rate window. */
+        long WindowStart;
+
+        /** NEW and AMEND messages in the current window. */
+        int WindowCount;
+    }
+
+    /** Limits and totals of each customer seen. */
+    private Map<String, CustomerRisk> Customers;
+
+    /** Whether each symbol's limits have been looked up, by SymbolID. */
+    private boolean[] SymbolLoaded;
+
+    /** Per symbol limits in lots, by SymbolID. */
+    private long[] MaxOrderQty, MaxOpenQty;
+
+    /** Per symbol limit of open notional, by SymbolID. */
+    private long[] MaxOpenNotional;
+
+    /** AvailableQuantity of each symbol's open orders in lots, by
+     *  SymbolID. */
+    private long[] OpenQty;
+
+    /** Price times AvailableQuantity of each symbol's open orders, by
+     *  SymbolID. */
+    private long[] OpenNotional;
+
+    /** Price collar as a fraction of the mid, 0 if not checked. */
+    private double PriceCollar;
+
+    /** Mid of each symbol's book as double bits, NaN if unknown. */
+    private AtomicLongArray ReferencePrices;
+
+    /** Number of orders and amends rejected. */
+    private long RejectCount;
+
+    /**
+     * Creates the engine.  Limits are read as symbols and customers
+     * are first seen.
+     */
+    public RiskEngine () {
+        int symbols = SymbolRegistry.getInstance().getCapacity();
+
+        Customers = new HashMap<>();
+        SymbolLoaded = new boolean[symbols];
+        MaxOrderQty = new long[symbols];
+        MaxOpenQty = new long[symbols];
+        MaxOpenNotional = new long[symbols];
+        OpenQty = new long[symbols];
+        OpenNotional = new long[symbols];
+
+        PriceCollar = Math.max(0D, Configuration.getInstance().getDouble("RISKPRICECOLLAR"));
+        ReferencePrices = new AtomicLongArray(symbols);
+        long none = Double.doubleToRawLongBits(Double.NaN);
+        for ( int i = 0; i < symbols; i++ )
+            ReferencePrices.set(i, none);
+
+        RejectCount = 0L;
+    }
+
+    /**
+     * Reads a limit, preferring its override for a symbol or customer.
+     *
+     * @param key Configuration key of the limit
+     * @param name Symbol or customer
+     * @param decimals Decimal places of the units of the limit
+     * @return The limit in those units, 0 if it is not set
+     * @throws NumberFormatException If the limit is not a number
+     */
+    private static long Limit ( String key, String name, int decimals ) {
+        Configuration cfg = Configuration.getInstance();
+        String value = cfg.getString(key + "." + name);
+        if ( value == null )
+            value = cfg.getString(key);
+        if ( value == null )
+            return 0L;
+
+        byte[] buf = Ascii.Bytes(value.trim());
+        return Math.max(0L, Ascii.ParseFixed(buf, 0, buf.length, decimals));
+    }
+
+    /**
+     * @return The customer's limits and totals, created on first sight
+     */
+    private CustomerRisk Customer ( String customer ) {
+        CustomerRisk c = Customers.get(customer);
+        if ( c == null ) {
+            c = new CustomerRisk();
+            c.MaxOrderNotional = Limit("RISKMAXORDERNOTIONAL", customer, NotionalDecimals);
+            c.MaxOpenNotional = Limit("RISKMAXOPENNOTIONAL", customer, NotionalDecimals);
+            c.MaxOpenQty = Limit("RISKMAXCUSTOMERQTY", customer, FixedPoint.Decimals);
+            c.MaxMessageRate = (int)Math.min(Integer.MAX_VALUE,
+                Limit("RISKMAXMSGRATE", customer, 0));
+            Customers.put(customer, c);
+        }
+        return c;
+    }
+
+    /**
+     * Looks up a symbol's limits on first sight.
+     */
+    private void LoadSymbol ( Order o ) {
+        int id = o.getSymbolID();
+        if ( !SymbolLoaded[id] ) {
+            int qd = o.getQuantityDecimals();
+            MaxOrderQty[id] = Limit("RISKMAXORDERQTY", o.getSymbol(), qd);
+            MaxOpenQty[id] = Limit("RISKMAXOPENQTY", o.getSymbol(), qd);
+            MaxOpenNotional[id] = Limit("RISKMAXSYMBOLNOTIONAL", o.getSymbol(), NotionalDecimals);
+            SymbolLoaded[id] = true;
+        }
+    }
+
+    /**
+     * @param o An order of the symbol
+     * @param px Price in ticks
+     * @param qty Quantity in lots
+     * @return Price times quantity, in units of NotionalDecimals places
+     */
+    private static long Notional ( Order o, long px, long qty ) {
+        return FixedPoint.Rescale(px * qty, o.getPriceDecimals() + o.getQuantityDecimals(),
+                                  NotionalDecimals);
+    }
+
+    /**
+     * Checks a new order.  Counts towards the customer's message rate.
+     *
+     * @param o The new order
+     * @param now Current System.nanoTime()
+     * @return Reject text, or a blank string if the order passes
+     */
+    public String CheckNew ( Order o, long now ) {
+        return Check(o, o.getPriceTicks(), o.getQuantityLots(), o.getAvailableLots(),
+                     Notional(o, o.getPriceTicks(), o.getAvailableLots()), now);
+    }
+
+    /**
+     * Checks an amend against the order it applies to.  Counts towards
+     * the customer's message rate.
+     *
+     * @param open The open order
+     * @param req The amend request
+     * @param now Current System.nanoTime()
+     * @return Reject text, or a blank string if the amend passes
+     */
+    public String CheckAmend ( Order open, Order req, long now ) {
+        long avail = open.getAvailableLots() + ( req.getQuantityLots() - open.getQuantityLots() );
+        return Check(open, req.getPriceTicks(), req.getQuantityLots(),
+                     avail - open.getAvailableLots(),
+                     Notional(open, req.getPriceTicks(), avail) -
+                     Notional(open, open.getPriceTicks(), open.getAvailableLots()),
+                     now);
+    }
+
+    /**
+     * Runs every check of a new order or amend.
+     *
+     * @param o The order, for its symbol, customer and side
+     * @param px Price of the order after the change, in ticks
+     * @param qty Quantity of the order after the change, in lots
+     * @param openQty Change to the open quantity, in lots
+     * @param openNotional Change to the open notional
+     * @param now Current System.nanoTime()
+     * @return Reject text, or a blank string if all checks pass
+     */
+    private String Check ( Order o, long px, long qty, long openQty,
+                           long openNotional, long now )
+    {
+        int pd = o.getPriceDecimals(), qd = o.getQuantityDecimals();
+        CustomerRisk c = Customer(o.getCustomer());
+        int id = o.getSymbolID();
+        LoadSymbol(o);
+
+        if ( c.MaxMessageRate > 0 ) {
+            if ( c.WindowCount == 0 || now - c.WindowStart >= 1000000000L ) {
+                c.WindowStart = now;
+                c.WindowCount = 0;
+            }
+            if ( ++c.WindowCount > c.MaxMessageRate )
+                return Reject("Customer " + o.getCustomer() + " exceeds " +
+                    c.MaxMessageRate + " messages per second");
+        }
+
+        if ( MaxOrderQty[id] > 0L && qty > MaxOrderQty[id] )
+            return Reject("Quantity " + FixedPoint.ToString(qty, qd) +
+                " exceeds maximum order quantity " + FixedPoint.ToString(MaxOrderQty[id], qd));
+
+        long notional = Notional(o, px, qty);
+        if ( c.MaxOrderNotional > 0L && notional > c.MaxOrderNotional )
+            return Reject("Notional " + FixedPoint.ToString(notional, NotionalDecimals) +
+                " exceeds maximum order notional " +
+                FixedPoint.ToString(c.MaxOrderNotional, NotionalDecimals));
+
+        // reductions are always allowed
+        if ( MaxOpenQty[id] > 0L && openQty > 0L && OpenQty[id] + openQty > MaxOpenQty[id] )
+            return Reject("Open quantity " + FixedPoint.ToString(OpenQty[id] + openQty, qd) +
+                " of " + o.getSymbol() + " would exceed " +
+                FixedPoint.ToString(MaxOpenQty[id], qd));
+
+        long fixedQty = FixedPoint.ToFixed(openQty, qd);
+        if ( c.MaxOpenQty > 0L && openQty > 0L && c.OpenQty + fixedQty > c.MaxOpenQty )
+            return Reject("Open quantity " +
+                FixedPoint.ToString(c.OpenQty + fixedQty, FixedPoint.Decimals) +
+                " of customer " + o.getCustomer() + " would exceed " +
+                FixedPoint.ToString(c.MaxOpenQty, FixedPoint.Decimals));
+
+        if ( MaxOpenNotional[id] > 0L && openNotional > 0L &&
+             OpenNotional[id] + openNotional > MaxOpenNotional[id] )
+            return Reject("Open notional " +
+                FixedPoint.ToString(OpenNotional[id] + openNotional, NotionalDecimals) +
+                " of " + o.getSymbol() + " would exceed " +
+                FixedPoint.ToString(MaxOpenNotional[id], NotionalDecimals));
+
+        if ( c.MaxOpenNotional > 0L && openNotional > 0L &&
+             c.OpenNotional + openNotional > c.MaxOpenNotional )
+            return Reject("Open notional " +
+                FixedPoint.ToString(c.OpenNotional + openNotional, NotionalDecimals) +
+                " of customer " + o.getCustomer() + " would exceed " +
+                FixedPoint.ToString(c.MaxOpenNotional, NotionalDecimals));
+
+        if ( PriceCollar > 0D ) {
+            double ref = Double.longBitsToDouble(ReferencePrices.get(id));
+            double price = FixedPoint.ToDouble(px, pd);
+            if ( !Double.isNaN(ref) ) {
+                if ( o.getSide() == 'B' && price > ref * ( 1D + PriceCollar ) )
+                    return Reject("Price " + FixedPoint.ToString(px, pd) +
+                        " is above the collar of " + ref * ( 1D + PriceCollar ));
+                if ( o.getSide() == 'S' && price < ref * ( 1D - PriceCollar ) )
+                    return Reject("Price " + FixedPoint.ToString(px, pd) +
+                        " is below the collar of " + ref * ( 1D - PriceCollar ));
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * Counts a reject.
+     *
+     * @param RejectText Why the order or amend was rejected
+     * @return RejectText
+     */
+    private String Reject ( String RejectText ) {
+        RejectCount++;
+        return RejectText;
+    }
+
+    /**
+     * Moves the totals of an order's symbol and customer.
+     *
+     * @param o The order
+     * @param qty Change to the open quantity, in lots
+     * @param notional Change to the open notional
+     */
+    private void Move ( Order o, long qty, long notional ) {
+        int id = o.getSymbolID();
+        CustomerRisk c = Customer(o.getCustomer());
+        OpenQty[id] += qty;
+        OpenNotional[id] += notional;
+        c.OpenQty += FixedPoint.ToFixed(qty, o.getQuantityDecimals());
+        c.OpenNotional += notional;
+    }
+
+    /**
+     * Adds an order that was accepted to the totals.
+     *
+     * @param o The order
+     */
+    public void AddOrder ( Order o ) {
+        LoadSymbol(o);
+        Move(o, o.getAvailableLots(), Notional(o, o.getPriceTicks(), o.getAvailableLots()));
+    }
+
+    /**
+     * Moves the totals by an amend that was applied.
+     *
+     * @param o The amended order
+     * @param oldPx Price before the amend, in ticks
+     * @param oldAvail AvailableQuantity before the amend, in lots
+     */
+    public void AmendOrder ( Order o, long oldPx, long oldAvail ) {
+        Move(o, o.getAvailableLots() - oldAvail,
+             Notional(o, o.getPriceTicks(), o.getAvailableLots()) -
+             Notional(o, oldPx, oldAvail));
+    }
+
+    /**
+     * Takes an execution off the totals.
+     *
+     * @param o The executed order, whose AvailableQuantity has already
+     * been reduced
+     * @param qty Quantity executed, in lots
+     */
+    public void Execute ( Order o, long qty ) {
+        long avail = o.getAvailableLots();
+        Move(o, -qty, Notional(o, o.getPriceTicks(), avail) -
+                      Notional(o, o.getPriceTicks(), avail + qty));
+    }
+
+    /**
+     * Takes what is left of a closed order off the totals.
+     *
+     * @param o The order leaving the blotter
+     */
+    public void RemoveOrder ( Order o ) {
+        Move(o, -o.getAvailableLots(), -Notional(o, o.getPriceTicks(), o.getAvailableLots()));
+    }
+
+    /**
+     * Sets the price the collar is measured from.  Called by the
+     * trading thread that owns the symbol.
+     *
+     * @param symbolID Identifier of the symbol
+     * @param px Mid of the book, NaN if it is not two sided
+     */
+    public void setReferencePrice ( int symbolID, double px ) {
+        ReferencePrices.lazySet(symbolID, Double.doubleToRawLongBits(px));
+    }
+
+    /**
+     * @param symbolID Identifier of the symbol
+     * @return AvailableQuantity of the symbol's open orders, in lots
+     */
+    public long getOpenLots ( int symbolID ) {
+        return OpenQty[symbolID];
+    }
+
+    /**
+     * @param symbolID Identifier of the symbol
+     * @return Price times AvailableQuantity of the symbol's open orders,
+     * in units of NotionalDecimals places
+     */
+    public long getSymbolNotional ( int symbolID ) {
+        return OpenNotional[symbolID];
+    }
+
+    /**
+     * @param customer The customer
+     * @return Price times AvailableQuantity of the customer's open
+     * orders, in units of NotionalDecimals places
+     */
+    public long getOpenNotional ( String customer ) {
+        CustomerRisk c = Customers.get(customer);
+        return c == null ? 0L : c.OpenNotional;
+    }
+
+    /**
+     * @param customer The customer
+     * @return AvailableQuantity of the customer's open orders, as a
+     * FixedPoint value
+     */
+    public long getCustomerQty ( String customer ) {
+        CustomerRisk c = Customers.get(customer);
+        return c == null ? 0L : c.OpenQty;
+    }
+
+    /**
+     * @return Number of orders and amends rejected
+     */
+    public long getRejectCount () {
+        return RejectCount;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * ShardMap.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.*;
+
+/**
+ * Assigns symbols to price connections.  There are PRICESHARDS
+ * connections, numbered from zero.  A symbol listed in PRICESHARD.n,
+ * either exactly or by a prefix ending in "*", belongs to shard n.  Any
+ * other symbol is assigned by the hash of its name, so the assignment
+ * is the same on every restart.  Results are cached by SymbolID.
+ */
+public class ShardMap {
+
+    /** Number of shards. */
+    private int ShardCount;
+
+    /** Symbols configured to an exact shard. */
+    private Map<String, Integer> ExactRules;
+
+    /** Symbol prefixes configured to a shard, in configuration order. */
+    private List<String> PrefixRules;
+
+    /** Shard of each entry in PrefixRules. */
+    private List<Integer> PrefixShards;
+
+    /** Cached shard of each symbol, -1 until first computed. */
+    private int[] ShardBySymbol;
+
+    /**
+     * Reads PRICESHARDS and the PRICESHARD.n rules.
+     */
+    public ShardMap () {
+        Configuration cfg = Configuration.getInstance();
+
+        ShardCount = Math.max(1, cfg.getInt("PRICESHARDS"));
+        ExactRules = new HashMap<>();
+        PrefixRules = new ArrayList<>();
+        PrefixShards = new ArrayList<>();
+
+        for ( int n = 0; n < ShardCount; n++ ) {
+            String rule = cfg.getString("PRICESHARD." + n);
+            if ( rule == null )
+                continue;
+
+            for ( String s : rule.split(" ") ) {
+                if ( s.length() == 0 )
+                    continue;
+                if ( s.endsWith("*") ) {
+                    PrefixRules.add(s.substring(0, s.length() - 1));
+                    PrefixShards.add(n);
+                } else {
+                    ExactRules.put(s, n);
+                }
+            }
+        }
+
+        ShardBySymbol = new int[SymbolRegistry.getInstance().getCapacity()];
+        Arrays.fill(ShardBySymbol, -1);
+    }
+
+    /**
+     * @return Number of shards
+     */
+    public int getShardCount () {
+        return ShardCount;
+    }
+
+    /**
+     * Returns the shard a symbol belongs to.  Two threads computing the
+     * same symbol at once store the same answer, so the cache needs no
+     * locking.
+     *
+     * @param symbolID Identifier of the symbol
+     * @return The shard number
+     */
+    public int ShardOf ( int symbolID ) {
+        int shard = ShardBySymbol[symbolID];
+
+        if ( shard < 0 ) {
+            shard = Assign(SymbolRegistry.getInstance().getSymbol(symbolID));
+            ShardBySymbol[symbolID] = shard;
+        }
+
+        return shard;
+    }
+
+    /**
+     * Applies the configured rules to a symbol.
+     *
+     * @param symbol The symbol
+     * @return The shard number
+     */
+    private int Assign ( String symbol ) {
+        Integer exact = ExactRules.get(symbol);
+        if ( exact != null )
+            return exact;
+
+        for ( int i = 0; i < PrefixRules.size(); i++ ) {
+            if ( symbol.startsWith(PrefixRules.get(i)) )
+                return PrefixShards.get(i);
+        }
+
+        return Math.floorMod(symbol.hashCode(), ShardCount);
+    }
+}
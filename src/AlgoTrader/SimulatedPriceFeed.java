@@ -0,0 +1,390 @@
+/*
+ * SimulatedPriceFeed.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A stand-in price source for running AlgoTrader without an exchange.
+ * It listens on PRICEPORT, answers SUB and SNAPSHOT with a five level
+ * book around a random walk, and then sends sequenced UPDATE messages
+ * for the subscribed symbols at a steady rate.  It speaks the text
+ * protocol, and switches to PriceFrame binary frames when asked with
+ * BINARY.  Run it from the bin folder like AlgoTrader:
+ * <pre>
+ *   java -cp AlgoTrader.jar AlgoTrader.SimulatedPriceFeed [port] [updates per second]
+ * </pre>
+ */
+public class SimulatedPriceFeed implements Runnable {
+
+    /** Number of levels on each side of a simulated book. */
+    private static final int Levels = 5;
+
+    /** Decimal places of simulated prices, which step by one tick. */
+    private static final int PriceDecimals = 2;
+
+    /** Decimal places of simulated quantities. */
+    private static final int QuantityDecimals = 0;
+
+    /** Updates between moves of a book's mid price. */
+    private static final int UpdatesPerMove = 50;
+
+    /** Simulated book of one symbol. */
+    private static class SimBook {
+        OrderBook Book;
+        byte[] Symbol;
+        long Sequence;
+        long Mid;
+        int Updates;
+    }
+
+    /** The connection served. */
+    private Socket Client;
+
+    /** Updates sent per second across all subscribed symbols. */
+    private int UpdatesPerSecond;
+
+    /** Subscribed books, by symbol. */
+    private Map<String, SimBook> Books;
+
+    /** Subscribed books, for picking one at random. */
+    private List<SimBook> Subscribed;
+
+    /** Whether binary frames are being sent. */
+    private boolean Binary;
+
+    /** Encoding scratch for outbound messages. */
+    private ByteBuffer Out;
+
+    /** Outbound stream of the connection. */
+    private OutputStream Output;
+
+    /** Source of prices and quantities. */
+    private Random Rnd;
+
+    /**
+     * @param s The accepted connection
+     * @param rate Updates sent per second
+     */
+    public SimulatedPriceFeed ( Socket s, int rate ) {
+        Client = s;
+        UpdatesPerSecond = rate;
+        Books = new HashMap<>();
+        Subscribed = new ArrayList<>();
+        Binary = false;
+        Out = ByteBuffer.allocate(65536);
+        Rnd = new Random();
+    }
+
+    /**
+     * Reads requests on the connection thread while a second thread
+     * sends updates.  Both write under the object lock.
+     */
+    public void run () {
+        try {
+            Client.setTcpNoDelay(true);
+            Output = new BufferedOutputStream(Client.getOutputStream());
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                Client.getInputStream(), StandardCharsets.ISO_8859_1));
+
+            SendText("CONNECTED");
+
+            Thread ticker = new Thread( new Runnable() {
+                public void run () {
+                    SendUpdates();
+                }
+            }, "SIM-TICK" );
+            ticker.setDaemon(true);
+            ticker.start();
+
+            String line;
+            while ( ( line = in.readLine() ) != null ) {
+                if ( !Request(line) )
+                    break;
+            }
+        } catch ( IOException e ) {
+            System.err.println("Simulated feed connection ended: " + e.getMessage());
+        } finally {
+            try {
+                Client.close();
+            } catch ( IOException e ) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * Answers one request.
+     *
+     * @param line The request, without a line terminator
+     * @return False if the connection should be closed
+     * @throws IOException If the connection fails
+     */
+    private synchronized boolean Request ( String line ) throws IOException {
+        String[] token = line.split(",");
+
+        if ( token[0].equals("SUB") && token.length == 2 ) {
+            SimBook b = Books.get(token[1]);
+            if ( b == null ) {
+                b = NewBook(token[1]);
+                Books.put(token[1], b);
+                Subscribed.add(b);
+            }
+            SendBook(b);
+        } else if ( token[0].equals("SNAPSHOT") && token.length == 2 ) {
+            SimBook b = Books.get(token[1]);
+            if ( b == null )
+                SendText("REJECT," + line + ",RejectText=Not subscribed");
+            else
+                SendBook(b);
+        } else if ( token[0].equals("UNSUB") && token.length == 2 ) {
+            SimBook b = Books.remove(token[1]);
+            if ( b != null )
+                Subscribed.remove(b);
+        } else if ( line.equals("BINARY") ) {
+            // the acknowledgement is the last text line
+            SendText("BINARY");
+            Binary = true;
+        } else if ( line.equals("END") ) {
+            SendText("BYE");
+            return false;
+        } else if ( line.equals("BYE") ) {
+            return false;
+        } else if ( !line.equals("PING") && !line.equals("UNKNOWN COMMAND") ) {
+            SendText("REJECT," + line + ",RejectText=Unknown command");
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates a book around a random mid price.
+     *
+     * @param symbol The symbol
+     * @return The book
+     */
+    private SimBook NewBook ( String symbol ) {
+        SimBook b = new SimBook();
+        b.Book = new OrderBook(-1, symbol, PriceDecimals, QuantityDecimals);
+        b.Symbol = symbol.getBytes(StandardCharsets.ISO_8859_1);
+        b.Sequence = 0L;
+        b.Mid = 1000 + Rnd.nextInt(9000);
+        b.Updates = 0;
+        Fill(b);
+        return b;
+    }
+
+    /**
+     * Rebuilds a book's levels around its mid price.
+     *
+     * @param b The book
+     */
+    private void Fill ( SimBook b ) {
+        b.Book.Clear();
+        for ( int i = 0; i < Levels; i++ ) {
+            b.Book.AddBid(b.Mid - ( i + 1 ), 100 * ( 1 + Rnd.nextInt(50) ));
+            b.Book.AddOffer(b.Mid + ( i + 1 ), 100 * ( 1 + Rnd.nextInt(50) ));
+        }
+    }
+
+    /**
+     * Sends updates at UpdatesPerSecond until the connection closes.
+     * Each one changes the quantity of a random level of a random
+     * subscribed book; every UpdatesPerMove updates the book's mid moves
+     * a tick and a new snapshot is sent instead.
+     */
+    private void SendUpdates () {
+        long interval = 1000000000L / Math.max(1, UpdatesPerSecond);
+        long next = System.nanoTime();
+
+        while ( !Client.isClosed() ) {
+            next += interval;
+            long wait = next - System.nanoTime();
+            if ( wait > 0 ) {
+                try {
+                    Thread.sleep(wait / 1000000L, (int)( wait % 1000000L ));
+                } catch ( InterruptedException e ) {
+                    return;
+                }
+            }
+
+            try {
+                synchronized ( this ) {
+                    if ( Subscribed.isEmpty() )
+                        continue;
+
+                    SimBook b = Subscribed.get(Rnd.nextInt(Subscribed.size()));
+                    b.Sequence++;
+
+                    if ( ++b.Updates % UpdatesPerMove == 0 ) {
+                        b.Mid += Rnd.nextBoolean() ? 1 : -1;
+                        Fill(b);
+                        SendBook(b);
+                    } else {
+                        boolean isBid = Rnd.nextBoolean();
+                        int level = Rnd.nextInt(Levels);
+                        long px = isBid ? b.Book.getBidTicks(level) : b.Book.getOfferTicks(level);
+                        long qty = 100 * ( 1 + Rnd.nextInt(50) );
+
+                        if ( isBid )
+                            b.Book.SetBid(px, qty);
+                        else
+                            b.Book.SetOffer(px, qty);
+                        SendLevel(b, isBid, px, qty);
+                    }
+                }
+            } catch ( IOException e ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a whole book as a snapshot.
+     *
+     * @param b The book
+     * @throws IOException If the connection fails
+     */
+    private void SendBook ( SimBook b ) throws IOException {
+        OrderBook book = b.Book;
+
+        if ( Binary ) {
+            PriceFrame.PutLevelsHeader(Out, true, b.Symbol, b.Sequence,
+                                       book.getBidDepth(), book.getOfferDepth());
+            for ( int i = 0; i < book.getBidDepth(); i++ )
+                PutLevel(book.getBidTicks(i), book.getBidLots(i));
+            for ( int i = 0; i < book.getOfferDepth(); i++ )
+                PutLevel(book.getOfferTicks(i), book.getOfferLots(i));
+            Flush();
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder("SNAPSHOT,");
+        sb.append(book.getSymbol()).append(',').append(b.Sequence).append(",BID");
+        for ( int i = 0; i < book.getBidDepth(); i++ ) {
+            FixedPoint.Append(sb.append(','), book.getBidTicks(i), PriceDecimals);
+            FixedPoint.Append(sb.append(','), book.getBidLots(i), QuantityDecimals);
+        }
+        sb.append(",OFFER");
+        for ( int i = 0; i < book.getOfferDepth(); i++ ) {
+            FixedPoint.Append(sb.append(','), book.getOfferTicks(i), PriceDecimals);
+            FixedPoint.Append(sb.append(','), book.getOfferLots(i), QuantityDecimals);
+        }
+        SendText(sb.toString());
+    }
+
+    /**
+     * Writes one level of a binary frame.
+     *
+     * @param px Price in ticks
+     * @param qty Quantity in lots
+     */
+    private void PutLevel ( long px, long qty ) {
+        PriceFrame.PutLevel(Out, FixedPoint.ToFixed(px, PriceDecimals),
+                            FixedPoint.ToFixed(qty, QuantityDecimals));
+    }
+
+    /**
+     * Sends an update of one level.
+     *
+     * @param b The book
+     * @param isBid True for a bid level, false for an offer level
+     * @param px Price of the level in ticks
+     * @param qty New quantity of the level in lots
+     * @throws IOException If the connection fails
+     */
+    private void SendLevel ( SimBook b, boolean isBid, long px, long qty )
+        throws IOException
+    {
+        if ( Binary ) {
+            PriceFrame.PutLevelsHeader(Out, false, b.Symbol, b.Sequence,
+                                       isBid ? 1 : 0, isBid ? 0 : 1);
+            PutLevel(px, qty);
+            Flush();
+            return;
+        }
+
+        SendText("UPDATE," + b.Book.getSymbol() + "," + b.Sequence +
+                 ( isBid ? ",BID," : ",OFFER," ) +
+                 FixedPoint.ToString(px, PriceDecimals) + "," +
+                 FixedPoint.ToString(qty, QuantityDecimals));
+    }
+
+    /**
+     * Sends a text protocol message, framed if binary frames are on.
+     *
+     * @param line The message, without a line terminator
+     * @throws IOException If the connection fails
+     */
+    private void SendText ( String line ) throws IOException {
+        byte[] b = line.getBytes(StandardCharsets.ISO_8859_1);
+
+        if ( Binary ) {
+            PriceFrame.PutText(Out, b);
+        } else {
+            Out.put(b);
+            Out.put((byte)'\n');
+        }
+        Flush();
+    }
+
+    /**
+     * Writes the encoded message to the connection.
+     *
+     * @throws IOException If the connection fails
+     */
+    private void Flush () throws IOException {
+        Output.write(Out.array(), 0, Out.position());
+        Output.flush();
+        Out.clear();
+    }
+
+    /**
+     * Accepts connections and serves each on its own thread.
+     *
+     * @param args Optional port and updates per second
+     */
+    public static void main ( String args[] ) {
+        try {
+            Configuration.initialize();
+
+            int port = args.length > 0 ? Integer.parseInt(args[0]) :
+                Configuration.getInstance().getInt("PRICEPORT");
+            int rate = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+            try ( ServerSocket server = new ServerSocket(port) ) {
+                System.out.println("Simulated price feed on port " + port +
+                                   ", " + rate + " updates per second");
+                while ( true ) {
+                    Socket s = server.accept();
+                    new Thread( new SimulatedPriceFeed(s, rate), "SIM-" + s.getPort() ).start();
+                }
+            }
+        } catch ( Exception e ) {
+            System.err.println("Simulated price feed stopped: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
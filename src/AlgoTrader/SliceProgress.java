@@ -0,0 +1,90 @@
+/*
+ * SliceProgress.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * The progress of a slicing strategy as its EventLoop last reported it
+ * for an order: the SliceState of the order, with its start as epoch
+ * nanoseconds so it means the same after a restart.  The order entry
+ * thread keeps it with each open order, journals it, and hands it back
+ * with orders recovered at startup.  Each report releases one child
+ * order, which the order entry thread sends only once the report is
+ * journaled.
+ *
+ * @see SliceState
+ * @see OrderJournal
+ */
+public class SliceProgress {
+
+    /** Epoch nanoseconds the strategy started, 0 if nothing was
+     *  reported. */
+    long Start;
+
+    /** Slice of the strategy's SliceState. */
+    int Slice;
+
+    /** SliceBase and SlicedLots of the strategy's SliceState, in
+     *  lots. */
+    long SliceBase, SlicedLots;
+
+    /** Children of the strategy's SliceState. */
+    int Children;
+
+    /** Lots of the child the report releases.  Not journaled. */
+    long ChildLots;
+
+    /**
+     * @param p Progress from where to copy values
+     */
+    void CopyFrom ( SliceProgress p ) {
+        Start = p.Start;
+        Slice = p.Slice;
+        SliceBase = p.SliceBase;
+        SlicedLots = p.SlicedLots;
+        Children = p.Children;
+        ChildLots = p.ChildLots;
+    }
+
+    /**
+     * Forgets the progress, as for an order nothing was reported for.
+     */
+    void Clear () {
+        Start = 0L;
+        Slice = 0;
+        SliceBase = SlicedLots = 0L;
+        Children = 0;
+        ChildLots = 0L;
+    }
+
+    /**
+     * @return False if nothing was reported
+     */
+    public boolean isReported () {
+        return Start != 0L;
+    }
+
+    /**
+     * @return Number of children released
+     */
+    public int getChildren () {
+        return Children;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * SliceState.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * How far a slicing strategy has got with one order, kept by TWAP, VWAP
+ * and POV in the StrategyState of the loop's copy of each order they
+ * work, and extended by those that need more.  EventLoop.SliceTo sends
+ * children against it, and RestoreProgress fills it in again from
+ * what was journaled for a recovered order.  Used by the order's
+ * EventLoop thread only.
+ *
+ * @see SliceProgress
+ */
+public class SliceState {
+
+    /** System.nanoTime() the strategy started working the order. */
+    long Start;
+
+    /** Number of slices of its schedule the strategy has worked. */
+    int Slice;
+
+    /** CumulativeQuantity when the strategy started working the order,
+     *  and that plus the child quantity sliced off since, in lots. */
+    long SliceBase, SlicedLots;
+
+    /** Number of children sent, which numbers their ChildIDs. */
+    int Children;
+
+    /**
+     * Starts working an order afresh.
+     *
+     * @param o The loop's copy of the order
+     * @param now Current time
+     */
+    public void Begin ( Order o, long now ) {
+        Start = now;
+        Slice = 0;
+        SliceBase = SlicedLots = o.getCumulativeLots();
+        Children = 0;
+    }
+
+    /**
+     * @return System.nanoTime() the strategy started working the order
+     */
+    public long getStart () {
+        return Start;
+    }
+
+    /**
+     * @return Number of slices of its schedule the strategy has worked
+     */
+    public int getSlice () {
+        return Slice;
+    }
+
+    /**
+     * @return Lots sliced off in children, plus the CumulativeQuantity
+     * the order had when the strategy started
+     */
+    public long getSlicedLots () {
+        return SlicedLots;
+    }
+
+    /**
+     * @return Number of children sent
+     */
+    public int getChildren () {
+        return Children;
+    }
+}
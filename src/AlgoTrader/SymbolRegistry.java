@@ -0,0 +1,265 @@
+/*
+ * SymbolRegistry.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class gives every symbol a dense integer identifier the first
+ * time it is seen, either on an order or on the price feed.  Per-symbol
+ * state elsewhere is kept in arrays indexed by that identifier, so the
+ * hot paths never hash or compare symbol Strings more than once.
+ *
+ * Each symbol also has the decimal places of its prices and
+ * quantities, PRICEDECIMALS and QUANTITYDECIMALS, optionally set per
+ * symbol as PRICEDECIMALS.SYMBOL and QUANTITYDECIMALS.SYMBOL.  They are
+ * read when the symbol is registered.
+ *
+ * The table has a fixed size of MAXSYMBOLS.  Registration is
+ * synchronized; lookups are lock free because slots are only ever
+ * filled, never moved, and a slot is published after its symbol.
+ */
+public class SymbolRegistry {
+
+    /** Singleton instance of SymbolRegistry. */
+    protected static volatile SymbolRegistry RegistryInstance = null;
+
+    /** Maximum number of symbols. */
+    private int Capacity;
+
+    /** Symbols by identifier. */
+    private String[] Symbols;
+
+    /** ASCII bytes of the symbols by identifier. */
+    private byte[][] SymbolBytes;
+
+    /** Decimal places of each symbol's prices and quantities, by
+     *  identifier. */
+    private int[] PriceDecimals, QuantityDecimals;
+
+    /** Open-addressed hash table holding identifier + 1, zero if the
+     *  slot is empty. */
+    private AtomicIntegerArray Slots;
+
+    /** Number of registered symbols, which is also the next
+     *  identifier to hand out. */
+    private volatile int Count;
+
+    /**
+     * This is a singleton class.  The constructor is Protected so it
+     * can never be instantiated from outside of the class.
+     *
+     * @param cap Maximum number of symbols
+     */
+    protected SymbolRegistry ( int cap ) {
+        int slots = 1;
+        while ( slots < cap * 2 )
+            slots <<= 1;
+
+        Capacity = cap;
+        Symbols = new String[cap];
+        SymbolBytes = new byte[cap][];
+        PriceDecimals = new int[cap];
+        QuantityDecimals = new int[cap];
+        Slots = new AtomicIntegerArray(slots);
+        Count = 0;
+    }
+
+    /**
+     * Creates the SymbolRegistry instance sized by MAXSYMBOLS.
+     *
+     * @throws IOException If there is already a SymbolRegistry instance
+     */
+    public static void initialize () throws IOException {
+        if ( RegistryInstance != null ) {
+            throw new IOException("SymbolRegistry is already initialized.");
+        }
+
+        RegistryInstance = new SymbolRegistry(
+            Configuration.getInstance().getInt("MAXSYMBOLS"));
+    }
+
+    /**
+     * Accessor function for the instance.
+     *
+     * @return An instance of SymbolRegistry, or null if it was never
+     * initialized.
+     */
+    public static SymbolRegistry getInstance () {
+        return RegistryInstance;
+    }
+
+    /**
+     * Finds the identifier of a symbol read off a connection.
+     *
+     * @param buf Buffer holding the symbol
+     * @param off Start of the symbol
+     * @param len Length of the symbol
+     * @return The identifier, or -1 if the symbol was never registered
+     */
+    public int Lookup ( byte[] buf, int off, int len ) {
+        int mask = Slots.length() - 1;
+        int i = Ascii.Hash(buf, off, len) & mask;
+        int slot;
+
+        while ( ( slot = Slots.get(i) ) != 0 ) {
+            if ( Ascii.Matches(buf, off, len, SymbolBytes[slot - 1]) )
+                return slot - 1;
+            i = ( i + 1 ) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the identifier of a symbol.
+     *
+     * @param symbol The symbol
+     * @return The identifier, or -1 if the symbol was never registered
+     */
+    public int Lookup ( String symbol ) {
+        int mask = Slots.length() - 1;
+        int i = symbol.hashCode() & mask;
+        int slot;
+
+        while ( ( slot = Slots.get(i) ) != 0 ) {
+            if ( Symbols[slot - 1].equals(symbol) )
+                return slot - 1;
+            i = ( i + 1 ) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the identifier of a symbol read off a connection,
+     * registering it on first sight.
+     *
+     * @param buf Buffer holding the symbol
+     * @param off Start of the symbol
+     * @param len Length of the symbol
+     * @return The identifier, or -1 if the table is full
+     */
+    public int Register ( byte[] buf, int off, int len ) {
+        int id = Lookup(buf, off, len);
+        if ( id >= 0 )
+            return id;
+
+        return Register(Ascii.ToString(buf, off, len));
+    }
+
+    /**
+     * Finds the identifier of a symbol, registering it on first sight.
+     *
+     * @param symbol The symbol
+     * @return The identifier, or -1 if the table is full
+     */
+    public int Register ( String symbol ) {
+        int id = Lookup(symbol);
+        if ( id >= 0 )
+            return id;
+
+        synchronized ( this ) {
+            // another thread may have registered it meanwhile
+            id = Lookup(symbol);
+            if ( id >= 0 )
+                return id;
+
+            if ( Count == Capacity )
+                return -1;
+
+            id = Count;
+            Symbols[id] = symbol;
+            SymbolBytes[id] = Ascii.Bytes(symbol);
+            PriceDecimals[id] = Decimals("PRICEDECIMALS", symbol);
+            QuantityDecimals[id] = Decimals("QUANTITYDECIMALS", symbol);
+
+            int mask = Slots.length() - 1;
+            int i = symbol.hashCode() & mask;
+            while ( Slots.get(i) != 0 )
+                i = ( i + 1 ) & mask;
+
+            // publishing the slot makes the symbol visible to lookups
+            Slots.set(i, id + 1);
+            Count = id + 1;
+        }
+
+        return id;
+    }
+
+    /**
+     * Reads a number of decimal places, preferring its override for a
+     * symbol.
+     *
+     * @param key Configuration key
+     * @param symbol The symbol
+     * @return Decimal places, from zero to FixedPoint.Decimals
+     */
+    private static int Decimals ( String key, String symbol ) {
+        Configuration cfg = Configuration.getInstance();
+        String value = cfg.getString(key + "." + symbol);
+        if ( value == null )
+            value = cfg.getString(key);
+
+        int d = value == null ? 0 : Integer.parseInt(value.trim());
+        return Math.max(0, Math.min(FixedPoint.Decimals, d));
+    }
+
+    /**
+     * @param id Symbol identifier
+     * @return The symbol
+     */
+    public String getSymbol ( int id ) {
+        return Symbols[id];
+    }
+
+    /**
+     * @param id Symbol identifier
+     * @return Decimal places of the symbol's prices, so a tick is ten
+     * to the minus this
+     */
+    public int getPriceDecimals ( int id ) {
+        return PriceDecimals[id];
+    }
+
+    /**
+     * @param id Symbol identifier
+     * @return Decimal places of the symbol's quantities, so a lot is
+     * ten to the minus this
+     */
+    public int getQuantityDecimals ( int id ) {
+        return QuantityDecimals[id];
+    }
+
+    /**
+     * @return Maximum number of symbols, which is also the length
+     * needed for arrays indexed by symbol identifier
+     */
+    public int getCapacity () {
+        return Capacity;
+    }
+
+    /**
+     * @return Number of registered symbols
+     */
+    public int getCount () {
+        return Count;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * TimingWheel.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Hashed timing wheel of order timers.  Time is cut into ticks of
+ * TIMERTICKMS, and a timer due at tick t waits in slot t modulo
+ * TIMERWHEELSLOTS.  The slots are lists threaded through the orders
+ * themselves, as the OrderBlotter's are, so each order has at most one
+ * timer, and setting or cancelling it takes constant time without
+ * allocating however many are pending.  Timers due more than a turn of
+ * the wheel away stay in their slot until the turn they are due.
+ * Expired timers are taken one at a time:
+ * <pre>
+ *   Order o;
+ *   while ( ( o = wheel.Expire(System.nanoTime()) ) != null )
+ *       ...
+ * </pre>
+ * Not thread-safe; each EventLoop has a wheel of its own.
+ */
+public class TimingWheel {
+
+    /** First order of each slot's list. */
+    private Order[] Slots;
+
+    /** Slots minus one; the slot count is a power of two. */
+    private int Mask;
+
+    /** Length of a tick. */
+    private long TickNanos;
+
+    /** System.nanoTime() of tick 0. */
+    private long Origin;
+
+    /** Last tick whose slot has been walked. */
+    private long Tick;
+
+    /** Next order to look at in the slot of Tick. */
+    private Order Cursor;
+
+    /** Number of pending timers. */
+    private int Count;
+
+    /**
+     * Creates an empty wheel starting now.
+     *
+     * @param slots Number of slots, rounded up to a power of two
+     * @param tickMS Milliseconds per tick
+     */
+    public TimingWheel ( int slots, int tickMS ) {
+        int n = 1;
+        while ( n < slots )
+            n <<= 1;
+
+        Slots = new Order[n];
+        Mask = n - 1;
+        TickNanos = Math.max(1, tickMS) * 1000000L;
+        Origin = System.nanoTime();
+        Tick = 0L;
+        Cursor = null;
+        Count = 0;
+    }
+
+    /**
+     * Sets an order's timer, replacing any it already had.  A time that
+     * has passed fires on the next tick.
+     *
+     * @param o The order
+     * @param due System.nanoTime() the timer is due
+     */
+    public void Schedule ( Order o, long due ) {
+        if ( o.TimerDue >= 0L )
+            Unlink(o);
+
+        long t = ( due - Origin + TickNanos - 1 ) / TickNanos;
+        if ( t <= Tick )
+            t = Tick + 1;
+
+        int slot = (int)( t & Mask );
+        Order head = Slots[slot];
+
+        o.TimerDue = t;
+        o.TimerNext = head;
+        o.TimerPrev = null;
+        if ( head != null )
+            head.TimerPrev = o;
+        Slots[slot] = o;
+        Count++;
+    }
+
+    /**
+     * Cancels an order's timer, if it has one.
+     *
+     * @param o The order
+     */
+    public void Cancel ( Order o ) {
+        if ( o.TimerDue >= 0L )
+            Unlink(o);
+    }
+
+    /**
+     * @param o An order
+     * @return True if its timer is set
+     */
+    public boolean isScheduled ( Order o ) {
+        return o.TimerDue >= 0L;
+    }
+
+    /**
+     * Takes the next expired timer.  The order's timer is cleared
+     * before it is returned, so it may be set again straight away.
+     *
+     * @param now System.nanoTime()
+     * @return An order whose timer is due, or null if there is none
+     */
+    public Order Expire ( long now ) {
+        long target = ( now - Origin ) / TickNanos;
+
+        while ( true ) {
+            while ( Cursor != null ) {
+                Order o = Cursor;
+                Cursor = o.TimerNext;
+                if ( o.TimerDue <= Tick ) {
+                    Unlink(o);
+                    return o;
+                }
+            }
+
+            if ( Tick >= target )
+                return null;
+
+            // nothing pending, so the ticks in between need no walking
+            if ( Count == 0 ) {
+                Tick = target;
+                return null;
+            }
+
+            Tick++;
+            Cursor = Slots[(int)( Tick & Mask )];
+        }
+    }
+
+    /**
+     * @param now System.nanoTime()
+     * @return Milliseconds until the next tick, at least 1, or 0 if no
+     * timer is pending
+     */
+    public long getDelay ( long now ) {
+        if ( Count == 0 )
+            return 0L;
+
+        long next = Origin + ( Tick + 1 ) * TickNanos;
+        return Math.max(1L, ( next - now + 999999L ) / 1000000L);
+    }
+
+    /**
+     * @return Number of pending timers
+     */
+    public int getCount () {
+        return Count;
+    }
+
+    /**
+     * Takes an order out of its slot's list.
+     */
+    private void Unlink ( Order o ) {
+        Order prev = o.TimerPrev;
+        Order next = o.TimerNext;
+
+        if ( o == Cursor )
+            Cursor = next;
+
+        if ( prev == null )
+            Slots[(int)( o.TimerDue & Mask )] = next;
+        else
+            prev.TimerNext = next;
+
+        if ( next != null )
+            next.TimerPrev = prev;
+
+        o.TimerNext = o.TimerPrev = null;
+        o.TimerDue = -1L;
+        Count--;
+    }
+}
@@ -1,218 +1,766 @@
-/*
- * Trader.java
- *
- * Copyright (C) 2022 Michael Dinolfo
- *
- * This program is free software: you can redistribute it and/or modify
- * it under the terms of the GNU General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * This program is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU General Public License for more details.
- *
- * You should have received a copy of the GNU General Public License
- * along with this program.  If not, see <http://www.gnu.org/licenses/>.
- *
- */
-
- package AlgoTrader;
-
- import java.util.*;
-
- /**
- * This class keeps track of the orders, their current state, and implements
- * strategies.
- */
- public class Trader {
-
-    /**
-     * Class for storing market data points
-     */
-    private class PricePoint implements Comparable<PricePoint> {
-        public double Price;
-        public double Quantity;
-
-        public PricePoint(double px, double qty) {
-            Price = px;
-            Quantity = qty;
-        }
-
-        @Override
-        public int compareTo(PricePoint pp) {
-            return Double.compare(Price,pp.Price);
-        }
-
-        @Override
-        public String toString(){
-            return Double.toString(Price) + " " + Double.toString(Quantity) + " ";
-        }
-    }
-
-    /**
-     * Master list of Orders.
-     */
-    private Map<String, Order> OrderBlotter;
-
-    /**
-     * List of price subscriptions
-     */
-    private Map<String, Integer> PriceSubscriptions;
-
-    /**
-     * Market Data
-     */
-    private Map<String, List<PricePoint>> BidMarketData;
-    private Map<String, List<PricePoint>> OfferMarketData;
-
-    /**
-     * A reference to a PriceSocket object so the trader
-     * may subscribe to market data.
-     *
-     * @see PriceSocket
-     */
-    private PriceSocket PS;
-
-    /**
-     * A reference to a OrderSocket object so the trader
-     * may recieve orders and reply to events.
-     *
-     * @see OrderSocket
-     */
-    private OrderSocket OS;
-
-    /**
-     * Initializes objects
-     */
-    public Trader () {
-        OrderBlotter = new HashMap<>();
-        PriceSubscriptions = new HashMap<>();
-        BidMarketData = new HashMap<>();
-        OfferMarketData = new HashMap<>();
-
-        PS = null;
-        OS = null;
-    }
-
-    /**
-     * Processes market data.
-     *
-     * @param ps PriceSocket
-     */
-    public void MarketDataUpdate ( String[] tokens ) {
-        String symbol = tokens[1];
-        List<PricePoint> Bid = new LinkedList<>();
-        List<PricePoint> Offer = new LinkedList<>();
-        List<PricePoint> ListPtr = null;
-        PricePoint pp;
-        String val;
-        Double px, qty;
-        px = qty = null;
-
-        for( int i = 2; i < tokens.length; i++ ) {
-            val = tokens[i];
-            if ( val.equals("BID") ) {
-                ListPtr = Bid;
-            } else if ( val.equals("OFFER") ) {
-                ListPtr = Offer;
-            } else if ( px == null ) {
-                px = Double.parseDouble(val);
-            } else {
-                qty = Double.parseDouble(val);
-                pp = new PricePoint(px, qty);
-                ListPtr.add(pp);
-
-                px = null;
-            }
-        }
-
-        if ( Bid.size() > 0 )
-            Collections.sort(Bid, Collections.reverseOrder());
-        if ( Offer.size() > 0 )
-            Collections.sort(Offer);
-
-        BidMarketData.put(symbol, Bid);
-        OfferMarketData.put(symbol, Offer);
-    }
-
-    /**
-     * Adds an order to the blotter
-     *
-     */
-    public String NewOrder ( Order o ) {
-        // update market data subscriptions
-        String symbol = o.getSymbol();
-        if ( PriceSubscriptions.containsKey(symbol) ) {
-            int count = PriceSubscriptions.get(symbol);
-            count++;
-            PriceSubscriptions.put(symbol, count);
-        } else {
-            PS.Subscribe(symbol);
-            PriceSubscriptions.put(symbol, 1);
-        }
-
-        /*  TBD  */
-
-        // add to blotter
-        OrderBlotter.put(o.getOrderID(), o);
-
-        return "";
-    }
-
-    /**
-     * Amends an order on the blotter
-     *
-     */
-    public String AmendOrder ( Order o ) {
-        /*  TBD  */
-
-        // add to blotter
-        OrderBlotter.put(o.getOrderID(), o);
-
-        return "";
-    }
-
-    /**
-     * Removes an order from the blotter
-     *
-     */
-    public String CancelOrder ( Order o ) {
-        // update market data subscriptions
-        String symbol = o.getSymbol();
-        int count = PriceSubscriptions.get(symbol);
-        count--;
-        if ( count > 0 ) {
-            PriceSubscriptions.put(symbol, count);
-        } else {
-            PS.Unsubscribe(symbol);
-            PriceSubscriptions.remove(symbol);
-        }
-
-        /*  TBD  */
-
-        // remove from blotter
-        OrderBlotter.remove(o.getOrderID());
-
-        return "";
-    }
-
-    /**
-     * Sets the PriceSocket reference.
-     *
-     * @param ps PriceSocket
-     */
-    public void SetPriceSocket ( PriceSocket ps ) {
-        PS = ps;
-    }
-
-    /**
-     * Sets the OrderSocket reference.
-     *
-     * @param ps OrderSocket
-     */
-    public void SetOrderSocket ( OrderSocket os ) {
-        OS = os;
-    }
+/*
+ * Trader.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+ package AlgoTrader;
+
+ import java.io.*;
+ import java.util.*;
+ import java.util.concurrent.atomic.AtomicIntegerArray;
+ import java.util.zip.DataFormatException;
+
+ /**
+ * This class keeps track of the orders and their current state.  The
+ * blotter, the risk checks and the journal belong to the thread that
+ * enters orders, which stays the authority on every order.  Strategies
+ * run on the EVENTLOOPS trading threads instead, each of which owns the
+ * symbols pinned to it by SymbolID: every accepted new order, amend,
+ * cancel and execution is copied to the loop of the order's symbol, and
+ * market data is applied to the books on the PriceSocket threads, one
+ * per shard of the symbol universe, and handed to the loop of each
+ * changed symbol through its ConflationQueue, so strategies always work
+ * from the newest book of a symbol instead of a backlog of old ones.
+ *
+ * The strategy working an order is the TradingStrategy named by
+ * STRATEGYCLASS.NAME for its Strategy NAME; TwapStrategy and
+ * VwapStrategy slice orders over time into child orders, which are
+ * journaled and then sent to the order's session as
+ * <pre>
+ *   SLICE,OrderID=...,Symbol=...,Side=...,Price=...,Quantity=...,Slice=n,ChildID=...
+ * </pre>
+ * Executions are reported back with EXEC, on the session the order
+ * came from.
+ *
+ * @see EventLoop
+ */
+ public class Trader {
+
+    /**
+     * Master list of Orders.
+     */
+    private OrderBlotter Blotter;
+
+    /** Reusable orders for order entry. */
+    private OrderPool Pool;
+
+    /** Pre-trade risk checks. */
+    private RiskEngine Risk;
+
+    /** Historical volume curves VWAP orders follow. */
+    private VolumeProfiles Profiles;
+
+    /** The trading threads, each owning the symbols pinned to it. */
+    private EventLoop[] Loops;
+
+    /** Set while the blotter is rebuilt at startup, when events that
+     *  were accepted before are not checked again. */
+    private boolean Recovering;
+
+    /** Write-ahead journal of order events, null if not journaling. */
+    private OrderJournal Journal;
+
+    /** Writes snapshots of the blotter, null if not taking them. */
+    private OrderSnapshot Snapshots;
+
+    /** Time between snapshots. */
+    private long SnapshotIntervalNanos;
+
+    /** System.nanoTime() of the last snapshot. */
+    private long LastSnapshot;
+
+    /** Symbol identifiers for market data and orders. */
+    private SymbolRegistry Symbols;
+
+    /** Which price connection each symbol is subscribed through. */
+    private ShardMap Shards;
+
+    /**
+     * References to the PriceSocket objects, indexed by shard, so the
+     * trader may subscribe to market data.
+     *
+     * @see PriceSocket
+     */
+    private PriceSocket[] PS;
+
+    /**
+     * Whether market data is wanted for each symbol, indexed by
+     * SymbolID.  Written by the order entry thread as a symbol's first
+     * order opens and its last closes, and read by the price
+     * connections each time they connect.
+     */
+    private AtomicIntegerArray Subscribed;
+
+    /**
+     * A reference to a OrderSocket object so the trader
+     * may recieve orders and reply to events.
+     *
+     * @see OrderSocket
+     */
+    private volatile OrderSocket OS;
+
+    /** Builds SLICE messages. */
+    private StringBuilder SliceText;
+
+    /** Child orders journaled but not sent, because their session had
+     *  logged off by then. */
+    private volatile long SliceLostCount;
+
+    /**
+     * Initializes objects
+     */
+    public Trader () {
+        Blotter = new OrderBlotter(Configuration.getInstance().getInt("ORDERPOOL"));
+        Pool = new OrderPool();
+        Risk = new RiskEngine();
+        Profiles = new VolumeProfiles();
+        Recovering = false;
+        Journal = null;
+        Snapshots = null;
+        Symbols = SymbolRegistry.getInstance();
+        Shards = new ShardMap();
+
+        Loops = new EventLoop[Math.max(1, Configuration.getInstance().getInt("EVENTLOOPS"))];
+        for ( int n = 0; n < Loops.length; n++ )
+            Loops[n] = new EventLoop("TRADER-" + n, this);
+
+        PS = new PriceSocket[Shards.getShardCount()];
+        Subscribed = new AtomicIntegerArray(Symbols.getCapacity());
+        OS = null;
+        SliceText = new StringBuilder(128);
+        SliceLostCount = 0L;
+    }
+
+    /**
+     * @return The trading threads, for the price connections to publish
+     * changed books to and for their counters
+     */
+    public EventLoop[] getLoops () {
+        return Loops;
+    }
+
+    /**
+     * @return Which price connection each symbol belongs to
+     */
+    public ShardMap getShards () {
+        return Shards;
+    }
+
+    /**
+     * Creates an instance of each strategy in STRATEGIES for every
+     * trading thread, from the class named by its STRATEGYCLASS.  A
+     * strategy without a class is accepted on orders but not worked.
+     * Must be called before start.
+     *
+     * @throws IOException If a strategy class cannot be instantiated
+     */
+    public void LoadStrategies () throws IOException {
+        Configuration cfg = Configuration.getInstance();
+
+        for ( String name : cfg.getString("STRATEGIES").split(" ") ) {
+            if ( name.length() == 0 )
+                continue;
+
+            String cls = cfg.getString("STRATEGYCLASS." + name);
+            if ( cls == null || cls.length() == 0 ) {
+                Logger.getInstance().write("Strategy " + name + " has no STRATEGYCLASS." +
+                    name + "; its orders will not be worked");
+                continue;
+            }
+
+            try {
+                Class<?> c = Class.forName(cls);
+                for ( EventLoop loop : Loops )
+                    loop.AddStrategy(name, (TradingStrategy)c.getDeclaredConstructor().newInstance());
+            } catch ( ReflectiveOperationException | ClassCastException e ) {
+                throw new IOException("Strategy " + name + " class " + cls +
+                    " not loaded: " + e);
+            }
+        }
+    }
+
+    /**
+     * Starts the trading threads.  Must be called before Recover, which
+     * hands them the recovered orders.
+     *
+     * @throws IOException Passthrough from Logger
+     */
+    public void start () throws IOException {
+        for ( EventLoop loop : Loops )
+            loop.start();
+    }
+
+    /**
+     * Copies an order event to the loop that owns the order's symbol.
+     * Events replayed at startup are not, since the recovered orders
+     * are handed over once the journal has been replayed.
+     *
+     * @param type An OrderEventQueue event type
+     * @param o The open order, after the event
+     * @param lots Lots of a FILL
+     * @param ticks Price of a FILL in ticks
+     */
+    private void Forward ( int type, Order o, long lots, long ticks ) {
+        if ( !Recovering )
+            EventLoop.Owner(Loops, o.getSymbolID()).Submit(type, o, lots, ticks);
+    }
+
+    /**
+     * Takes a blank order for a NEW request.  It belongs to the caller
+     * until it is passed to NewOrder, or to ReleaseOrder if it is
+     * rejected before that.
+     *
+     * @return The order, to be filled in with Order.Reset
+     */
+    public Order AcquireOrder () {
+        return Pool.Acquire();
+    }
+
+    /**
+     * Returns an order that did not make it onto the blotter.
+     *
+     * @param o An order taken from AcquireOrder
+     */
+    public void ReleaseOrder ( Order o ) {
+        Pool.Release(o);
+    }
+
+    /**
+     * @return The open orders
+     */
+    public OrderBlotter getBlotter () {
+        return Blotter;
+    }
+
+    /**
+     * @return The pre-trade risk checks
+     */
+    public RiskEngine getRisk () {
+        return Risk;
+    }
+
+    /**
+     * @return The pool orders are taken from
+     */
+    public OrderPool getOrderPool () {
+        return Pool;
+    }
+
+    /**
+     * Adds an order to the blotter, giving it an InternalID unless it
+     * was recovered with one.  If the order is rejected, the caller
+     * still owns it.
+     *
+     */
+    public String NewOrder ( Order o ) {
+        if ( Blotter.Get(o.getOrderID()) != null )
+            return "OrderID " + o.getOrderID() + " is already open";
+
+        if ( !Recovering ) {
+            String RejectText = Risk.CheckNew(o, System.nanoTime());
+            if ( RejectText.length() > 0 )
+                return RejectText;
+        }
+
+        // recovered orders keep the InternalID they were given
+        if ( o.getInternalID().length() == 0 )
+            o.AssignInternalID();
+
+        // add to blotter
+        Blotter.Add(o);
+        Risk.AddOrder(o);
+        if ( Snapshots != null )
+            Snapshots.Opened(o);
+
+        // update market data subscriptions
+        int symbolID = o.getSymbolID();
+        if ( Blotter.CountBySymbol(symbolID) == 1 )
+            Subscribe(symbolID, true);
+
+        if ( Journal != null ) {
+            try {
+                Journal.New(o);
+            } catch ( IOException e ) {
+                JournalFailed(e);
+            }
+        }
+
+        Forward(OrderEventQueue.NEW, o, 0L, 0L);
+
+        MaybeSnapshot();
+        return "";
+    }
+
+    /**
+     * Amends an order on the blotter in place.  The request is only read;
+     * the caller may reuse it afterwards.
+     *
+     * @param o The amend request, with the OrderID of an open order
+     * @return Reject text, or a blank string if the amend was applied
+     */
+    public String AmendOrder ( Order o ) {
+        Order open = Blotter.Get(o.getOrderID());
+        if ( open == null )
+            return "OrderID " + o.getOrderID() + " is not open";
+
+        if ( !Recovering ) {
+            String RejectText = Risk.CheckAmend(open, o, System.nanoTime());
+            if ( RejectText.length() > 0 )
+                return RejectText;
+        }
+
+        long oldPx = open.getPriceTicks();
+        long oldAvail = open.getAvailableLots();
+        Preserve(open);
+        try {
+            open.Amend(o);
+        } catch ( DataFormatException e ) {
+            return e.getMessage();
+        }
+        Risk.AmendOrder(open, oldPx, oldAvail);
+
+        if ( Journal != null ) {
+            try {
+                Journal.Amend(o);
+            } catch ( IOException e ) {
+                JournalFailed(e);
+            }
+        }
+
+        Forward(OrderEventQueue.AMEND, open, 0L, 0L);
+
+        MaybeSnapshot();
+        return "";
+    }
+
+    /**
+     * Removes an order from the blotter and returns it to the pool.
+     *
+     * @param orderID OrderID of an open order
+     * @return Reject text, or a blank string if the order was removed
+     */
+    public String CancelOrder ( String orderID ) {
+        Order o = Blotter.Get(orderID);
+        if ( o == null )
+            return "OrderID " + orderID + " is not open";
+
+        if ( Journal != null ) {
+            try {
+                Journal.Cancel(orderID);
+            } catch ( IOException e ) {
+                JournalFailed(e);
+            }
+        }
+
+        Forward(OrderEventQueue.CANCEL, o, 0L, 0L);
+        CloseOrder(o);
+        MaybeSnapshot();
+        return "";
+    }
+
+    /**
+     * Applies an execution to an open order.  A fully filled order is
+     * removed from the blotter and returned to the pool.  Only the
+     * session an order came from may report its executions.
+     *
+     * @param orderID OrderID of an open order
+     * @param qty Quantity executed as a FixedPoint value
+     * @param px Price of the execution as a FixedPoint value
+     * @param source Session reporting the execution, or null when the
+     * journal is replayed
+     * @return Reject text, or a blank string if the execution was applied
+     */
+    public String ExecuteOrder ( String orderID, long qty, long px, String source ) {
+        Order o = Blotter.Get(orderID);
+        if ( o == null )
+            return "OrderID " + orderID + " is not open";
+
+        if ( source != null && !source.equals(o.getSource()) )
+            return "OrderID " + orderID + " belongs to session " + o.getSource();
+
+        if ( qty <= 0L )
+            return "Quantity " + FixedPoint.ToString(qty, FixedPoint.Decimals) +
+                   " is zero or negative";
+
+        if ( px <= 0L )
+            return "Price " + FixedPoint.ToString(px, FixedPoint.Decimals) +
+                   " is zero or negative";
+
+        long lots, ticks;
+        try {
+            lots = o.ToLots(qty);
+            ticks = o.ToTicks(px);
+        } catch ( DataFormatException e ) {
+            return e.getMessage();
+        }
+
+        if ( lots > o.getAvailableLots() )
+            return "Quantity " + FixedPoint.ToString(qty, FixedPoint.Decimals) +
+                   " is greater than AvailableQuantity " +
+                   FixedPoint.ToString(o.getAvailableLots(), o.getQuantityDecimals());
+
+        Preserve(o);
+        o.Execute(lots, ticks);
+        Risk.Execute(o, lots);
+
+        if ( Journal != null ) {
+            try {
+                Journal.Execute(orderID, qty, px);
+            } catch ( IOException e ) {
+                JournalFailed(e);
+            }
+        }
+
+        Forward(OrderEventQueue.FILL, o, lots, ticks);
+        if ( o.getAvailableLots() <= 0L )
+            CloseOrder(o);
+
+        MaybeSnapshot();
+        return "";
+    }
+
+    /**
+     * Logs an order event that could not be journaled.  The event has
+     * already been applied, so it stands; it will be missing if the
+     * journal is replayed.
+     *
+     * @param e The journal error
+     */
+    private void JournalFailed ( IOException e ) {
+        try {
+            Logger.getInstance().write("Order journal write failed: " + e.getMessage());
+        } catch ( IOException le ) {
+            // nothing more can be done
+        }
+    }
+
+    /**
+     * Housekeeping of the order entry thread, done between messages:
+     * journals the progress the trading threads report for their
+     * orders and sends the children it releases, and takes snapshots.
+     */
+    public void Maintain () {
+        for ( EventLoop loop : Loops ) {
+            OrderEventQueue progress = loop.getProgress();
+            int n;
+            while ( ( n = progress.Poll() ) >= 0 ) {
+                RecordProgress(progress.getOrder(n));
+                progress.Done();
+            }
+        }
+
+        MaybeSnapshot();
+    }
+
+    /**
+     * @return True while housekeeping is under way that the order
+     * entry thread should come back to without waiting for a message
+     */
+    public boolean isMaintaining () {
+        return Snapshots != null && Snapshots.isEncoding();
+    }
+
+    /**
+     * Keeps the progress a trading thread reported for an order, and
+     * journals it, so a restart carries on from it.  Then sends the
+     * child the report releases, so a child is never sent that a
+     * restart would send again; one journaled just before a crash is
+     * not sent at all, and leaves the order short rather than over.
+     *
+     * @param report The loop's copy of the order, as it reported it
+     */
+    private void RecordProgress ( Order report ) {
+        Order o = Blotter.Get(report.getOrderID());
+
+        // the order may have closed, and its OrderID been used again,
+        // in which case its child is not sent
+        if ( o == null || !o.getInternalID().equals(report.getInternalID()) )
+            return;
+
+        Preserve(o);
+        o.Progress.CopyFrom(report.Progress);
+
+        if ( Journal != null ) {
+            try {
+                Journal.Progress(o);
+            } catch ( IOException e ) {
+                JournalFailed(e);
+            }
+        }
+
+        if ( !SendSlice(o) )
+            SliceLostCount++;
+    }
+
+    /**
+     * Sends the child order an order's Progress releases to the
+     * session the order came from, as
+     * <pre>
+     *   SLICE,OrderID=...,Symbol=...,Side=...,Price=...,Quantity=...,Slice=n,ChildID=...
+     * </pre>
+     * where n is the strategy's Slice, and the ChildID is the order's
+     * InternalID and the number of the child, as in 0000000042.3.  A
+     * ChildID is never used twice, across restarts too.
+     *
+     * @param o An open order
+     * @return False if the child could not be queued, because its
+     * session has logged off or is too far behind
+     */
+    private boolean SendSlice ( Order o ) {
+        OrderSocket os = OS;
+        if ( os == null )
+            return false;
+
+        SliceProgress p = o.Progress;
+        StringBuilder sb = SliceText;
+        sb.setLength(0);
+        sb.append("SLICE,OrderID=").append(o.getOrderID())
+          .append(",Symbol=").append(o.getSymbol())
+          .append(",Side=").append(o.getSide())
+          .append(",Price=");
+        FixedPoint.Append(sb, o.getPriceTicks(), o.getPriceDecimals());
+        sb.append(",Quantity=");
+        FixedPoint.Append(sb, p.ChildLots, o.getQuantityDecimals());
+        sb.append(",Slice=").append(p.Slice)
+          .append(",ChildID=").append(o.getInternalID()).append('.').append(p.Children);
+
+        return os.WriteReply(o.getSource(), sb.toString());
+    }
+
+    /**
+     * @return Number of child orders journaled but not sent, because
+     * their session had logged off by then
+     */
+    public long getSliceLostCount () {
+        return SliceLostCount;
+    }
+
+    /**
+     * Lets a snapshot being encoded take an order before it changes.
+     *
+     * @param o An open order
+     */
+    private void Preserve ( Order o ) {
+        if ( Snapshots != null )
+            Snapshots.Preserve(o);
+    }
+
+    /**
+     * Takes a snapshot of the blotter once ORDERSNAPSHOTSECS have
+     * passed since the last one.  The journal is rolled so the snapshot
+     * covers whole segments, and the orders are encoded a step at a
+     * time.  Skipped while the previous snapshot is still being
+     * written.
+     */
+    private void MaybeSnapshot () {
+        if ( Snapshots == null )
+            return;
+
+        if ( Snapshots.isEncoding() ) {
+            Snapshots.Step(Blotter);
+            return;
+        }
+
+        if ( Snapshots.isBusy() )
+            return;
+
+        long now = System.nanoTime();
+        if ( now - LastSnapshot < SnapshotIntervalNanos )
+            return;
+
+        try {
+            Journal.getJournal().Roll();
+        } catch ( IOException e ) {
+            JournalFailed(e);
+            return;
+        }
+
+        Snapshots.Begin(Blotter, Journal.getJournal().getSegment());
+        Snapshots.Step(Blotter);
+        LastSnapshot = now;
+    }
+
+    /**
+     * Maps the volume profiles named by VOLUMEPROFILES for VWAP orders.
+     * Must be called before start.
+     *
+     * @throws IOException If the profiles cannot be mapped
+     */
+    public void LoadVolumeProfiles () throws IOException {
+        String path = Configuration.getInstance().getString("VOLUMEPROFILES");
+        if ( path == null || path.length() == 0 )
+            return;
+
+        long start = System.nanoTime();
+        Profiles = new VolumeProfiles(path);
+        Logger.getInstance().write("Mapped " + Profiles.getSymbolCount() +
+            " volume profiles of " + Profiles.getBins() + " bins from " + path +
+            " in " + ( System.nanoTime() - start ) / 1000000L + " ms");
+    }
+
+    /**
+     * Rebuilds the blotter from the last snapshot and the order journal
+     * written since, named by ORDERJOURNAL, then opens the journal for
+     * the events to come.  Must be called after start, and before any
+     * socket is started.
+     * Market data for the recovered orders is subscribed to as each
+     * price connection connects.
+     *
+     * @throws IOException If the snapshot or journal cannot be read, or
+     * the journal cannot be opened
+     */
+    public void Recover () throws IOException {
+        String base = Configuration.getInstance().getString("ORDERJOURNAL");
+        if ( base != null && base.length() > 0 )
+            Recover(base);
+    }
+
+    /**
+     * Rebuilds the blotter from the snapshot and journal of a given
+     * name, as Recover does for ORDERJOURNAL.
+     *
+     * @param base Path and file name prefix of the journal segments
+     * @throws IOException If the snapshot or journal cannot be read, or
+     * the journal cannot be opened
+     */
+    void Recover ( String base ) throws IOException {
+        Configuration cfg = Configuration.getInstance();
+        long start = System.nanoTime();
+        OrderJournal.Replay replay = new OrderJournal.Replay(this);
+        Recovering = true;
+        try {
+            long from = OrderSnapshot.Load(base, this);
+            MappedJournal.Read(base, from, replay);
+            if ( replay.Error != null )
+                throw new IOException("Unable to recover orders: " + replay.Error);
+        } finally {
+            Recovering = false;
+        }
+
+        // hand the recovered orders to the trading threads, whose
+        // strategies carry on from the progress journaled for them
+        for ( int id = 0; id < Symbols.getCapacity(); id++ ) {
+            for ( Order o = Blotter.FirstBySymbol(id); o != null;
+                  o = o.getNext(OrderBlotter.BYSYMBOL) )
+                Forward(OrderEventQueue.RECOVER, o, 0L, 0L);
+        }
+
+        Logger.getInstance().write("Recovered " + Blotter.getCount() +
+            " open orders from " + replay.Applied + " journal events in " +
+            ( System.nanoTime() - start ) / 1000000L + " ms" +
+            ( replay.Skipped > 0 ? ", " + replay.Skipped + " events skipped" : "" ));
+
+        Journal = new OrderJournal(base, cfg.getInt("ORDERJOURNALMB") << 20,
+            cfg.getString("ORDERJOURNALSYNC"), cfg.getInt("ORDERJOURNALSYNCMS"));
+
+        int secs = cfg.getInt("ORDERSNAPSHOTSECS");
+        if ( secs > 0 ) {
+            Snapshots = new OrderSnapshot("SNAPSHOT", base);
+            SnapshotIntervalNanos = secs * 1000000000L;
+            LastSnapshot = System.nanoTime();
+            Snapshots.start();
+        }
+    }
+
+    /**
+     * @return Historical volume curves, empty if there are none
+     */
+    public VolumeProfiles getProfiles () {
+        return Profiles;
+    }
+
+    /**
+     * @return The order journal, or null if not journaling
+     */
+    public OrderJournal getJournal () {
+        return Journal;
+    }
+
+    /**
+     * Removes an order from the blotter, drops its symbol's market data
+     * once no open order needs it, and returns the order to the pool.
+     *
+     * @param o An open order
+     */
+    private void CloseOrder ( Order o ) {
+        Preserve(o);
+        Blotter.Remove(o.getOrderID());
+        Risk.RemoveOrder(o);
+
+        // update market data subscriptions
+        int symbolID = o.getSymbolID();
+        if ( Blotter.CountBySymbol(symbolID) == 0 )
+            Subscribe(symbolID, false);
+
+        Pool.Release(o);
+    }
+
+    /**
+     * Subscribes or unsubscribes a symbol through its shard's
+     * connection.  The wanted state is kept even when the connection
+     * has not started, or there is none while market data is being
+     * replayed, so each connection subscribes to every wanted symbol
+     * of its shard when it connects.
+     *
+     * @param symbolID Identifier of the symbol
+     * @param subscribe True to subscribe, false to unsubscribe
+     */
+    private void Subscribe ( int symbolID, boolean subscribe ) {
+        Subscribed.set(symbolID, subscribe ? 1 : 0);
+
+        PriceSocket ps = PS[Shards.ShardOf(symbolID)];
+        if ( ps != null )
+            ps.SubscriptionChanged(symbolID);
+    }
+
+    /**
+     * @param symbolID Identifier of a symbol
+     * @return True if an open order needs the symbol's market data.
+     * Safe to call from any thread.
+     */
+    public boolean isSubscribed ( int symbolID ) {
+        return Subscribed.get(symbolID) != 0;
+    }
+
+    /**
+     * Sets the PriceSocket reference for the socket's shard.  Called
+     * as the socket starts, before the order entry thread does.
+     *
+     * @param ps PriceSocket
+     */
+    public void SetPriceSocket ( PriceSocket ps ) {
+        PS[ps.getShard()] = ps;
+    }
+
+    /**
+     * Sets the OrderSocket reference.
+     *
+     * @param ps OrderSocket
+     */
+    public void SetOrderSocket ( OrderSocket os ) {
+        OS = os;
+    }
+
+    /**
+     * @return The OrderSocket, for the trading threads to send child
+     * orders through, or null if it has not been set
+     */
+    public OrderSocket getOrderSocket () {
+        return OS;
+    }
  }
\ No newline at end of file
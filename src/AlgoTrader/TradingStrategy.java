@@ -0,0 +1,127 @@
+/*
+ * TradingStrategy.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * A strategy that works orders, plugged in by naming its class in
+ * STRATEGYCLASS.NAME, where NAME is the Strategy of the orders it works.
+ * Each EventLoop creates its own instance with the public no argument
+ * constructor, and calls it only from the loop's thread, for the orders
+ * and books of the symbols the loop owns.  A strategy therefore needs
+ * no locking, and may keep per-symbol state indexed by SymbolID.
+ *
+ * The orders passed in are the loop's own copies, kept up to date with
+ * the order entry thread's events before each call.  A strategy keeps
+ * what it needs of an order in an object of its own set with
+ * setStrategyState, usually in OnNewOrder, and may set the order's timer
+ * and subscription, but must not change its order values.  The time
+ * passed in is System.nanoTime().
+ *
+ * @see EventLoop
+ */
+public interface TradingStrategy {
+
+    /**
+     * Called once, before the loop starts.
+     *
+     * @param loop The loop the instance belongs to
+     */
+    void Attach ( EventLoop loop );
+
+    /**
+     * An order was accepted.
+     *
+     * @param o The loop's copy of the order
+     * @param now Current time
+     */
+    void OnNewOrder ( Order o, long now );
+
+    /**
+     * An order was recovered at startup.  Its Progress holds what the
+     * strategy last reported before the restart, which
+     * EventLoop.RestoreProgress puts back in a new SliceState, so the
+     * strategy carries on rather than sending its children again.
+     *
+     * @param o The loop's copy of the order
+     * @param now Current time
+     */
+    void OnRecover ( Order o, long now );
+
+    /**
+     * An order was amended.
+     *
+     * @param o The loop's copy of the order, as amended
+     * @param now Current time
+     */
+    void OnAmend ( Order o, long now );
+
+    /**
+     * An order was cancelled.  Its timer is cancelled after the call,
+     * and the copy is dropped.
+     *
+     * @param o The loop's copy of the order
+     * @param now Current time
+     */
+    void OnCancel ( Order o, long now );
+
+    /**
+     * An order was executed.  An order with no AvailableQuantity left is
+     * dropped after the call, as for a cancel.
+     *
+     * @param o The loop's copy of the order, after the execution
+     * @param lots Lots executed
+     * @param ticks Price of the execution in ticks
+     * @param now Current time
+     */
+    void OnFill ( Order o, long lots, long ticks, long now );
+
+    /**
+     * The book of a symbol the loop owns changed.  Called for every
+     * strategy of the loop, before any of the symbol's orders are
+     * woken, so it suits state kept per symbol rather than per order.
+     *
+     * @param book The loop's copy of the book
+     * @param analytics Values derived from the book
+     * @param now Current time
+     */
+    void OnBook ( OrderBook book, BookAnalytics analytics, long now );
+
+    /**
+     * The book of an order's symbol changed, and the order is
+     * subscribed to it through the loop's OrderSubscriptions, within
+     * its price window if it has one.  Orders on other symbols, and
+     * those whose window the touch is outside, are not called.
+     *
+     * @param o The loop's copy of the order
+     * @param book The loop's copy of the book
+     * @param analytics Values derived from the book
+     * @param now Current time
+     */
+    void OnTick ( Order o, OrderBook book, BookAnalytics analytics, long now );
+
+    /**
+     * An order's timer, set on the loop's TimingWheel, came due.
+     *
+     * @param o The loop's copy of the order
+     * @param now Current time
+     */
+    void OnTimer ( Order o, long now );
+}
@@ -0,0 +1,129 @@
+/*
+ * TwapStrategy.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Time weighted average price.  An order is cut into TWAPSLICES child
+ * orders spread evenly over its Duration, or TWAPSECS if it has none,
+ * the first going out when the order arrives.  Each slice tops the
+ * children sent up to the order's share of its schedule, so quantity
+ * added by an amend is spread over the slices left, and executions
+ * beyond the children sent count towards it.
+ */
+public class TwapStrategy implements TradingStrategy {
+
+    /** The loop this instance belongs to. */
+    private EventLoop Loop;
+
+    /** Pending slice of each order. */
+    private TimingWheel Timers;
+
+    /** Default seconds an order is worked over. */
+    private long DefaultSeconds;
+
+    /** Number of slices an order is cut into. */
+    private int Slices;
+
+    public void Attach ( EventLoop loop ) {
+        Configuration cfg = Configuration.getInstance();
+
+        Loop = loop;
+        Timers = loop.getTimers();
+        DefaultSeconds = Math.max(1, cfg.getInt("TWAPSECS"));
+        Slices = Math.max(1, cfg.getInt("TWAPSLICES"));
+    }
+
+    public void OnNewOrder ( Order o, long now ) {
+        SliceState s = new SliceState();
+        s.Begin(o, now);
+        o.setStrategyState(s);
+        Timers.Schedule(o, now);
+    }
+
+    /**
+     * Carries on with the schedule the order had before the restart.
+     * Slices that fell due meanwhile go out one after another.
+     */
+    public void OnRecover ( Order o, long now ) {
+        SliceState s = new SliceState();
+        o.setStrategyState(s);
+        if ( Loop.RestoreProgress(o, s, now) )
+            OnAmend(o, now);
+        else
+            OnNewOrder(o, now);
+    }
+
+    /**
+     * Moves the pending slice to where the order's Duration now puts
+     * it.  An order whose slices have all gone out gets one more for
+     * any quantity the amend added.
+     */
+    public void OnAmend ( Order o, long now ) {
+        SliceState s = (SliceState)o.getStrategyState();
+        if ( s.Slice >= Slices ) {
+            if ( s.SlicedLots >= o.getQuantityLots() )
+                return;
+            s.Slice = Slices - 1;
+        }
+        Timers.Schedule(o, s.Start + s.Slice * SliceNanos(o));
+    }
+
+    public void OnCancel ( Order o, long now ) {
+    }
+
+    public void OnFill ( Order o, long lots, long ticks, long now ) {
+    }
+
+    public void OnBook ( OrderBook book, BookAnalytics analytics, long now ) {
+    }
+
+    public void OnTick ( Order o, OrderBook book, BookAnalytics analytics, long now ) {
+    }
+
+    /**
+     * Sends the next child order and sets the timer of the slice after.
+     * A child that could not be sent is tried again shortly as the same
+     * slice, without moving the schedule.
+     */
+    public void OnTimer ( Order o, long now ) {
+        SliceState s = (SliceState)o.getStrategyState();
+        s.Slice++;
+
+        long work = o.getQuantityLots() - s.SliceBase;
+        if ( !Loop.SliceTo(o, s, s.SliceBase + ( work * s.Slice + Slices - 1 ) / Slices) ) {
+            s.Slice--;
+            Timers.Schedule(o, now + Loop.getSliceRetryNanos());
+            return;
+        }
+
+        if ( s.Slice < Slices )
+            Timers.Schedule(o, s.Start + s.Slice * SliceNanos(o));
+    }
+
+    /**
+     * @param o An order
+     * @return Time between its slices
+     */
+    private long SliceNanos ( Order o ) {
+        long secs = o.getDuration() > 0L ? o.getDuration() : DefaultSeconds;
+        return secs * 1000000000L / Slices;
+    }
+}
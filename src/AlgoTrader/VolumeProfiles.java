@@ -0,0 +1,322 @@
+/*
+ * VolumeProfiles.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Historical intraday volume curves used to schedule VWAP orders, read
+ * from the file named by VOLUMEPROFILES.  The file is memory mapped
+ * rather than read, so a universe of thousands of symbols costs no heap
+ * and no time at startup; the pages of a symbol are touched when its
+ * first order looks it up, and the curve it finds is remembered by
+ * SymbolID.  The file is big-endian:
+ * <pre>
+ *   int  magic
+ *   int  number of bins
+ *   int  seconds per bin
+ *   int  start of the first bin, in seconds after local midnight
+ *   int  number of symbols
+ *   symbols, 16 bytes each, ISO-8859-1 padded with zeros, sorted
+ *   a curve per symbol, in the same order: for each bin, the fraction
+ *   of the day's volume traded by its end, in billionths
+ * </pre>
+ * Files are built from text with
+ * <pre>
+ *   java -cp AlgoTrader.jar AlgoTrader.VolumeProfiles profiles.csv profiles.bin 09:30 60
+ * </pre>
+ * where each line of profiles.csv is a symbol followed by its volume in
+ * each bin, and the last two arguments are the start of the first bin
+ * and the seconds per bin.  Used by the trading threads, each symbol
+ * only by the thread that owns it.
+ */
+public class VolumeProfiles {
+
+    /** Fractions of a day's volume are in parts of this. */
+    public static final int Scale = 1000000000;
+
+    /** First bytes of a profile file. */
+    private static final int Magic = 0x41545650;
+
+    /** Bytes of each symbol in the file's index. */
+    private static final int SymbolBytes = 16;
+
+    /** Bytes before the index. */
+    private static final int HeaderBytes = 20;
+
+    /** Milliseconds in a day. */
+    private static final long DayMillis = 86400000L;
+
+    /** Curves value of a symbol that has not been looked up. */
+    private static final int Unknown = -2;
+
+    /** The mapped file, null if there are no profiles. */
+    private MappedByteBuffer Map;
+
+    /** Number of bins of each curve. */
+    private int Bins;
+
+    /** Length of a bin. */
+    private long BinMillis;
+
+    /** Start of the first bin, after local midnight. */
+    private long StartMillis;
+
+    /** Number of symbols in the file. */
+    private int SymbolCount;
+
+    /** Local time minus UTC, taken when the profiles are opened. */
+    private long UtcOffsetMillis;
+
+    /** Position of each symbol's curve in Map, -1 if it has none, or
+     *  Unknown.  Indexed by SymbolID. */
+    private int[] Curves;
+
+    /** Symbol identifiers for the lookups. */
+    private SymbolRegistry Symbols;
+
+    /**
+     * Creates an empty set of profiles, in which every symbol has none.
+     */
+    public VolumeProfiles () {
+        Symbols = SymbolRegistry.getInstance();
+        Curves = new int[Symbols.getCapacity()];
+        Arrays.fill(Curves, Unknown);
+        UtcOffsetMillis = TimeZone.getDefault().getOffset(System.currentTimeMillis());
+        Map = null;
+        Bins = SymbolCount = 0;
+        BinMillis = StartMillis = 0L;
+    }
+
+    /**
+     * Maps a profile file.
+     *
+     * @param path The file
+     * @throws IOException If the file cannot be mapped or is not a
+     * profile file
+     */
+    public VolumeProfiles ( String path ) throws IOException {
+        this();
+
+        try ( FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ) ) {
+            long size = ch.size();
+            if ( size < HeaderBytes || size > Integer.MAX_VALUE )
+                throw new IOException(path + " is not a volume profile file");
+
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            if ( map.getInt(0) != Magic )
+                throw new IOException(path + " is not a volume profile file");
+
+            Bins = map.getInt(4);
+            BinMillis = map.getInt(8) * 1000L;
+            StartMillis = map.getInt(12) * 1000L;
+            SymbolCount = map.getInt(16);
+            if ( Bins <= 0 || BinMillis <= 0L || SymbolCount < 0 ||
+                 HeaderBytes + (long)SymbolCount * ( SymbolBytes + Bins * 4L ) != size )
+                throw new IOException(path + " is damaged");
+
+            Map = map;
+        }
+    }
+
+    /**
+     * @return Number of symbols with a profile
+     */
+    public int getSymbolCount () {
+        return SymbolCount;
+    }
+
+    /**
+     * @return Number of bins of each curve
+     */
+    public int getBins () {
+        return Bins;
+    }
+
+    /**
+     * Finds a symbol's curve, looking it up in the file the first time.
+     *
+     * @param symbolID Identifier of the symbol
+     * @return Handle of the curve for Fraction, or -1 if the symbol has
+     * no profile
+     */
+    public int getCurve ( int symbolID ) {
+        int curve = Curves[symbolID];
+        if ( curve == Unknown ) {
+            curve = Find(Symbols.getSymbol(symbolID));
+            Curves[symbolID] = curve;
+        }
+        return curve;
+    }
+
+    /**
+     * Reads the fraction of the day's volume a curve has traded by some
+     * time, interpolating within its bin.  Before the first bin it is 0,
+     * after the last it is Scale.
+     *
+     * @param curve Handle from getCurve
+     * @param epochMillis The time, in milliseconds since the epoch
+     * @return Parts of Scale, or -1 if curve is -1
+     */
+    public int Fraction ( int curve, long epochMillis ) {
+        if ( curve < 0 )
+            return -1;
+
+        long t = Math.floorMod(epochMillis + UtcOffsetMillis, DayMillis) - StartMillis;
+        if ( t <= 0L )
+            return 0;
+
+        long bin = t / BinMillis;
+        if ( bin >= Bins )
+            return Scale;
+
+        int prev = bin == 0L ? 0 : Map.getInt(curve + (int)( bin - 1 ) * 4);
+        int next = Map.getInt(curve + (int)bin * 4);
+        return prev + (int)( ( next - prev ) * ( t - bin * BinMillis ) / BinMillis );
+    }
+
+    /**
+     * @param epochMillis A time, in milliseconds since the epoch
+     * @return Milliseconds from then to the end of the last bin, 0 if
+     * it has passed or there are no profiles
+     */
+    public long getRemainingMillis ( long epochMillis ) {
+        long t = Math.floorMod(epochMillis + UtcOffsetMillis, DayMillis);
+        return Math.max(0L, StartMillis + Bins * BinMillis - t);
+    }
+
+    /**
+     * Binary search of the file's index.
+     *
+     * @param symbol The symbol
+     * @return Position of its curve in Map, or -1 if it is not there
+     */
+    private int Find ( String symbol ) {
+        if ( Map == null || symbol.length() > SymbolBytes )
+            return -1;
+
+        int lo = 0, hi = SymbolCount - 1;
+        while ( lo <= hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            int c = Compare(HeaderBytes + mid * SymbolBytes, symbol);
+            if ( c < 0 )
+                lo = mid + 1;
+            else if ( c > 0 )
+                hi = mid - 1;
+            else
+                return HeaderBytes + SymbolCount * SymbolBytes + mid * Bins * 4;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares an index entry with a symbol, as unsigned bytes padded
+     * with zeros.
+     */
+    private int Compare ( int pos, String symbol ) {
+        for ( int i = 0; i < SymbolBytes; i++ ) {
+            int a = Map.get(pos + i) & 0xFF;
+            int b = i < symbol.length() ? symbol.charAt(i) & 0xFF : 0;
+            if ( a != b )
+                return a - b;
+        }
+        return 0;
+    }
+
+    /**
+     * Builds a profile file from text.
+     *
+     * @param args Text file, profile file, start of the first bin as
+     * HH:MM, and seconds per bin
+     */
+    public static void main ( String args[] ) {
+        if ( args.length != 4 ) {
+            System.err.println("Usage: VolumeProfiles profiles.csv profiles.bin HH:MM binseconds");
+            return;
+        }
+
+        try {
+            String[] hm = args[2].split(":");
+            int start = Integer.parseInt(hm[0]) * 3600 + Integer.parseInt(hm[1]) * 60;
+            int binSecs = Integer.parseInt(args[3]);
+
+            // symbol to volumes, sorted as the index is
+            TreeMap<String, double[]> curves = new TreeMap<>();
+            int bins = -1;
+            for ( String line : Files.readAllLines(Paths.get(args[0]), StandardCharsets.ISO_8859_1) ) {
+                line = line.trim();
+                if ( line.length() == 0 || line.startsWith("#") )
+                    continue;
+
+                String[] f = line.split(",");
+                if ( f[0].length() > SymbolBytes )
+                    throw new IOException("Symbol " + f[0] + " is longer than " + SymbolBytes);
+                if ( bins < 0 )
+                    bins = f.length - 1;
+                if ( bins < 1 || f.length - 1 != bins )
+                    throw new IOException("Symbol " + f[0] + " does not have " + bins + " bins");
+
+                double[] v = new double[bins];
+                for ( int i = 0; i < bins; i++ )
+                    v[i] = Double.parseDouble(f[i + 1].trim());
+                curves.put(f[0], v);
+            }
+
+            try ( DataOutputStream out = new DataOutputStream(
+                      new BufferedOutputStream(new FileOutputStream(args[1]))) ) {
+                out.writeInt(Magic);
+                out.writeInt(Math.max(bins, 1));
+                out.writeInt(binSecs);
+                out.writeInt(start);
+                out.writeInt(curves.size());
+
+                for ( String s : curves.keySet() ) {
+                    byte[] name = Arrays.copyOf(s.getBytes(StandardCharsets.ISO_8859_1), SymbolBytes);
+                    out.write(name);
+                }
+
+                for ( double[] v : curves.values() ) {
+                    double total = 0D;
+                    for ( double x : v )
+                        total += x;
+
+                    // a symbol that never traded is given an even curve
+                    double sum = 0D;
+                    for ( int i = 0; i < bins; i++ ) {
+                        sum += total > 0D ? v[i] : 1D;
+                        double whole = total > 0D ? total : bins;
+                        out.writeInt(i == bins - 1 ? Scale : (int)Math.round(sum / whole * Scale));
+                    }
+                }
+            }
+
+            System.out.println("Wrote " + curves.size() + " volume profiles of " +
+                               bins + " bins to " + args[1]);
+        } catch ( Exception e ) {
+            System.err.println("Volume profiles not written: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * VwapStrategy.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Volume weighted average price.  An order is sliced every
+ * VWAPSLICESECS in step with the historical volume of its symbol in
+ * VolumeProfiles: each slice tops the children sent up to the share of
+ * the order's quantity that matches the share of its window's expected
+ * volume traded so far.  The window runs for the order's Duration, or
+ * without one to the end of the profile, or for TWAPSECS if that has
+ * passed or the symbol has no profile, in which case the order is
+ * worked evenly over time.  The window's start and end fractions are
+ * found once, so a slice costs one curve lookup.
+ */
+public class VwapStrategy implements TradingStrategy {
+
+    /** What the strategy keeps of an order. */
+    private static class VwapState extends SliceState {
+
+        /** When the order's window ends, on the Clock. */
+        long End;
+
+        /** Parts of the day's volume expected by the window's start. */
+        int FractionStart;
+
+        /** Parts of the day's volume expected by the window's end. */
+        int FractionEnd;
+    }
+
+    /** The loop this instance belongs to. */
+    private EventLoop Loop;
+
+    /** Pending slice of each order. */
+    private TimingWheel Timers;
+
+    /** Time between slices. */
+    private long SliceNanos;
+
+    /** Default seconds an order is worked over. */
+    private long DefaultSeconds;
+
+    public void Attach ( EventLoop loop ) {
+        Configuration cfg = Configuration.getInstance();
+
+        Loop = loop;
+        Timers = loop.getTimers();
+        SliceNanos = Math.max(1, cfg.getInt("VWAPSLICESECS")) * 1000000000L;
+        DefaultSeconds = Math.max(1, cfg.getInt("TWAPSECS"));
+    }
+
+    public void OnNewOrder ( Order o, long now ) {
+        VwapState s = new VwapState();
+        s.Begin(o, now);
+        o.setStrategyState(s);
+        Window(o, s);
+        Timers.Schedule(o, now);
+    }
+
+    /**
+     * Carries on with the window the order had before the restart,
+     * topping the children sent up to its share straight away.
+     */
+    public void OnRecover ( Order o, long now ) {
+        VwapState s = new VwapState();
+        o.setStrategyState(s);
+        if ( Loop.RestoreProgress(o, s, now) )
+            OnAmend(o, now);
+        else
+            OnNewOrder(o, now);
+    }
+
+    /**
+     * Moves the window and the pending slice to where the order's
+     * Duration now puts them.  An order whose window has ended gets one
+     * more slice for any quantity the amend added.
+     */
+    public void OnAmend ( Order o, long now ) {
+        VwapState s = (VwapState)o.getStrategyState();
+        Window(o, s);
+        if ( !Timers.isScheduled(o) && s.SlicedLots >= o.getQuantityLots() )
+            return;
+        Timers.Schedule(o, Math.min(s.Start + s.Slice * SliceNanos, s.End));
+    }
+
+    public void OnCancel ( Order o, long now ) {
+    }
+
+    public void OnFill ( Order o, long lots, long ticks, long now ) {
+    }
+
+    public void OnBook ( OrderBook book, BookAnalytics analytics, long now ) {
+    }
+
+    public void OnTick ( Order o, OrderBook book, BookAnalytics analytics, long now ) {
+    }
+
+    /**
+     * Sends the next child order and sets the timer of the slice after.
+     * A child that could not be sent is tried again shortly as the same
+     * slice, without moving the schedule.
+     */
+    public void OnTimer ( Order o, long now ) {
+        VwapState s = (VwapState)o.getStrategyState();
+        s.Slice++;
+
+        if ( now >= s.End ) {
+            if ( !Loop.SliceTo(o, s, o.getQuantityLots()) )
+                Retry(o, s, now);
+            return;
+        }
+
+        VolumeProfiles profiles = Loop.getProfiles();
+        long done;
+        int span = s.FractionEnd - s.FractionStart;
+        if ( s.FractionStart >= 0 && span > 0 ) {
+            long epochMillis = Clock.EpochNanos(now) / 1000000L;
+            int f = profiles.Fraction(profiles.getCurve(o.getSymbolID()), epochMillis);
+            done = ( f - s.FractionStart ) * (long)VolumeProfiles.Scale / span;
+        } else {
+            long elapsed = ( now - s.Start ) / 1000000L;
+            long length = Math.max(1L, ( s.End - s.Start ) / 1000000L);
+            done = elapsed * VolumeProfiles.Scale / length;
+        }
+        done = Math.max(0L, Math.min(VolumeProfiles.Scale, done));
+
+        // work times done over Scale, rounded up, without overflowing
+        long work = o.getQuantityLots() - s.SliceBase;
+        long scale = VolumeProfiles.Scale;
+        long share = work / scale * done + ( work % scale * done + scale - 1 ) / scale;
+        if ( !Loop.SliceTo(o, s, s.SliceBase + share) ) {
+            Retry(o, s, now);
+            return;
+        }
+
+        Timers.Schedule(o, Math.min(s.Start + s.Slice * SliceNanos, s.End));
+    }
+
+    /**
+     * Sets the timer to try a slice that could not be sent again.
+     *
+     * @param o The loop's copy of the order
+     * @param s The strategy's state for it
+     * @param now Current Clock time
+     */
+    private void Retry ( Order o, VwapState s, long now ) {
+        s.Slice--;
+        Timers.Schedule(o, now + Loop.getSliceRetryNanos());
+    }
+
+    /**
+     * Sets when an order is to be done, and how much of its symbol's
+     * daily volume is expected to have traded by its start and end.
+     *
+     * @param o An order
+     * @param s The strategy's state for it, with its Start set
+     */
+    private void Window ( Order o, VwapState s ) {
+        VolumeProfiles profiles = Loop.getProfiles();
+        long startMillis = Clock.EpochNanos(s.Start) / 1000000L;
+        int curve = profiles.getCurve(o.getSymbolID());
+
+        long millis = o.getDuration() * 1000L;
+        if ( millis == 0L && curve >= 0 )
+            millis = profiles.getRemainingMillis(startMillis);
+        if ( millis == 0L )
+            millis = DefaultSeconds * 1000L;
+
+        s.End = s.Start + millis * 1000000L;
+        s.FractionStart = profiles.Fraction(curve, startMillis);
+        s.FractionEnd = profiles.Fraction(curve, startMillis + millis);
+    }
+}
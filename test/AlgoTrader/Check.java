@@ -0,0 +1,150 @@
+/*
+ * Check.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+
+/**
+ * Assertions for the unit tests, which are plain classes with a main
+ * run by "make test" from the bin directory, so Configuration finds
+ * ../cfg/AlgoTrader.cfg as it does for AlgoTrader itself.  A failed
+ * check is printed and counted, and Done exits non-zero if any failed.
+ */
+public class Check {
+
+    /** Checks made so far. */
+    private static int Count = 0;
+
+    /** Checks failed so far. */
+    private static int Failed = 0;
+
+    /**
+     * Creates the singletons every test needs, once.
+     *
+     * @throws Exception If the configuration cannot be read
+     */
+    public static void Setup () throws Exception {
+        if ( Configuration.getInstance() == null )
+            Configuration.initialize();
+        if ( Logger.getInstance() == null )
+            Logger.initialize();
+        if ( SymbolRegistry.getInstance() == null )
+            SymbolRegistry.initialize();
+        Order.initialize();
+    }
+
+    /**
+     * @param id OrderID
+     * @param symbol Symbol
+     * @param customer Customer
+     * @param strategy Strategy
+     * @param qty Whole quantity of the order
+     * @return A new buy order at 10 from session OS, with its
+     * InternalID
+     * @throws Exception If a value is rejected
+     */
+    public static Order NewOrder ( String id, String symbol, String customer,
+                                   String strategy, long qty ) throws Exception
+    {
+        Order o = new Order();
+        o.Reset(id, symbol, customer, "OS", "", 10 * FixedPoint.One,
+                qty * FixedPoint.One, qty * FixedPoint.One, 'B', strategy,
+                "USD", 0L);
+        o.AssignInternalID();
+        return o;
+    }
+
+    /**
+     * @param id OrderID
+     * @param qty Whole quantity of the order
+     * @return A new TWAP buy order of ABC at 10 for customer C1
+     * @throws Exception If a value is rejected
+     */
+    public static Order NewOrder ( String id, long qty ) throws Exception {
+        return NewOrder(id, "ABC", "C1", "TWAP", qty);
+    }
+
+    /**
+     * @param ok The condition checked
+     * @param what Description printed if it does not hold
+     */
+    public static void That ( boolean ok, String what ) {
+        Count++;
+        if ( !ok ) {
+            Failed++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+
+    /**
+     * @param want Expected value
+     * @param got Actual value
+     * @param what Description printed if they differ
+     */
+    public static void Equal ( long want, long got, String what ) {
+        That(want == got, what + ": expected " + want + ", got " + got);
+    }
+
+    /**
+     * @param want Expected value, may be null
+     * @param got Actual value, may be null
+     * @param what Description printed if they differ
+     */
+    public static void Equal ( Object want, Object got, String what ) {
+        That(want == null ? got == null : want.equals(got),
+             what + ": expected " + want + ", got " + got);
+    }
+
+    /**
+     * Reports the checks of a test and exits, with status 1 if any
+     * failed.
+     *
+     * @param test Name of the test
+     */
+    public static void Done ( String test ) {
+        System.out.println(test + ": " + ( Count - Failed ) + " of " + Count +
+                           " checks passed");
+        System.exit(Failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * @param prefix File name prefix
+     * @return A new empty directory for a test's files, deleted with
+     * them when the test exits
+     * @throws IOException If it cannot be created
+     */
+    public static File TempDir ( String prefix ) throws IOException {
+        final File dir = File.createTempFile(prefix, "");
+        if ( !dir.delete() || !dir.mkdir() )
+            throw new IOException("Unable to create " + dir);
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run () {
+                File[] files = dir.listFiles();
+                if ( files != null )
+                    for ( File f : files )
+                        f.delete();
+                dir.delete();
+            }
+        });
+        return dir;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * FixedPointTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.math.*;
+import java.util.*;
+
+/**
+ * Tests Ascii.ParseFixed against BigDecimal, including rounding past
+ * the last place and the numbers its fast path hands to the fallback,
+ * and the conversions and formatting of FixedPoint.
+ */
+public class FixedPointTest {
+
+    public static void main ( String args[] ) throws Exception {
+        Parse();
+        ParseRandom();
+        Units();
+        Format();
+
+        Check.Done("FixedPointTest");
+    }
+
+    /**
+     * @param s Text of a number
+     * @param decimals Decimal places of the units
+     * @return The parsed value
+     * @throws NumberFormatException If it was rejected
+     */
+    private static long ParseFixed ( String s, int decimals ) {
+        // surround the number so only its own bytes are read
+        byte[] buf = Ascii.Bytes("x=" + s + ",");
+        return Ascii.ParseFixed(buf, 2, buf.length - 3, decimals);
+    }
+
+    /**
+     * @param s Text that is not a number in range
+     * @param decimals Decimal places of the units
+     * @return True if ParseFixed rejects it
+     */
+    private static boolean Rejects ( String s, int decimals ) {
+        try {
+            ParseFixed(s, decimals);
+            return false;
+        } catch ( NumberFormatException e ) {
+            return true;
+        }
+    }
+
+    /**
+     * @param s Text of a number
+     * @param decimals Decimal places of the units
+     * @return The value rounded half away from zero, or null if it is
+     * not a number or does not fit a long
+     */
+    private static Long Expected ( String s, int decimals ) {
+        try {
+            return new BigDecimal(s).movePointRight(decimals)
+                .setScale(0, RoundingMode.HALF_UP).longValueExact();
+        } catch ( NumberFormatException | ArithmeticException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Numbers chosen for their rounding, sign, size or form.
+     */
+    private static void Parse () {
+        Check.Equal(150L, ParseFixed("1.5", 2), "1.5 in two places");
+        Check.Equal(100L, ParseFixed("1", 2), "whole number");
+        Check.Equal(100L, ParseFixed("1.", 2), "trailing point");
+        Check.Equal(50L, ParseFixed(".5", 2), "leading point");
+        Check.Equal(500L, ParseFixed("+5", 2), "plus sign");
+        Check.Equal(-12345L, ParseFixed("-123.45", 2), "negative");
+        Check.Equal(0L, ParseFixed("-0.00", 2), "negative zero");
+
+        Check.Equal(13L, ParseFixed("0.125", 2), "half rounds up");
+        Check.Equal(-13L, ParseFixed("-0.125", 2), "negative half rounds away from zero");
+        Check.Equal(12L, ParseFixed("0.1249999", 2), "below half rounds down");
+        Check.Equal(1L, ParseFixed("0.000000005", FixedPoint.Decimals), "ninth place rounds");
+        Check.Equal(100L, ParseFixed("0.999", 2), "rounding carries into the whole");
+
+        Check.Equal(FixedPoint.One * 10L, ParseFixed("10", FixedPoint.Decimals), "FixedPoint ten");
+        Check.Equal(1025000000L, ParseFixed("10.25", FixedPoint.Decimals), "FixedPoint 10.25");
+
+        Check.Equal(Long.MAX_VALUE, ParseFixed("92233720368.54775807", FixedPoint.Decimals),
+                    "largest FixedPoint value");
+        Check.That(Rejects("92233720368.54775808", FixedPoint.Decimals),
+                    "past the largest value rejected");
+        Check.Equal(1500L, ParseFixed("1.5e1", 2), "exponent parsed by the fallback");
+
+        Check.That(Rejects("", 2), "empty rejected");
+        Check.That(Rejects("-", 2), "sign alone rejected");
+        Check.That(Rejects(".", 2), "point alone rejected");
+        Check.That(Rejects("1.2.3", 2), "two points rejected");
+        Check.That(Rejects("12a", 2), "letters rejected");
+        Check.That(Rejects(" 1", 2), "spaces rejected");
+    }
+
+    /**
+     * Compares random numbers of every length the fast path and the
+     * fallback handle with BigDecimal.
+     */
+    private static void ParseRandom () {
+        Random rnd = new Random(20);
+        int mismatches = 0;
+        String first = null;
+
+        for ( int n = 0; n < 200000; n++ ) {
+            StringBuilder sb = new StringBuilder();
+            if ( rnd.nextInt(4) == 0 )
+                sb.append('-');
+
+            int whole = rnd.nextInt(13);
+            for ( int i = 0; i < whole; i++ )
+                sb.append((char)( '0' + rnd.nextInt(10) ));
+            if ( whole == 0 || rnd.nextBoolean() ) {
+                sb.append('.');
+                int frac = 1 + rnd.nextInt(12);
+                for ( int i = 0; i < frac; i++ )
+                    sb.append((char)( '0' + rnd.nextInt(10) ));
+            }
+
+            String s = sb.toString();
+            int decimals = rnd.nextInt(FixedPoint.Decimals + 1);
+            Long want = Expected(s, decimals);
+            Long got = Rejects(s, decimals) ? null : ParseFixed(s, decimals);
+            if ( want == null ? got != null : !want.equals(got) ) {
+                if ( first == null )
+                    first = s + " in " + decimals + " places: expected " + want + ", got " + got;
+                mismatches++;
+            }
+        }
+
+        Check.That(mismatches == 0, mismatches + " random numbers parsed wrongly, first " + first);
+    }
+
+    /**
+     * Conversions between FixedPoint values and units of fewer places.
+     */
+    private static void Units () {
+        Check.Equal(1050L, FixedPoint.ToUnits(1050000000L, 2), "FixedPoint to units");
+        Check.Equal(1050000000L, FixedPoint.ToFixed(1050L, 2), "units to FixedPoint");
+        Check.Equal(2L, FixedPoint.ToUnits(1500000L, 2), "half a unit rounds up");
+        Check.Equal(-2L, FixedPoint.ToUnits(-1500000L, 2), "negative half a unit rounds away");
+        Check.That(FixedPoint.IsExact(1050000000L, 2), "whole number of units");
+        Check.That(!FixedPoint.IsExact(1050000001L, 2), "between units");
+
+        Check.Equal(150000L, FixedPoint.Rescale(150L, 2, 5), "rescale to more places");
+        Check.Equal(150L, FixedPoint.Rescale(150L, 2, 2), "rescale to the same places");
+        Check.Equal(15L, FixedPoint.Rescale(145L, 2, 1), "rescale rounds half up");
+        Check.Equal(14L, FixedPoint.Rescale(144L, 2, 1), "rescale rounds down below half");
+        Check.Equal(-15L, FixedPoint.Rescale(-145L, 2, 1), "rescale rounds negative half away");
+        Check.Equal(-14L, FixedPoint.Rescale(-144L, 2, 1), "rescale rounds negative down");
+
+        Random rnd = new Random(21);
+        boolean exact = true;
+        for ( int n = 0; n < 100000 && exact; n++ ) {
+            long v = rnd.nextLong() >> ( 1 + rnd.nextInt(40) );
+            int from = rnd.nextInt(FixedPoint.Decimals + 1);
+            int to = rnd.nextInt(from + 1);
+            exact = FixedPoint.Rescale(v, from, to) ==
+                BigDecimal.valueOf(v, from).setScale(to, RoundingMode.HALF_UP).unscaledValue().longValue();
+        }
+        Check.That(exact, "rescale to fewer places matches BigDecimal");
+    }
+
+    /**
+     * Formatting, and parsing what was formatted.
+     */
+    private static void Format () {
+        Check.Equal("10.25", FixedPoint.ToString(1025000000L, FixedPoint.Decimals), "trailing zeros dropped");
+        Check.Equal("100", FixedPoint.ToString(10000L, 2), "whole number");
+        Check.Equal("-0.05", FixedPoint.ToString(-5L, 2), "negative fraction");
+        Check.Equal("0", FixedPoint.ToString(0L, 4), "zero");
+        Check.Equal("-92233720368.54775808", FixedPoint.ToString(Long.MIN_VALUE, FixedPoint.Decimals),
+                    "smallest value");
+
+        Random rnd = new Random(22);
+        boolean same = true;
+        for ( int n = 0; n < 100000 && same; n++ ) {
+            long v = rnd.nextLong() >> rnd.nextInt(63);
+            int decimals = rnd.nextInt(FixedPoint.Decimals + 1);
+            same = ParseFixed(FixedPoint.ToString(v, decimals), decimals) == v;
+        }
+        Check.That(same, "formatted values parse back unchanged");
+    }
+}
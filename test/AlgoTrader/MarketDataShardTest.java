@@ -0,0 +1,230 @@
+/*
+ * MarketDataShardTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Tests the OrderBook's sorted levels, and the MarketDataShard applying
+ * snapshots and updates to books: the book its trading thread is handed
+ * after each message, a sequence gap marking the book stale and asking
+ * the PriceSocket for a snapshot, updates ignored until it arrives, and
+ * traded volume counted at the touch as TRADEDVOLUME REMOVED says.
+ * Prices are written in cents and quantities in whole units.
+ */
+public class MarketDataShardTest {
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+
+        Levels();
+        Shard();
+
+        Check.Done("MarketDataShardTest");
+    }
+
+    /**
+     * @param book A book
+     * @param bids True for the bids, false for the offers
+     * @return The side's levels best first, as cents x units
+     */
+    private static String Side ( OrderBook book, boolean bids ) {
+        StringBuilder sb = new StringBuilder();
+        int depth = bids ? book.getBidDepth() : book.getOfferDepth();
+        long cent = FixedPoint.Pow10(book.getPriceDecimals() - 2);
+        long unit = FixedPoint.Pow10(book.getQuantityDecimals());
+
+        for ( int i = 0; i < depth; i++ ) {
+            long ticks = bids ? book.getBidTicks(i) : book.getOfferTicks(i);
+            long lots = bids ? book.getBidLots(i) : book.getOfferLots(i);
+            if ( i > 0 )
+                sb.append(' ');
+            sb.append(ticks / cent).append('x').append(lots / unit);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Inserts, changes and deletes levels at the top, middle and bottom
+     * of each side of a book directly.
+     */
+    private static void Levels () {
+        OrderBook b = new OrderBook(0, "LEVELS", 2, 0);
+
+        b.AddBid(1000, 1);
+        b.AddBid(1002, 2);
+        b.AddBid(1001, 3);
+        b.AddBid(1002, 4);
+        Check.Equal("1002x6 1001x3 1000x1", Side(b, true), "bids added out of order");
+
+        b.AddOffer(1005, 1);
+        b.AddOffer(1003, 2);
+        b.AddOffer(1004, 3);
+        b.AddOffer(1003, 4);
+        Check.Equal("1003x6 1004x3 1005x1", Side(b, false), "offers added out of order");
+
+        b.SetBid(1003, 7);
+        b.SetBid(999, 8);
+        b.SetBid(1000, 9);
+        b.SetBid(1001, 0);
+        b.SetBid(998, 0);
+        Check.Equal("1003x7 1002x6 1000x9 999x8", Side(b, true), "bids set, inserted and deleted");
+
+        b.SetOffer(1002, 7);
+        b.SetOffer(1006, 8);
+        b.SetOffer(1003, 9);
+        b.SetOffer(1004, 0);
+        b.SetOffer(1007, 0);
+        Check.Equal("1002x7 1003x9 1005x1 1006x8", Side(b, false), "offers set, inserted and deleted");
+
+        b.SetBid(1003, 0);
+        b.SetBid(999, 0);
+        b.SetOffer(1002, 0);
+        b.SetOffer(1006, 0);
+        Check.Equal("1002x6 1000x9", Side(b, true), "best and worst bids deleted");
+        Check.Equal("1003x9 1005x1", Side(b, false), "best and worst offers deleted");
+        Check.Equal(10.02, b.getBestBid(), "best bid");
+        Check.Equal(10.03, b.getBestOffer(), "best offer");
+
+        // more levels than a book starts with
+        OrderBook deep = new OrderBook(0, "DEEP", 2, 0);
+        for ( int i = 0; i < 100; i++ )
+            deep.SetBid(1000 + ( i * 37 ) % 100, 1);
+        boolean sorted = deep.getBidDepth() == 100;
+        for ( int i = 1; i < deep.getBidDepth(); i++ )
+            sorted &= deep.getBidTicks(i - 1) > deep.getBidTicks(i);
+        Check.That(sorted, "a hundred bids inserted in order");
+    }
+
+    /**
+     * The symbol's book as its trading thread now has it.
+     */
+    private static class View {
+        ConflationQueue Conflator;
+        OrderBook Book;
+
+        View ( Trader t, String symbol ) {
+            int id = SymbolRegistry.getInstance().Register(Ascii.Bytes(symbol), 0, symbol.length());
+            Conflator = EventLoop.Owner(t.getLoops(), id).getConflator();
+            Book = new OrderBook(id, symbol);
+        }
+
+        /**
+         * @return True if a book was published since the last call
+         */
+        boolean Update () {
+            int id = Conflator.Poll();
+            if ( id < 0 )
+                return false;
+            Conflator.Read(id, Book);
+            return true;
+        }
+    }
+
+    /**
+     * @param cents A price in cents, or a quantity in hundredths
+     * @return It as a FixedPoint value
+     */
+    private static long Fixed ( long cents ) {
+        return cents * ( FixedPoint.One / 100 );
+    }
+
+    /**
+     * Sends a message through the shard.
+     *
+     * @param shard The shard
+     * @param symbol Symbol of the message
+     * @param snapshot True for a snapshot, false for an update
+     * @param sequence Sequence number of the message
+     * @param complete False if the message is malformed
+     * @param levels Each level as side, price in cents and quantity in
+     * units, 'B' for a bid
+     */
+    private static void Message ( MarketDataShard shard, String symbol, boolean snapshot,
+                                  long sequence, boolean complete, long... levels ) {
+        byte[] s = Ascii.Bytes(symbol);
+        shard.MarketDataBegin(s, 0, s.length, snapshot, sequence);
+        for ( int i = 0; i < levels.length; i += 3 )
+            shard.MarketDataLevel(levels[i] == 'B', Fixed(levels[i + 1]), Fixed(levels[i + 2] * 100));
+        shard.MarketDataEnd(complete);
+    }
+
+    /**
+     * Feeds one symbol's book through snapshots, updates and gaps.
+     */
+    private static void Shard () throws Exception {
+        Trader t = new Trader();
+        PriceSocket ps = new PriceSocket("MarketDataShardTest", t, 0);
+        MarketDataShard shard = new MarketDataShard(MarketDataShard.AllShards,
+                                                    t.getShards(), t.getLoops(), ps);
+        View v = new View(t, "XYZ");
+        long B = 'B', S = 'S';
+
+        Message(shard, "XYZ", true, 10, true,
+                B, 1000, 100, B, 1002, 200, B, 1001, 300,
+                S, 1005, 100, S, 1003, 50, S, 1004, 70);
+        Check.That(v.Update(), "snapshot published");
+        Check.Equal("1002x200 1001x300 1000x100", Side(v.Book, true), "snapshot bids");
+        Check.Equal("1003x50 1004x70 1005x100", Side(v.Book, false), "snapshot offers");
+        Check.Equal(10L, v.Book.getSequence(), "snapshot sequence");
+        Check.That(!v.Book.isStale(), "snapshot not stale");
+
+        Message(shard, "XYZ", false, 11, true,
+                B, 1001, 350, B, 999, 10,
+                S, 1004, 0, S, 1003, 0, S, 1006, 20);
+        Check.That(v.Update(), "update published");
+        Check.Equal("1002x200 1001x350 1000x100 999x10", Side(v.Book, true), "updated bids");
+        Check.Equal("1005x100 1006x20", Side(v.Book, false), "updated offers");
+        Check.Equal(11L, v.Book.getSequence(), "update sequence");
+        Check.Equal(50L * 100, v.Book.getTradedLots(), "removed best offer counted as traded");
+
+        Message(shard, "XYZ", false, 12, true, B, 1002, 150);
+        v.Update();
+        Check.Equal(50L * 100, v.Book.getTradedLots(), "smaller best bid not counted as traded");
+        long requests = ps.getOutput().getMessageCount();
+
+        // 13 is missed
+        Message(shard, "XYZ", false, 14, true, B, 1002, 100);
+        Check.That(v.Update(), "gap published");
+        Check.That(v.Book.isStale(), "book stale after a gap");
+        Check.Equal(0, v.Book.getBidDepth() + v.Book.getOfferDepth(), "stale book empty");
+        Check.Equal(requests + 1, ps.getOutput().getMessageCount(), "snapshot requested");
+
+        Message(shard, "XYZ", false, 15, true, B, 1002, 100);
+        Check.That(!v.Update(), "update ignored while stale");
+        Check.Equal(requests + 1, ps.getOutput().getMessageCount(), "snapshot requested once");
+
+        Message(shard, "XYZ", true, 20, true, B, 1001, 5, S, 1002, 6);
+        Check.That(v.Update(), "new snapshot published");
+        Check.That(!v.Book.isStale(), "book fresh after the snapshot");
+        Check.Equal("1001x5", Side(v.Book, true), "new snapshot bids");
+        Check.Equal("1002x6", Side(v.Book, false), "new snapshot offers");
+        Check.Equal(20L, v.Book.getSequence(), "new snapshot sequence");
+        Check.Equal(50L * 100, v.Book.getTradedLots(), "levels swept by a snapshot not counted");
+
+        Message(shard, "XYZ", false, 21, true, B, 1001, 0);
+        v.Update();
+        Check.Equal(55L * 100, v.Book.getTradedLots(), "removed best bid counted as traded");
+
+        Message(shard, "XYZ", false, 22, false, S, 1002, 0);
+        Check.That(v.Update(), "malformed update published");
+        Check.That(v.Book.isStale(), "book stale after a malformed update");
+        Check.Equal(requests + 2, ps.getOutput().getMessageCount(), "snapshot requested again");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * MessageQueueTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+/**
+ * Tests the MessageQueue: a full queue refuses and counts messages
+ * without waiting, and messages from several producers at once each
+ * arrive exactly once and in the order their producer put them.
+ */
+public class MessageQueueTest {
+
+    private static final int Producers = 4;
+    private static final int PerProducer = 200000;
+
+    public static void main ( String args[] ) throws Exception {
+        Bounds();
+        Concurrent();
+
+        Check.Done("MessageQueueTest");
+    }
+
+    /**
+     * @param producer Number of the producer
+     * @param seq Sequence number of its message
+     * @return The message
+     */
+    private static byte[] Message ( int producer, int seq ) {
+        return new byte[] { (byte)producer, (byte)( seq >>> 24 ), (byte)( seq >>> 16 ),
+                            (byte)( seq >>> 8 ), (byte)seq };
+    }
+
+    /**
+     * Fills a queue, overfills it, and drains it, on one thread.
+     */
+    private static void Bounds () {
+        MessageQueue q = new MessageQueue(3);
+        Check.That(q.isEmpty(), "new queue empty");
+        Check.That(q.Poll() == null, "nothing to poll");
+
+        boolean all = true;
+        for ( int i = 0; i < 4; i++ )
+            all &= q.Put(Message(0, i), null);
+        Check.That(all, "capacity rounded up to four");
+
+        Check.That(!q.Offer(Message(0, 4)), "full queue refuses an offer");
+        Check.That(!q.Put(Message(0, 4), null), "full queue refuses a put");
+        Check.Equal(1L, q.getFullCount(), "refused puts counted");
+
+        boolean ordered = true;
+        for ( int i = 0; i < 4; i++ )
+            ordered &= Sequence(q.Poll()) == i;
+        Check.That(ordered, "messages polled in order");
+        Check.That(q.isEmpty() && q.Poll() == null, "drained queue empty");
+
+        Check.That(q.Put(Message(0, 5), null), "room again once drained");
+    }
+
+    /**
+     * @param msg A message
+     * @return Its sequence number
+     */
+    private static int Sequence ( byte[] msg ) {
+        return ( ( msg[1] & 0xFF ) << 24 ) | ( ( msg[2] & 0xFF ) << 16 ) |
+               ( ( msg[3] & 0xFF ) << 8 ) | ( msg[4] & 0xFF );
+    }
+
+    /**
+     * Several producers race to fill a small queue, retrying refused
+     * messages, while one consumer drains it.
+     */
+    private static void Concurrent () throws Exception {
+        final MessageQueue q = new MessageQueue(256);
+        Thread[] threads = new Thread[Producers];
+
+        for ( int p = 0; p < Producers; p++ ) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                public void run () {
+                    for ( int seq = 0; seq < PerProducer; seq++ ) {
+                        byte[] msg = Message(producer, seq);
+                        while ( !q.Offer(msg) )
+                            Thread.yield();
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        int[] next = new int[Producers];
+        long received = 0L;
+        boolean ordered = true;
+        long deadline = System.nanoTime() + 60000000000L;
+
+        while ( received < (long)Producers * PerProducer && System.nanoTime() < deadline ) {
+            byte[] msg = q.Poll();
+            if ( msg == null ) {
+                Thread.yield();
+                continue;
+            }
+
+            int producer = msg[0];
+            ordered &= Sequence(msg) == next[producer];
+            next[producer] = Sequence(msg) + 1;
+            received++;
+        }
+
+        for ( Thread t : threads )
+            t.join(1000L);
+
+        Check.Equal((long)Producers * PerProducer, received, "messages received");
+        Check.That(ordered, "each producer's messages received once and in order");
+        Check.That(q.isEmpty() && q.Poll() == null, "queue empty after the producers finish");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * OrderBlotterTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.*;
+
+/**
+ * Tests the OrderBlotter: OrderIDs stay reachable as others are removed
+ * from the open-addressed table, including probes that wrap past its
+ * end, and the secondary indexes follow every Add and Remove.
+ */
+public class OrderBlotterTest {
+
+    private static final String[] Symbols    = { "ABC", "DEF", "GHI" };
+    private static final String[] Customers  = { "C1", "C2", "C3", "C4" };
+    private static final String[] Strategies = { "TWAP", "VWAP", "POV" };
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+
+        AddAndRemove();
+        Churn();
+        Indexes();
+
+        Check.Done("OrderBlotterTest");
+    }
+
+    /**
+     * @param id OrderID
+     * @param n Picks the order's symbol, customer and strategy
+     * @return A new order
+     */
+    private static Order NewOrder ( String id, int n ) throws Exception {
+        return Check.NewOrder(id, Symbols[n % Symbols.length], Customers[n % Customers.length],
+                              Strategies[n % Strategies.length], 100);
+    }
+
+    /**
+     * Basic adds, duplicates and removes of missing orders.
+     */
+    private static void AddAndRemove () throws Exception {
+        OrderBlotter b = new OrderBlotter(4);
+        Order a = NewOrder("A", 0);
+
+        Check.That(b.Add(a), "first add accepted");
+        Check.That(!b.Add(NewOrder("A", 1)), "duplicate OrderID rejected");
+        Check.That(b.Get("A") == a, "order found by OrderID");
+        Check.Equal(1, b.getCount(), "count after add");
+
+        Check.That(b.Remove("B") == null, "missing order not removed");
+        Check.That(b.Remove("A") == a, "removed order returned");
+        Check.That(b.Get("A") == null, "removed order not found");
+        Check.Equal(0, b.getCount(), "count after remove");
+        Check.That(b.Add(a), "order added again after removal");
+    }
+
+    /**
+     * Keeps a handful of orders open in a small table while adding and
+     * removing thousands, so probes cluster and wrap, and checks after
+     * every removal that each open order is still found.
+     */
+    private static void Churn () throws Exception {
+        OrderBlotter b = new OrderBlotter(4);
+        Map<String, Order> open = new HashMap<String, Order>();
+        List<String> ids = new ArrayList<String>();
+        Random rnd = new Random(16);
+        int next = 0;
+        boolean lost = false;
+
+        for ( int i = 0; i < 20000 && !lost; i++ ) {
+            if ( ids.size() < 6 || ( ids.size() < 12 && rnd.nextBoolean() ) ) {
+                String id = "O" + next;
+                Order o = NewOrder(id, next++);
+                b.Add(o);
+                open.put(id, o);
+                ids.add(id);
+            } else {
+                String id = ids.remove(rnd.nextInt(ids.size()));
+                lost = b.Remove(id) != open.remove(id) || b.Get(id) != null;
+                for ( Order o : open.values() )
+                    lost |= b.Get(o.getOrderID()) != o;
+            }
+        }
+
+        Check.That(!lost, "every open order found after each removal");
+        Check.Equal(open.size(), b.getCount(), "count after churn");
+    }
+
+    /**
+     * Checks the lists by symbol, customer and strategy after removing
+     * every other order, at the head, middle and tail of the lists.
+     */
+    private static void Indexes () throws Exception {
+        OrderBlotter b = new OrderBlotter(16);
+        List<Order> open = new ArrayList<Order>();
+
+        for ( int i = 0; i < 60; i++ ) {
+            Order o = NewOrder("I" + i, i);
+            b.Add(o);
+            open.add(o);
+        }
+        for ( int i = 0; i < 60; i += 2 )
+            open.remove(b.Remove("I" + i));
+
+        for ( String s : Symbols ) {
+            int id = SymbolRegistry.getInstance().Register(s);
+            int want = 0;
+            for ( Order o : open )
+                if ( o.getSymbol().equals(s) )
+                    want++;
+
+            Check.Equal(want, b.CountBySymbol(id), "count of symbol " + s);
+            Check.Equal(want, Walk(b.FirstBySymbol(id), OrderBlotter.BYSYMBOL),
+                        "orders listed for symbol " + s);
+        }
+
+        for ( String c : Customers ) {
+            int want = 0;
+            for ( Order o : open )
+                if ( o.getCustomer().equals(c) )
+                    want++;
+
+            Check.Equal(want, b.CountByCustomer(c), "count of customer " + c);
+            Check.Equal(want, Walk(b.FirstByCustomer(c), OrderBlotter.BYCUSTOMER),
+                        "orders listed for customer " + c);
+        }
+
+        for ( String s : Strategies ) {
+            int want = 0;
+            for ( Order o : open )
+                if ( o.getStrategy().equals(s) )
+                    want++;
+
+            Check.Equal(want, b.CountByStrategy(s), "count of strategy " + s);
+            Check.Equal(want, Walk(b.FirstByStrategy(s), OrderBlotter.BYSTRATEGY),
+                        "orders listed for strategy " + s);
+        }
+
+        Check.Equal(0, b.CountByCustomer("NOBODY"), "count of unknown customer");
+        Check.That(b.FirstByStrategy("NONE") == null, "no list for unknown strategy");
+    }
+
+    /**
+     * @param first Head of a list
+     * @param index The list's index
+     * @return Number of orders on the list
+     */
+    private static int Walk ( Order first, int index ) {
+        int n = 0;
+        for ( Order o = first; o != null; o = o.getNext(index) )
+            n++;
+        return n;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * OrderEventQueueTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.concurrent.locks.*;
+
+/**
+ * Tests the OrderEventQueue: TryOffer refuses on a full ring, and a
+ * consumer that parks when the ring is empty sees every event in order,
+ * with the order as it was when the event was offered even though the
+ * producer keeps changing it.
+ */
+public class OrderEventQueueTest {
+
+    private static final int Events = 500000;
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+
+        Bounds();
+        Handoff();
+
+        Check.Done("OrderEventQueueTest");
+    }
+
+    /**
+     * Fills a ring, overfills it, and drains it, on one thread.
+     */
+    private static void Bounds () throws Exception {
+        OrderEventQueue q = new OrderEventQueue(3);
+        Order o = Check.NewOrder("A", 100);
+
+        Check.That(q.isEmpty() && q.Poll() < 0, "new ring empty");
+
+        boolean all = true;
+        for ( int i = 0; i < 4; i++ ) {
+            o.Progress.Slice = i;
+            all &= q.TryOffer(OrderEventQueue.FILL, o, i, 10L * i);
+        }
+        Check.That(all, "capacity rounded up to four");
+        Check.That(!q.TryOffer(OrderEventQueue.CANCEL, o, 0L, 0L), "full ring refuses");
+        Check.Equal(0L, q.getFullCount(), "refused TryOffer not counted");
+
+        boolean same = true;
+        for ( int i = 0; i < 4; i++ ) {
+            int n = q.Poll();
+            same &= n >= 0 && q.getType(n) == OrderEventQueue.FILL &&
+                    q.getFillLots(n) == i && q.getFillTicks(n) == 10L * i &&
+                    q.getOrder(n).Progress.Slice == i &&
+                    q.getOrder(n).getOrderID().equals("A") && q.getOrder(n) != o;
+            q.Done();
+        }
+        Check.That(same, "events polled in order, with copies of the order");
+        Check.That(q.isEmpty() && q.Poll() < 0, "drained ring empty");
+    }
+
+    /**
+     * One producer offers events faster than the consumer takes them
+     * through a small ring, changing its order between events.
+     */
+    private static void Handoff () throws Exception {
+        final OrderEventQueue q = new OrderEventQueue(64);
+        final Order o = Check.NewOrder("A", 100);
+
+        Thread producer = new Thread() {
+            public void run () {
+                for ( int i = 0; i < Events; i++ ) {
+                    o.Progress.Slice = i;
+                    o.Progress.SliceBase = 3L * i;
+                    q.Offer(i % 2 == 0 ? OrderEventQueue.FILL : OrderEventQueue.AMEND,
+                            o, i, 2L * i);
+                }
+            }
+        };
+        producer.start();
+
+        int received = 0;
+        boolean same = true;
+        long deadline = System.nanoTime() + 60000000000L;
+
+        while ( received < Events && System.nanoTime() < deadline ) {
+            int n = q.Poll();
+            if ( n < 0 ) {
+                q.setWaiter(Thread.currentThread());
+                if ( q.isEmpty() )
+                    LockSupport.parkNanos(1000000L);
+                q.setWaiter(null);
+                continue;
+            }
+
+            Order copy = q.getOrder(n);
+            same &= q.getType(n) == ( received % 2 == 0 ? OrderEventQueue.FILL : OrderEventQueue.AMEND ) &&
+                    q.getFillLots(n) == received && q.getFillTicks(n) == 2L * received &&
+                    copy.Progress.Slice == received && copy.Progress.SliceBase == 3L * received;
+            q.Done();
+            received++;
+        }
+        producer.join(1000L);
+
+        Check.Equal(Events, received, "events received");
+        Check.That(same, "events received in order, each with its own copy of the order");
+        Check.That(q.isEmpty(), "ring empty after the producer finishes");
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * OrderJournalTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests the MappedJournal, whose records must read back exactly across
+ * segments and after reopening, and OrderJournal.Replay, which must
+ * rebuild the blotter the journaled events left behind.
+ */
+public class OrderJournalTest {
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+        File dir = Check.TempDir("journaltest");
+
+        ReadBack(new File(dir, "records").getPath());
+        ReplayOrders(new File(dir, "orders").getPath());
+        RefuseOtherVersion(new File(dir, "old").getPath());
+
+        Check.Done("OrderJournalTest");
+    }
+
+    /**
+     * Collects the records read from a journal.
+     */
+    private static class Collector implements MappedJournal.Visitor {
+        List<Integer> Types = new ArrayList<Integer>();
+        List<Long> Timestamps = new ArrayList<Long>();
+        List<byte[]> Payloads = new ArrayList<byte[]>();
+        TreeSet<Long> Segments = new TreeSet<Long>();
+        int StopAfter = Integer.MAX_VALUE;
+
+        public boolean Record ( long segment, int type, long timestamp,
+                                byte[] buf, int off, int len )
+        {
+            Types.add(type);
+            Timestamps.add(timestamp);
+            Payloads.add(Arrays.copyOfRange(buf, off, off + len));
+            Segments.add(segment);
+            return Types.size() < StopAfter;
+        }
+    }
+
+    /**
+     * @param n Record number
+     * @return A payload of a length and content particular to n
+     */
+    private static byte[] Payload ( int n ) {
+        byte[] p = new byte[1 + ( n * 37 ) % 150];
+        for ( int i = 0; i < p.length; i++ )
+            p[i] = (byte)( n + i );
+        return p;
+    }
+
+    /**
+     * Appends records of varying size over many small segments, reopens
+     * the journal to append more, and reads them all back.
+     */
+    private static void ReadBack ( String base ) throws Exception {
+        MappedJournal j = new MappedJournal(base, 512);
+        for ( int n = 0; n < 100; n++ ) {
+            byte[] p = Payload(n);
+            j.Append(n % 7, 1000L + n, p, 0, p.length);
+        }
+
+        // continues after the last record rather than overwriting it
+        j = new MappedJournal(base, 512);
+        for ( int n = 100; n < 150; n++ ) {
+            byte[] p = Payload(n);
+            j.Append(n % 7, 1000L + n, p, 0, p.length);
+        }
+
+        Collector all = new Collector();
+        Check.Equal(150L, MappedJournal.Read(base, 0L, all), "records read");
+        Check.That(all.Segments.size() > 10, "records spread over segments");
+
+        boolean same = all.Types.size() == 150;
+        for ( int n = 0; same && n < 150; n++ )
+            same = all.Types.get(n) == n % 7 && all.Timestamps.get(n) == 1000L + n &&
+                   Arrays.equals(all.Payloads.get(n), Payload(n));
+        Check.That(same, "records read back in order and unchanged");
+
+        long from = j.getSegment() - 1;
+        Collector tail = new Collector();
+        MappedJournal.Read(base, from, tail);
+        Check.Equal(from, tail.Segments.first().longValue(),
+                    "reading starts at the segment asked for");
+        Check.That(tail.Types.size() < 150, "earlier segments skipped");
+
+        Collector some = new Collector();
+        some.StopAfter = 10;
+        Check.Equal(10L, MappedJournal.Read(base, 0L, some), "read stops when told");
+
+        MappedJournal.DeleteBefore(base, from);
+        Check.Equal(from, MappedJournal.Segments(base)[0], "older segments deleted");
+    }
+
+    /**
+     * Journals new orders, amends, executions, cancels and progress,
+     * then replays them into a Trader and compares its blotter.
+     */
+    private static void ReplayOrders ( String base ) throws Exception {
+        OrderJournal j = new OrderJournal(base, 1 << 16, "NEVER", 0);
+
+        Order a = Check.NewOrder("A", 100);
+        j.New(a);
+        Order amend = Check.NewOrder("A", 120);
+        amend.setPrice(11 * FixedPoint.One);
+        j.Amend(amend);
+        j.Execute("A", 30 * FixedPoint.One, 105 * FixedPoint.One / 10);
+        j.Execute("A", 20 * FixedPoint.One, 1025 * FixedPoint.One / 100);
+        a.Progress.Start = 1234567890123L;
+        a.Progress.Slice = 3;
+        a.Progress.SliceBase = 2000L;
+        a.Progress.SlicedLots = 6000L;
+        j.Progress(a);
+
+        j.New(Check.NewOrder("B", 50));
+        j.Cancel("B");
+
+        j.New(Check.NewOrder("C", 10));
+        j.Execute("C", 10 * FixedPoint.One, 10 * FixedPoint.One);
+
+        // no longer open, so skipped
+        j.Execute("B", FixedPoint.One, 10 * FixedPoint.One);
+        j.Force();
+
+        Trader t = new Trader();
+        OrderJournal.Replay replay = new OrderJournal.Replay(t);
+        long next = Order.PeekInternalID();
+        Check.Equal(10L, MappedJournal.Read(base, 0L, replay), "events read");
+        Check.Equal(next, Order.PeekInternalID(), "replayed orders and amends take no InternalID");
+        Check.Equal(null, replay.Error, "replay error");
+        Check.Equal(9L, replay.Applied, "events applied");
+        Check.Equal(1L, replay.Skipped, "events skipped");
+
+        Check.Equal(1, t.getBlotter().getCount(), "open orders");
+        Check.That(t.getBlotter().Get("B") == null, "cancelled order closed");
+        Check.That(t.getBlotter().Get("C") == null, "filled order closed");
+
+        Order o = t.getBlotter().Get("A");
+        Check.That(o != null, "amended order open");
+        if ( o == null )
+            return;
+
+        Check.Equal(a.getInternalID(), o.getInternalID(), "InternalID kept");
+        Check.Equal(110000L, o.getPriceTicks(), "amended price");
+        Check.Equal(12000L, o.getQuantityLots(), "amended quantity");
+        Check.Equal(5000L, o.getCumulativeLots(), "executed quantity");
+        Check.Equal(7000L, o.getAvailableLots(), "available quantity");
+        Check.Equal(30L * 105000L * 100L + 20L * 102500L * 100L,
+                    o.getExecutedNotional(), "executed notional");
+        Check.Equal(1234567890123L, o.Progress.Start, "progress start");
+        Check.Equal(3, o.Progress.Slice, "progress slice");
+        Check.Equal(2000L, o.Progress.SliceBase, "progress slice base");
+        Check.Equal(6000L, o.Progress.SlicedLots, "progress sliced");
+    }
+
+    /**
+     * A record written in another FormatVersion stops the replay.
+     */
+    private static void RefuseOtherVersion ( String base ) throws Exception {
+        MappedJournal j = new MappedJournal(base, 1 << 16);
+        byte[] p = Payload(1);
+        j.Append(( ( OrderJournal.FormatVersion - 1 ) << 16 ) | OrderJournal.CancelRecord,
+                 0L, p, 0, p.length);
+        j.Append(( OrderJournal.FormatVersion << 16 ) | OrderJournal.CancelRecord,
+                 0L, p, 0, p.length);
+
+        OrderJournal.Replay replay = new OrderJournal.Replay(new Trader());
+        Check.Equal(1L, MappedJournal.Read(base, 0L, replay), "records read before refusing");
+        Check.That(replay.Error != null, "other version refused");
+        Check.Equal(0L, replay.Applied + replay.Skipped, "nothing replayed");
+    }
+}
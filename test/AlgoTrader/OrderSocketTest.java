@@ -0,0 +1,178 @@
+/*
+ * OrderSocketTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests the OrderSocket with two clients that send orders without
+ * logging on, as clients did before sessions were named.  Both must
+ * be served as DefaultSession, replies to it must reach one of them
+ * while either is connected, and be refused once neither is.
+ */
+public class OrderSocketTest {
+
+    /** Longest wait for the socket thread, in milliseconds. */
+    private static final long WaitMS = 10000L;
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+
+        Trader t = new Trader();
+        OrderSocket os = new OrderSocket("OrderSocketTest", t);
+        os.start();
+
+        LegacyClients(os);
+
+        Check.Done("OrderSocketTest");
+    }
+
+    /**
+     * A client connection, read a line at a time.
+     */
+    private static class Client {
+        Socket S;
+        BufferedReader In;
+        Writer Out;
+
+        Client () throws Exception {
+            int port = Configuration.getInstance().getInt("RECVPORT");
+            long deadline = System.currentTimeMillis() + WaitMS;
+
+            // the socket thread may not be listening yet
+            while ( S == null ) {
+                try {
+                    S = new Socket("127.0.0.1", port);
+                } catch ( ConnectException e ) {
+                    if ( System.currentTimeMillis() > deadline )
+                        throw e;
+                    Thread.sleep(10L);
+                }
+            }
+            S.setSoTimeout(100);
+            In = new BufferedReader(new InputStreamReader(S.getInputStream(),
+                                                          StandardCharsets.US_ASCII));
+            Out = new OutputStreamWriter(S.getOutputStream(), StandardCharsets.US_ASCII);
+        }
+
+        void Send ( String line ) throws IOException {
+            Out.write(line + "\n");
+            Out.flush();
+        }
+
+        /**
+         * @return The next line other than a PING, or null if none
+         * arrives in time
+         */
+        String Poll () throws IOException {
+            long deadline = System.currentTimeMillis() + WaitMS / 10;
+            while ( System.currentTimeMillis() < deadline ) {
+                try {
+                    String line = In.readLine();
+                    if ( line == null )
+                        return null;
+                    if ( !line.equals("PING") )
+                        return line;
+                } catch ( SocketTimeoutException e ) {
+                    // nothing yet
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param id OrderID
+     * @return A NEW request for the order
+     */
+    private static String NewRequest ( String id ) {
+        return "NEW,OrderID=" + id + ",Symbol=ABC,Side=B,Price=11,Quantity=100," +
+               "Duration=600,Customer=C1,Currency=USD,Strategy=TWAP";
+    }
+
+    /**
+     * @param os The socket
+     * @param count Number of logged on sessions to wait for
+     * @return True if there are that many in time
+     */
+    private static boolean AwaitSessions ( OrderSocket os, int count ) throws Exception {
+        long deadline = System.currentTimeMillis() + WaitMS;
+        while ( os.getSessionCount() != count && System.currentTimeMillis() < deadline )
+            Thread.sleep(10L);
+        return os.getSessionCount() == count;
+    }
+
+    /**
+     * @param a A client
+     * @param b Another client
+     * @param line The line expected
+     * @return The client that received it, or null
+     */
+    private static Client Received ( Client a, Client b, String line ) throws Exception {
+        long deadline = System.currentTimeMillis() + WaitMS;
+        while ( System.currentTimeMillis() < deadline ) {
+            if ( a != null && line.equals(a.Poll()) )
+                return a;
+            if ( b != null && line.equals(b.Poll()) )
+                return b;
+        }
+        return null;
+    }
+
+    /**
+     * Two clients send orders at once without logging on.
+     */
+    private static void LegacyClients ( OrderSocket os ) throws Exception {
+        Client a = new Client();
+        Client b = new Client();
+        Check.Equal("CONNECTED", a.Poll(), "first client connected");
+        Check.Equal("CONNECTED", b.Poll(), "second client connected");
+
+        // accepted orders get no reply, so a repeat of each shows the
+        // first went through
+        a.Send(NewRequest("A1"));
+        b.Send(NewRequest("B1"));
+        a.Send(NewRequest("A1"));
+        b.Send(NewRequest("B1"));
+        String ra = a.Poll(), rb = b.Poll();
+        Check.That(ra != null && ra.endsWith("RejectText=OrderID A1 is already open"),
+                   "first client's order accepted, got " + ra);
+        Check.That(rb != null && rb.endsWith("RejectText=OrderID B1 is already open"),
+                   "second client's order accepted, got " + rb);
+        Check.That(AwaitSessions(os, 2), "both clients logged on");
+
+        Check.That(os.WriteReply(OrderSocket.DefaultSession, "FIRST"), "reply queued");
+        Check.That(Received(a, b, "FIRST") != null, "reply written to one of the clients");
+
+        a.S.close();
+        Check.That(AwaitSessions(os, 1), "first client disconnected");
+        Check.That(os.WriteReply(OrderSocket.DefaultSession, "SECOND"),
+                   "reply queued while the second client is connected");
+        Check.That(Received(null, b, "SECOND") == b, "reply written to the second client");
+
+        b.S.close();
+        Check.That(AwaitSessions(os, 0), "second client disconnected");
+        Check.That(!os.WriteReply(OrderSocket.DefaultSession, "THIRD"),
+                   "reply refused with no client connected");
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * OrderSubscriptionsTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.*;
+
+/**
+ * Tests OrderSubscriptions: a changed book wakes only the orders on its
+ * symbol whose window holds the touch they would trade against, orders
+ * unsubscribed while the list is walked are skipped, and an EventLoop
+ * unsubscribes an order once it is closed.
+ */
+public class OrderSubscriptionsTest {
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+
+        Windows();
+        Walk();
+        Dropped();
+
+        Check.Done("OrderSubscriptionsTest");
+    }
+
+    /**
+     * @param subs The subscriptions
+     * @param book A changed book
+     * @return OrderIDs of the orders woken by it, sorted
+     */
+    private static List<String> Wake ( OrderSubscriptions subs, OrderBook book ) {
+        List<String> woken = new ArrayList<>();
+        Order o;
+        subs.Begin(book);
+        while ( ( o = subs.Next() ) != null )
+            woken.add(o.getOrderID());
+        Collections.sort(woken);
+        return woken;
+    }
+
+    /**
+     * @param id SymbolID of the book
+     * @param symbol Its symbol
+     * @param bidTicks Best bid in ticks, or -1 for no bids
+     * @param offerTicks Best offer in ticks, or -1 for no offers
+     * @return A book with at most one level a side
+     */
+    private static OrderBook Book ( int id, String symbol, long bidTicks, long offerTicks ) {
+        OrderBook book = new OrderBook(id, symbol);
+        if ( bidTicks >= 0L )
+            book.SetBid(bidTicks, 100L);
+        if ( offerTicks >= 0L )
+            book.SetOffer(offerTicks, 100L);
+        return book;
+    }
+
+    /**
+     * Buys and sells limited at their Price, and unlimited orders, on
+     * books whose touch is inside and outside their windows.
+     */
+    private static void Windows () throws Exception {
+        Order buy = Check.NewOrder("BUY", 1);
+        Order sell = Check.NewOrder("SELL", 1);
+        sell.setSide('S');
+        Order any = Check.NewOrder("ANY", 1);
+        Order other = Check.NewOrder("OTHER", "XYZ", "C1", "POV", 1);
+
+        int abc = buy.getSymbolID();
+        int xyz = other.getSymbolID();
+        long p = buy.getPriceTicks();
+        OrderSubscriptions subs = new OrderSubscriptions(SymbolRegistry.getInstance().getCapacity());
+
+        subs.Subscribe(buy, Long.MIN_VALUE, p);
+        subs.Subscribe(sell, p, Long.MAX_VALUE);
+        subs.Subscribe(any);
+        subs.Subscribe(other, Long.MIN_VALUE, other.getPriceTicks());
+        Check.Equal(3, subs.getCount(abc), "orders subscribed to ABC");
+        Check.Equal(1, subs.getCount(xyz), "orders subscribed to XYZ");
+
+        Check.Equal(Arrays.asList("ANY", "BUY", "SELL"), Wake(subs, Book(abc, "ABC", p, p)),
+                    "touch at both limits wakes all");
+        Check.Equal(Arrays.asList("ANY", "BUY"), Wake(subs, Book(abc, "ABC", p - 2, p - 1)),
+                    "market below the sell's limit");
+        Check.Equal(Arrays.asList("ANY", "SELL"), Wake(subs, Book(abc, "ABC", p + 1, p + 2)),
+                    "market above the buy's limit");
+        Check.Equal(Arrays.asList("ANY"), Wake(subs, Book(abc, "ABC", p - 1, p + 1)),
+                    "market through neither limit");
+        Check.Equal(Arrays.asList("ANY"), Wake(subs, Book(abc, "ABC", -1L, -1L)),
+                    "empty book wakes only the unlimited order");
+        Check.Equal(Arrays.asList("ANY", "BUY"), Wake(subs, Book(abc, "ABC", -1L, p - 1)),
+                    "no bids, offer within the buy's limit");
+        Check.Equal(Arrays.asList("OTHER"), Wake(subs, Book(xyz, "XYZ", p, p)),
+                    "only the book's symbol woken");
+
+        // move the buy's window up, as an amend of its Price would
+        subs.Subscribe(buy, Long.MIN_VALUE, p + 1);
+        Check.Equal(3, subs.getCount(abc), "subscribing again keeps one entry");
+        Check.Equal(Arrays.asList("ANY", "BUY", "SELL"), Wake(subs, Book(abc, "ABC", p + 1, p + 1)),
+                    "moved window holds the new touch");
+
+        subs.Unsubscribe(sell);
+        subs.Unsubscribe(sell);
+        Check.Equal(2, subs.getCount(abc), "unsubscribe counted once");
+        Check.Equal(-1, sell.WatchSymbol, "unsubscribed order unlinked");
+        Check.Equal(Arrays.asList("ANY", "BUY"), Wake(subs, Book(abc, "ABC", p, p)),
+                    "unsubscribed order not woken");
+
+        subs.Unsubscribe(buy);
+        subs.Unsubscribe(any);
+        subs.Unsubscribe(other);
+        Check.Equal(0, subs.getCount(abc) + subs.getCount(xyz), "all unsubscribed");
+        Check.That(Wake(subs, Book(abc, "ABC", p, p)).isEmpty(), "nothing woken");
+    }
+
+    /**
+     * Unsubscribes orders while their list is being walked, as a
+     * strategy does when an order closes from OnTick.
+     */
+    private static void Walk () throws Exception {
+        int count = 10;
+        Order[] orders = new Order[count];
+        OrderSubscriptions subs = new OrderSubscriptions(SymbolRegistry.getInstance().getCapacity());
+
+        for ( int i = 0; i < count; i++ ) {
+            orders[i] = Check.NewOrder("W" + i, 1);
+            subs.Subscribe(orders[i]);
+        }
+        int id = orders[0].getSymbolID();
+        OrderBook book = Book(id, "ABC", -1L, -1L);
+
+        // drop each order as it is woken
+        Set<String> woken = new HashSet<>();
+        boolean unlinked = true;
+        Order o;
+        subs.Begin(book);
+        while ( ( o = subs.Next() ) != null ) {
+            woken.add(o.getOrderID());
+            subs.Unsubscribe(o);
+            unlinked &= o.WatchSymbol < 0 && o.WatchNext == null && o.WatchPrev == null;
+        }
+        Check.That(unlinked, "orders unlinked as they are woken");
+        Check.Equal(count, woken.size(), "each order woken once while unsubscribing it");
+        Check.Equal(0, subs.getCount(id), "all unsubscribed during the walk");
+
+        // drop the order after each one woken
+        for ( Order s : orders )
+            subs.Subscribe(s);
+        woken.clear();
+        subs.Begin(book);
+        while ( ( o = subs.Next() ) != null ) {
+            woken.add(o.getOrderID());
+            if ( o.WatchNext != null )
+                subs.Unsubscribe(o.WatchNext);
+        }
+        Check.Equal(count / 2, woken.size(), "orders unsubscribed ahead of the walk skipped");
+        Check.Equal(count / 2, subs.getCount(id), "skipped orders unsubscribed");
+        Check.Equal(count / 2, Wake(subs, book).size(), "the rest still woken");
+    }
+
+    /**
+     * Cancels POV orders through a Trader, and checks their trading
+     * thread no longer has them subscribed.  The trading thread
+     * is not started; the test runs its passes.
+     */
+    private static void Dropped () throws Exception {
+        Trader t = new Trader();
+        t.LoadStrategies();
+
+        Order a = Check.NewOrder("PA", "SUB", "C1", "POV", 10);
+        Order b = Check.NewOrder("PB", "SUB", "C1", "POV", 10);
+        int id = a.getSymbolID();
+        EventLoop loop = EventLoop.Owner(t.getLoops(), id);
+        OrderSubscriptions subs = loop.getSubscriptions();
+
+        Check.Equal("", t.NewOrder(a), "first order accepted");
+        Check.Equal("", t.NewOrder(b), "second order accepted");
+        long now = System.nanoTime();
+        loop.RunOnce(now);
+        Check.Equal(2, subs.getCount(id), "new orders subscribed");
+
+        Check.Equal("", t.CancelOrder("PA"), "first order cancelled");
+        loop.RunOnce(now);
+        Check.Equal(1, subs.getCount(id), "cancelled order unsubscribed");
+
+        OrderBook book = Book(id, "SUB", -1L, a.getPriceTicks());
+        Check.Equal(Arrays.asList("PB"), Wake(subs, book), "only the open order woken");
+
+        Check.Equal("", t.CancelOrder("PB"), "second order cancelled");
+        loop.RunOnce(now);
+        Check.Equal(0, subs.getCount(id), "no orders left subscribed");
+        Check.That(Wake(subs, book).isEmpty(), "closed orders not woken");
+    }
+}
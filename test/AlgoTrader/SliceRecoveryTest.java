@@ -0,0 +1,238 @@
+/*
+ * SliceRecoveryTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Tests that child orders survive a crash: a TWAP order sends a child,
+ * then AlgoTrader stops after the trading thread decided on the next
+ * child but before the order entry thread journaled it.  The Trader
+ * recovered from the journal must send that child once, with the next
+ * ChildID, and never the first again.  Also checks that no report is
+ * dropped when the order entry thread falls behind the trading thread.
+ * The trading threads are not started; the test runs their passes.
+ */
+public class SliceRecoveryTest {
+
+    /** Longest wait for a line, in milliseconds. */
+    private static final long WaitMS = 2000L;
+
+    /** Time between the slices of the test's orders. */
+    private static final long SliceNanos = 10000000000L;
+
+    /** A tick of the loops' TimingWheel and then some. */
+    private static long TickNanos;
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+        TickNanos = 2L * Configuration.getInstance().getInt("TIMERTICKMS") * 1000000L;
+
+        String base = new File(Check.TempDir("slicetest"), "orders").getPath();
+        Crash(base);
+
+        Check.Done("SliceRecoveryTest");
+    }
+
+    /**
+     * A logged on DefaultSession over a real connection, whose client
+     * end the test reads.
+     */
+    private static class Desk {
+        OrderSession Session;
+        Socket Client;
+        BufferedReader In;
+
+        Desk ( OrderSocket os, Trader t ) throws Exception {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            Client = new Socket("127.0.0.1", ( (InetSocketAddress)server.getLocalAddress() ).getPort());
+            Client.setSoTimeout(50);
+            In = new BufferedReader(new InputStreamReader(Client.getInputStream(),
+                                                          StandardCharsets.US_ASCII));
+
+            SocketChannel ch = server.accept();
+            ch.configureBlocking(false);
+            server.close();
+
+            Session = new OrderSession(os, ch, t, 0);
+            Check.Equal("", os.Logon(Session, OrderSocket.DefaultSession), "session logged on");
+        }
+
+        /**
+         * @param count Number of lines to wait for
+         * @return The lines written to the client, at least count of
+         * them unless they did not arrive in time
+         */
+        List<String> Lines ( int count ) throws Exception {
+            List<String> lines = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + WaitMS;
+
+            do {
+                Session.Write(System.currentTimeMillis(), System.nanoTime() + 1000000000L);
+                try {
+                    String line;
+                    while ( ( line = In.readLine() ) != null )
+                        lines.add(line);
+                } catch ( SocketTimeoutException e ) {
+                    // nothing more yet
+                }
+            } while ( lines.size() < count && System.currentTimeMillis() < deadline );
+
+            return lines;
+        }
+    }
+
+    /**
+     * @param lines SLICE lines
+     * @param field Name of a field
+     * @return The field of each line
+     */
+    private static List<String> Field ( List<String> lines, String field ) {
+        List<String> values = new ArrayList<>();
+        for ( String line : lines ) {
+            for ( String pair : line.split(",") )
+                if ( pair.startsWith(field + "=") )
+                    values.add(pair.substring(field.length() + 1));
+        }
+        return values;
+    }
+
+    /**
+     * @param t A Trader whose strategies are loaded
+     * @param id OrderID of a TWAP order
+     * @return Its trading thread
+     */
+    private static EventLoop Loop ( Trader t, String id ) {
+        Order o = t.getBlotter().Get(id);
+        return EventLoop.Owner(t.getLoops(), o.getSymbolID());
+    }
+
+    /**
+     * Sends a child, crashes between the next child and its report,
+     * and recovers.
+     *
+     * @param base Path and file name prefix of the journal
+     */
+    private static void Crash ( String base ) throws Exception {
+        Trader t1 = new Trader();
+        t1.LoadStrategies();
+        t1.Recover(base);
+        OrderSocket os1 = new OrderSocket("SliceRecoveryTest", t1);
+        Desk d1 = new Desk(os1, t1);
+        t1.SetOrderSocket(os1);
+
+        // sixty slices of SliceNanos each
+        Order a = Check.NewOrder("A", 600);
+        a.setDuration(600L);
+        Check.Equal("", t1.NewOrder(a), "order accepted");
+        String child = a.getInternalID() + ".";
+
+        EventLoop loop1 = Loop(t1, "A");
+        long start = System.nanoTime();
+        loop1.RunOnce(start);
+        loop1.RunOnce(start + TickNanos);
+        t1.Maintain();
+
+        List<String> lines = d1.Lines(1);
+        Check.Equal(1, lines.size(), "first child sent");
+        Check.Equal(Arrays.asList(child + "1"), Field(lines, "ChildID"), "first ChildID");
+        Check.Equal(Arrays.asList("10"), Field(lines, "Quantity"), "first child quantity");
+        Check.Equal(1, t1.getBlotter().Get("A").Progress.getChildren(), "first child journaled");
+
+        // the second child is decided, but its report is never taken
+        loop1.RunOnce(start + SliceNanos + TickNanos);
+        Check.That(!loop1.getProgress().isEmpty(), "second child reported");
+        Check.Equal(0, d1.Lines(0).size(), "second child not sent before it is journaled");
+
+        Trader t2 = new Trader();
+        t2.LoadStrategies();
+        t2.Recover(base);
+        OrderSocket os2 = new OrderSocket("SliceRecoveryTest", t2);
+        Desk d2 = new Desk(os2, t2);
+        t2.SetOrderSocket(os2);
+
+        Order r = t2.getBlotter().Get("A");
+        Check.That(r != null && r.getInternalID().equals(a.getInternalID()),
+                   "order recovered with its InternalID");
+        Check.Equal(1, r == null ? -1 : r.Progress.getChildren(), "recovered children");
+
+        EventLoop loop2 = Loop(t2, "A");
+        long now = System.nanoTime();
+        loop2.RunOnce(now);
+        t2.Maintain();
+        Check.Equal(0, d2.Lines(0).size(), "nothing sent again on recovery");
+
+        loop2.RunOnce(now + SliceNanos + TickNanos);
+        t2.Maintain();
+        lines = d2.Lines(1);
+        Check.Equal(Arrays.asList(child + "2"), Field(lines, "ChildID"), "second child sent once");
+        Check.Equal(Arrays.asList("2"), Field(lines, "Slice"), "second child's slice");
+        Check.Equal(Arrays.asList("10"), Field(lines, "Quantity"), "second child quantity");
+        Check.Equal(0L, t2.getSliceLostCount(), "no child lost");
+
+        Behind(t2, loop2, d2, now + 2 * SliceNanos);
+    }
+
+    /**
+     * Has more children reported at once than the trading thread's
+     * progress queue holds.  The order entry thread runs here rather
+     * than on the socket thread, so its children queue in the
+     * session's mailbox, which holds as many as the progress queue.
+     *
+     * @param t A Trader
+     * @param loop Its trading thread for symbol ABC
+     * @param d A logged on DefaultSession
+     * @param now Current time, past any child due so far
+     */
+    private static void Behind ( Trader t, EventLoop loop, Desk d, long now ) throws Exception {
+        int count = Configuration.getInstance().getInt("EVENTQUEUE") + 8;
+
+        // only the new orders' children are counted
+        Check.Equal("", t.CancelOrder("A"), "first order cancelled");
+        for ( int n = 0; n < count; n++ ) {
+            Order o = Check.NewOrder("B" + n, 600);
+            o.setDuration(600L);
+            t.NewOrder(o);
+            if ( n % 1000 == 999 )
+                loop.RunOnce(now);
+        }
+        loop.RunOnce(now);
+        loop.RunOnce(now + TickNanos);
+        Check.Equal(8, loop.getUnreportedCount(), "reports waiting for room");
+
+        Set<String> children = new HashSet<>();
+        for ( int pass = 0; pass < 3; pass++ ) {
+            t.Maintain();
+            children.addAll(Field(d.Lines(0), "ChildID"));
+            loop.RunOnce(now + TickNanos);
+        }
+        children.addAll(Field(d.Lines(count - children.size()), "ChildID"));
+
+        Check.Equal(0, loop.getUnreportedCount(), "waiting reports handed on");
+        Check.Equal(count, children.size(), "a child for every order");
+        Check.Equal(0L, t.getSliceLostCount(), "no child lost while behind");
+    }
+}
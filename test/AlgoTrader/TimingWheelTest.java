@@ -0,0 +1,241 @@
+/*
+ * TimingWheelTest.java
+ *
+ * Copyright (C) 2022 Michael Dinolfo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package AlgoTrader;
+
+import java.util.*;
+
+/**
+ * Tests the TimingWheel on a small wheel, with the time passed in
+ * rather than waited for: timers fire on the tick they are due and not
+ * a turn of the wheel early, and are cancelled and rescheduled, also
+ * while their slot is being walked, with TimerDue and the count kept
+ * right throughout.
+ */
+public class TimingWheelTest {
+
+    /** Slots of the wheel tested. */
+    private static final int Slots = 8;
+
+    /** Milliseconds per tick of the wheel tested. */
+    private static final int TickMS = 10;
+
+    /** System.nanoTime() just after the wheel was created, a little
+     *  after its tick 0 starts. */
+    private static long Origin;
+
+    public static void main ( String args[] ) throws Exception {
+        Check.Setup();
+
+        TimingWheel w = new TimingWheel(Slots, TickMS);
+        Origin = System.nanoTime();
+
+        Basics(w);
+        Revolutions(w);
+        DuringExpiry(w);
+        Many(w);
+
+        Check.Done("TimingWheelTest");
+    }
+
+    /**
+     * @param tick A tick of the wheel
+     * @return A time a timer due on the tick may be set for, a quarter
+     * of a tick before the tick starts by Origin
+     */
+    private static long At ( long tick ) {
+        return Origin + tick * TickMS * 1000000L - TickMS * 250000L;
+    }
+
+    /**
+     * @param tick A tick of the wheel
+     * @return The middle of the tick as System.nanoTime()
+     */
+    private static long During ( long tick ) {
+        return Origin + tick * TickMS * 1000000L + TickMS * 500000L;
+    }
+
+    /**
+     * @param w The wheel
+     * @param tick Tick to expire
+     * @return The orders expired by it, in the order returned
+     */
+    private static List<Order> Expire ( TimingWheel w, long tick ) {
+        List<Order> expired = new ArrayList<>();
+        Order o;
+        while ( ( o = w.Expire(During(tick)) ) != null )
+            expired.add(o);
+        return expired;
+    }
+
+    /**
+     * Schedules, expires and cancels a few timers.
+     */
+    private static void Basics ( TimingWheel w ) throws Exception {
+        Check.Equal(0, w.getCount(), "new wheel empty");
+        Check.Equal(0L, w.getDelay(During(0)), "no delay without timers");
+        Check.That(Expire(w, 0).isEmpty(), "nothing expires on an empty wheel");
+
+        Order a = Check.NewOrder("A", 1);
+        Order b = Check.NewOrder("B", 1);
+        Order c = Check.NewOrder("C", 1);
+        Order d = Check.NewOrder("D", 1);
+        Check.That(!w.isScheduled(a), "new order has no timer");
+
+        w.Schedule(a, At(3));
+        w.Schedule(b, At(3 + Slots));
+        w.Schedule(c, At(5));
+        w.Schedule(d, At(0) - 1000000000L);
+        Check.Equal(4, w.getCount(), "timers pending");
+        Check.Equal(3L, a.TimerDue, "due tick");
+        Check.Equal(3L + Slots, b.TimerDue, "due tick a turn later");
+        Check.Equal(1L, d.TimerDue, "time passed due on the next tick");
+        Check.That(w.isScheduled(a) && w.isScheduled(b) && w.isScheduled(c) && w.isScheduled(d),
+                   "orders scheduled");
+        long delay = w.getDelay(During(0));
+        Check.That(delay >= 1L && delay <= TickMS, "delay to the next tick, got " + delay);
+
+        Check.Equal(Arrays.asList(d), Expire(w, 1), "past time expired on the next tick");
+        Check.Equal(-1L, d.TimerDue, "expired timer cleared");
+        Check.That(!w.isScheduled(d), "expired order not scheduled");
+        Check.That(Expire(w, 2).isEmpty(), "nothing due on tick 2");
+
+        Check.Equal(Arrays.asList(a), Expire(w, 3), "only the timer due this turn expired");
+        Check.Equal(2, w.getCount(), "timers still pending");
+
+        w.Cancel(c);
+        Check.That(!w.isScheduled(c), "cancelled timer cleared");
+        Check.Equal(-1L, c.TimerDue, "cancelled TimerDue");
+        Check.Equal(1, w.getCount(), "cancel counted");
+        w.Cancel(c);
+        Check.Equal(1, w.getCount(), "second cancel does nothing");
+
+        w.Schedule(b, At(6));
+        Check.Equal(1, w.getCount(), "reschedule replaces the timer");
+        Check.Equal(6L, b.TimerDue, "rescheduled due tick");
+        Check.That(Expire(w, 5).isEmpty(), "cancelled timer does not expire");
+        Check.Equal(Arrays.asList(b), Expire(w, 6), "rescheduled timer expired");
+        Check.That(Expire(w, 3 + Slots).isEmpty(), "rescheduled timer gone from its old slot");
+        Check.Equal(0, w.getCount(), "wheel empty again");
+    }
+
+    /**
+     * Timers more than a turn of the wheel away, sharing slots with
+     * timers due sooner.
+     */
+    private static void Revolutions ( TimingWheel w ) throws Exception {
+        long now = 3 + Slots;
+        Order near = Check.NewOrder("NEAR", 1);
+        Order far = Check.NewOrder("FAR", 1);
+        Order farther = Check.NewOrder("FARTHER", 1);
+
+        w.Schedule(near, At(now + 2));
+        w.Schedule(far, At(now + 2 + Slots));
+        w.Schedule(farther, At(now + 2 + 2 * Slots));
+        Check.Equal(3, w.getCount(), "timers in one slot over three turns");
+
+        Check.Equal(Arrays.asList(near), Expire(w, now + 2), "first turn");
+        Check.That(Expire(w, now + 1 + Slots).isEmpty(), "nothing early on the second turn");
+        Check.Equal(Arrays.asList(far), Expire(w, now + 2 + Slots), "second turn");
+
+        // move the last timer back a turn, then forward three
+        w.Schedule(farther, At(now + 3 + Slots));
+        Check.Equal(now + 3 + Slots, farther.TimerDue, "moved back a turn");
+        w.Schedule(farther, At(now + 3 + 4 * Slots));
+        Check.Equal(1, w.getCount(), "moving a timer keeps one");
+        Check.That(Expire(w, now + 2 + 4 * Slots).isEmpty(), "moved timer not expired early");
+        Check.Equal(Arrays.asList(farther), Expire(w, now + 3 + 4 * Slots), "moved timer expired");
+        Check.Equal(0, w.getCount(), "wheel empty after the turns");
+    }
+
+    /**
+     * Cancels and reschedules timers while their slot is being walked,
+     * as strategies do from OnTimer.
+     */
+    private static void DuringExpiry ( TimingWheel w ) throws Exception {
+        long tick = 50;
+        Order e = Check.NewOrder("E", 1);
+        Order f = Check.NewOrder("F", 1);
+        Order g = Check.NewOrder("G", 1);
+
+        w.Schedule(e, At(tick));
+        w.Schedule(f, At(tick));
+        w.Schedule(g, At(tick));
+
+        Order first = w.Expire(During(tick));
+        Check.That(first == g, "newest timer of the slot walked first");
+
+        // cancel the timer the walk is at, and set the expired one
+        // again for now, which is the next tick
+        w.Cancel(f);
+        w.Schedule(first, During(tick));
+        Check.Equal(tick + 1, first.TimerDue, "timer set for now is due next tick");
+
+        Check.Equal(Arrays.asList(e), Expire(w, tick), "cancelled timer skipped in the slot being walked");
+        Check.Equal(Arrays.asList(first), Expire(w, tick + 1), "rescheduled timer expired next tick");
+        Check.Equal(0, w.getCount(), "wheel empty after the walk");
+    }
+
+    /**
+     * Timers spread over several turns, expired tick by tick.
+     */
+    private static void Many ( TimingWheel w ) throws Exception {
+        long start = 60;
+        int count = 200;
+        Random r = new Random(21);
+        Order[] orders = new Order[count];
+        long[] due = new long[count];
+
+        for ( int i = 0; i < count; i++ ) {
+            orders[i] = Check.NewOrder("M" + i, 1);
+            due[i] = start + 1 + r.nextInt(5 * Slots);
+            w.Schedule(orders[i], At(due[i]));
+        }
+
+        // cancel every third and move every fifth of the rest
+        int pending = count;
+        for ( int i = 0; i < count; i += 3 ) {
+            w.Cancel(orders[i]);
+            due[i] = -1L;
+            pending--;
+        }
+        for ( int i = 1; i < count; i += 5 ) {
+            if ( due[i] < 0L )
+                continue;
+            due[i] = start + 1 + r.nextInt(5 * Slots);
+            w.Schedule(orders[i], At(due[i]));
+        }
+        Check.Equal(pending, w.getCount(), "timers pending after cancels and moves");
+
+        boolean onTime = true;
+        int expired = 0;
+        for ( long tick = start + 1; tick <= start + 5 * Slots + 1; tick++ ) {
+            for ( Order o : Expire(w, tick) ) {
+                int i = Integer.parseInt(o.getOrderID().substring(1));
+                onTime &= due[i] == tick;
+                due[i] = -1L;
+                expired++;
+            }
+        }
+        Check.That(onTime, "every timer expired on its tick");
+        Check.Equal(pending, expired, "every pending timer expired once");
+        Check.Equal(0, w.getCount(), "wheel empty after expiring all");
+    }
+}